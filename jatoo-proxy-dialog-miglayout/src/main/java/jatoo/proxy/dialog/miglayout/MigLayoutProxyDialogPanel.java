@@ -33,7 +33,7 @@ import net.miginfocom.swing.MigLayout;
  * MigLayout implementation for {@link ProxyDialogPanel}.
  * 
  * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
- * @version 2.0, June 4, 2014
+ * @version 2.1, October 19, 2026
  */
 @SuppressWarnings("serial")
 public class MigLayoutProxyDialogPanel extends ProxyDialogPanel {
@@ -54,6 +54,9 @@ public class MigLayoutProxyDialogPanel extends ProxyDialogPanel {
   private JLabel passwordLabel;
   private JPasswordField passwordField;
 
+  private JLabel testTargetLabel;
+  private JTextField testTargetField;
+
   public MigLayoutProxyDialogPanel() {
 
     enabledCheckBox = new JCheckBox("Enabled", true);
@@ -72,6 +75,9 @@ public class MigLayoutProxyDialogPanel extends ProxyDialogPanel {
     passwordLabel = new JLabel("Password:");
     passwordField = new JPasswordField(20);
 
+    testTargetLabel = new JLabel("Test target:");
+    testTargetField = new JTextField(DEFAULT_TEST_TARGET, 20);
+
     setLayout(new MigLayout("wrap 2, insets 0", "[right][grow]", ""));
     add(enabledCheckBox, "left, spanx");
     add(hostLabel);
@@ -83,6 +89,8 @@ public class MigLayoutProxyDialogPanel extends ProxyDialogPanel {
     add(usernameField);
     add(passwordLabel);
     add(passwordField);
+    add(testTargetLabel);
+    add(testTargetField);
 
     enabledCheckBox.addItemListener(new ItemListener() {
       public void itemStateChanged(ItemEvent e) {
@@ -203,4 +211,14 @@ public class MigLayoutProxyDialogPanel extends ProxyDialogPanel {
     passwordField.setText(password);
   }
 
+  @Override
+  public String getTestTarget() {
+    return testTargetField.getText();
+  }
+
+  @Override
+  public void setTestTarget(String testTarget) {
+    testTargetField.setText(testTarget);
+  }
+
 }
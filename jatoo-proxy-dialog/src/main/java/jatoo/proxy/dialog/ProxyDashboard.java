@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy.dialog;
+
+import java.awt.Component;
+
+import javax.swing.BorderFactory;
+import javax.swing.JDialog;
+import javax.swing.SwingUtilities;
+
+/**
+ * Helper class to show a {@link ProxyDashboardPanel} in a (not modal)
+ * {@link JDialog}, for support to see, while the application runs, how the
+ * proxy servers behave.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public class ProxyDashboard {
+
+  /**
+   * Utility classes (classes that contain only static methods or fields in
+   * their API) do not have a public constructor.
+   */
+  private ProxyDashboard() {}
+
+  /**
+   * Shows the dashboard in the center of the screen.
+   */
+  public static void show() {
+    show(null);
+  }
+
+  /**
+   * Shows the dashboard relative to the specified owner. The dashboard
+   * starts empty, and shows the proxy servers as they are used.
+   */
+  public static void show(Component owner) {
+
+    JDialog dialog;
+
+    if (owner == null) {
+      dialog = new JDialog();
+    } else {
+      dialog = new JDialog(SwingUtilities.getWindowAncestor(owner));
+    }
+
+    ProxyDashboardPanel dashboardPanel = new ProxyDashboardPanel();
+    dashboardPanel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+
+    dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+    dialog.setTitle("Proxy Dashboard");
+    dialog.setContentPane(dashboardPanel);
+    dialog.pack();
+    dialog.setLocationRelativeTo(dialog.getOwner());
+    dialog.setModal(false);
+
+    dialog.setVisible(true);
+  }
+
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy.dialog;
+
+import jatoo.proxy.ProxyEvent;
+import jatoo.proxy.ProxyEventListener;
+import jatoo.proxy.ProxyEvents;
+import jatoo.proxy.ProxyLatencyHistogram;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.BorderFactory;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * A live view of the proxy servers in use: the connections per second, the
+ * error rate, the connect latency percentiles and the throughput of every
+ * proxy server, over the last minute.
+ * <p>
+ * The panel listens to the {@link ProxyEvents} while it is displayed. The
+ * events only update counters (on the threads of the connections); the
+ * table is refreshed by a timer, at most every {@value #REFRESH_INTERVAL} ms
+ * and only if something changed (or a slice of the minute went by), so a
+ * burst of connections never floods the EDT.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.1, October 19, 2026
+ */
+@SuppressWarnings("serial")
+public class ProxyDashboardPanel extends JPanel {
+
+  /** The shortest time between two refreshes, in milliseconds. */
+  public static final int REFRESH_INTERVAL = 500;
+
+  private static final long SLICE_NANOS = TimeUnit.SECONDS.toNanos(ProxyUpstreamWindow.SLICE_SECONDS);
+
+  private static final String[] COLUMN_NAMES = { "Proxy server", "Connections/s", "Errors", "p50 (ms)", "p90 (ms)", "p99 (ms)", "Throughput (KB/s)" };
+
+  /** The last minute of every proxy server, by <code>host:port</code>. */
+  private final ConcurrentMap<String, ProxyUpstreamWindow> windows = new ConcurrentHashMap<>();
+
+  /** <code>True</code> if an event came since the last refresh. */
+  private final AtomicBoolean changed = new AtomicBoolean();
+
+  private final ProxyEventListener listener = new ProxyEventListener() {
+    public void proxyEvent(ProxyEvent event) {
+      record(System.nanoTime(), event.getUpstream(), event.getType(), event.getDuration(), event.isSucceeded(), event.getBytes());
+    }
+  };
+
+  private final RowsModel model = new RowsModel();
+
+  private final JLabel statusLabel = new JLabel(" ");
+
+  private final Timer refreshTimer;
+
+  /** When the table was last refreshed. */
+  private long refreshTime;
+
+  /** A scratch histogram, for the refreshes. */
+  private final ProxyLatencyHistogram latencySum = new ProxyLatencyHistogram();
+
+  public ProxyDashboardPanel() {
+
+    JTable table = new JTable(model);
+    table.setPreferredScrollableViewportSize(new Dimension(700, 160));
+    table.setFillsViewportHeight(true);
+
+    refreshTimer = new Timer(REFRESH_INTERVAL, new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        refresh(System.nanoTime(), false);
+      }
+    });
+
+    statusLabel.setBorder(BorderFactory.createEmptyBorder(5, 0, 0, 0));
+
+    setLayout(new BorderLayout());
+    add(new JScrollPane(table), BorderLayout.CENTER);
+    add(statusLabel, BorderLayout.PAGE_END);
+  }
+
+  @Override
+  public void addNotify() {
+    super.addNotify();
+    ProxyEvents.addListener(listener);
+    refreshTimer.start();
+  }
+
+  @Override
+  public void removeNotify() {
+    refreshTimer.stop();
+    ProxyEvents.removeListener(listener);
+    super.removeNotify();
+  }
+
+  /**
+   * Records an event (on the thread of the connection).
+   */
+  void record(final long now, final String upstream, final ProxyEvent.Type type, final long duration, final boolean succeeded, final long bytes) {
+
+    if (upstream == null) {
+      return;
+    }
+
+    ProxyUpstreamWindow window = windows.get(upstream);
+
+    if (window == null) {
+
+      ProxyUpstreamWindow newWindow = new ProxyUpstreamWindow(now);
+      window = windows.putIfAbsent(upstream, newWindow);
+
+      if (window == null) {
+        window = newWindow;
+      }
+    }
+
+    window.record(now, type, duration, succeeded, bytes);
+
+    changed.lazySet(true);
+  }
+
+  /**
+   * Refreshes the table (on the EDT), if an event came or a slice went by
+   * since the last refresh.
+   * 
+   * @return <code>true</code> if the table was refreshed
+   */
+  boolean refresh(final long now, final boolean force) {
+
+    if (!changed.getAndSet(false) && !force && now - refreshTime < SLICE_NANOS) {
+      return false;
+    }
+
+    refreshTime = now;
+
+    List<ProxyUpstreamWindow.Row> rows = new ArrayList<>(windows.size());
+
+    for (Iterator<Map.Entry<String, ProxyUpstreamWindow>> i = windows.entrySet().iterator(); i.hasNext();) {
+
+      Map.Entry<String, ProxyUpstreamWindow> entry = i.next();
+
+      // forgotten after a quiet minute
+      if (entry.getValue().isIdle(now)) {
+        i.remove();
+        continue;
+      }
+
+      ProxyUpstreamWindow.Row row = new ProxyUpstreamWindow.Row();
+      row.upstream = entry.getKey();
+      entry.getValue().summarize(now, row, latencySum);
+
+      rows.add(row);
+    }
+
+    Collections.sort(rows, new Comparator<ProxyUpstreamWindow.Row>() {
+      public int compare(ProxyUpstreamWindow.Row row1, ProxyUpstreamWindow.Row row2) {
+        return row1.upstream.compareTo(row2.upstream);
+      }
+    });
+
+    model.setRows(rows);
+
+    statusLabel.setText(rows.isEmpty() ? "No connections in the last minute." : "The last minute, " + rows.size() + " proxy server(s).");
+
+    return true;
+  }
+
+  /**
+   * @return the rows shown
+   */
+  List<ProxyUpstreamWindow.Row> getRows() {
+    return model.rows;
+  }
+
+  /**
+   * The rows of the table.
+   */
+  private static final class RowsModel extends AbstractTableModel {
+
+    private List<ProxyUpstreamWindow.Row> rows = Collections.emptyList();
+
+    private void setRows(final List<ProxyUpstreamWindow.Row> newRows) {
+
+      boolean sameCount = newRows.size() == rows.size();
+
+      rows = newRows;
+
+      if (sameCount && !rows.isEmpty()) {
+        // keeps the selection
+        fireTableRowsUpdated(0, rows.size() - 1);
+      } else {
+        fireTableDataChanged();
+      }
+    }
+
+    @Override
+    public int getRowCount() {
+      return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+      return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(final int column) {
+      return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Object getValueAt(final int rowIndex, final int column) {
+
+      ProxyUpstreamWindow.Row row = rows.get(rowIndex);
+
+      switch (column) {
+      case 0:
+        return row.upstream;
+      case 1:
+        return String.format(Locale.ROOT, "%.1f", row.connectionsPerSecond);
+      case 2:
+        return String.format(Locale.ROOT, "%.1f%%", row.errorRate * 100);
+      case 3:
+        return millis(row.latencyP50);
+      case 4:
+        return millis(row.latencyP90);
+      case 5:
+        return millis(row.latencyP99);
+      case 6:
+        return String.format(Locale.ROOT, "%.1f", row.bytesPerSecond / 1024);
+      default:
+        throw new IllegalArgumentException("no column " + column);
+      }
+    }
+
+    private static String millis(final long micros) {
+      return micros == -1 ? "-" : String.format(Locale.ROOT, "%.1f", micros / 1000.0);
+    }
+  }
+
+}
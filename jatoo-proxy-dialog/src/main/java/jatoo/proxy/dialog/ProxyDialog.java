@@ -18,37 +18,58 @@
 package jatoo.proxy.dialog;
 
 import jatoo.proxy.Proxy;
+import jatoo.proxy.ProxyProbe;
+import jatoo.proxy.ProxyProbeResult;
 import jatoo.proxy.ProxyUtils;
 
 import java.awt.BorderLayout;
 import java.awt.Component;
+import java.awt.Container;
+import java.awt.FlowLayout;
 import java.awt.GridLayout;
+import java.awt.Window;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
 import javax.swing.JDialog;
+import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
  * Helper class to ease the Internet proxy configuration through a
- * {@link JDialog}.
+ * {@link JDialog}. The proxy is loaded, applied and stored in the background,
+ * so a slow (network) home directory never freezes the application. The
+ * entered proxy can be tested (also in the background) before it is applied.
+ * Applications opening the dialog often can {@link #prewarm()} it, to have it
+ * built once and reused.
  * 
  * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
- * @version 2.1, June 6, 2014
+ * @version 2.6, October 19, 2026
  */
 public class ProxyDialog {
 
@@ -80,6 +101,36 @@ public class ProxyDialog {
     PROXY_DIALOG_PANEL_FACTORY = dialogPanelFactoryList.get(0);
   }
 
+  /**
+   * Loads, applies and stores the proxy, one task at a time (so a store is
+   * never overtaken by the load of a later dialog), away from the EDT.
+   */
+  private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "jatoo-proxy-dialog");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  /**
+   * Runs the proxy tests, apart from {@link #EXECUTOR} (a slow proxy server
+   * should not delay the store of another dialog).
+   */
+  private static final ExecutorService TEST_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "jatoo-proxy-dialog-test");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  /**
+   * The dialog kept between shows, once {@link #prewarm() prewarmed}.
+   * Written on the EDT only.
+   */
+  private static volatile Instance reusableInstance;
+
   /**
    * Shows the dialog in the center of the screen.
    */
@@ -88,134 +139,579 @@ public class ProxyDialog {
   }
 
   /**
-   * Shows the dialog relative to the specified owner.
+   * Shows the dialog relative to the specified owner. The dialog opens right
+   * away, with the fields disabled until the stored proxy is loaded (in the
+   * background), and the proxy is applied and stored in the background too,
+   * with the progress shown in the dialog.
+   * <p>
+   * Once {@link #prewarm() prewarmed}, the same dialog is shown every time,
+   * only with the values of the fields reloaded.
    */
   public static synchronized void show(Component owner) {
 
-    JDialog dialogTmp;
+    Instance instance = reusableInstance;
 
-    if (owner == null) {
-      dialogTmp = new JDialog();
-    } else {
-      dialogTmp = new JDialog(SwingUtilities.getWindowAncestor(owner));
+    // not prewarmed, or already showing (shown again from inside itself)
+    if (instance == null || instance.isShowing()) {
+      instance = new Instance(false);
     }
 
-    final JDialog dialog = dialogTmp;
+    instance.show(owner == null ? null : SwingUtilities.getWindowAncestor(owner));
+  }
+
+  /**
+   * Builds the dialog ahead of its first show (on the EDT, as soon as it is
+   * idle), so the show does not pay for loading the panel, its layout manager
+   * and their classes, and keeps it to be reused by all the following shows.
+   * Can be called from any thread, usually once, at startup.
+   */
+  public static void prewarm() {
+    SwingUtilities.invokeLater(new Runnable() {
+      public void run() {
+        if (reusableInstance == null) {
+          reusableInstance = new Instance(true);
+        }
+      }
+    });
+  }
+
+  /**
+   * @return <code>true</code> if the dialog was {@link #prewarm() prewarmed}
+   *         (and is reused)
+   */
+  public static boolean isPrewarmed() {
+    return reusableInstance != null;
+  }
+
+  /**
+   * The components of a dialog, with the listeners between them, built once
+   * and shown as many times as needed (a dialog not prewarmed is shown once).
+   */
+  private static final class Instance {
+
+    private final boolean reusable;
+
+    private final ProxyDialogPanel dialogPanel;
+
+    private final JLabel progressLabel;
+    private final JProgressBar progressBar;
+
+    private final JButton testButton;
+    private final JButton okButton;
+    private final JButton cancelButton;
+
+    private final JPanel contentPane;
+
+    /** The dialog, rebuilt only when shown for another owner. */
+    private JDialog dialog;
+    private Window dialogOwner;
+
+    /** The test running, if any. */
+    private ProxyProbe runningProbe;
+
+    /**
+     * The number of loads and applies not done yet (a dialog cancelled while
+     * loading can be shown again, and load again, before the first load is
+     * done).
+     */
+    private int runningTasks;
+
+    /**
+     * The states of the fields before the first of the running tasks disabled
+     * them, restored when the last one is done.
+     */
+    private Map<Component, Boolean> savedEnabledStates;
+
+    private Instance(final boolean reusable) {
+
+      this.reusable = reusable;
+
+      //
+      // the panel
+
+      dialogPanel = PROXY_DIALOG_PANEL_FACTORY.createDialogPanel();
+
+      //
+      // the progress
+
+      progressLabel = new JLabel();
+
+      progressBar = new JProgressBar();
+      progressBar.setIndeterminate(true);
+      progressBar.setVisible(false);
+
+      //
+      // buttons
+
+      testButton = new JButton("Test");
+      testButton.addActionListener(new ActionListener() {
+        public void actionPerformed(ActionEvent ev) {
+          test();
+        }
+      });
+
+      okButton = new JButton("Ok");
+      okButton.addActionListener(new ActionListener() {
+        public void actionPerformed(ActionEvent ev) {
+          apply();
+        }
+      });
+
+      cancelButton = new JButton("Cancel");
+      cancelButton.addActionListener(new ActionListener() {
+        public void actionPerformed(ActionEvent e) {
+          close();
+        }
+      });
+
+      //
+      // layout
 
-    //
-    // the panel
+      dialogPanel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
 
-    final ProxyDialogPanel dialogPanel = PROXY_DIALOG_PANEL_FACTORY.createDialogPanel();
+      JPanel buttonsGroup = new JPanel(new GridLayout(1, 3, 5, 5));
+      buttonsGroup.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+      buttonsGroup.add(testButton);
+      buttonsGroup.add(okButton);
+      buttonsGroup.add(cancelButton);
 
-    try {
+      JPanel progressGroup = new JPanel(new FlowLayout(FlowLayout.LEADING, 5, 0));
+      progressGroup.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+      progressGroup.add(progressBar);
+      progressGroup.add(progressLabel);
 
-      Proxy proxy = new Proxy();
-      proxy.load();
+      JPanel buttonsPanel = new JPanel(new BorderLayout());
+      buttonsPanel.add(progressGroup, BorderLayout.CENTER);
+      buttonsPanel.add(buttonsGroup, BorderLayout.LINE_END);
 
-      dialogPanel.setProxyEnabled(proxy.isEnabled());
-      dialogPanel.setHost(proxy.getHost());
-      dialogPanel.setPort(proxy.getPort());
-      dialogPanel.setProxyRequiringAuthentication(proxy.isRequiringAuthentication());
-      dialogPanel.setUsername(proxy.getUsername());
-      dialogPanel.setPassword(proxy.getPassword());
+      contentPane = new JPanel(new BorderLayout());
+      contentPane.add(dialogPanel, BorderLayout.CENTER);
+      contentPane.add(buttonsPanel, BorderLayout.PAGE_END);
+
+      if (reusable) {
+        // the peers too, for the first show
+        createDialog(null);
+        dialog.addNotify();
+      }
     }
 
-    catch (FileNotFoundException e) {
-      // do nothing, maybe is the first time and the file is missing
+    private boolean isShowing() {
+      return dialog != null && dialog.isShowing();
     }
 
-    catch (Exception e) {
-      logger.error("Failed to load the properties.", e);
+    private int getCloseOperation() {
+      return reusable ? JDialog.HIDE_ON_CLOSE : JDialog.DISPOSE_ON_CLOSE;
     }
 
-    //
-    // buttons
+    private void createDialog(final Window owner) {
+
+      if (dialog != null) {
+        dialog.dispose();
+      }
+
+      if (owner == null) {
+        dialog = new JDialog();
+      } else {
+        dialog = new JDialog(owner);
+      }
+
+      dialogOwner = owner;
+
+      dialog.setDefaultCloseOperation(getCloseOperation());
+      dialog.setTitle("Proxy Settings");
+      dialog.setContentPane(contentPane);
+      dialog.pack();
+      dialog.setModal(true);
+
+      // closed or hidden, the test is no longer needed
+      dialog.addComponentListener(new ComponentAdapter() {
+        public void componentHidden(ComponentEvent e) {
+          if (runningProbe != null) {
+            runningProbe.cancel();
+          }
+        }
+      });
+    }
 
-    JButton okButton = new JButton("Ok");
-    okButton.addActionListener(new ActionListener() {
-      public void actionPerformed(ActionEvent ev) {
+    private void show(final Window owner) {
 
-        try {
+      if (dialog == null || dialogOwner != owner) {
+        createDialog(owner);
+      }
+
+      load();
+
+      //
+      // and show
+
+      dialog.setLocationRelativeTo(dialog.getOwner());
+      dialog.setVisible(true);
+    }
+
+    private void close() {
+      if (reusable) {
+        dialog.setVisible(false);
+      } else {
+        dialog.dispose();
+      }
+    }
+
+    /**
+     * Disables the fields (saving their states, unless a task is running
+     * already, with them disabled) and shows the progress of a task.
+     */
+    private void startTask(final String text) {
+
+      if (runningTasks++ == 0) {
+        savedEnabledStates = disable(dialogPanel);
+      }
 
-          if (dialogPanel.isProxyEnabled()) {
+      okButton.setEnabled(false);
+      testButton.setEnabled(false);
+      showProgress(progressLabel, progressBar, text);
+    }
+
+    /**
+     * Ends a task, and restores the fields if it was the last one running.
+     * 
+     * @return <code>true</code> if it was the last one running
+     */
+    private boolean endTask() {
+
+      if (--runningTasks > 0) {
+        return false;
+      }
+
+      hideProgress(progressLabel, progressBar);
+
+      enable(savedEnabledStates);
+      savedEnabledStates = null;
+
+      okButton.setEnabled(runningProbe == null);
+      testButton.setEnabled(true);
+
+      return true;
+    }
+
+    /**
+     * Loads the stored proxy (the dialog shows the placeholder state
+     * meanwhile).
+     */
+    private void load() {
+
+      startTask("Loading...");
+
+      EXECUTOR.execute(new SwingWorker<Proxy, Void>() {
+
+        @Override
+        protected Proxy doInBackground() throws Exception {
+
+          Proxy proxy = new Proxy();
+
+          try {
+            proxy.load();
+          }
+
+          catch (FileNotFoundException e) {
+            // do nothing, maybe is the first time and the file is missing
+            return null;
+          }
+
+          return proxy;
+        }
+
+        @Override
+        protected void done() {
+
+          // restored first, so the panel updates them from the loaded values
+          // (and left to the load of the next show, if there is one)
+          if (!endTask()) {
+            return;
+          }
 
-            if (dialogPanel.isProxyRequiringAuthentication()) {
-              ProxyUtils.setProxy(dialogPanel.getHost(), dialogPanel.getPort(), dialogPanel.getUsername(), dialogPanel.getPassword());
-            } else {
-              ProxyUtils.setProxy(dialogPanel.getHost(), dialogPanel.getPort());
+          try {
+
+            Proxy proxy = get();
+
+            if (proxy != null) {
+              dialogPanel.setProxyEnabled(proxy.isEnabled());
+              dialogPanel.setHost(proxy.getHost());
+              dialogPanel.setPort(proxy.getPort());
+              dialogPanel.setProxyRequiringAuthentication(proxy.isRequiringAuthentication());
+              dialogPanel.setUsername(proxy.getUsername());
+              dialogPanel.setPassword(proxy.getPassword());
+              dialogPanel.setProxyType(proxy.getType());
+              dialogPanel.setProxySecure(proxy.isSecure());
             }
           }
 
-          else {
-            ProxyUtils.removeProxy();
+          catch (ExecutionException e) {
+            logger.error("Failed to load the properties.", e.getCause());
           }
 
-          dialog.dispose();
+          catch (InterruptedException e) {
+            // not possible, the task is done
+          }
         }
+      });
+    }
+
+    /**
+     * Tests the entered proxy, or stops the running test.
+     */
+    private void test() {
+
+      if (runningProbe != null) {
+        runningProbe.cancel();
+        return;
+      }
 
-        catch (Exception e) {
-          JOptionPane.showMessageDialog(dialog, "Failed to set the proxy:\n" + e.toString());
-          return;
+      final ProxyProbe probe;
+
+      // the values are read here, on the EDT
+      try {
+
+        String testTarget = dialogPanel.getTestTarget().trim();
+        int colonIndex = testTarget.lastIndexOf(':');
+
+        if (colonIndex < 1) {
+          throw new IllegalArgumentException("the test target should be host:port");
         }
 
-        try {
+        probe = new ProxyProbe(readProxy(dialogPanel), testTarget.substring(0, colonIndex), Integer.parseInt(testTarget.substring(colonIndex + 1)));
+      }
 
-          Proxy proxy = new Proxy();
+      catch (Exception e) {
+        JOptionPane.showMessageDialog(dialog, "Failed to test the proxy:\n" + e.toString());
+        return;
+      }
 
-          proxy.setEnabled(dialogPanel.isProxyEnabled());
-          proxy.setUsername(dialogPanel.getUsername());
-          proxy.setPassword(dialogPanel.getPassword());
-          proxy.setRequiringAuthentication(dialogPanel.isProxyRequiringAuthentication());
-          proxy.setHost(dialogPanel.getHost());
-          proxy.setPort(dialogPanel.getPort());
+      runningProbe = probe;
+      testButton.setText("Stop");
+      okButton.setEnabled(false);
+      showProgress(progressLabel, progressBar, "Testing...");
 
-          proxy.store();
+      TEST_EXECUTOR.execute(new SwingWorker<ProxyProbeResult, Void>() {
+
+        @Override
+        protected ProxyProbeResult doInBackground() {
+          return probe.run();
         }
 
-        catch (Exception e) {
-          logger.error("Failed to save the properties.", e);
+        @Override
+        protected void done() {
+
+          runningProbe = null;
+          testButton.setText("Test");
+
+          // cancelled by a close, and the dialog loading again meanwhile
+          if (runningTasks > 0) {
+            return;
+          }
+
+          okButton.setEnabled(true);
+          hideProgress(progressLabel, progressBar);
+
+          try {
+            progressLabel.setText(describe(get()));
+          }
+
+          catch (ExecutionException e) {
+            logger.error("Failed to test the proxy.", e.getCause());
+          }
+
+          catch (InterruptedException e) {
+            // not possible, the task is done
+          }
         }
+      });
+    }
+
+    /**
+     * Applies and stores the entered proxy, and closes the dialog.
+     */
+    private void apply() {
+
+      final Proxy proxy;
+
+      // the values are read here, on the EDT
+      try {
+        proxy = readProxy(dialogPanel);
       }
-    });
 
-    JButton cancelButton = new JButton("Cancel");
-    cancelButton.addActionListener(new ActionListener() {
-      public void actionPerformed(ActionEvent e) {
-        dialog.dispose();
+      catch (Exception e) {
+        JOptionPane.showMessageDialog(dialog, "Failed to set the proxy:\n" + e.toString());
+        return;
       }
-    });
 
-    //
-    // layout dialog
+      startTask("Applying...");
+
+      // the proxy is applied and stored once started, so no cancel meanwhile
+      cancelButton.setEnabled(false);
+      dialog.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+
+      EXECUTOR.execute(new SwingWorker<Void, String>() {
+
+        /** The failure applying the proxy, if any. */
+        private Exception applyFailure;
+
+        @Override
+        protected Void doInBackground() {
+
+          // of its type, and refused if secure (rather than used in clear)
+          try {
+            ProxyUtils.setProxy(proxy);
+          }
+
+          catch (Exception e) {
+            applyFailure = e;
+            return null;
+          }
+
+          publish("Saving...");
+
+          try {
+            proxy.store();
+          }
+
+          catch (Exception e) {
+            logger.error("Failed to save the properties.", e);
+          }
+
+          return null;
+        }
+
+        @Override
+        protected void process(List<String> chunks) {
+          showProgress(progressLabel, progressBar, chunks.get(chunks.size() - 1));
+        }
+
+        @Override
+        protected void done() {
 
-    dialogPanel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+          cancelButton.setEnabled(true);
+          dialog.setDefaultCloseOperation(getCloseOperation());
 
-    JPanel buttonsGroup = new JPanel(new GridLayout(1, 2, 5, 5));
-    buttonsGroup.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
-    buttonsGroup.add(okButton);
-    buttonsGroup.add(cancelButton);
+          endTask();
 
-    JPanel buttonsPanel = new JPanel(new BorderLayout());
-    buttonsPanel.add(buttonsGroup, BorderLayout.LINE_END);
+          if (applyFailure == null) {
+            close();
+            return;
+          }
 
-    JPanel contentPane = new JPanel(new BorderLayout());
-    contentPane.add(dialogPanel, BorderLayout.CENTER);
-    contentPane.add(buttonsPanel, BorderLayout.PAGE_END);
+          JOptionPane.showMessageDialog(dialog, "Failed to set the proxy:\n" + applyFailure.toString());
+        }
+      });
+    }
+  }
+
+  /**
+   * Reads the proxy from the panel (on the EDT).
+   */
+  private static Proxy readProxy(final ProxyDialogPanel dialogPanel) {
 
-    //
-    // setup dialog
+    Proxy proxy = new Proxy();
 
-    dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
-    dialog.setTitle("Proxy Settings");
-    dialog.setContentPane(contentPane);
-    dialog.pack();
-    dialog.setLocationRelativeTo(dialog.getOwner());
-    dialog.setModal(true);
+    proxy.setEnabled(dialogPanel.isProxyEnabled());
+    proxy.setUsername(dialogPanel.getUsername());
+    proxy.setPassword(dialogPanel.getPassword());
+    proxy.setRequiringAuthentication(dialogPanel.isProxyRequiringAuthentication());
+    proxy.setHost(dialogPanel.getHost());
+    proxy.setPort(dialogPanel.getPort());
+    proxy.setType(dialogPanel.getProxyType());
+    proxy.setSecure(dialogPanel.isProxySecure());
 
-    //
-    // and show
+    return proxy;
+  }
+
+  /**
+   * Describes the outcome of a proxy test, in one line.
+   */
+  private static String describe(final ProxyProbeResult result) {
+
+    if (result.isCancelled()) {
+      return "Test cancelled.";
+    }
+
+    StringBuilder text = new StringBuilder();
+
+    if (result.getConnectTime() == -1) {
+      text.append("Not connected: ").append(result.getFailure().getMessage());
+      return text.toString();
+    }
+
+    text.append("Connected in ").append(TimeUnit.NANOSECONDS.toMillis(result.getConnectTime())).append(" ms");
+
+    if (result.getTimeToFirstByte() != -1) {
+      text.append(", first byte in ").append(TimeUnit.NANOSECONDS.toMillis(result.getTimeToFirstByte())).append(" ms");
+    }
+
+    switch (result.getAuthentication()) {
+    case ACCEPTED:
+      text.append(", credentials accepted");
+      break;
+    case REJECTED:
+      text.append(", credentials rejected");
+      break;
+    default:
+      break;
+    }
+
+    if (!result.isSuccessful() && result.getAuthentication() != ProxyProbeResult.Authentication.REJECTED) {
+      text.append(", failed: ").append(result.getFailure().getMessage());
+    }
+
+    return text.append('.').toString();
+  }
 
-    dialog.setVisible(true);
+  /**
+   * Shows a task in progress.
+   */
+  private static void showProgress(final JLabel progressLabel, final JProgressBar progressBar, final String text) {
+    progressLabel.setText(text);
+    progressBar.setVisible(true);
+  }
+
+  /**
+   * Hides the progress, once the task is done.
+   */
+  private static void hideProgress(final JLabel progressLabel, final JProgressBar progressBar) {
+    progressLabel.setText(null);
+    progressBar.setVisible(false);
+  }
+
+  /**
+   * Disables a component and all its children, and returns their previous
+   * states (to be {@link #enable(Map) restored}).
+   */
+  private static Map<Component, Boolean> disable(final Component component) {
+
+    Map<Component, Boolean> enabledStates = new LinkedHashMap<>();
+
+    disable(component, enabledStates);
+
+    return enabledStates;
+  }
+
+  private static void disable(final Component component, final Map<Component, Boolean> enabledStates) {
+
+    enabledStates.put(component, component.isEnabled());
+    component.setEnabled(false);
+
+    if (component instanceof Container) {
+      for (Component child : ((Container) component).getComponents()) {
+        disable(child, enabledStates);
+      }
+    }
+  }
+
+  /**
+   * Restores the states saved by {@link #disable(Component)}.
+   */
+  private static void enable(final Map<Component, Boolean> enabledStates) {
+    for (Map.Entry<Component, Boolean> entry : enabledStates.entrySet()) {
+      entry.getKey().setEnabled(entry.getValue());
+    }
   }
 
 }
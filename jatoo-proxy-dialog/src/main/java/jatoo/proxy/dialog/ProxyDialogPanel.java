@@ -17,17 +17,26 @@
 
 package jatoo.proxy.dialog;
 
+import jatoo.proxy.ProxyType;
+
 import javax.swing.JPanel;
 
 /**
  * The panel used by {@link ProxyDialog} to layout the graphical components.
  * 
  * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
- * @version 3.0, June 4, 2014
+ * @version 3.2, October 19, 2026
  */
 @SuppressWarnings("serial")
 public abstract class ProxyDialogPanel extends JPanel {
 
+  /** The server the "Test" button connects to, through the proxy. */
+  public static final String DEFAULT_TEST_TARGET = "www.google.com:443";
+
+  /** The type and the TLS flag, kept for panels without fields for them. */
+  private ProxyType proxyType = ProxyType.HTTP;
+  private boolean proxySecure;
+
   public abstract boolean isProxyEnabled();
 
   public abstract void setProxyEnabled(boolean enabled);
@@ -52,4 +61,41 @@ public abstract class ProxyDialogPanel extends JPanel {
 
   public abstract void setPassword(String password);
 
+  /**
+   * Returns the server (as <code>host:port</code>) the proxy is tested
+   * against. Panels without a field for it test against
+   * {@link #DEFAULT_TEST_TARGET}.
+   */
+  public String getTestTarget() {
+    return DEFAULT_TEST_TARGET;
+  }
+
+  public void setTestTarget(String testTarget) {}
+
+  /**
+   * Returns the type of the proxy. Panels without a field for it return the
+   * type last set (the one of the loaded proxy), so it is stored back as it
+   * was.
+   */
+  public ProxyType getProxyType() {
+    return proxyType;
+  }
+
+  public void setProxyType(ProxyType proxyType) {
+    this.proxyType = proxyType == null ? ProxyType.HTTP : proxyType;
+  }
+
+  /**
+   * Returns <code>true</code> if the connections to the proxy use TLS. Panels
+   * without a field for it return the flag last set (the one of the loaded
+   * proxy), so it is stored back as it was.
+   */
+  public boolean isProxySecure() {
+    return proxySecure;
+  }
+
+  public void setProxySecure(boolean proxySecure) {
+    this.proxySecure = proxySecure;
+  }
+
 }
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy.dialog;
+
+import jatoo.proxy.ProxyEvent;
+import jatoo.proxy.ProxyLatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The last minute of one proxy server, for {@link ProxyDashboardPanel}: the
+ * connections, the failures, the bytes relayed and the connect latencies,
+ * kept in {@value #SLICES} slices of {@value #SLICE_SECONDS} seconds (the
+ * oldest slice is reused, so nothing is allocated once created).
+ * <p>
+ * The latencies of a slice are kept in a {@link ProxyLatencyHistogram}, and
+ * the histograms of the minute are summed for the percentiles.
+ * <p>
+ * The events are recorded without locking (on the threads of the
+ * connections, while the EDT summarizes): the recordings racing with the
+ * reuse of the oldest slice may be lost, a few events once every
+ * {@value #SLICE_SECONDS} seconds.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.1, October 19, 2026
+ */
+final class ProxyUpstreamWindow {
+
+  static final int SLICES = 12;
+  static final int SLICE_SECONDS = 5;
+
+  private static final long SLICE_NANOS = TimeUnit.SECONDS.toNanos(SLICE_SECONDS);
+
+  /** The slice number (the time divided by the slice duration) of every slice. */
+  private final AtomicLongArray sliceNumbers = new AtomicLongArray(SLICES);
+
+  private final AtomicIntegerArray connections = new AtomicIntegerArray(SLICES);
+  private final AtomicIntegerArray failures = new AtomicIntegerArray(SLICES);
+  private final AtomicLongArray bytes = new AtomicLongArray(SLICES);
+  private final ProxyLatencyHistogram[] latencies = new ProxyLatencyHistogram[SLICES];
+
+  /** When the first event was recorded. */
+  private final long creationTime;
+
+  ProxyUpstreamWindow(final long now) {
+
+    creationTime = now;
+
+    for (int i = 0; i < SLICES; i++) {
+      sliceNumbers.set(i, Long.MIN_VALUE);
+      latencies[i] = new ProxyLatencyHistogram();
+    }
+  }
+
+  /**
+   * Records the end of a phase.
+   * 
+   * @param now
+   *          the current time, in nanoseconds
+   * @param type
+   *          the phase
+   * @param duration
+   *          the duration of the phase, in nanoseconds
+   * @param succeeded
+   *          <code>true</code> if the phase succeeded
+   * @param relayed
+   *          the bytes relayed (for a tunnel)
+   */
+  void record(final long now, final ProxyEvent.Type type, final long duration, final boolean succeeded, final long relayed) {
+
+    int slice = slice(now);
+
+    switch (type) {
+
+    case CONNECTION:
+      connections.incrementAndGet(slice);
+      if (succeeded) {
+        latencies[slice].record(duration);
+      } else {
+        failures.incrementAndGet(slice);
+      }
+      break;
+
+    case TLS_HANDSHAKE:
+    case PROXY_HANDSHAKE:
+      if (!succeeded) {
+        failures.incrementAndGet(slice);
+      }
+      break;
+
+    case TUNNEL:
+      bytes.addAndGet(slice, relayed);
+      break;
+
+    default:
+      break;
+    }
+  }
+
+  /**
+   * Sums the slices of the last minute.
+   * 
+   * @param now
+   *          the current time, in nanoseconds
+   * @param row
+   *          receives the sums
+   * @param latencySum
+   *          a scratch histogram (reset, then summed into)
+   */
+  void summarize(final long now, final Row row, final ProxyLatencyHistogram latencySum) {
+
+    long current = now / SLICE_NANOS;
+
+    long connectionSum = 0;
+    long failureSum = 0;
+    long byteSum = 0;
+
+    latencySum.reset();
+
+    for (int slice = 0; slice < SLICES; slice++) {
+
+      if (sliceNumbers.get(slice) <= current - SLICES) {
+        continue;
+      }
+
+      connectionSum += connections.get(slice);
+      failureSum += failures.get(slice);
+      byteSum += bytes.get(slice);
+
+      latencySum.add(latencies[slice]);
+    }
+
+    // a window younger than a minute is not diluted over the whole minute
+    double seconds = Math.max(SLICE_SECONDS, Math.min(SLICES * SLICE_SECONDS, (now - creationTime) / 1e9));
+
+    row.connectionsPerSecond = connectionSum / seconds;
+    row.errorRate = connectionSum == 0 ? (failureSum == 0 ? 0 : 1) : Math.min(1, (double) failureSum / connectionSum);
+    row.bytesPerSecond = byteSum / seconds;
+
+    row.latencyP50 = quantile(latencySum, 0.5);
+    row.latencyP90 = quantile(latencySum, 0.9);
+    row.latencyP99 = quantile(latencySum, 0.99);
+  }
+
+  /**
+   * @return <code>true</code> if nothing was recorded in the last minute
+   */
+  boolean isIdle(final long now) {
+
+    long current = now / SLICE_NANOS;
+
+    for (int slice = 0; slice < SLICES; slice++) {
+      if (sliceNumbers.get(slice) > current - SLICES) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the slice of the specified time, cleared if it held an older
+   * slice (by the thread that claims it first).
+   */
+  private int slice(final long now) {
+
+    long number = now / SLICE_NANOS;
+    int slice = (int) (number % SLICES);
+
+    long current = sliceNumbers.get(slice);
+
+    if (current < number && sliceNumbers.compareAndSet(slice, current, number)) {
+
+      connections.set(slice, 0);
+      failures.set(slice, 0);
+      bytes.set(slice, 0);
+
+      latencies[slice].reset();
+    }
+
+    return slice;
+  }
+
+  /**
+   * @return the latency, in microseconds, or <code>-1</code> if no latency
+   *         was recorded
+   */
+  private static long quantile(final ProxyLatencyHistogram latencies, final double quantile) {
+    return latencies.getCount() == 0 ? -1 : latencies.getQuantile(quantile);
+  }
+
+  /**
+   * The figures of a proxy server, as shown by the dashboard.
+   */
+  static final class Row {
+
+    String upstream;
+
+    double connectionsPerSecond;
+    double errorRate;
+    double bytesPerSecond;
+
+    /** In microseconds, <code>-1</code> if unknown. */
+    long latencyP50;
+    long latencyP90;
+    long latencyP99;
+  }
+
+}
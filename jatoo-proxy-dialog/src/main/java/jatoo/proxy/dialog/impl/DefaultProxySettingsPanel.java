@@ -32,7 +32,7 @@ import javax.swing.JTextField;
  * Default implementation for {@link ProxyDialogPanel}.
  * 
  * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
- * @version 2.0, June 4, 2014
+ * @version 2.1, October 19, 2026
  */
 @SuppressWarnings("serial")
 public class DefaultProxySettingsPanel extends ProxyDialogPanel {
@@ -53,6 +53,9 @@ public class DefaultProxySettingsPanel extends ProxyDialogPanel {
   private JLabel passwordLabel;
   private JPasswordField passwordField;
 
+  private JLabel testTargetLabel;
+  private JTextField testTargetField;
+
   public DefaultProxySettingsPanel() {
 
     enabledCheckBox = new JCheckBox("Enabled", true);
@@ -71,7 +74,10 @@ public class DefaultProxySettingsPanel extends ProxyDialogPanel {
     passwordLabel = new JLabel("Password:");
     passwordField = new JPasswordField();
 
-    setLayout(new GridLayout(6, 2, 3, 3));
+    testTargetLabel = new JLabel("Test target:");
+    testTargetField = new JTextField(DEFAULT_TEST_TARGET);
+
+    setLayout(new GridLayout(7, 2, 3, 3));
     add(enabledCheckBox);
     add(new JLabel());
     add(hostLabel);
@@ -84,6 +90,8 @@ public class DefaultProxySettingsPanel extends ProxyDialogPanel {
     add(usernameField);
     add(passwordLabel);
     add(passwordField);
+    add(testTargetLabel);
+    add(testTargetField);
 
     enabledCheckBox.addItemListener(new ItemListener() {
       public void itemStateChanged(ItemEvent e) {
@@ -204,4 +212,14 @@ public class DefaultProxySettingsPanel extends ProxyDialogPanel {
     passwordField.setText(password);
   }
 
+  @Override
+  public String getTestTarget() {
+    return testTargetField.getText();
+  }
+
+  @Override
+  public void setTestTarget(String testTarget) {
+    testTargetField.setText(testTarget);
+  }
+
 }
@@ -0,0 +1,660 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy.dialog.profiles;
+
+import jatoo.proxy.Proxy;
+import jatoo.proxy.ProxyProbe;
+import jatoo.proxy.ProxyProfile;
+import jatoo.proxy.ProxyProfileStore;
+import jatoo.proxy.ProxyType;
+import jatoo.proxy.dialog.ProxyDialogPanel;
+import jatoo.proxy.dialog.impl.DefaultProxySettingsPanel;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A {@link ProxyDialogPanel} for operators managing many proxy servers: the
+ * profiles of a {@link ProxyProfileStore} are listed in a table (filtered as
+ * the text is typed, sorted by clicking a column header, both in the
+ * background), with the health and the latency of every proxy server. The
+ * selected profile is edited below: "Save" writes it back to the store
+ * ("New" starts a new one), "Delete" removes the selected profiles, and the
+ * dialog applies the edited proxy (with its type and TLS flag) on OK.
+ * <p>
+ * Only the password of the selected profile is decrypted.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.1, October 19, 2026
+ */
+@SuppressWarnings("serial")
+public class ProxyProfilesDialogPanel extends ProxyDialogPanel {
+
+  /** the logger */
+  private static final Log logger = LogFactory.getLog(ProxyProfilesDialogPanel.class);
+
+  /** How often the live columns of the rows on screen are repainted. */
+  private static final int REFRESH_INTERVAL = 1000;
+
+  /** The most proxy servers checked at the same time. */
+  private static final int MAX_CONCURRENT_CHECKS = 8;
+
+  /**
+   * Checks the proxy servers of the selected profiles.
+   */
+  private static final ExecutorService CHECK_EXECUTOR = Executors.newFixedThreadPool(MAX_CONCURRENT_CHECKS, new ThreadFactory() {
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "jatoo-proxy-profiles-check");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private final ProxyProfileStore store;
+
+  private final ProxyProfilesTableModel model = new ProxyProfilesTableModel();
+
+  private final JTextField filterField;
+  private final JLabel statusLabel;
+  private final JTable table;
+
+  /** Edits the selected profile. */
+  private final DefaultProxySettingsPanel editor;
+  private final JTextField nameField;
+  private final JComboBox<ProxyType> typeComboBox;
+  private final JCheckBox secureCheckBox;
+
+  private final JButton newButton;
+  private final JButton saveButton;
+  private final JButton deleteButton;
+
+  /** The profile in the editor, or <code>null</code> for a new one. */
+  private ProxyProfile editedProfile;
+
+  /** Repaints the live columns of the rows on screen. */
+  private final Timer refreshTimer;
+
+  /**
+   * Creates a new panel, for the profiles of the
+   * {@link ProxyProfileStore#DEFAULT_FILE}.
+   */
+  public ProxyProfilesDialogPanel() {
+    this(new ProxyProfileStore());
+  }
+
+  /**
+   * Creates a new panel, loading the profiles in the background.
+   * 
+   * @param store
+   *          the profiles
+   */
+  public ProxyProfilesDialogPanel(final ProxyProfileStore store) {
+
+    this.store = store;
+
+    filterField = new JTextField(20);
+    filterField.getDocument().addDocumentListener(new DocumentListener() {
+
+      public void insertUpdate(DocumentEvent e) {
+        filter();
+      }
+
+      public void removeUpdate(DocumentEvent e) {
+        filter();
+      }
+
+      public void changedUpdate(DocumentEvent e) {
+        filter();
+      }
+    });
+
+    statusLabel = new JLabel("Loading...");
+
+    table = new JTable(model);
+    table.setAutoCreateRowSorter(false);
+    table.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+    table.setFillsViewportHeight(true);
+    table.setPreferredScrollableViewportSize(new Dimension(600, 250));
+
+    table.getTableHeader().addMouseListener(new MouseAdapter() {
+      public void mouseClicked(MouseEvent e) {
+
+        int column = table.columnAtPoint(e.getPoint());
+
+        if (column != -1) {
+          table.clearSelection();
+          model.sortBy(table.convertColumnIndexToModel(column));
+          updateStatus();
+        }
+      }
+    });
+
+    table.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
+      public void valueChanged(ListSelectionEvent e) {
+        if (!e.getValueIsAdjusting()) {
+          edit(table.getSelectionModel().getLeadSelectionIndex());
+        }
+      }
+    });
+
+    model.addTableModelListener(new TableModelListener() {
+      public void tableChanged(TableModelEvent e) {
+        // all the rows changed, not only the live columns
+        if (e.getLastRow() == Integer.MAX_VALUE) {
+          updateStatus();
+        }
+      }
+    });
+
+    editor = new DefaultProxySettingsPanel();
+    nameField = new JTextField(15);
+    typeComboBox = new JComboBox<>(ProxyType.values());
+    secureCheckBox = new JCheckBox("TLS");
+
+    newButton = new JButton("New");
+    newButton.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        newProfile();
+      }
+    });
+
+    saveButton = new JButton("Save");
+    saveButton.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        saveProfile();
+      }
+    });
+
+    deleteButton = new JButton("Delete");
+    deleteButton.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        deleteSelected();
+      }
+    });
+
+    JButton checkButton = new JButton("Check selected");
+    checkButton.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        checkSelected();
+      }
+    });
+
+    refreshTimer = new Timer(REFRESH_INTERVAL, new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        refreshLiveColumns();
+      }
+    });
+
+    //
+    // layout
+
+    JPanel filterPanel = new JPanel(new BorderLayout(5, 5));
+    filterPanel.add(new JLabel("Filter:"), BorderLayout.LINE_START);
+    filterPanel.add(filterField, BorderLayout.CENTER);
+    filterPanel.add(statusLabel, BorderLayout.LINE_END);
+
+    JPanel buttonsPanel = new JPanel(new FlowLayout(FlowLayout.LEADING, 5, 0));
+    buttonsPanel.add(checkButton);
+    buttonsPanel.add(newButton);
+    buttonsPanel.add(saveButton);
+    buttonsPanel.add(deleteButton);
+
+    JPanel profilePanel = new JPanel(new FlowLayout(FlowLayout.LEADING, 5, 0));
+    profilePanel.add(new JLabel("Name:"));
+    profilePanel.add(nameField);
+    profilePanel.add(new JLabel("Type:"));
+    profilePanel.add(typeComboBox);
+    profilePanel.add(secureCheckBox);
+
+    JPanel headerPanel = new JPanel(new BorderLayout(5, 5));
+    headerPanel.add(buttonsPanel, BorderLayout.PAGE_START);
+    headerPanel.add(profilePanel, BorderLayout.PAGE_END);
+
+    JPanel editorPanel = new JPanel(new BorderLayout(5, 5));
+    editorPanel.setBorder(BorderFactory.createEmptyBorder(5, 0, 0, 0));
+    editorPanel.add(headerPanel, BorderLayout.PAGE_START);
+    editorPanel.add(editor, BorderLayout.CENTER);
+
+    setLayout(new BorderLayout(5, 5));
+    add(filterPanel, BorderLayout.PAGE_START);
+    add(new JScrollPane(table), BorderLayout.CENTER);
+    add(editorPanel, BorderLayout.PAGE_END);
+
+    //
+    // load
+
+    new SwingWorker<Void, Void>() {
+
+      @Override
+      protected Void doInBackground() throws Exception {
+        store.load();
+        return null;
+      }
+
+      @Override
+      protected void done() {
+
+        try {
+          get();
+        }
+
+        catch (ExecutionException e) {
+          logger.error("Failed to load the profiles.", e.getCause());
+        }
+
+        catch (InterruptedException e) {
+          // not possible, the task is done
+        }
+
+        model.setProfiles(store.getProfiles());
+        updateStatus();
+      }
+    }.execute();
+  }
+
+  /**
+   * @return the model of the table
+   */
+  public ProxyProfilesTableModel getModel() {
+    return model;
+  }
+
+  @Override
+  public void addNotify() {
+    super.addNotify();
+    refreshTimer.start();
+  }
+
+  @Override
+  public void removeNotify() {
+    refreshTimer.stop();
+    super.removeNotify();
+  }
+
+  private void filter() {
+    model.setFilter(filterField.getText());
+    updateStatus();
+  }
+
+  private void updateStatus() {
+    if (model.isUpdating()) {
+      statusLabel.setText("Filtering...");
+    } else {
+      statusLabel.setText(model.getRowCount() + " of " + model.getProfileCount());
+    }
+  }
+
+  /**
+   * Repaints the live columns of the rows on screen.
+   */
+  private void refreshLiveColumns() {
+
+    Rectangle visible = table.getVisibleRect();
+
+    int first = table.rowAtPoint(visible.getLocation());
+    int last = table.rowAtPoint(new Point(visible.x, visible.y + visible.height - 1));
+
+    if (first != -1) {
+      model.refreshLiveColumns(first, last == -1 ? model.getRowCount() - 1 : last);
+    }
+  }
+
+  /**
+   * Shows a profile in the editor (decrypting its password).
+   */
+  private void edit(final int row) {
+
+    if (row < 0 || row >= model.getRowCount()) {
+      return;
+    }
+
+    ProxyProfile profile = model.getProfileAt(row);
+
+    try {
+
+      Proxy proxy = profile.toProxy();
+
+      editedProfile = profile;
+      nameField.setText(profile.getName());
+
+      editor.setProxyEnabled(true);
+      editor.setHost(proxy.getHost());
+      editor.setPort(proxy.getPort());
+      editor.setProxyRequiringAuthentication(proxy.isRequiringAuthentication());
+      editor.setUsername(proxy.getUsername());
+      editor.setPassword(proxy.getPassword());
+      setProxyType(proxy.getType());
+      setProxySecure(proxy.isSecure());
+    }
+
+    catch (GeneralSecurityException e) {
+      logger.error("Failed to decrypt the password of the profile " + profile.getName() + ".", e);
+    }
+  }
+
+  /**
+   * Clears the editor, for a new profile.
+   */
+  private void newProfile() {
+
+    table.clearSelection();
+
+    editedProfile = null;
+    nameField.setText("");
+
+    editor.setProxyEnabled(true);
+    editor.setHost("");
+    editor.setProxyRequiringAuthentication(false);
+    editor.setUsername("");
+    editor.setPassword("");
+    setProxyType(ProxyType.HTTP);
+    setProxySecure(false);
+
+    nameField.requestFocusInWindow();
+  }
+
+  /**
+   * Writes the profile in the editor to the store, replacing the profile it
+   * was loaded from (if any).
+   */
+  private void saveProfile() {
+
+    String name = nameField.getText().trim();
+    String host = editor.getHost().trim();
+
+    if (name.isEmpty() || host.isEmpty()) {
+      statusLabel.setText("The name and the host are required.");
+      return;
+    }
+
+    ProxyProfile profile;
+
+    try {
+
+      Proxy proxy = new Proxy(true, host, editor.getPort(), editor.isProxyRequiringAuthentication(), editor.getUsername(), editor.getPassword());
+      proxy.setType(getProxyType());
+      proxy.setSecure(isProxySecure());
+
+      profile = ProxyProfile.create(name, proxy);
+    }
+
+    catch (NumberFormatException e) {
+      statusLabel.setText("The port should be a number.");
+      return;
+    }
+
+    catch (GeneralSecurityException e) {
+      logger.error("Failed to encrypt the password of the profile " + name + ".", e);
+      statusLabel.setText("Failed to save the profile.");
+      return;
+    }
+
+    List<ProxyProfile> profiles = new ArrayList<>(store.getProfiles());
+    int index = editedProfile == null ? -1 : profiles.indexOf(editedProfile);
+
+    if (index == -1) {
+      profiles.add(profile);
+    } else {
+      profiles.set(index, profile);
+    }
+
+    editedProfile = profile;
+    store(profiles, "Saved " + name + ".");
+  }
+
+  /**
+   * Removes the selected profiles from the store.
+   */
+  private void deleteSelected() {
+
+    int[] rows = table.getSelectedRows();
+
+    if (rows.length == 0) {
+      return;
+    }
+
+    List<ProxyProfile> profiles = new ArrayList<>(store.getProfiles());
+
+    for (int row : rows) {
+      ProxyProfile profile = model.getProfileAt(row);
+      profiles.remove(profile);
+      if (profile == editedProfile) {
+        editedProfile = null;
+      }
+    }
+
+    table.clearSelection();
+    store(profiles, "Deleted " + rows.length + " profile(s).");
+  }
+
+  /**
+   * Replaces the profiles of the store in the background, and then shows
+   * them. The buttons changing the store are disabled meanwhile, so the
+   * changes are never computed from profiles about to be replaced.
+   */
+  private void store(final List<ProxyProfile> profiles, final String message) {
+
+    newButton.setEnabled(false);
+    saveButton.setEnabled(false);
+    deleteButton.setEnabled(false);
+    statusLabel.setText("Saving...");
+
+    new SwingWorker<Void, Void>() {
+
+      @Override
+      protected Void doInBackground() throws Exception {
+        store.replace(profiles);
+        return null;
+      }
+
+      @Override
+      protected void done() {
+
+        newButton.setEnabled(true);
+        saveButton.setEnabled(true);
+        deleteButton.setEnabled(true);
+
+        try {
+          get();
+          model.setProfiles(store.getProfiles());
+          statusLabel.setText(message);
+        }
+
+        catch (ExecutionException e) {
+          logger.error("Failed to save the profiles.", e.getCause());
+          statusLabel.setText("Failed to save the profiles.");
+        }
+
+        catch (InterruptedException e) {
+          // not possible, the task is done
+        }
+      }
+    }.execute();
+  }
+
+  /**
+   * Tests the proxy servers of the selected profiles, a few at a time, and
+   * shows the results in the live columns.
+   */
+  private void checkSelected() {
+
+    String testTarget = editor.getTestTarget().trim();
+    int colonIndex = testTarget.lastIndexOf(':');
+
+    final String targetHost;
+    final int targetPort;
+
+    try {
+      targetHost = testTarget.substring(0, colonIndex);
+      targetPort = Integer.parseInt(testTarget.substring(colonIndex + 1));
+    }
+
+    catch (RuntimeException e) {
+      statusLabel.setText("The test target should be host:port.");
+      return;
+    }
+
+    for (int row : table.getSelectedRows()) {
+
+      final ProxyProfile profile = model.getProfileAt(row);
+
+      CHECK_EXECUTOR.execute(new Runnable() {
+        public void run() {
+
+          try {
+            model.setProbeResult(profile, new ProxyProbe(profile.toProxy(), targetHost, targetPort).run());
+          }
+
+          catch (GeneralSecurityException e) {
+            logger.error("Failed to decrypt the password of the profile " + profile.getName() + ".", e);
+          }
+        }
+      });
+    }
+  }
+
+  //
+  // ProxyDialogPanel, the editor
+
+  @Override
+  public boolean isProxyEnabled() {
+    return editor.isProxyEnabled();
+  }
+
+  @Override
+  public void setProxyEnabled(boolean enabled) {
+    editor.setProxyEnabled(enabled);
+  }
+
+  @Override
+  public String getHost() {
+    return editor.getHost();
+  }
+
+  @Override
+  public void setHost(String host) {
+    editor.setHost(host);
+  }
+
+  @Override
+  public int getPort() {
+    return editor.getPort();
+  }
+
+  @Override
+  public void setPort(int port) {
+    editor.setPort(port);
+  }
+
+  @Override
+  public boolean isProxyRequiringAuthentication() {
+    return editor.isProxyRequiringAuthentication();
+  }
+
+  @Override
+  public void setProxyRequiringAuthentication(boolean requiringAuthentication) {
+    editor.setProxyRequiringAuthentication(requiringAuthentication);
+  }
+
+  @Override
+  public String getUsername() {
+    return editor.getUsername();
+  }
+
+  @Override
+  public void setUsername(String username) {
+    editor.setUsername(username);
+  }
+
+  @Override
+  public String getPassword() {
+    return editor.getPassword();
+  }
+
+  @Override
+  public void setPassword(String password) {
+    editor.setPassword(password);
+  }
+
+  @Override
+  public ProxyType getProxyType() {
+    return (ProxyType) typeComboBox.getSelectedItem();
+  }
+
+  @Override
+  public void setProxyType(ProxyType proxyType) {
+    typeComboBox.setSelectedItem(proxyType == null ? ProxyType.HTTP : proxyType);
+  }
+
+  @Override
+  public boolean isProxySecure() {
+    return secureCheckBox.isSelected();
+  }
+
+  @Override
+  public void setProxySecure(boolean proxySecure) {
+    secureCheckBox.setSelected(proxySecure);
+  }
+
+  @Override
+  public String getTestTarget() {
+    return editor.getTestTarget();
+  }
+
+  @Override
+  public void setTestTarget(String testTarget) {
+    editor.setTestTarget(testTarget);
+  }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy.dialog.profiles;
+
+import jatoo.proxy.dialog.ProxyDialogPanel;
+import jatoo.proxy.dialog.ProxyDialogPanelFactory;
+
+/**
+ * The {@link ProxyDialogPanelFactory} of {@link ProxyProfilesDialogPanel}. It
+ * is not registered by this module: the applications managing profiles
+ * register it in their own
+ * <code>META-INF/services/jatoo.proxy.dialog.ProxyDialogPanelFactory</code>,
+ * and its priority puts it before the other panels.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public class ProxyProfilesDialogPanelFactory implements ProxyDialogPanelFactory {
+
+  @Override
+  public int getPriority() {
+    return 200;
+  }
+
+  @Override
+  public ProxyDialogPanel createDialogPanel() {
+    return new ProxyProfilesDialogPanel();
+  }
+
+}
@@ -0,0 +1,599 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy.dialog.profiles;
+
+import jatoo.proxy.ProxyMetrics;
+import jatoo.proxy.ProxyProbeResult;
+import jatoo.proxy.ProxyProfile;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingWorker;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * The table model of {@link ProxyProfilesDialogPanel}. The rows are not
+ * copied: the model keeps the profiles in an array, and the visible rows as an
+ * array of indexes into it, so a cell is read in constant time whatever the
+ * number of profiles, and the table (which paints only the rows on screen)
+ * stays fast with tens of thousands of them.
+ * <p>
+ * Filtering and sorting run in the background, over an index built once per
+ * set of profiles (the searchable text of every profile), and a newer request
+ * makes the running one give up. A filter refining the current one (more
+ * characters typed) only scans the rows already visible, and keeps their
+ * order.
+ * <p>
+ * The health and the latency columns are live: they show the last
+ * {@link #setProbeResult(ProxyProfile, ProxyProbeResult) test} of the proxy
+ * server or, if there was none, the median connect latency recorded by
+ * {@link ProxyMetrics}; {@link #refreshLiveColumns(int, int)} repaints them.
+ * <p>
+ * Except for {@link #setProbeResult(ProxyProfile, ProxyProbeResult)}, the
+ * model is used from the EDT only.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+@SuppressWarnings("serial")
+public class ProxyProfilesTableModel extends AbstractTableModel {
+
+  public static final int COLUMN_NAME = 0;
+  public static final int COLUMN_TYPE = 1;
+  public static final int COLUMN_HOST = 2;
+  public static final int COLUMN_PORT = 3;
+  public static final int COLUMN_USERNAME = 4;
+  public static final int COLUMN_HEALTH = 5;
+  public static final int COLUMN_LATENCY = 6;
+
+  private static final String[] COLUMN_NAMES = { "Name", "Type", "Host", "Port", "Username", "Health", "Latency (ms)" };
+
+  /** The number of rows scanned between two checks for a newer request. */
+  private static final int CHECK_INTERVAL = 4096;
+
+  /**
+   * Filters and sorts, one request at a time, away from the EDT.
+   */
+  private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "jatoo-proxy-profiles");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  /**
+   * The profiles, and their index (same length, <code>null</code> until
+   * built).
+   */
+  private ProxyProfile[] profiles = new ProxyProfile[0];
+  private String[] searchKeys = new String[0];
+  private String[] upstreamKeys = new String[0];
+
+  /**
+   * The profiles shown (the previous ones, until the new ones are filtered
+   * and sorted), and the visible rows, as indexes into them.
+   */
+  private ProxyProfile[] shownProfiles = profiles;
+  private String[] shownUpstreamKeys = upstreamKeys;
+  private int[] view = new int[0];
+
+  /** The filter, in lower case, and the sort of the visible rows. */
+  private String filter = "";
+  private int sortColumn = -1;
+  private boolean sortAscending = true;
+
+  /** Incremented by every request, so the older ones give up. */
+  private volatile int generation;
+
+  /** <code>True</code> while a request runs in the background. */
+  private boolean updating;
+
+  /** The last test of every proxy server, by <code>host:port</code>. */
+  private final Map<String, ProxyProbeResult> probeResults = new ConcurrentHashMap<>();
+
+  /**
+   * Replaces the profiles (the index is built in the background, the visible
+   * rows are replaced once it is ready).
+   * 
+   * @param newProfiles
+   *          the new profiles
+   */
+  public void setProfiles(final List<ProxyProfile> newProfiles) {
+
+    profiles = newProfiles.toArray(new ProxyProfile[newProfiles.size()]);
+    searchKeys = null;
+    upstreamKeys = null;
+
+    submit(new Request(profiles, null, null, filter, sortColumn, sortAscending, null));
+  }
+
+  /**
+   * Shows only the profiles with the name, the host (or
+   * <code>host:port</code>) or the user name containing the specified text
+   * (ignoring the case).
+   * 
+   * @param text
+   *          the text, or <code>null</code> (or empty) to show all the
+   *          profiles
+   */
+  public void setFilter(final String text) {
+
+    String newFilter = text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+
+    if (newFilter.equals(filter)) {
+      return;
+    }
+
+    // only the visible rows can match a refined filter (if they are final)
+    int[] candidates = !updating && shownProfiles == profiles && newFilter.contains(filter) ? view : null;
+
+    filter = newFilter;
+
+    submit(new Request(profiles, searchKeys, upstreamKeys, newFilter, sortColumn, sortAscending, candidates));
+  }
+
+  /**
+   * Sorts the rows by the specified column, ascending, or descending if they
+   * are already sorted ascending by it.
+   * 
+   * @param column
+   *          the column
+   */
+  public void sortBy(final int column) {
+
+    sortAscending = column != sortColumn || !sortAscending;
+    sortColumn = column;
+
+    submit(new Request(profiles, searchKeys, upstreamKeys, filter, sortColumn, sortAscending, null));
+  }
+
+  /**
+   * @return the column the rows are sorted by, or <code>-1</code>
+   */
+  public int getSortColumn() {
+    return sortColumn;
+  }
+
+  public boolean isSortAscending() {
+    return sortAscending;
+  }
+
+  /**
+   * @return <code>true</code> while the rows are filtered or sorted in the
+   *         background
+   */
+  public boolean isUpdating() {
+    return updating;
+  }
+
+  /**
+   * @return the number of profiles (visible or not)
+   */
+  public int getProfileCount() {
+    return profiles.length;
+  }
+
+  /**
+   * @return the profile of a visible row
+   */
+  public ProxyProfile getProfileAt(final int row) {
+    return shownProfiles[view[row]];
+  }
+
+  /**
+   * Records the test of a proxy server (shown by all its profiles). Can be
+   * called from any thread; the rows are repainted by the next
+   * {@link #refreshLiveColumns(int, int)}.
+   */
+  public void setProbeResult(final ProxyProfile profile, final ProxyProbeResult result) {
+    probeResults.put(profile.getHost() + ":" + profile.getPort(), result);
+  }
+
+  /**
+   * Repaints the health and the latency of the specified visible rows (the
+   * ones on screen, usually), leaving the others alone.
+   */
+  public void refreshLiveColumns(final int firstRow, final int lastRow) {
+
+    if (view.length == 0 || firstRow > lastRow) {
+      return;
+    }
+
+    // one event for all the rows (the other cells are cheap to repaint)
+    fireTableRowsUpdated(Math.max(0, firstRow), Math.min(view.length - 1, lastRow));
+  }
+
+  //
+  // TableModel
+
+  @Override
+  public int getRowCount() {
+    return view.length;
+  }
+
+  @Override
+  public int getColumnCount() {
+    return COLUMN_NAMES.length;
+  }
+
+  @Override
+  public String getColumnName(final int column) {
+    return COLUMN_NAMES[column];
+  }
+
+  @Override
+  public Class<?> getColumnClass(final int column) {
+    switch (column) {
+    case COLUMN_PORT:
+      return Integer.class;
+    case COLUMN_LATENCY:
+      return Long.class;
+    default:
+      return String.class;
+    }
+  }
+
+  @Override
+  public Object getValueAt(final int row, final int column) {
+
+    int index = view[row];
+    ProxyProfile profile = shownProfiles[index];
+
+    switch (column) {
+    case COLUMN_NAME:
+      return profile.getName();
+    case COLUMN_TYPE:
+      return profile.getType().name();
+    case COLUMN_HOST:
+      return profile.getHost();
+    case COLUMN_PORT:
+      return profile.getPort();
+    case COLUMN_USERNAME:
+      return profile.getUsername();
+    case COLUMN_HEALTH:
+      return getHealth(probeResults.get(shownUpstreamKeys[index]));
+    case COLUMN_LATENCY:
+      long latency = getLatency(shownUpstreamKeys[index]);
+      return latency == -1 ? null : Long.valueOf(latency);
+    default:
+      throw new IllegalArgumentException("no column " + column);
+    }
+  }
+
+  /**
+   * The health shown for the last test of a proxy server.
+   */
+  private static String getHealth(final ProxyProbeResult result) {
+
+    if (result == null || result.isCancelled()) {
+      return null;
+    }
+
+    if (result.isSuccessful()) {
+      return "OK";
+    }
+
+    if (result.getAuthentication() == ProxyProbeResult.Authentication.REJECTED) {
+      return "Credentials rejected";
+    }
+
+    if (result.getConnectTime() == -1) {
+      return "Unreachable";
+    }
+
+    return result.getStatusCode() == 0 ? "Failed" : "Refused (" + result.getStatusCode() + ")";
+  }
+
+  /**
+   * The latency shown for a proxy server, in milliseconds, or <code>-1</code>.
+   */
+  private long getLatency(final String upstreamKey) {
+
+    ProxyProbeResult result = probeResults.get(upstreamKey);
+
+    if (result != null && result.getConnectTime() != -1) {
+      return result.getConnectTime() / 1000000;
+    }
+
+    long micros = ProxyMetrics.getDefault().getUpstreamConnectLatency(upstreamKey, 0.5);
+
+    return micros == -1 ? -1 : micros / 1000;
+  }
+
+  //
+  // the background requests
+
+  private void submit(final Request request) {
+
+    request.generation = ++generation;
+    updating = true;
+
+    EXECUTOR.execute(new SwingWorker<Request, Void>() {
+
+      @Override
+      protected Request doInBackground() {
+        request.run();
+        return request;
+      }
+
+      @Override
+      protected void done() {
+
+        Request result;
+
+        try {
+          result = get();
+        }
+
+        catch (InterruptedException | ExecutionException e) {
+          throw new IllegalStateException(e);
+        }
+
+        // the index is kept, even if the request gave up after building it
+        if (result.profiles == profiles && searchKeys == null && result.searchKeys != null) {
+          searchKeys = result.searchKeys;
+          upstreamKeys = result.upstreamKeys;
+        }
+
+        // a newer request replaces this one
+        if (result.view == null || result.generation != generation) {
+          return;
+        }
+
+        shownProfiles = result.profiles;
+        shownUpstreamKeys = result.upstreamKeys;
+        view = result.view;
+        updating = false;
+
+        fireTableDataChanged();
+      }
+    });
+  }
+
+  /**
+   * A request to filter and sort, with everything it needs (so it does not
+   * touch the model from the background).
+   */
+  private final class Request {
+
+    private final ProxyProfile[] profiles;
+    private String[] searchKeys;
+    private String[] upstreamKeys;
+
+    private final String filter;
+    private final int sortColumn;
+    private final boolean sortAscending;
+
+    /** The rows to filter, or <code>null</code> for all the profiles. */
+    private final int[] candidates;
+
+    private int generation;
+
+    /** The result, <code>null</code> if the request gave up. */
+    private int[] view;
+
+    private Request(final ProxyProfile[] profiles, final String[] searchKeys, final String[] upstreamKeys, final String filter, final int sortColumn, final boolean sortAscending, final int[] candidates) {
+      this.profiles = profiles;
+      this.searchKeys = searchKeys;
+      this.upstreamKeys = upstreamKeys;
+      this.filter = filter;
+      this.sortColumn = sortColumn;
+      this.sortAscending = sortAscending;
+      this.candidates = candidates;
+    }
+
+    private boolean isStale() {
+      return generation != ProxyProfilesTableModel.this.generation;
+    }
+
+    /**
+     * Filters and sorts, unless a newer request comes meanwhile.
+     */
+    private void run() {
+
+      if (searchKeys == null) {
+
+        String[] newSearchKeys = new String[profiles.length];
+        String[] newUpstreamKeys = new String[profiles.length];
+
+        for (int i = 0; i < profiles.length; i++) {
+
+          if (i % CHECK_INTERVAL == 0 && isStale()) {
+            return;
+          }
+
+          ProxyProfile profile = profiles[i];
+
+          newUpstreamKeys[i] = profile.getHost() + ":" + profile.getPort();
+          newSearchKeys[i] = (profile.getName() + "\n" + newUpstreamKeys[i] + "\n" + (profile.getUsername() == null ? "" : profile.getUsername())).toLowerCase(Locale.ROOT);
+        }
+
+        searchKeys = newSearchKeys;
+        upstreamKeys = newUpstreamKeys;
+      }
+
+      int count = candidates == null ? profiles.length : candidates.length;
+      int[] rows = new int[count];
+      int size = 0;
+
+      for (int i = 0; i < count; i++) {
+
+        if (i % CHECK_INTERVAL == 0 && isStale()) {
+          return;
+        }
+
+        int index = candidates == null ? i : candidates[i];
+
+        if (filter.isEmpty() || searchKeys[index].contains(filter)) {
+          rows[size++] = index;
+        }
+      }
+
+      if (size < rows.length) {
+        int[] trimmed = new int[size];
+        System.arraycopy(rows, 0, trimmed, 0, size);
+        rows = trimmed;
+      }
+
+      // the candidates are already sorted
+      if (candidates == null && sortColumn != -1) {
+
+        if (isStale()) {
+          return;
+        }
+
+        sort(rows, newComparator());
+      }
+
+      if (!isStale()) {
+        view = rows;
+      }
+    }
+
+    private RowComparator newComparator() {
+
+      final int direction = sortAscending ? 1 : -1;
+
+      switch (sortColumn) {
+
+      case COLUMN_NAME:
+        return new RowComparator() {
+          public int compare(int row1, int row2) {
+            return direction * String.CASE_INSENSITIVE_ORDER.compare(profiles[row1].getName(), profiles[row2].getName());
+          }
+        };
+
+      case COLUMN_TYPE:
+        return new RowComparator() {
+          public int compare(int row1, int row2) {
+            return direction * profiles[row1].getType().compareTo(profiles[row2].getType());
+          }
+        };
+
+      case COLUMN_HOST:
+        return new RowComparator() {
+          public int compare(int row1, int row2) {
+            int result = String.CASE_INSENSITIVE_ORDER.compare(profiles[row1].getHost(), profiles[row2].getHost());
+            return direction * (result != 0 ? result : Integer.compare(profiles[row1].getPort(), profiles[row2].getPort()));
+          }
+        };
+
+      case COLUMN_PORT:
+        return new RowComparator() {
+          public int compare(int row1, int row2) {
+            return direction * Integer.compare(profiles[row1].getPort(), profiles[row2].getPort());
+          }
+        };
+
+      case COLUMN_USERNAME:
+        return new RowComparator() {
+          public int compare(int row1, int row2) {
+            return direction * compareNullsFirst(profiles[row1].getUsername(), profiles[row2].getUsername());
+          }
+        };
+
+      case COLUMN_HEALTH:
+        // the live values are read once, so the order is consistent
+        final String[] healths = new String[profiles.length];
+        for (int i = 0; i < profiles.length; i++) {
+          healths[i] = getHealth(probeResults.get(upstreamKeys[i]));
+        }
+        return new RowComparator() {
+          public int compare(int row1, int row2) {
+            return direction * compareNullsFirst(healths[row1], healths[row2]);
+          }
+        };
+
+      case COLUMN_LATENCY:
+        final long[] latencies = new long[profiles.length];
+        for (int i = 0; i < profiles.length; i++) {
+          latencies[i] = getLatency(upstreamKeys[i]);
+        }
+        return new RowComparator() {
+          public int compare(int row1, int row2) {
+            return direction * Long.compare(latencies[row1], latencies[row2]);
+          }
+        };
+
+      default:
+        throw new IllegalArgumentException("no column " + sortColumn);
+      }
+    }
+  }
+
+  private static int compareNullsFirst(final String string1, final String string2) {
+
+    if (string1 == null) {
+      return string2 == null ? 0 : -1;
+    }
+
+    if (string2 == null) {
+      return 1;
+    }
+
+    return String.CASE_INSENSITIVE_ORDER.compare(string1, string2);
+  }
+
+  /**
+   * Compares two profiles, by their indexes.
+   */
+  private interface RowComparator {
+    int compare(int row1, int row2);
+  }
+
+  /**
+   * Sorts indexes (a stable merge sort, without boxing them).
+   */
+  private static void sort(final int[] rows, final RowComparator comparator) {
+    sort(rows, rows.clone(), 0, rows.length, comparator);
+  }
+
+  /**
+   * Sorts <code>source[from, to)</code> into <code>target[from, to)</code>
+   * (both hold the same values when called).
+   */
+  private static void sort(final int[] target, final int[] source, final int from, final int to, final RowComparator comparator) {
+
+    if (to - from < 2) {
+      return;
+    }
+
+    int middle = (from + to) >>> 1;
+
+    // the halves are sorted into the source, then merged into the target
+    sort(source, target, from, middle, comparator);
+    sort(source, target, middle, to, comparator);
+
+    for (int i = from, left = from, right = middle; i < to; i++) {
+      if (right >= to || (left < middle && comparator.compare(source[left], source[right]) <= 0)) {
+        target[i] = source[left++];
+      } else {
+        target[i] = source[right++];
+      }
+    }
+  }
+
+}
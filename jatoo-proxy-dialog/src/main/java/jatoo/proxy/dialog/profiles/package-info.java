@@ -0,0 +1,7 @@
+/**
+ * A {@link jatoo.proxy.dialog.ProxyDialogPanel} managing many proxy profiles, with its {@link jatoo.proxy.dialog.ProxyDialogPanelFactory}.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+package jatoo.proxy.dialog.profiles;
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy.dialog;
+
+import jatoo.proxy.ProxyEvent;
+import jatoo.proxy.ProxyLatencyHistogram;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProxyDashboardTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void testLatenciesAcrossSlices() {
+
+    long start = 1000 * SECOND;
+
+    ProxyUpstreamWindow window = new ProxyUpstreamWindow(start);
+
+    // 1 to 1000 microseconds, over six slices
+    for (int i = 1; i <= 1000; i++) {
+      window.record(start + i * SECOND / 30, ProxyEvent.Type.CONNECTION, TimeUnit.MICROSECONDS.toNanos(i), true, 0);
+    }
+
+    ProxyUpstreamWindow.Row row = new ProxyUpstreamWindow.Row();
+    window.summarize(start + 40 * SECOND, row, new ProxyLatencyHistogram());
+
+    // never underestimated, and at most 12.5% above
+    Assert.assertTrue("" + row.latencyP50, row.latencyP50 >= 500 && row.latencyP50 <= 500 * 9 / 8);
+    Assert.assertTrue("" + row.latencyP90, row.latencyP90 >= 900 && row.latencyP90 <= 900 * 9 / 8);
+    Assert.assertEquals(1000, row.latencyP99, 125);
+  }
+
+  @Test
+  public void testConcurrentRecording() throws Exception {
+
+    final long start = 1000 * SECOND;
+    final ProxyUpstreamWindow window = new ProxyUpstreamWindow(start);
+
+    Thread[] threads = new Thread[4];
+
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        public void run() {
+          for (int i = 0; i < 10000; i++) {
+            window.record(start, ProxyEvent.Type.CONNECTION, TimeUnit.MILLISECONDS.toNanos(5), true, 0);
+          }
+        }
+      };
+      threads[t].start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    ProxyUpstreamWindow.Row row = new ProxyUpstreamWindow.Row();
+    window.summarize(start, row, new ProxyLatencyHistogram());
+
+    // all counted (the window is younger than a slice, so over a slice)
+    Assert.assertEquals(40000.0 / ProxyUpstreamWindow.SLICE_SECONDS, row.connectionsPerSecond, 0.01);
+    Assert.assertTrue("" + row.latencyP50, row.latencyP50 >= 5000 && row.latencyP50 <= 5000 * 9 / 8);
+  }
+
+  @Test
+  public void testWindow() {
+
+    long start = 1000 * SECOND;
+
+    ProxyUpstreamWindow window = new ProxyUpstreamWindow(start);
+
+    // 100 connections over 10 seconds, 1 to 100 ms
+    for (int i = 1; i <= 100; i++) {
+      window.record(start + i * SECOND / 10, ProxyEvent.Type.CONNECTION, TimeUnit.MILLISECONDS.toNanos(i), true, 0);
+    }
+
+    window.record(start + SECOND, ProxyEvent.Type.CONNECTION, SECOND, false, 0);
+    window.record(start + SECOND, ProxyEvent.Type.PROXY_HANDSHAKE, SECOND, false, 0);
+    window.record(start + SECOND, ProxyEvent.Type.TUNNEL, SECOND, true, 1024 * 100);
+
+    long now = start + 10 * SECOND;
+
+    ProxyUpstreamWindow.Row row = new ProxyUpstreamWindow.Row();
+    window.summarize(now, row, new ProxyLatencyHistogram());
+
+    Assert.assertEquals(10.1, row.connectionsPerSecond, 0.01);
+    Assert.assertEquals(2 / 101.0, row.errorRate, 0.001);
+    Assert.assertEquals(1024 * 10, row.bytesPerSecond, 0.01);
+
+    Assert.assertTrue("" + row.latencyP50, row.latencyP50 >= 50000 && row.latencyP50 <= 50000 * 9 / 8);
+    Assert.assertTrue("" + row.latencyP99, row.latencyP99 >= 99000 && row.latencyP99 <= 99000 * 9 / 8);
+
+    // a minute later, all forgotten
+    now += 61 * SECOND;
+
+    Assert.assertTrue(window.isIdle(now));
+
+    window.summarize(now, row, new ProxyLatencyHistogram());
+    Assert.assertEquals(0, row.connectionsPerSecond, 0);
+    Assert.assertEquals(-1, row.latencyP50);
+  }
+
+  @Test
+  public void testCoalescedRefresh() throws Exception {
+
+    ProxyDashboardPanel panel = new ProxyDashboardPanel();
+
+    long now = 1000 * SECOND;
+
+    Assert.assertTrue(panel.refresh(now, true));
+
+    // a burst of events, one refresh
+    for (int i = 0; i < 10000; i++) {
+      panel.record(now, "proxy" + (i % 3) + ":8080", ProxyEvent.Type.CONNECTION, TimeUnit.MILLISECONDS.toNanos(5), true, 0);
+    }
+
+    Assert.assertTrue(panel.refresh(now, false));
+    Assert.assertFalse(panel.refresh(now, false));
+
+    List<ProxyUpstreamWindow.Row> rows = panel.getRows();
+    Assert.assertEquals(3, rows.size());
+    Assert.assertEquals("proxy0:8080", rows.get(0).upstream);
+
+    // refreshed once a slice went by, even without events (the rates go down)
+    Assert.assertFalse(panel.refresh(now + SECOND, false));
+    Assert.assertTrue(panel.refresh(now + ProxyUpstreamWindow.SLICE_SECONDS * SECOND, false));
+
+    // and emptied after a quiet minute
+    Assert.assertTrue(panel.refresh(now + 61 * SECOND, false));
+    Assert.assertTrue(panel.getRows().isEmpty());
+  }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy.dialog;
+
+import java.awt.AWTEvent;
+import java.awt.GraphicsEnvironment;
+import java.awt.Toolkit;
+import java.awt.event.AWTEventListener;
+import java.awt.event.ComponentEvent;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JDialog;
+import javax.swing.SwingUtilities;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Measures the time from {@link ProxyDialog#show()} to the dialog being
+ * visible, with and without {@link ProxyDialog#prewarm()}.
+ */
+public class ProxyDialogPrewarmTest {
+
+  @Test
+  public void testTimeToVisible() throws Exception {
+
+    Assume.assumeFalse(GraphicsEnvironment.isHeadless());
+
+    JDialog[] dialog = new JDialog[1];
+
+    long cold = timeToVisible(dialog);
+    JDialog coldDialog = dialog[0];
+    coldDialog.dispose();
+
+    ProxyDialog.prewarm();
+
+    // prewarmed once the EDT gets to the next event
+    SwingUtilities.invokeAndWait(new Runnable() {
+      public void run() {}
+    });
+
+    Assert.assertTrue(ProxyDialog.isPrewarmed());
+
+    long prewarmed = timeToVisible(dialog);
+    JDialog prewarmedDialog = dialog[0];
+
+    long reused = timeToVisible(dialog);
+    JDialog reusedDialog = dialog[0];
+
+    System.out.println("time to visible: cold " + TimeUnit.NANOSECONDS.toMillis(cold) + " ms, prewarmed " + TimeUnit.NANOSECONDS.toMillis(prewarmed) + " ms, reused " + TimeUnit.NANOSECONDS.toMillis(reused) + " ms");
+
+    Assert.assertNotSame(coldDialog, prewarmedDialog);
+    Assert.assertSame(prewarmedDialog, reusedDialog);
+  }
+
+  /**
+   * Shows the dialog, and hides it as soon as it is visible.
+   */
+  private static long timeToVisible(final JDialog[] dialog) throws Exception {
+
+    final long[] shownTime = new long[1];
+
+    AWTEventListener listener = new AWTEventListener() {
+      public void eventDispatched(AWTEvent event) {
+        if (event.getID() == ComponentEvent.COMPONENT_SHOWN && event.getSource() instanceof JDialog) {
+
+          shownTime[0] = System.nanoTime();
+          dialog[0] = (JDialog) event.getSource();
+
+          // returns from the (modal) show
+          dialog[0].setVisible(false);
+        }
+      }
+    };
+
+    Toolkit.getDefaultToolkit().addAWTEventListener(listener, AWTEvent.COMPONENT_EVENT_MASK);
+
+    try {
+
+      long start = System.nanoTime();
+
+      SwingUtilities.invokeAndWait(new Runnable() {
+        public void run() {
+          ProxyDialog.show();
+        }
+      });
+
+      return shownTime[0] - start;
+    }
+
+    finally {
+      Toolkit.getDefaultToolkit().removeAWTEventListener(listener);
+    }
+  }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy.dialog.profiles;
+
+import jatoo.proxy.Proxy;
+import jatoo.proxy.ProxyProfile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProxyProfilesTableModelTest {
+
+  private static final int PROFILES = 50000;
+
+  @Test
+  public void testFilterAndSort() throws Exception {
+
+    final ProxyProfilesTableModel model = newModel();
+
+    Assert.assertEquals(PROFILES, onEdt(new Callable<Integer>() {
+      public Integer call() {
+        return model.getRowCount();
+      }
+    }).intValue());
+
+    // profile-4999 and profile-49990 to profile-49999
+    setFilter(model, "Profile-4999");
+    Assert.assertEquals(11, rowCount(model));
+
+    // refined, only the visible rows are scanned
+    setFilter(model, "profile-49995");
+    Assert.assertEquals(1, rowCount(model));
+    Assert.assertEquals("profile-49995", valueAt(model, 0, ProxyProfilesTableModel.COLUMN_NAME));
+
+    setFilter(model, "host-7.");
+    Assert.assertEquals(PROFILES / 1000, rowCount(model));
+
+    sortBy(model, ProxyProfilesTableModel.COLUMN_NAME);
+    Assert.assertEquals("profile-10007", valueAt(model, 0, ProxyProfilesTableModel.COLUMN_NAME));
+
+    sortBy(model, ProxyProfilesTableModel.COLUMN_NAME);
+    Assert.assertEquals("profile-9007", valueAt(model, 0, ProxyProfilesTableModel.COLUMN_NAME));
+
+    // the sort is kept by the next filters
+    setFilter(model, "");
+    Assert.assertEquals(PROFILES, rowCount(model));
+    Assert.assertEquals("profile-9999", valueAt(model, 0, ProxyProfilesTableModel.COLUMN_NAME));
+
+    sortBy(model, ProxyProfilesTableModel.COLUMN_PORT);
+    Assert.assertEquals(1000, valueAt(model, 0, ProxyProfilesTableModel.COLUMN_PORT));
+    Assert.assertEquals(1006, valueAt(model, PROFILES - 1, ProxyProfilesTableModel.COLUMN_PORT));
+  }
+
+  @Test
+  public void testNewerRequestWins() throws Exception {
+
+    final ProxyProfilesTableModel model = newModel();
+
+    onEdt(new Callable<Void>() {
+      public Void call() {
+        model.setFilter("profile-1");
+        model.sortBy(ProxyProfilesTableModel.COLUMN_HOST);
+        model.setFilter("profile-2");
+        return null;
+      }
+    });
+
+    await(model);
+
+    Assert.assertEquals(11111, rowCount(model));
+    // host-0.example, and the lowest port
+    Assert.assertEquals("profile-21000", valueAt(model, 0, ProxyProfilesTableModel.COLUMN_NAME));
+  }
+
+  @Test
+  public void testResponsiveness() throws Exception {
+
+    final ProxyProfilesTableModel model = newModel();
+
+    // the EDT only submits the request, the profiles are scanned in the
+    // background
+    long elapsed = onEdt(new Callable<Long>() {
+      public Long call() {
+
+        long start = System.nanoTime();
+
+        model.setFilter("profile-1");
+        model.sortBy(ProxyProfilesTableModel.COLUMN_USERNAME);
+
+        return System.nanoTime() - start;
+      }
+    });
+
+    long start = System.nanoTime();
+    await(model);
+    long background = System.nanoTime() - start;
+
+    System.out.println(PROFILES + " profiles: " + TimeUnit.NANOSECONDS.toMicros(elapsed) + " us on the EDT, " + TimeUnit.NANOSECONDS.toMillis(background) + " ms in the background");
+
+    Assert.assertTrue(elapsed < TimeUnit.MILLISECONDS.toNanos(50));
+
+    // a screen of rows, whatever the number of profiles
+    Callable<Long> paint = new Callable<Long>() {
+      public Long call() {
+
+        long start = System.nanoTime();
+
+        for (int row = 0; row < 50; row++) {
+          for (int column = 0; column < model.getColumnCount(); column++) {
+            model.getValueAt(row, column);
+          }
+        }
+
+        return System.nanoTime() - start;
+      }
+    };
+
+    // the first one loads the classes (and registers the metrics)
+    onEdt(paint);
+    elapsed = onEdt(paint);
+
+    Assert.assertTrue(elapsed < TimeUnit.MILLISECONDS.toNanos(50));
+  }
+
+  private static ProxyProfilesTableModel newModel() throws Exception {
+
+    final List<ProxyProfile> profiles = new ArrayList<>();
+
+    for (int i = 0; i < PROFILES; i++) {
+      profiles.add(ProxyProfile.create("profile-" + i, new Proxy(true, "host-" + (i % 1000) + ".example", 1000 + (i % 7), i % 2 == 0, i % 2 == 0 ? "user" + i : null, null)));
+    }
+
+    final ProxyProfilesTableModel model = onEdt(new Callable<ProxyProfilesTableModel>() {
+      public ProxyProfilesTableModel call() {
+        ProxyProfilesTableModel model = new ProxyProfilesTableModel();
+        model.setProfiles(profiles);
+        return model;
+      }
+    });
+
+    await(model);
+
+    return model;
+  }
+
+  private static void setFilter(final ProxyProfilesTableModel model, final String filter) throws Exception {
+
+    onEdt(new Callable<Void>() {
+      public Void call() {
+        model.setFilter(filter);
+        return null;
+      }
+    });
+
+    await(model);
+  }
+
+  private static void sortBy(final ProxyProfilesTableModel model, final int column) throws Exception {
+
+    onEdt(new Callable<Void>() {
+      public Void call() {
+        model.sortBy(column);
+        return null;
+      }
+    });
+
+    await(model);
+  }
+
+  private static int rowCount(final ProxyProfilesTableModel model) throws Exception {
+    return onEdt(new Callable<Integer>() {
+      public Integer call() {
+        return model.getRowCount();
+      }
+    });
+  }
+
+  private static Object valueAt(final ProxyProfilesTableModel model, final int row, final int column) throws Exception {
+    return onEdt(new Callable<Object>() {
+      public Object call() {
+        return model.getValueAt(row, column);
+      }
+    });
+  }
+
+  private static void await(final ProxyProfilesTableModel model) throws Exception {
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+    while (onEdt(new Callable<Boolean>() {
+      public Boolean call() {
+        return model.isUpdating();
+      }
+    })) {
+
+      Assert.assertTrue("still updating", System.nanoTime() < deadline);
+      Thread.sleep(5);
+    }
+  }
+
+  private static <T> T onEdt(final Callable<T> callable) throws Exception {
+    FutureTask<T> task = new FutureTask<>(callable);
+    SwingUtilities.invokeAndWait(task);
+    return task.get();
+  }
+
+}
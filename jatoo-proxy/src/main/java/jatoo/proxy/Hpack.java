@@ -0,0 +1,535 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The header compression of HTTP/2 (HPACK, see RFC 7541), as much as an
+ * {@link Http2Connection} needs: the headers sent are encoded as literals
+ * never added to the dynamic table (so the encoder keeps no state, and the
+ * credentials are never indexed along the way), while the {@link Decoder}
+ * understands everything a server may answer, the dynamic table and the
+ * Huffman code included.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+final class Hpack {
+
+  /** The default (and maximum accepted) size of the dynamic table. */
+  static final int DEFAULT_TABLE_SIZE = 4096;
+
+  /** The charset of the names and of the values. */
+  private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+  /** The static table (the index 0 is not used). */
+  private static final String[][] STATIC_TABLE = {
+      null,
+      { ":authority", "" },
+      { ":method", "GET" },
+      { ":method", "POST" },
+      { ":path", "/" },
+      { ":path", "/index.html" },
+      { ":scheme", "http" },
+      { ":scheme", "https" },
+      { ":status", "200" },
+      { ":status", "204" },
+      { ":status", "206" },
+      { ":status", "304" },
+      { ":status", "400" },
+      { ":status", "404" },
+      { ":status", "500" },
+      { "accept-charset", "" },
+      { "accept-encoding", "gzip, deflate" },
+      { "accept-language", "" },
+      { "accept-ranges", "" },
+      { "accept", "" },
+      { "access-control-allow-origin", "" },
+      { "age", "" },
+      { "allow", "" },
+      { "authorization", "" },
+      { "cache-control", "" },
+      { "content-disposition", "" },
+      { "content-encoding", "" },
+      { "content-language", "" },
+      { "content-length", "" },
+      { "content-location", "" },
+      { "content-range", "" },
+      { "content-type", "" },
+      { "cookie", "" },
+      { "date", "" },
+      { "etag", "" },
+      { "expect", "" },
+      { "expires", "" },
+      { "from", "" },
+      { "host", "" },
+      { "if-match", "" },
+      { "if-modified-since", "" },
+      { "if-none-match", "" },
+      { "if-range", "" },
+      { "if-unmodified-since", "" },
+      { "last-modified", "" },
+      { "link", "" },
+      { "location", "" },
+      { "max-forwards", "" },
+      { "proxy-authenticate", "" },
+      { "proxy-authorization", "" },
+      { "range", "" },
+      { "referer", "" },
+      { "refresh", "" },
+      { "retry-after", "" },
+      { "server", "" },
+      { "set-cookie", "" },
+      { "strict-transport-security", "" },
+      { "transfer-encoding", "" },
+      { "user-agent", "" },
+      { "vary", "" },
+      { "via", "" },
+      { "www-authenticate", "" } };
+
+  /** The Huffman codes of the 256 octets and of the end of string. */
+  private static final int[] HUFFMAN_CODES = {
+      0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+      0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+      0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+      0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+      0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+      0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+      0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+      0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+      0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+      0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+      0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+      0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+      0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+      0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+      0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+      0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+      0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+      0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+      0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+      0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+      0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+      0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+      0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+      0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+      0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+      0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+      0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+      0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+      0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+      0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+      0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+      0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+      0x3fffffff };
+
+  /** The lengths, in bits, of the Huffman codes. */
+  private static final byte[] HUFFMAN_LENGTHS = {
+      13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+      28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+      6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+      5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+      13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+      7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+      15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+      6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+      20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+      24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+      22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+      21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+      26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+      19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+      20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+      26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+      30 };
+
+  /** The symbol of the end of string. */
+  private static final int EOS = 256;
+
+  /**
+   * The Huffman decoding tree: the two children (for the bits 0 and 1) of
+   * every node, a positive index for an inner node, the complement of the
+   * symbol for a leaf, or <code>0</code> for none.
+   */
+  private static final int[][] HUFFMAN_TREE = createHuffmanTree();
+
+  private Hpack() {}
+
+  private static int[][] createHuffmanTree() {
+
+    // a complete prefix code of 257 symbols has 256 inner nodes
+    int[][] tree = new int[256][2];
+    int nodeCount = 1;
+
+    for (int symbol = 0; symbol <= EOS; symbol++) {
+
+      int node = 0;
+
+      for (int i = HUFFMAN_LENGTHS[symbol] - 1; i > 0; i--) {
+
+        int bit = (HUFFMAN_CODES[symbol] >>> i) & 1;
+
+        if (tree[node][bit] == 0) {
+          tree[node][bit] = nodeCount++;
+        }
+
+        node = tree[node][bit];
+      }
+
+      tree[node][HUFFMAN_CODES[symbol] & 1] = ~symbol;
+    }
+
+    return tree;
+  }
+
+  /**
+   * Encodes a header as a literal never indexed, with the name from the static
+   * table, if there, and the value Huffman coded, if shorter.
+   * 
+   * @throws BufferOverflowException
+   *           if the buffer is too small
+   */
+  static void encodeHeader(final ByteBuffer out, final String name, final String value) {
+
+    int nameIndex = 0;
+
+    for (int i = 1; i < STATIC_TABLE.length; i++) {
+      if (STATIC_TABLE[i][0].equals(name)) {
+        nameIndex = i;
+        break;
+      }
+    }
+
+    encodeInteger(out, 0x10, 4, nameIndex);
+
+    if (nameIndex == 0) {
+      encodeString(out, name);
+    }
+
+    encodeString(out, value);
+  }
+
+  /**
+   * Encodes an integer with a prefix of the specified number of bits, the
+   * other bits of the first octet taken from the flags.
+   */
+  static void encodeInteger(final ByteBuffer out, final int flags, final int prefixBits, final int value) {
+
+    int max = (1 << prefixBits) - 1;
+
+    if (value < max) {
+      out.put((byte) (flags | value));
+      return;
+    }
+
+    out.put((byte) (flags | max));
+
+    int rest = value - max;
+
+    while (rest >= 0x80) {
+      out.put((byte) (0x80 | (rest & 0x7f)));
+      rest >>>= 7;
+    }
+
+    out.put((byte) rest);
+  }
+
+  /**
+   * Encodes a string, Huffman coded if shorter that way.
+   */
+  private static void encodeString(final ByteBuffer out, final String string) {
+
+    byte[] bytes = string.getBytes(CHARSET);
+
+    long bitCount = 0;
+    for (byte b : bytes) {
+      bitCount += HUFFMAN_LENGTHS[b & 0xff];
+    }
+
+    int huffmanLength = (int) ((bitCount + 7) / 8);
+
+    if (huffmanLength >= bytes.length) {
+      encodeInteger(out, 0x00, 7, bytes.length);
+      out.put(bytes);
+      return;
+    }
+
+    encodeInteger(out, 0x80, 7, huffmanLength);
+
+    long bits = 0;
+    int pending = 0;
+
+    for (byte b : bytes) {
+
+      bits = (bits << HUFFMAN_LENGTHS[b & 0xff]) | HUFFMAN_CODES[b & 0xff];
+      pending += HUFFMAN_LENGTHS[b & 0xff];
+
+      while (pending >= 8) {
+        pending -= 8;
+        out.put((byte) (bits >>> pending));
+      }
+    }
+
+    // padded with the most significant bits of the end of string (all ones)
+    if (pending > 0) {
+      out.put((byte) ((bits << (8 - pending)) | (0xff >>> pending)));
+    }
+  }
+
+  /**
+   * The decoder of the header blocks received on a connection, keeping the
+   * dynamic table from one block to the next (so every block must be decoded,
+   * in order, even if its headers are of no interest).
+   */
+  static final class Decoder {
+
+    /** The entries of the dynamic table, the newest first. */
+    private final Deque<String[]> dynamicTable = new ArrayDeque<>();
+
+    /** The size of the dynamic table, as defined by RFC 7541. */
+    private int tableSize;
+
+    /** The maximum size of the dynamic table, as last updated. */
+    private int maxTableSize = DEFAULT_TABLE_SIZE;
+
+    /**
+     * Decodes a complete header block.
+     * 
+     * @param block
+     *          the header block, consumed entirely
+     * @param headers
+     *          the list the decoded headers are added to, the name followed by
+     *          the value
+     * 
+     * @throws IOException
+     *           if the block is malformed (the connection cannot be used any
+     *           longer, the dynamic table is lost)
+     */
+    void decode(final ByteBuffer block, final List<String> headers) throws IOException {
+
+      try {
+
+        while (block.hasRemaining()) {
+
+          int first = block.get(block.position()) & 0xff;
+
+          // indexed
+          if ((first & 0x80) != 0) {
+
+            String[] header = getEntry(decodeInteger(block, 7));
+
+            headers.add(header[0]);
+            headers.add(header[1]);
+          }
+
+          // literal with incremental indexing
+          else if ((first & 0x40) != 0) {
+
+            String[] header = decodeLiteral(block, 6);
+
+            headers.add(header[0]);
+            headers.add(header[1]);
+
+            addEntry(header);
+          }
+
+          // dynamic table size update
+          else if ((first & 0x20) != 0) {
+
+            int size = decodeInteger(block, 5);
+
+            if (size > DEFAULT_TABLE_SIZE) {
+              throw new IOException("malformed header block: table size " + size);
+            }
+
+            maxTableSize = size;
+            evict(0);
+          }
+
+          // literal without indexing, or never indexed
+          else {
+
+            String[] header = decodeLiteral(block, 4);
+
+            headers.add(header[0]);
+            headers.add(header[1]);
+          }
+        }
+      }
+
+      catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+        throw new IOException("malformed header block: truncated", e);
+      }
+    }
+
+    private String[] decodeLiteral(final ByteBuffer block, final int prefixBits) throws IOException {
+
+      int nameIndex = decodeInteger(block, prefixBits);
+
+      String name = nameIndex == 0 ? decodeString(block) : getEntry(nameIndex)[0];
+
+      return new String[] { name, decodeString(block) };
+    }
+
+    private String[] getEntry(final int index) throws IOException {
+
+      if (index > 0 && index < STATIC_TABLE.length) {
+        return STATIC_TABLE[index];
+      }
+
+      int dynamicIndex = index - STATIC_TABLE.length;
+
+      if (index == 0 || dynamicIndex >= dynamicTable.size()) {
+        throw new IOException("malformed header block: index " + index);
+      }
+
+      Iterator<String[]> entries = dynamicTable.iterator();
+
+      for (int i = 0; i < dynamicIndex; i++) {
+        entries.next();
+      }
+
+      return entries.next();
+    }
+
+    private void addEntry(final String[] header) {
+
+      int size = entrySize(header);
+
+      evict(size);
+
+      // an entry larger than the table empties it, and is not added
+      if (size <= maxTableSize) {
+        dynamicTable.addFirst(header);
+        tableSize += size;
+      }
+    }
+
+    /**
+     * Evicts the oldest entries until there is room for the new one.
+     */
+    private void evict(final int room) {
+      while (!dynamicTable.isEmpty() && tableSize + room > maxTableSize) {
+        tableSize -= entrySize(dynamicTable.removeLast());
+      }
+    }
+
+    private static int entrySize(final String[] header) {
+      return header[0].length() + header[1].length() + 32;
+    }
+
+    /**
+     * Decodes an integer with a prefix of the specified number of bits.
+     */
+    static int decodeInteger(final ByteBuffer block, final int prefixBits) throws IOException {
+
+      int max = (1 << prefixBits) - 1;
+      int value = block.get() & max;
+
+      if (value < max) {
+        return value;
+      }
+
+      for (int shift = 0;; shift += 7) {
+
+        int b = block.get() & 0xff;
+
+        // larger than anything a connection can need
+        if (shift > 21) {
+          throw new IOException("malformed header block: integer too large");
+        }
+
+        value += (b & 0x7f) << shift;
+
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+    }
+
+    private static String decodeString(final ByteBuffer block) throws IOException {
+
+      boolean huffman = (block.get(block.position()) & 0x80) != 0;
+      int length = decodeInteger(block, 7);
+
+      if (length > block.remaining()) {
+        throw new IOException("malformed header block: truncated string");
+      }
+
+      if (!huffman) {
+        byte[] bytes = new byte[length];
+        block.get(bytes);
+        return new String(bytes, CHARSET);
+      }
+
+      StringBuilder string = new StringBuilder(length * 8 / 5);
+
+      int node = 0;
+      int depth = 0;
+      boolean allOnes = true;
+
+      for (int i = 0; i < length; i++) {
+
+        int b = block.get() & 0xff;
+
+        for (int bit = 7; bit >= 0; bit--) {
+
+          int one = (b >>> bit) & 1;
+          int next = HUFFMAN_TREE[node][one];
+
+          depth++;
+          allOnes &= one == 1;
+
+          if (next < 0) {
+
+            if (~next == EOS) {
+              throw new IOException("malformed header block: end of string in a string");
+            }
+
+            string.append((char) ~next);
+
+            node = 0;
+            depth = 0;
+            allOnes = true;
+          }
+
+          else {
+            node = next;
+          }
+        }
+      }
+
+      // the padding is at most 7 bits, all ones (a prefix of the end of string)
+      if (depth > 7 || !allOnes) {
+        throw new IOException("malformed header block: invalid padding");
+      }
+
+      return string.toString();
+    }
+  }
+
+}
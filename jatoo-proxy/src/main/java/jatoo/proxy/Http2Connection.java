@@ -0,0 +1,1298 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An HTTP/2 connection to the upstream proxy server, carrying the tunnels of
+ * an event loop as <code>CONNECT</code> streams (see RFC 7540, section 8.3),
+ * so many tunnels share a few connections instead of opening one each.
+ * <p>
+ * The connection is cleartext, with prior knowledge (the proxy server is
+ * known to speak HTTP/2, there is no upgrade and no ALPN), so only plain
+ * upstream proxy servers can be used this way.
+ * <p>
+ * Every stream has its own flow control: the window announced to the proxy
+ * server is the room left in the relay buffer of the tunnel, and is given back
+ * as the bytes are written to the client, so a slow client only stops its own
+ * stream, never the others on the connection. The other way, the bytes of the
+ * client are sent only as far as the windows of the proxy server allow, the
+ * rest waiting in the relay buffer (which then stops reading from the client).
+ * <p>
+ * All the methods are called from the thread of the event loop owning the
+ * connection.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+final class Http2Connection {
+
+  /** The preface sent first by a client. */
+  private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(Charset.forName("ISO-8859-1"));
+
+  /** The size of the header of a frame. */
+  private static final int FRAME_HEADER_SIZE = 9;
+
+  /** The types of the frames. */
+  private static final int DATA = 0x0;
+  private static final int HEADERS = 0x1;
+  private static final int RST_STREAM = 0x3;
+  private static final int SETTINGS = 0x4;
+  private static final int PUSH_PROMISE = 0x5;
+  private static final int PING = 0x6;
+  private static final int GOAWAY = 0x7;
+  private static final int WINDOW_UPDATE = 0x8;
+  private static final int CONTINUATION = 0x9;
+
+  /** The flags of the frames. */
+  private static final int FLAG_END_STREAM = 0x1;
+  private static final int FLAG_ACK = 0x1;
+  private static final int FLAG_END_HEADERS = 0x4;
+  private static final int FLAG_PADDED = 0x8;
+  private static final int FLAG_PRIORITY = 0x20;
+
+  /** The settings. */
+  private static final int SETTINGS_ENABLE_PUSH = 0x2;
+  private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+  private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+  private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+  /** The error codes. */
+  private static final int NO_ERROR = 0x0;
+  private static final int PROTOCOL_ERROR = 0x1;
+  private static final int FLOW_CONTROL_ERROR = 0x3;
+  private static final int FRAME_SIZE_ERROR = 0x6;
+  private static final int CANCEL = 0x8;
+  private static final int COMPRESSION_ERROR = 0x9;
+
+  /** The initial size of the windows and of the frames, as defined by HTTP/2. */
+  private static final int DEFAULT_WINDOW_SIZE = 65535;
+  private static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+
+  /** The window of the whole connection announced to the proxy server. */
+  private static final int CONNECTION_WINDOW_SIZE = 16 * 1024 * 1024;
+
+  /** The maximum size of a header block received (before decoding). */
+  private static final int MAX_HEADER_BLOCK_SIZE = 64 * 1024;
+
+  /** The bytes of data waiting to be sent, beyond which the streams wait. */
+  private static final int OUTPUT_LIMIT = 64 * 1024;
+
+  /** The event loop owning the connection. */
+  private final ProxyForwarderLoop loop;
+
+  /** The forwarder the connection belongs to. */
+  private final ProxyForwarder forwarder;
+
+  /** The upstream configuration the connection was opened with. */
+  private final ProxyUpstream upstream;
+
+  /** The window announced for every stream (the size of a relay buffer). */
+  private final int streamWindowSize;
+
+  private SocketChannel channel;
+  private SelectionKey key;
+
+  /** The bytes received, not yet processed (in fill mode). */
+  private final ByteBuffer in = ByteBuffer.allocate(2 * (FRAME_HEADER_SIZE + DEFAULT_MAX_FRAME_SIZE));
+
+  /** The frames waiting to be sent (in fill mode, grows for control frames). */
+  private ByteBuffer out = ByteBuffer.allocate(OUTPUT_LIMIT + 1024);
+
+  /** The header block being received, until complete. */
+  private ByteBuffer headerBlock = ByteBuffer.allocate(1024);
+
+  /** The stream the header block being received belongs to, or 0. */
+  private int headerBlockStreamId;
+
+  /** <code>True</code> if the header block being received ends its stream. */
+  private boolean headerBlockEndStream;
+
+  /** The decoder of the header blocks. */
+  private final Hpack.Decoder decoder = new Hpack.Decoder();
+
+  /** The headers of the last decoded block (reused). */
+  private final List<String> headers = new ArrayList<>();
+
+  /** The open streams, by identifier. */
+  private final Map<Integer, Stream> streams = new HashMap<>();
+
+  /** The streams not opened yet (waiting for the connection, or for room). */
+  private final Queue<Stream> pendingStreams = new ArrayDeque<>();
+
+  /** The streams with bytes to send, waiting for a window or for room. */
+  private final Set<Stream> blockedStreams = new LinkedHashSet<>();
+
+  /** The identifier of the next stream (negative once exhausted). */
+  private int nextStreamId = 1;
+
+  /** The window of the proxy server for the whole connection. */
+  private long sendWindow = DEFAULT_WINDOW_SIZE;
+
+  /** The window left to the proxy server for the whole connection. */
+  private int receiveWindow = DEFAULT_WINDOW_SIZE;
+
+  /** The settings of the proxy server. */
+  private int peerInitialWindowSize = DEFAULT_WINDOW_SIZE;
+  private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+  private long peerMaxConcurrentStreams = Integer.MAX_VALUE;
+
+  private boolean connected;
+  private boolean goingAway;
+  private boolean closed;
+
+  /** A failure to send, reported on the next select. */
+  private IOException writeFailure;
+
+  /** The time, in nanoseconds, the connection started. */
+  private long connectStart;
+
+  /** The timeout of the connection setup, or of the idle connection. */
+  private final ProxyTimingWheel.Timeout timeout = new ProxyTimingWheel.Timeout() {
+    void expire() {
+
+      try {
+        timedOut();
+      }
+
+      // only this connection, the other timeouts of the loop still expire
+      catch (RuntimeException e) {
+        abort(new IOException("the connection to the proxy server failed", e));
+      }
+    }
+  };
+
+  /** The metrics the connection is recorded in. */
+  private final ProxyMetrics metrics = ProxyMetrics.getDefault();
+
+  /**
+   * Creates a new connection, not connected yet.
+   */
+  Http2Connection(final ProxyForwarderLoop loop, final ProxyForwarder forwarder, final ProxyUpstream upstream) {
+    this.loop = loop;
+    this.forwarder = forwarder;
+    this.upstream = upstream;
+    this.streamWindowSize = forwarder.getBufferPool().getBufferSize();
+  }
+
+  /**
+   * Starts connecting to the proxy server, without blocking.
+   */
+  void connect(final Selector selector) throws IOException {
+
+    connectStart = loop.now();
+
+    channel = SocketChannel.open();
+    channel.configureBlocking(false);
+    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+    key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+
+    loop.getTimingWheel().schedule(timeout, connectStart + TimeUnit.MILLISECONDS.toNanos(upstream.getConnector().getConnectTimeout()));
+
+    if (channel.connect(upstream.getAddress())) {
+      connected();
+    }
+  }
+
+  /**
+   * Opens a new stream for a tunnel, right away if the connection is ready
+   * and the proxy server allows one more, later otherwise.
+   */
+  Stream openStream(final ProxyTunnel tunnel, final String host, final int port) {
+
+    String authority = (host.indexOf(':') != -1 && !host.startsWith("[") ? "[" + host + "]" : host) + ":" + port;
+
+    Stream stream = new Stream(tunnel, authority);
+    pendingStreams.offer(stream);
+
+    loop.getTimingWheel().cancel(timeout);
+
+    if (connected) {
+      openPendingStreams();
+      flushQuietly();
+    }
+
+    return stream;
+  }
+
+  /**
+   * @return <code>true</code> if new streams can be opened on the connection
+   */
+  boolean isAvailable() {
+    return !closed && !goingAway && nextStreamId > 0;
+  }
+
+  /**
+   * @return the number of streams, open or waiting to be opened
+   */
+  int getStreamCount() {
+    return streams.size() + pendingStreams.size();
+  }
+
+  ProxyUpstream getUpstream() {
+    return upstream;
+  }
+
+  /**
+   * Handles the readiness of the connection.
+   */
+  void handle(final SelectionKey key) {
+
+    try {
+
+      if (writeFailure != null) {
+        throw writeFailure;
+      }
+
+      if (key.isValid() && key.isConnectable()) {
+        channel.finishConnect();
+        connected();
+      }
+
+      if (key.isValid() && key.isWritable()) {
+        flush();
+        resumeBlockedStreams();
+      }
+
+      if (key.isValid() && key.isReadable()) {
+        read();
+      }
+
+      if (!closed) {
+        flush();
+      }
+    }
+
+    catch (IOException e) {
+      abort(e);
+    }
+  }
+
+  /**
+   * Sends the preface and the settings, and opens the waiting streams.
+   */
+  private void connected() throws IOException {
+
+    connected = true;
+
+    Proxy proxy = upstream.getConnector().getProxy();
+
+    metrics.connected(proxy, loop.now() - connectStart);
+
+    if (ProxyEvents.isEnabled()) {
+      ProxyEvents.emit(ProxyEvent.Type.CONNECTION, proxy, null, 0, connectStart, null, 0);
+    }
+
+    out.put(PREFACE);
+
+    writeFrameHeader(12, SETTINGS, 0, 0);
+    out.putShort((short) SETTINGS_ENABLE_PUSH).putInt(0);
+    out.putShort((short) SETTINGS_INITIAL_WINDOW_SIZE).putInt(streamWindowSize);
+
+    writeWindowUpdate(0, CONNECTION_WINDOW_SIZE - DEFAULT_WINDOW_SIZE);
+    receiveWindow = CONNECTION_WINDOW_SIZE;
+
+    openPendingStreams();
+
+    if (getStreamCount() == 0) {
+      scheduleIdleTimeout();
+    } else {
+      loop.getTimingWheel().cancel(timeout);
+    }
+
+    flush();
+  }
+
+  /**
+   * Opens as many of the waiting streams as the proxy server allows.
+   */
+  private void openPendingStreams() {
+
+    while (!pendingStreams.isEmpty() && streams.size() < peerMaxConcurrentStreams) {
+
+      Stream stream = pendingStreams.poll();
+
+      if (goingAway || nextStreamId < 0) {
+        stream.failed(new IOException("the connection to the proxy server cannot open more streams"));
+        continue;
+      }
+
+      stream.id = nextStreamId;
+      nextStreamId += 2;
+
+      stream.sendWindow = peerInitialWindowSize;
+      stream.receiveWindow = streamWindowSize;
+
+      streams.put(stream.id, stream);
+
+      writeHeaders(stream);
+    }
+  }
+
+  /**
+   * Writes the <code>CONNECT</code> request of a stream, split into as many
+   * frames as needed.
+   */
+  private void writeHeaders(final Stream stream) {
+
+    ProxyConnector connector = upstream.getConnector();
+
+    String authorization = connector.getProxy().isRequiringAuthentication() ? connector.createBasicAuthorization() : null;
+
+    ByteBuffer block = ByteBuffer.allocate(64 + 2 * (stream.authority.length() + (authorization == null ? 0 : authorization.length())));
+
+    Hpack.encodeHeader(block, ":method", "CONNECT");
+    Hpack.encodeHeader(block, ":authority", stream.authority);
+
+    if (authorization != null) {
+      Hpack.encodeHeader(block, "proxy-authorization", authorization);
+    }
+
+    block.flip();
+
+    int type = HEADERS;
+
+    do {
+
+      int length = Math.min(block.remaining(), peerMaxFrameSize);
+
+      ensureRoom(FRAME_HEADER_SIZE + length);
+      writeFrameHeader(length, type, length == block.remaining() ? FLAG_END_HEADERS : 0, stream.id);
+
+      int limit = block.limit();
+      block.limit(block.position() + length);
+      out.put(block);
+      block.limit(limit);
+
+      type = CONTINUATION;
+    }
+
+    while (block.hasRemaining());
+  }
+
+  /**
+   * Reads from the proxy server, and processes the complete frames.
+   */
+  private void read() throws IOException {
+
+    if (channel.read(in) == -1) {
+      throw new IOException("the proxy server closed the connection");
+    }
+
+    in.flip();
+
+    try {
+
+      while (!closed && in.remaining() >= FRAME_HEADER_SIZE) {
+
+        int start = in.position();
+        int length = (in.get(start) & 0xff) << 16 | (in.get(start + 1) & 0xff) << 8 | (in.get(start + 2) & 0xff);
+
+        if (length > DEFAULT_MAX_FRAME_SIZE) {
+          throw connectionError(FRAME_SIZE_ERROR, "frame too large: " + length);
+        }
+
+        if (in.remaining() < FRAME_HEADER_SIZE + length) {
+          break;
+        }
+
+        int type = in.get(start + 3) & 0xff;
+        int flags = in.get(start + 4) & 0xff;
+        int streamId = in.getInt(start + 5) & 0x7fffffff;
+
+        // the payload only, without copying it
+        int limit = in.limit();
+        int end = start + FRAME_HEADER_SIZE + length;
+
+        in.limit(end);
+        in.position(start + FRAME_HEADER_SIZE);
+
+        if (headerBlockStreamId != 0 && (type != CONTINUATION || streamId != headerBlockStreamId)) {
+          throw connectionError(PROTOCOL_ERROR, "header block interrupted");
+        }
+
+        handleFrame(type, flags, streamId, in);
+
+        in.limit(limit);
+        in.position(end);
+      }
+    }
+
+    finally {
+      in.compact();
+    }
+  }
+
+  private void handleFrame(final int type, final int flags, final int streamId, final ByteBuffer payload) throws IOException {
+
+    switch (type) {
+
+      case DATA:
+        handleData(flags, streamId, payload);
+        break;
+
+      case HEADERS:
+        handleHeaders(flags, streamId, payload);
+        break;
+
+      case CONTINUATION:
+        handleContinuation(flags, streamId, payload);
+        break;
+
+      case RST_STREAM:
+        handleReset(streamId, payload);
+        break;
+
+      case SETTINGS:
+        handleSettings(flags, streamId, payload);
+        break;
+
+      case PING:
+        if ((flags & FLAG_ACK) == 0) {
+          ensureRoom(FRAME_HEADER_SIZE + 8);
+          writeFrameHeader(8, PING, FLAG_ACK, 0);
+          out.put(payload);
+        }
+        break;
+
+      case GOAWAY:
+        handleGoAway(payload);
+        break;
+
+      case WINDOW_UPDATE:
+        handleWindowUpdate(streamId, payload);
+        break;
+
+      case PUSH_PROMISE:
+        throw connectionError(PROTOCOL_ERROR, "push promise (disabled)");
+
+      default:
+        // the priorities, and the unknown frames, are ignored
+    }
+  }
+
+  private void handleData(final int flags, final int streamId, final ByteBuffer payload) throws IOException {
+
+    int length = payload.remaining();
+
+    if (streamId == 0) {
+      throw connectionError(PROTOCOL_ERROR, "data on the connection");
+    }
+
+    if (length > receiveWindow) {
+      throw connectionError(FLOW_CONTROL_ERROR, "connection window exceeded");
+    }
+
+    // the streams are the ones limiting what is buffered, the window of the
+    // connection is given back right away
+    receiveWindow -= length;
+
+    if (receiveWindow < CONNECTION_WINDOW_SIZE / 2) {
+      writeWindowUpdate(0, CONNECTION_WINDOW_SIZE - receiveWindow);
+      receiveWindow = CONNECTION_WINDOW_SIZE;
+    }
+
+    int padding = readPadding(flags, payload);
+
+    Stream stream = streams.get(streamId);
+
+    // a stream already closed on this side
+    if (stream == null) {
+      return;
+    }
+
+    if (length > stream.receiveWindow) {
+      stream.reset(FLOW_CONTROL_ERROR, new IOException("the proxy server exceeded the window of the stream"));
+      return;
+    }
+
+    if (!stream.responded || stream.endReceived) {
+      stream.reset(PROTOCOL_ERROR, new IOException("the proxy server sent unexpected data"));
+      return;
+    }
+
+    stream.receiveWindow -= length;
+
+    // the padding never reaches the relay buffer
+    stream.consumed(length - payload.remaining() + padding);
+
+    payload.limit(payload.limit() - padding);
+
+    if (payload.hasRemaining()) {
+      stream.tunnel.streamData(payload);
+    }
+
+    if ((flags & FLAG_END_STREAM) != 0 && !stream.closed) {
+      stream.endReceived = true;
+      stream.tunnel.streamEnded();
+    }
+  }
+
+  private void handleHeaders(final int flags, final int streamId, final ByteBuffer payload) throws IOException {
+
+    if (streamId == 0) {
+      throw connectionError(PROTOCOL_ERROR, "headers on the connection");
+    }
+
+    int padding = readPadding(flags, payload);
+
+    if ((flags & FLAG_PRIORITY) != 0) {
+
+      if (payload.remaining() < 5 + padding) {
+        throw connectionError(FRAME_SIZE_ERROR, "headers too short");
+      }
+
+      payload.position(payload.position() + 5);
+    }
+
+    payload.limit(payload.limit() - padding);
+
+    headerBlock.clear();
+    appendHeaderBlock(payload);
+
+    if ((flags & FLAG_END_HEADERS) != 0) {
+      headersReceived(streamId, (flags & FLAG_END_STREAM) != 0);
+    }
+
+    else {
+      headerBlockStreamId = streamId;
+      headerBlockEndStream = (flags & FLAG_END_STREAM) != 0;
+    }
+  }
+
+  private void handleContinuation(final int flags, final int streamId, final ByteBuffer payload) throws IOException {
+
+    if (headerBlockStreamId == 0) {
+      throw connectionError(PROTOCOL_ERROR, "unexpected continuation");
+    }
+
+    appendHeaderBlock(payload);
+
+    if ((flags & FLAG_END_HEADERS) != 0) {
+      headerBlockStreamId = 0;
+      headersReceived(streamId, headerBlockEndStream);
+    }
+  }
+
+  private void appendHeaderBlock(final ByteBuffer payload) throws IOException {
+
+    if (headerBlock.remaining() < payload.remaining()) {
+
+      if (headerBlock.position() + payload.remaining() > MAX_HEADER_BLOCK_SIZE) {
+        throw connectionError(PROTOCOL_ERROR, "header block too large");
+      }
+
+      ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * headerBlock.capacity(), headerBlock.position() + payload.remaining()));
+      headerBlock.flip();
+      larger.put(headerBlock);
+      headerBlock = larger;
+    }
+
+    headerBlock.put(payload);
+  }
+
+  /**
+   * Decodes a complete header block (even if its stream is gone, to keep the
+   * dynamic table of the decoder), and answers the tunnel, if still waiting.
+   */
+  private void headersReceived(final int streamId, final boolean endStream) throws IOException {
+
+    headers.clear();
+    headerBlock.flip();
+
+    try {
+      decoder.decode(headerBlock, headers);
+    } catch (IOException e) {
+      throw connectionError(COMPRESSION_ERROR, e.getMessage());
+    }
+
+    Stream stream = streams.get(streamId);
+
+    if (stream == null) {
+      return;
+    }
+
+    // trailers
+    if (stream.responded) {
+
+      if (endStream) {
+        stream.endReceived = true;
+        stream.tunnel.streamEnded();
+      }
+
+      return;
+    }
+
+    int statusCode = -1;
+
+    for (int i = 0; i < headers.size(); i += 2) {
+      if (headers.get(i).equals(":status")) {
+        try {
+          statusCode = Integer.parseInt(headers.get(i + 1));
+        } catch (NumberFormatException e) {
+          statusCode = -1;
+        }
+      }
+    }
+
+    if (statusCode < 100 || statusCode > 999) {
+      stream.reset(PROTOCOL_ERROR, new IOException("malformed response: no valid status"));
+      return;
+    }
+
+    // informational, the final response follows
+    if (statusCode < 200 && !endStream) {
+      return;
+    }
+
+    stream.responded = true;
+
+    if (statusCode != 200) {
+      stream.failed(new ProxyResponseException(statusCode, "HTTP/2 " + statusCode));
+      return;
+    }
+
+    stream.tunnel.streamEstablished();
+
+    if (endStream && !stream.closed) {
+      stream.endReceived = true;
+      stream.tunnel.streamEnded();
+    }
+  }
+
+  private void handleReset(final int streamId, final ByteBuffer payload) throws IOException {
+
+    if (streamId == 0 || payload.remaining() != 4) {
+      throw connectionError(PROTOCOL_ERROR, "malformed reset");
+    }
+
+    int errorCode = payload.getInt();
+
+    Stream stream = streams.get(streamId);
+
+    if (stream == null) {
+      return;
+    }
+
+    // the proxy server answered everything and does not want the rest
+    if (errorCode == NO_ERROR && stream.endReceived) {
+      stream.remove();
+      stream.tunnel.streamStopped();
+      return;
+    }
+
+    stream.remove();
+    stream.failed(new IOException("the proxy server reset the stream (error " + errorCode + ")"));
+  }
+
+  private void handleSettings(final int flags, final int streamId, final ByteBuffer payload) throws IOException {
+
+    if (streamId != 0) {
+      throw connectionError(PROTOCOL_ERROR, "settings on a stream");
+    }
+
+    if ((flags & FLAG_ACK) != 0) {
+      return;
+    }
+
+    if (payload.remaining() % 6 != 0) {
+      throw connectionError(FRAME_SIZE_ERROR, "malformed settings");
+    }
+
+    while (payload.hasRemaining()) {
+
+      int identifier = payload.getShort() & 0xffff;
+      int value = payload.getInt();
+
+      switch (identifier) {
+
+        case SETTINGS_MAX_CONCURRENT_STREAMS:
+          peerMaxConcurrentStreams = value & 0xffffffffL;
+          break;
+
+        case SETTINGS_INITIAL_WINDOW_SIZE:
+
+          if (value < 0) {
+            throw connectionError(FLOW_CONTROL_ERROR, "initial window too large");
+          }
+
+          for (Stream stream : streams.values()) {
+
+            stream.sendWindow += value - peerInitialWindowSize;
+
+            if (stream.sendWindow > Integer.MAX_VALUE) {
+              throw connectionError(FLOW_CONTROL_ERROR, "stream window too large");
+            }
+          }
+
+          peerInitialWindowSize = value;
+          break;
+
+        case SETTINGS_MAX_FRAME_SIZE:
+
+          if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xffffff) {
+            throw connectionError(PROTOCOL_ERROR, "invalid maximum frame size");
+          }
+
+          peerMaxFrameSize = value;
+          break;
+
+        default:
+          // the size of the table (the encoder does not use one), and the
+          // unknown settings, are ignored
+      }
+    }
+
+    ensureRoom(FRAME_HEADER_SIZE);
+    writeFrameHeader(0, SETTINGS, FLAG_ACK, 0);
+
+    openPendingStreams();
+    resumeBlockedStreams();
+  }
+
+  private void handleGoAway(final ByteBuffer payload) throws IOException {
+
+    if (payload.remaining() < 8) {
+      throw connectionError(FRAME_SIZE_ERROR, "malformed goaway");
+    }
+
+    int lastStreamId = payload.getInt() & 0x7fffffff;
+    int errorCode = payload.getInt();
+
+    goingAway = true;
+
+    IOException e = new IOException("the proxy server is closing the connection (error " + errorCode + ")");
+
+    // never processed by the proxy server
+    for (Stream stream : new ArrayList<>(streams.values())) {
+      if (stream.id > lastStreamId) {
+        stream.remove();
+        stream.failed(e);
+      }
+    }
+
+    openPendingStreams();
+
+    if (getStreamCount() == 0) {
+      close();
+    }
+  }
+
+  private void handleWindowUpdate(final int streamId, final ByteBuffer payload) throws IOException {
+
+    if (payload.remaining() != 4) {
+      throw connectionError(FRAME_SIZE_ERROR, "malformed window update");
+    }
+
+    int increment = payload.getInt() & 0x7fffffff;
+
+    if (streamId == 0) {
+
+      if (increment == 0) {
+        throw connectionError(PROTOCOL_ERROR, "window update of 0");
+      }
+
+      sendWindow += increment;
+
+      if (sendWindow > Integer.MAX_VALUE) {
+        throw connectionError(FLOW_CONTROL_ERROR, "connection window too large");
+      }
+
+      resumeBlockedStreams();
+
+      return;
+    }
+
+    Stream stream = streams.get(streamId);
+
+    if (stream == null) {
+      return;
+    }
+
+    if (increment == 0) {
+      stream.reset(PROTOCOL_ERROR, new IOException("the proxy server sent a window update of 0"));
+      return;
+    }
+
+    stream.sendWindow += increment;
+
+    if (stream.sendWindow > Integer.MAX_VALUE) {
+      stream.reset(FLOW_CONTROL_ERROR, new IOException("the proxy server overflowed the window of the stream"));
+      return;
+    }
+
+    if (blockedStreams.remove(stream)) {
+      stream.tunnel.streamWritable();
+    }
+  }
+
+  /**
+   * Reads the length of the padding of a frame, if padded.
+   */
+  private int readPadding(final int flags, final ByteBuffer payload) throws IOException {
+
+    if ((flags & FLAG_PADDED) == 0) {
+      return 0;
+    }
+
+    if (!payload.hasRemaining()) {
+      throw connectionError(FRAME_SIZE_ERROR, "padded frame too short");
+    }
+
+    int padding = payload.get() & 0xff;
+
+    if (padding > payload.remaining()) {
+      throw connectionError(PROTOCOL_ERROR, "padding too large");
+    }
+
+    return padding;
+  }
+
+  /**
+   * Lets the blocked streams send again, while there is room.
+   */
+  private void resumeBlockedStreams() {
+
+    if (blockedStreams.isEmpty()) {
+      return;
+    }
+
+    for (Stream stream : new ArrayList<>(blockedStreams)) {
+
+      if (closed || sendWindow <= 0 || out.position() >= OUTPUT_LIMIT) {
+        return;
+      }
+
+      if (blockedStreams.remove(stream)) {
+        stream.tunnel.streamWritable();
+      }
+    }
+  }
+
+  private void writeFrameHeader(final int length, final int type, final int flags, final int streamId) {
+    out.put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length);
+    out.put((byte) type).put((byte) flags).putInt(streamId);
+  }
+
+  private void writeWindowUpdate(final int streamId, final int increment) {
+    ensureRoom(FRAME_HEADER_SIZE + 4);
+    writeFrameHeader(4, WINDOW_UPDATE, 0, streamId);
+    out.putInt(increment);
+  }
+
+  private void writeReset(final int streamId, final int errorCode) {
+    ensureRoom(FRAME_HEADER_SIZE + 4);
+    writeFrameHeader(4, RST_STREAM, 0, streamId);
+    out.putInt(errorCode);
+  }
+
+  /**
+   * Makes room for a frame (the control frames are never held back, only the
+   * data waits).
+   */
+  private void ensureRoom(final int size) {
+
+    if (out.remaining() >= size) {
+      return;
+    }
+
+    ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * out.capacity(), out.position() + size));
+    out.flip();
+    larger.put(out);
+    out = larger;
+  }
+
+  /**
+   * Returns the error to fail the connection with, after telling the proxy
+   * server why.
+   */
+  private IOException connectionError(final int errorCode, final String message) {
+
+    if (connected) {
+      ensureRoom(FRAME_HEADER_SIZE + 8);
+      writeFrameHeader(8, GOAWAY, 0, 0);
+      out.putInt(0).putInt(errorCode);
+      flushQuietly();
+    }
+
+    return new IOException("HTTP/2 error " + errorCode + ": " + message);
+  }
+
+  /**
+   * Writes as much as possible of the pending frames, and waits for the
+   * connection to be writable if anything is left.
+   */
+  private void flush() throws IOException {
+
+    if (!connected || closed) {
+      return;
+    }
+
+    if (out.position() > 0) {
+
+      out.flip();
+
+      try {
+        channel.write(out);
+      } finally {
+        out.compact();
+      }
+
+      // a burst of control frames made it grow, back to normal once sent
+      if (out.position() == 0 && out.capacity() > OUTPUT_LIMIT + 1024) {
+        out = ByteBuffer.allocate(OUTPUT_LIMIT + 1024);
+      }
+    }
+
+    if (key.isValid()) {
+      key.interestOps(out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+  }
+
+  /**
+   * Writes the pending frames on behalf of a tunnel: a failure is kept, and
+   * fails the connection (and all its streams) on the next select, not the
+   * tunnel in the middle of relaying.
+   */
+  private void flushQuietly() {
+
+    try {
+      flush();
+    }
+
+    catch (IOException e) {
+
+      writeFailure = e;
+
+      if (key.isValid()) {
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      }
+    }
+  }
+
+  private void scheduleIdleTimeout() {
+
+    int idleTimeout = forwarder.getIdleTimeout();
+
+    if (idleTimeout > 0) {
+      loop.getTimingWheel().schedule(timeout, loop.now() + TimeUnit.MILLISECONDS.toNanos(idleTimeout));
+    }
+  }
+
+  /**
+   * Handles the expired timeout: a connection not connected in time fails, an
+   * idle one is closed.
+   */
+  private void timedOut() {
+
+    if (!connected) {
+      abort(new SocketTimeoutException("connect timed out"));
+    }
+
+    else if (getStreamCount() == 0) {
+      close();
+    }
+  }
+
+  /**
+   * Called once a stream is gone: an idle connection is kept until the idle
+   * timeout, unless going away.
+   */
+  private void streamRemoved() {
+
+    if (closed) {
+      return;
+    }
+
+    openPendingStreams();
+
+    if (getStreamCount() == 0) {
+
+      if (goingAway) {
+        close();
+        return;
+      }
+
+      scheduleIdleTimeout();
+    }
+
+    flushQuietly();
+  }
+
+  /**
+   * Closes the connection, telling the proxy server first, and fails the
+   * streams left, if any.
+   */
+  void close() {
+
+    if (closed) {
+      return;
+    }
+
+    if (connected && writeFailure == null) {
+
+      ensureRoom(FRAME_HEADER_SIZE + 8);
+      writeFrameHeader(8, GOAWAY, 0, 0);
+      out.putInt(0).putInt(NO_ERROR);
+
+      flushQuietly();
+    }
+
+    abort(new IOException("the connection to the proxy server was closed"));
+  }
+
+  /**
+   * Closes the connection right away, failing all its streams.
+   */
+  void abort(final IOException e) {
+
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+
+    loop.getTimingWheel().cancel(timeout);
+
+    if (!connected && ProxyEvents.isEnabled()) {
+      ProxyEvents.emit(ProxyEvent.Type.CONNECTION, upstream.getConnector().getProxy(), null, 0, connectStart, ProxyEvents.describe(e), 0);
+    }
+
+    List<Stream> failed = new ArrayList<>(streams.values());
+    failed.addAll(pendingStreams);
+
+    streams.clear();
+    pendingStreams.clear();
+    blockedStreams.clear();
+
+    for (Stream stream : failed) {
+      stream.closed = true;
+      stream.tunnel.streamFailed(e);
+    }
+
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e2) {
+        // nothing to do, the connection is discarded anyway
+      }
+    }
+
+    loop.http2ConnectionClosed(this);
+  }
+
+  /**
+   * A <code>CONNECT</code> stream, carrying one tunnel.
+   */
+  final class Stream {
+
+    /** The tunnel carried by the stream. */
+    private final ProxyTunnel tunnel;
+
+    /** The destination of the tunnel. */
+    private final String authority;
+
+    /** The identifier, or 0 until opened. */
+    private int id;
+
+    /** The window of the proxy server for the stream. */
+    private long sendWindow;
+
+    /** The window left to the proxy server for the stream. */
+    private int receiveWindow;
+
+    /** The bytes consumed, not yet given back to the window. */
+    private int consumedSinceUpdate;
+
+    private boolean responded;
+    private boolean endReceived;
+    private boolean endSent;
+    private boolean closed;
+
+    private Stream(final ProxyTunnel tunnel, final String authority) {
+      this.tunnel = tunnel;
+      this.authority = authority;
+    }
+
+    /**
+     * Sends as much of the buffer (kept in fill mode) as the windows allow,
+     * the rest is sent once the proxy server gives more room.
+     * 
+     * @return the number of bytes taken from the buffer
+     */
+    int send(final ByteBuffer buffer) {
+
+      if (closed || id == 0 || endSent || buffer.position() == 0) {
+        return 0;
+      }
+
+      int sent = 0;
+
+      buffer.flip();
+
+      try {
+
+        while (buffer.hasRemaining()) {
+
+          int length = (int) Math.min(Math.min(buffer.remaining(), peerMaxFrameSize), Math.min(Math.min(sendWindow, Http2Connection.this.sendWindow), OUTPUT_LIMIT - out.position() - FRAME_HEADER_SIZE));
+
+          if (length <= 0) {
+            blockedStreams.add(this);
+            break;
+          }
+
+          writeFrameHeader(length, DATA, 0, id);
+
+          int limit = buffer.limit();
+          buffer.limit(buffer.position() + length);
+          out.put(buffer);
+          buffer.limit(limit);
+
+          sendWindow -= length;
+          Http2Connection.this.sendWindow -= length;
+
+          sent += length;
+        }
+      }
+
+      finally {
+        buffer.compact();
+      }
+
+      if (sent > 0) {
+        flushQuietly();
+      }
+
+      return sent;
+    }
+
+    /**
+     * Ends the stream on this side (the client shut down its output).
+     */
+    void end() {
+
+      if (closed || endSent) {
+        return;
+      }
+
+      endSent = true;
+
+      if (id == 0) {
+        return;
+      }
+
+      ensureRoom(FRAME_HEADER_SIZE);
+      writeFrameHeader(0, DATA, FLAG_END_STREAM, id);
+
+      flushQuietly();
+    }
+
+    /**
+     * Gives back to the window of the stream the bytes written to the client
+     * (in batches, half a window at least, not to flood the proxy server with
+     * tiny updates).
+     */
+    void consumed(final int bytes) {
+
+      if (closed || endReceived) {
+        return;
+      }
+
+      consumedSinceUpdate += bytes;
+
+      if (consumedSinceUpdate >= streamWindowSize / 2) {
+
+        writeWindowUpdate(id, consumedSinceUpdate);
+
+        receiveWindow += consumedSinceUpdate;
+        consumedSinceUpdate = 0;
+
+        flushQuietly();
+      }
+    }
+
+    /**
+     * Closes the stream (the tunnel is closed), cancelling it unless finished
+     * both ways.
+     */
+    void close() {
+
+      if (closed) {
+        return;
+      }
+
+      if (id != 0 && !(endSent && endReceived) && !Http2Connection.this.closed) {
+        writeReset(id, CANCEL);
+      }
+
+      remove();
+    }
+
+    /**
+     * Resets the stream because of an error of the proxy server, and fails the
+     * tunnel.
+     */
+    private void reset(final int errorCode, final IOException e) {
+      writeReset(id, errorCode);
+      remove();
+      failed(e);
+    }
+
+    private void failed(final IOException e) {
+      closed = true;
+      tunnel.streamFailed(e);
+    }
+
+    /**
+     * Forgets the stream.
+     */
+    private void remove() {
+
+      closed = true;
+
+      if (id != 0) {
+        streams.remove(id);
+      } else {
+        pendingStreams.remove(this);
+      }
+
+      blockedStreams.remove(this);
+
+      streamRemoved();
+    }
+  }
+
+}
@@ -38,7 +38,7 @@ import javax.xml.bind.DatatypeConverter;
  * storing and decrypted after loading.
  * 
  * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
- * @version 1.1, June 6, 2014
+ * @version 1.6, October 19, 2026
  */
 public class Proxy {
 
@@ -55,6 +55,8 @@ public class Proxy {
   private static final String STORE_FILE_AUTHENTICATION = "authentication";
   private static final String STORE_FILE_USERNAME = "username";
   private static final String STORE_FILE_PASSWORD = "password";
+  private static final String STORE_FILE_SECURE = "secure";
+  private static final String STORE_FILE_TYPE = "type";
 
   /** The properties for the encryption/decryption configuration. */
   private static final String CRYPTO_DIGEST_ALGORITHM = "SHA";
@@ -70,6 +72,9 @@ public class Proxy {
   /** <code>True</code> if the proxy should be enabled. */
   private boolean enabled;
 
+  /** The protocol spoken by the proxy server. */
+  private ProxyType type = ProxyType.HTTP;
+
   /** The host name, or address, of the proxy server. */
   private String host;
 
@@ -85,6 +90,12 @@ public class Proxy {
   /** The user's password for the proxy server. */
   private String password;
 
+  /** <code>True</code> if the connection to the proxy server uses TLS. */
+  private boolean secure;
+
+  /** The key last built by {@link #getMetricsKey()}. */
+  private volatile MetricsKey metricsKey;
+
   /**
    * Creates an empty proxy BO.
    */
@@ -160,6 +171,7 @@ public class Proxy {
     Properties p = new Properties();
 
     p.setProperty(STORE_FILE_ENABLED, Boolean.toString(enabled));
+    p.setProperty(STORE_FILE_TYPE, type.name());
 
     p.setProperty(STORE_FILE_HOST, host);
     p.setProperty(STORE_FILE_PORT, Integer.toString(port));
@@ -173,6 +185,8 @@ public class Proxy {
       p.setProperty(STORE_FILE_PASSWORD, encrypt(password));
     }
 
+    p.setProperty(STORE_FILE_SECURE, Boolean.toString(secure));
+
     p.storeToXML(new FileOutputStream(storeFile), null);
   }
 
@@ -190,6 +204,7 @@ public class Proxy {
     p.loadFromXML(new FileInputStream(storeFile));
 
     enabled = Boolean.parseBoolean(p.getProperty(STORE_FILE_ENABLED, "true"));
+    type = ProxyType.valueOf(p.getProperty(STORE_FILE_TYPE, ProxyType.HTTP.name()));
 
     host = p.getProperty(STORE_FILE_HOST);
     port = Integer.parseInt(p.getProperty(STORE_FILE_PORT));
@@ -201,6 +216,8 @@ public class Proxy {
     if (password != null) {
       password = decrypt(password);
     }
+
+    secure = Boolean.parseBoolean(p.getProperty(STORE_FILE_SECURE, "false"));
   }
 
   /**
@@ -214,15 +231,16 @@ public class Proxy {
    * @throws GeneralSecurityException
    *           if the encryption fails
    */
-  private String encrypt(final String string) throws GeneralSecurityException {
-
-    MessageDigest digest = MessageDigest.getInstance(CRYPTO_DIGEST_ALGORITHM);
-    digest.update(CRYPTO_DIGEST_UPDATE_INPUT);
-
-    Key key = new SecretKeySpec(digest.digest(), 0, CRYPTO_KEY_LEN, CRYPTO_KEY_ALGORITHM);
+  static String encrypt(final String string) throws GeneralSecurityException {
+    return encrypt(createCipher(Cipher.ENCRYPT_MODE), string);
+  }
 
-    Cipher cipher = Cipher.getInstance(CRYPTO_CIPHER_TRANSFORMATION);
-    cipher.init(Cipher.ENCRYPT_MODE, key);
+  /**
+   * Encrypts the specified string with a cipher created by
+   * {@link #createCipher(int)} (reused for many strings, by one thread at a
+   * time).
+   */
+  static String encrypt(final Cipher cipher, final String string) throws GeneralSecurityException {
 
     byte[] input;
 
@@ -237,6 +255,27 @@ public class Proxy {
     return DatatypeConverter.printBase64Binary(encryptedData);
   }
 
+  /**
+   * Creates and initializes the cipher of the passwords (deriving the key
+   * and looking up the transformation, the costly part of encrypting a short
+   * string).
+   * 
+   * @param mode
+   *          {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+   */
+  static Cipher createCipher(final int mode) throws GeneralSecurityException {
+
+    MessageDigest digest = MessageDigest.getInstance(CRYPTO_DIGEST_ALGORITHM);
+    digest.update(CRYPTO_DIGEST_UPDATE_INPUT);
+
+    Key key = new SecretKeySpec(digest.digest(), 0, CRYPTO_KEY_LEN, CRYPTO_KEY_ALGORITHM);
+
+    Cipher cipher = Cipher.getInstance(CRYPTO_CIPHER_TRANSFORMATION);
+    cipher.init(mode, key);
+
+    return cipher;
+  }
+
   /**
    * Decrypts the specified string.
    * 
@@ -248,15 +287,9 @@ public class Proxy {
    * @throws GeneralSecurityException
    *           if the decryption fails
    */
-  private String decrypt(final String string) throws GeneralSecurityException {
-
-    MessageDigest digest = MessageDigest.getInstance(CRYPTO_DIGEST_ALGORITHM);
-    digest.update(CRYPTO_DIGEST_UPDATE_INPUT);
-
-    Key key = new SecretKeySpec(digest.digest(), 0, CRYPTO_KEY_LEN, CRYPTO_KEY_ALGORITHM);
+  static String decrypt(final String string) throws GeneralSecurityException {
 
-    Cipher cipher = Cipher.getInstance(CRYPTO_CIPHER_TRANSFORMATION);
-    cipher.init(Cipher.DECRYPT_MODE, key);
+    Cipher cipher = createCipher(Cipher.DECRYPT_MODE);
 
     byte[] decryptedData = cipher.doFinal(DatatypeConverter.parseBase64Binary(string));
 
@@ -297,6 +330,21 @@ public class Proxy {
     this.enabled = enabled;
   }
 
+  /**
+   * @return the type
+   */
+  public final ProxyType getType() {
+    return type;
+  }
+
+  /**
+   * @param type
+   *          the type to set
+   */
+  public final void setType(final ProxyType type) {
+    this.type = type;
+  }
+
   /**
    * @return the host
    */
@@ -372,4 +420,56 @@ public class Proxy {
     this.password = password;
   }
 
+  /**
+   * @return the secure
+   */
+  public final boolean isSecure() {
+    return secure;
+  }
+
+  /**
+   * @param secure
+   *          the secure to set
+   */
+  public final void setSecure(final boolean secure) {
+    this.secure = secure;
+  }
+
+  /**
+   * Returns <code>host:port</code>, the key of the proxy server in the
+   * {@link ProxyMetrics}. The key is built again only if the host or the port
+   * changed, since the metrics look it up for every connection.
+   */
+  String getMetricsKey() {
+
+    String host = this.host;
+    int port = this.port;
+
+    MetricsKey key = metricsKey;
+
+    if (key == null || key.host != host || key.port != port) {
+      key = new MetricsKey(host, port);
+      metricsKey = key;
+    }
+
+    return key.text;
+  }
+
+  /**
+   * A <code>host:port</code> key, with the host and the port it was built
+   * from.
+   */
+  private static final class MetricsKey {
+
+    private final String host;
+    private final int port;
+    private final String text;
+
+    private MetricsKey(final String host, final int port) {
+      this.host = host;
+      this.port = port;
+      this.text = host + ":" + port;
+    }
+  }
+
 }
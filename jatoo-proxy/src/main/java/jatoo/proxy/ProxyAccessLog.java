@@ -0,0 +1,545 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An access log, with a line for every connection handled by a
+ * {@link ProxyForwarder}: the moment it was closed, the client, the upstream
+ * proxy server, the destination, the status sent to the client, the bytes
+ * relayed in both directions and the duration, for example:
+ * 
+ * <pre>
+ * 2026-10-19T11:09:03.123Z 127.0.0.1:51234 proxy:8080 example.com:443 200 1234 5678 15
+ * </pre>
+ * 
+ * (a missing value is written as <code>-</code>, and the duration is in
+ * milliseconds).
+ * <p>
+ * The event loops must never wait for the disk, so a line is only recorded in
+ * a lock-free ring buffer, of preallocated entries, and written later by the
+ * thread of the log, in batches, through a single buffer (a
+ * {@link ProxyRingWriter}, shared with the {@link ProxyTraceRecorder}). When the file
+ * reaches its maximum size it is rotated: <code>access.log</code> becomes
+ * <code>access.log.1</code>, <code>access.log.1</code> becomes
+ * <code>access.log.2</code>, and so on, up to the maximum number of files.
+ * <p>
+ * If the lines come faster than the disk takes them and the ring buffer is
+ * full, the {@link OverflowPolicy} decides: the line is dropped (and counted)
+ * or the event loop waits for room.
+ * 
+ * <pre>
+ * ProxyAccessLog accessLog = new ProxyAccessLog(new File("access.log"));
+ * accessLog.start();
+ * forwarder.setAccessLog(accessLog);
+ * </pre>
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.1, October 19, 2026
+ */
+public class ProxyAccessLog implements Closeable {
+
+  /**
+   * What to do with a line when the ring buffer is full.
+   */
+  public enum OverflowPolicy {
+
+    /** The line is dropped, and counted. */
+    DROP,
+
+    /** The event loop waits for room (no line is lost). */
+    BLOCK
+  }
+
+  /** The default number of entries of the ring buffer. */
+  public static final int DEFAULT_CAPACITY = 8192;
+
+  /** The default maximum size of a file, in bytes. */
+  public static final long DEFAULT_MAX_FILE_SIZE = 10 * 1024 * 1024;
+
+  /** The default number of rotated files kept (besides the current one). */
+  public static final int DEFAULT_MAX_FILES = 5;
+
+  /** The longest line expected (a longer one is truncated). */
+  private static final int MAX_LINE_LENGTH = 2048;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** The file written. */
+  private final File file;
+
+  /** The entries of the ring buffer, by slot. */
+  private final Entry[] entries;
+
+  /** The ring buffer, and the thread of the log. */
+  private final ProxyRingWriter ring;
+
+  /** What to do with a line when the ring buffer is full. */
+  private final OverflowPolicy overflowPolicy;
+
+  /** The maximum size of a file, in bytes. */
+  private final long maxFileSize;
+
+  /** The number of rotated files kept. */
+  private final int maxFiles;
+
+  /** The file channel (the thread of the log only). */
+  private FileChannel channel;
+
+  /** The size of the current file (the thread of the log only). */
+  private long fileSize;
+
+  /**
+   * Creates a new access log, with the default limits and the
+   * {@link OverflowPolicy#DROP} policy.
+   * 
+   * @param file
+   *          the file to write
+   */
+  public ProxyAccessLog(final File file) {
+    this(file, DEFAULT_CAPACITY, OverflowPolicy.DROP, DEFAULT_MAX_FILE_SIZE, DEFAULT_MAX_FILES);
+  }
+
+  /**
+   * Creates a new access log.
+   * 
+   * @param file
+   *          the file to write
+   * @param capacity
+   *          the number of lines the ring buffer holds (rounded up to a power
+   *          of two)
+   * @param overflowPolicy
+   *          what to do with a line when the ring buffer is full
+   * @param maxFileSize
+   *          the size, in bytes, a file is rotated at
+   * @param maxFiles
+   *          the number of rotated files kept (besides the current one,
+   *          <code>0</code> to truncate the current one instead)
+   */
+  public ProxyAccessLog(final File file, final int capacity, final OverflowPolicy overflowPolicy, final long maxFileSize, final int maxFiles) {
+
+    if (capacity < 1 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("the capacity must be between 1 and 2^30");
+    }
+
+    if (maxFileSize < 1 || maxFiles < 0) {
+      throw new IllegalArgumentException("the maximum file size must be positive, and the maximum number of files cannot be negative");
+    }
+
+    this.file = file;
+    this.overflowPolicy = overflowPolicy;
+    this.maxFileSize = maxFileSize;
+    this.maxFiles = maxFiles;
+
+    // a line takes at most 4 bytes a character
+    ring = new ProxyRingWriter(capacity, overflowPolicy == OverflowPolicy.BLOCK, MAX_LINE_LENGTH * 4, new Writer());
+
+    entries = new Entry[ring.getCapacity()];
+
+    for (int i = 0; i < entries.length; i++) {
+      entries[i] = new Entry();
+    }
+  }
+
+  /**
+   * Opens the file (appending to it) and starts the thread of the log.
+   * 
+   * @throws IOException
+   *           if the file cannot be opened
+   */
+  public synchronized void start() throws IOException {
+
+    if (ring.isStartedOrClosed()) {
+      throw new IllegalStateException("the access log is already started");
+    }
+
+    open();
+
+    ring.start("jatoo-proxy-access-log");
+  }
+
+  /**
+   * Writes the lines still in the ring buffer, and closes the file. The lines
+   * logged afterwards are dropped.
+   */
+  @Override
+  public void close() {
+    ring.close();
+  }
+
+  //
+  // recording (the event loops)
+
+  /**
+   * Records a line, without blocking unless the ring buffer is full and the
+   * policy is {@link OverflowPolicy#BLOCK}, and without allocating.
+   * 
+   * @param client
+   *          the address of the client, or <code>null</code>
+   * @param upstream
+   *          the upstream proxy server, or <code>null</code>
+   * @param host
+   *          the destination host, or <code>null</code>
+   * @param port
+   *          the destination port
+   * @param status
+   *          the status sent to the client, or <code>0</code> if none
+   * @param bytesToUpstream
+   *          the bytes relayed from the client to the upstream
+   * @param bytesToClient
+   *          the bytes relayed from the upstream to the client
+   * @param duration
+   *          the duration of the connection, in nanoseconds
+   * 
+   * @return <code>false</code> if the line was dropped
+   */
+  boolean log(final InetSocketAddress client, final Proxy upstream, final String host, final int port, final int status, final long bytesToUpstream, final long bytesToClient, final long duration) {
+
+    long position = ring.claim();
+
+    if (position < 0) {
+      return false;
+    }
+
+    Entry entry = entries[ring.slot(position)];
+
+    entry.time = System.currentTimeMillis();
+    entry.client = client;
+    entry.upstream = upstream;
+    entry.host = host;
+    entry.port = port;
+    entry.status = status;
+    entry.bytesToUpstream = bytesToUpstream;
+    entry.bytesToClient = bytesToClient;
+    entry.duration = duration;
+
+    ring.publish(position);
+
+    return true;
+  }
+
+  //
+  // writing (the thread of the log)
+
+  /**
+   * Formats an entry, without the floating point or the date formatting of
+   * every line.
+   */
+  private static void format(final Entry entry, final Clock clock, final StringBuilder line) {
+
+    clock.format(entry.time, line);
+    line.append(' ');
+
+    if (entry.client != null) {
+      InetSocketAddress client = entry.client;
+      line.append(client.getAddress() != null ? client.getAddress().getHostAddress() : client.getHostString()).append(':').append(client.getPort());
+    } else {
+      line.append('-');
+    }
+
+    line.append(' ');
+
+    if (entry.upstream != null) {
+      line.append(entry.upstream.getHost()).append(':').append(entry.upstream.getPort());
+    } else {
+      line.append('-');
+    }
+
+    line.append(' ');
+
+    if (entry.host != null) {
+      line.append(entry.host).append(':').append(entry.port);
+    } else {
+      line.append('-');
+    }
+
+    line.append(' ');
+
+    if (entry.status > 0) {
+      line.append(entry.status);
+    } else {
+      line.append('-');
+    }
+
+    line.append(' ').append(entry.bytesToUpstream);
+    line.append(' ').append(entry.bytesToClient);
+    line.append(' ').append(TimeUnit.NANOSECONDS.toMillis(entry.duration));
+    line.append('\n');
+  }
+
+  /**
+   * Opens the file, appending to it.
+   */
+  private void open() throws IOException {
+
+    File parent = file.getAbsoluteFile().getParentFile();
+
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("cannot create the directory " + parent);
+    }
+
+    channel = new FileOutputStream(file, true).getChannel();
+    fileSize = channel.size();
+  }
+
+  /**
+   * Closes the current file, shifts the rotated ones (dropping the oldest),
+   * and opens a new one.
+   */
+  private void rotate() throws IOException {
+
+    closeFile();
+
+    if (maxFiles == 0) {
+
+      if (!file.delete() && file.exists()) {
+        throw new IOException("cannot delete " + file);
+      }
+    }
+
+    else {
+
+      File oldest = new File(file.getPath() + "." + maxFiles);
+
+      if (oldest.exists() && !oldest.delete()) {
+        throw new IOException("cannot delete " + oldest);
+      }
+
+      for (int i = maxFiles - 1; i >= 0; i--) {
+
+        File source = i == 0 ? file : new File(file.getPath() + "." + i);
+
+        if (source.exists() && !source.renameTo(new File(file.getPath() + "." + (i + 1)))) {
+          throw new IOException("cannot rename " + source);
+        }
+      }
+    }
+
+    open();
+  }
+
+  /**
+   * Closes the current file, if open.
+   */
+  private void closeFile() {
+
+    if (channel == null) {
+      return;
+    }
+
+    try {
+      channel.close();
+    } catch (IOException e) {
+      ring.failed(e);
+    }
+
+    channel = null;
+  }
+
+  //
+  // state
+
+  /**
+   * @return the file written
+   */
+  public final File getFile() {
+    return file;
+  }
+
+  /**
+   * @return the overflowPolicy
+   */
+  public final OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  /**
+   * @return the number of lines written
+   */
+  public final long getWrittenCount() {
+    return ring.getWrittenCount();
+  }
+
+  /**
+   * @return the number of lines dropped because the ring buffer was full (or
+   *         the log closed)
+   */
+  public final long getDroppedCount() {
+    return ring.getDroppedCount();
+  }
+
+  /**
+   * @return the last failure writing the file, or <code>null</code>
+   */
+  public final IOException getLastFailure() {
+    return ring.getLastFailure();
+  }
+
+  /**
+   * Formats the entries as lines, and writes them to the file, rotating it
+   * when it would grow past the maximum size (the thread of the log only).
+   */
+  private final class Writer implements ProxyRingWriter.Output {
+
+    private final StringBuilder line = new StringBuilder(256);
+    private final CharBuffer chars = CharBuffer.allocate(MAX_LINE_LENGTH);
+
+    private final CharsetEncoder encoder = UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private final Clock clock = new Clock();
+
+    @Override
+    public void encode(final int slot, final ByteBuffer bytes) {
+
+      Entry entry = entries[slot];
+
+      line.setLength(0);
+      format(entry, clock, line);
+
+      // released right away, the line holds everything needed
+      entry.clear();
+
+      chars.clear();
+      chars.append(line, 0, Math.min(line.length(), chars.capacity() - 1));
+      if (line.length() >= chars.capacity()) {
+        chars.append('\n');
+      }
+      chars.flip();
+
+      encoder.reset();
+      encoder.encode(chars, bytes, true);
+    }
+
+    /**
+     * A failure closes the file, and the lines are lost, but the log goes on
+     * (the file is opened again with the next batch, the disk may recover).
+     */
+    @Override
+    public void write(final ByteBuffer bytes) throws IOException {
+
+      try {
+
+        if (channel == null) {
+          open();
+        }
+
+        if (fileSize > 0 && fileSize + bytes.remaining() > maxFileSize) {
+          rotate();
+        }
+
+        while (bytes.hasRemaining()) {
+          fileSize += channel.write(bytes);
+        }
+      }
+
+      catch (IOException e) {
+        closeFile();
+        throw e;
+      }
+    }
+
+    @Override
+    public void close() {
+      closeFile();
+    }
+  }
+
+  /**
+   * An entry of the ring buffer (reused, lap after lap).
+   */
+  private static final class Entry {
+
+    long time;
+    InetSocketAddress client;
+    Proxy upstream;
+    String host;
+    int port;
+    int status;
+    long bytesToUpstream;
+    long bytesToClient;
+    long duration;
+
+    /** Drops the references, so they can be collected. */
+    void clear() {
+      client = null;
+      upstream = null;
+      host = null;
+    }
+  }
+
+  /**
+   * Formats the moments as ISO 8601 (UTC, with milliseconds), formatting the
+   * date and time only once a second.
+   */
+  private static final class Clock {
+
+    private final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+
+    /** The second formatted last, in milliseconds. */
+    private long second = Long.MIN_VALUE;
+
+    /** The formatted second. */
+    private String formatted;
+
+    Clock() {
+      format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    void format(final long time, final StringBuilder out) {
+
+      long millis = time % 1000;
+
+      if (millis < 0) {
+        millis += 1000;
+      }
+
+      if (time - millis != second) {
+        second = time - millis;
+        formatted = format.format(new Date(second));
+      }
+
+      out.append(formatted).append('.');
+
+      if (millis < 100) {
+        out.append('0');
+      }
+
+      if (millis < 10) {
+        out.append('0');
+      }
+
+      out.append(millis).append('Z');
+    }
+  }
+
+}
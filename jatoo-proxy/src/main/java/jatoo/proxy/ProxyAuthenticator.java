@@ -19,12 +19,15 @@ package jatoo.proxy;
 
 import java.net.Authenticator;
 import java.net.PasswordAuthentication;
+import java.net.URL;
 
 /**
- * {@link Authenticator} implementation used by {@link ProxyUtils}.
+ * {@link Authenticator} implementation used by {@link ProxyUtils}. Every
+ * request for the credentials (the JDK asks after a <code>407</code>) is
+ * traced with {@link ProxyEvents}.
  * 
  * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
- * @version 1.1, June 3, 2014
+ * @version 1.2, October 19, 2026
  */
 class ProxyAuthenticator extends Authenticator {
 
@@ -53,6 +56,19 @@ class ProxyAuthenticator extends Authenticator {
    */
   @Override
   protected PasswordAuthentication getPasswordAuthentication() {
+
+    if (ProxyEvents.isEnabled()) {
+
+      Proxy upstream = getRequestingHost() == null ? null : new Proxy(getRequestingHost(), getRequestingPort());
+      URL url = getRequestingURL();
+
+      if (url == null) {
+        ProxyEvents.emit(ProxyEvent.Type.AUTHENTICATION, upstream, null, 0, System.nanoTime(), null, 0);
+      } else {
+        ProxyEvents.emit(ProxyEvent.Type.AUTHENTICATION, upstream, url.getHost(), url.getPort() == -1 ? url.getDefaultPort() : url.getPort(), System.nanoTime(), null, 0);
+      }
+    }
+
     return passwordAuthentication;
   }
 
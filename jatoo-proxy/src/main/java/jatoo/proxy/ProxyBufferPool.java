@@ -0,0 +1,478 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of fixed size, direct {@link ByteBuffer}s, used for relaying and for
+ * parsing the headers, so that a high connection rate does not churn the
+ * garbage collector. The buffers are slices of large slabs (allocated when
+ * the pool runs out of buffers, and never freed), cached first in a small
+ * per-thread cache (an event loop leases and releases on the same thread, so
+ * it does not contend with the others) and then in a shared overflow queue.
+ * The thread caches are also known to the pool, so the buffers cached by a
+ * thread that ended (an event loop of a closed forwarder, for example) are
+ * moved back to the overflow queue before a new slab is allocated.
+ * <p>
+ * A buffer garbage collected without being released is counted as a leak,
+ * and its memory is recovered. With the leak detection enabled (by default
+ * only if the <code>jatoo.proxy.buffers.leakDetection</code> system property
+ * is <code>true</code>), every lease is also tracked, so the place a leaked
+ * buffer was leased from is known. Every buffer is weakly referenced by its
+ * {@link Region} (the slab and the offset of its memory, never a view
+ * of the buffer itself, which would keep it reachable on the runtimes where a
+ * view references the buffer it was created from).
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.2, October 19, 2026
+ */
+public class ProxyBufferPool {
+
+  /** The default size of a buffer. */
+  public static final int DEFAULT_BUFFER_SIZE = 16384;
+
+  /** The default size of a slab. */
+  public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+  /** The maximum number of buffers cached by a thread. */
+  private static final int THREAD_CACHE_SIZE = 32;
+
+  /** The pool shared by default. */
+  private static final ProxyBufferPool DEFAULT = new ProxyBufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_SLAB_SIZE);
+
+  static {
+    DEFAULT.setLeakDetectionEnabled(Boolean.getBoolean("jatoo.proxy.buffers.leakDetection"));
+  }
+
+  /** The size of a buffer. */
+  private final int bufferSize;
+
+  /** The size of a slab. */
+  private final int slabSize;
+
+  /** The buffers cached by every thread. */
+  private final ThreadLocal<ThreadCache> threadCache = new ThreadLocal<ThreadCache>() {
+    protected ThreadCache initialValue() {
+
+      ThreadCache cache = new ThreadCache(Thread.currentThread());
+
+      synchronized (threadCaches) {
+        threadCaches.add(cache);
+      }
+
+      return cache;
+    }
+  };
+
+  /**
+   * All the thread caches, so the buffers of a thread that ended are not lost
+   * with its thread locals.
+   */
+  private final List<ThreadCache> threadCaches = new ArrayList<>();
+
+  /** The buffers that did not fit in the thread caches. */
+  private final Queue<ByteBuffer> overflow = new ConcurrentLinkedQueue<>();
+
+  /** <code>True</code> if the leases are tracked. */
+  private volatile boolean leakDetectionEnabled;
+
+  /** The regions of the slabs, by the identity hash code of their buffer. */
+  private final Map<Integer, List<Region>> regions = new HashMap<>();
+
+  /** The regions whose buffer was garbage collected (so leaked). */
+  private final ReferenceQueue<ByteBuffer> leakedRegions = new ReferenceQueue<>();
+
+  private final AtomicLong leaseCount = new AtomicLong();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong outstandingCount = new AtomicLong();
+  private final AtomicLong slabCount = new AtomicLong();
+  private final AtomicLong leakCount = new AtomicLong();
+
+  /** Where the last detected leak was leased from. */
+  private volatile Throwable lastLeakTrace;
+
+  /**
+   * Creates a new pool.
+   * 
+   * @param bufferSize
+   *          the size of a buffer
+   * @param slabSize
+   *          the size of a slab (rounded down to a multiple of the buffer
+   *          size)
+   */
+  public ProxyBufferPool(final int bufferSize, final int slabSize) {
+
+    if (bufferSize <= 0 || slabSize < bufferSize) {
+      throw new IllegalArgumentException("the buffer size must be positive, and the slab size at least the buffer size");
+    }
+
+    this.bufferSize = bufferSize;
+    this.slabSize = slabSize - slabSize % bufferSize;
+  }
+
+  /**
+   * @return the pool shared by default
+   */
+  public static ProxyBufferPool getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Leases a buffer, cleared.
+   * 
+   * @return the buffer, to be {@link #release(ByteBuffer)}d when no longer
+   *         needed
+   */
+  public ByteBuffer lease() {
+
+    leaseCount.incrementAndGet();
+    outstandingCount.incrementAndGet();
+
+    recoverLeaks();
+
+    ByteBuffer buffer = threadCache.get().pollFirst();
+
+    if (buffer == null) {
+      buffer = overflow.poll();
+    }
+
+    if (buffer == null && recoverThreadCaches()) {
+      buffer = overflow.poll();
+    }
+
+    if (buffer == null) {
+      buffer = allocateSlab();
+    } else {
+      hitCount.incrementAndGet();
+    }
+
+    if (leakDetectionEnabled) {
+      track(buffer, new Throwable("leased here"));
+    }
+
+    return buffer;
+  }
+
+  /**
+   * Returns a buffer to the pool. The buffer must not be used afterwards.
+   * 
+   * @param buffer
+   *          the buffer, previously obtained with {@link #lease()}
+   */
+  public void release(final ByteBuffer buffer) {
+
+    if (!buffer.isDirect() || buffer.capacity() != bufferSize) {
+      throw new IllegalArgumentException("the buffer does not belong to the pool");
+    }
+
+    if (leakDetectionEnabled) {
+      track(buffer, null);
+    }
+
+    outstandingCount.decrementAndGet();
+
+    buffer.clear();
+
+    ThreadCache cache = threadCache.get();
+
+    if (cache.size() < THREAD_CACHE_SIZE) {
+      cache.offerFirst(buffer);
+    } else {
+      overflow.offer(buffer);
+    }
+  }
+
+  /**
+   * Moves the buffers cached by the threads that ended to the overflow queue
+   * (a thread that ended no longer touches its cache, so it is safe to empty
+   * it from another thread).
+   * 
+   * @return <code>true</code> if any buffer was moved
+   */
+  private boolean recoverThreadCaches() {
+
+    boolean recovered = false;
+
+    synchronized (threadCaches) {
+
+      for (Iterator<ThreadCache> i = threadCaches.iterator(); i.hasNext();) {
+
+        ThreadCache cache = i.next();
+        Thread owner = cache.owner.get();
+
+        if (owner != null && owner.isAlive()) {
+          continue;
+        }
+
+        i.remove();
+
+        ByteBuffer buffer;
+        while ((buffer = cache.pollFirst()) != null) {
+          overflow.offer(buffer);
+          recovered = true;
+        }
+      }
+    }
+
+    return recovered;
+  }
+
+  /**
+   * Allocates a new slab, returns its first buffer and puts the others in the
+   * overflow queue.
+   */
+  private ByteBuffer allocateSlab() {
+
+    ByteBuffer slab = ByteBuffer.allocateDirect(slabSize);
+    slabCount.incrementAndGet();
+
+    for (int offset = bufferSize; offset < slabSize; offset += bufferSize) {
+      overflow.offer(slice(slab, offset));
+    }
+
+    return slice(slab, 0);
+  }
+
+  /**
+   * Creates a buffer from a region of a slab.
+   */
+  private ByteBuffer slice(final ByteBuffer slab, final int offset) {
+
+    ByteBuffer region = slab.duplicate();
+    region.limit(offset + bufferSize);
+    region.position(offset);
+
+    ByteBuffer buffer = region.slice();
+
+    Region reference = new Region(buffer, leakedRegions, slab, offset);
+
+    synchronized (regions) {
+
+      List<Region> bucket = regions.get(reference.key);
+
+      if (bucket == null) {
+        bucket = new ArrayList<>(1);
+        regions.put(reference.key, bucket);
+      }
+
+      bucket.add(reference);
+    }
+
+    return buffer;
+  }
+
+  //
+  // leak detection
+
+  /**
+   * Sets (or, once released, clears) where a buffer was leased from.
+   */
+  private void track(final ByteBuffer buffer, final Throwable trace) {
+
+    synchronized (regions) {
+
+      List<Region> bucket = regions.get(System.identityHashCode(buffer));
+
+      if (bucket == null) {
+        return;
+      }
+
+      for (Region region : bucket) {
+        if (region.get() == buffer) {
+          region.trace = trace;
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Recovers the buffers leaked (and garbage collected) so far (whether the
+   * leak detection is enabled or not, the slabs would be kept otherwise).
+   */
+  private void recoverLeaks() {
+
+    Reference<? extends ByteBuffer> reference;
+    while ((reference = leakedRegions.poll()) != null) {
+      recover((Region) reference);
+    }
+  }
+
+  /**
+   * Counts a leaked buffer, and returns its memory to the pool (as a new
+   * buffer). The free buffers are strongly referenced by the pool, in the
+   * overflow queue or in a thread cache (kept in {@link #threadCaches} even
+   * after its thread ended), so a collected buffer was leased, and never
+   * released.
+   */
+  private void recover(final Region region) {
+
+    synchronized (regions) {
+
+      List<Region> bucket = regions.get(region.key);
+
+      if (bucket == null || !bucket.remove(region)) {
+        return;
+      }
+
+      if (bucket.isEmpty()) {
+        regions.remove(region.key);
+      }
+    }
+
+    leakCount.incrementAndGet();
+    outstandingCount.decrementAndGet();
+
+    if (region.trace != null) {
+      lastLeakTrace = region.trace;
+    }
+
+    overflow.offer(slice(region.slab, region.offset));
+  }
+
+  /**
+   * The buffers cached by a thread, and the thread (weakly referenced, so a
+   * thread that ended can be collected before its cache is emptied).
+   */
+  private static final class ThreadCache extends ArrayDeque<ByteBuffer> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient WeakReference<Thread> owner;
+
+    private ThreadCache(final Thread owner) {
+      super(THREAD_CACHE_SIZE);
+      this.owner = new WeakReference<>(owner);
+    }
+  }
+
+  /**
+   * The memory of a buffer: a weak reference to the buffer, and the slab and
+   * the offset of the memory, to recover it if the buffer is leaked.
+   */
+  private static final class Region extends WeakReference<ByteBuffer> {
+
+    private final Integer key;
+    private final ByteBuffer slab;
+    private final int offset;
+
+    /** Where the buffer was leased from, if leased with the leak detection. */
+    private volatile Throwable trace;
+
+    private Region(final ByteBuffer buffer, final ReferenceQueue<ByteBuffer> queue, final ByteBuffer slab, final int offset) {
+      super(buffer, queue);
+      this.key = System.identityHashCode(buffer);
+      this.slab = slab;
+      this.offset = offset;
+    }
+  }
+
+  //
+  // metrics
+
+  /**
+   * @return the size of a buffer
+   */
+  public final int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * @return the leakDetectionEnabled
+   */
+  public final boolean isLeakDetectionEnabled() {
+    return leakDetectionEnabled;
+  }
+
+  /**
+   * @param leakDetectionEnabled
+   *          the leakDetectionEnabled to set (only the leases made afterwards
+   *          are tracked)
+   */
+  public final void setLeakDetectionEnabled(final boolean leakDetectionEnabled) {
+    this.leakDetectionEnabled = leakDetectionEnabled;
+  }
+
+  /**
+   * @return the number of leases
+   */
+  public final long getLeaseCount() {
+    return leaseCount.get();
+  }
+
+  /**
+   * @return the number of leases served without allocating a new slab
+   */
+  public final long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * @return the ratio of leases served without allocating a new slab (between
+   *         <code>0</code> and <code>1</code>)
+   */
+  public final double getHitRate() {
+    long leases = leaseCount.get();
+    return leases == 0 ? 1 : (double) hitCount.get() / leases;
+  }
+
+  /**
+   * @return the number of bytes leased and not yet released
+   */
+  public final long getOutstandingBytes() {
+    return outstandingCount.get() * bufferSize;
+  }
+
+  /**
+   * @return the number of bytes allocated for slabs
+   */
+  public final long getAllocatedBytes() {
+    return slabCount.get() * slabSize;
+  }
+
+  /**
+   * @return the number of buffers garbage collected without being released
+   *         (the place they were leased from is known only with the leak
+   *         detection enabled)
+   */
+  public final long getLeakCount() {
+    return leakCount.get();
+  }
+
+  /**
+   * @return where the last detected leak was leased from, or
+   *         <code>null</code>
+   */
+  public final Throwable getLastLeakTrace() {
+    return lastLeakTrace;
+  }
+
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A route through several proxy servers, in sequence: the first proxy server
+ * is asked to tunnel to the second one, the second one to the third one, and
+ * the last one to the destination.
+ * <p>
+ * By default every hop waits for the answer of the previous one. With
+ * {@link #setPipelined(boolean)} the <code>CONNECT</code> requests are sent
+ * back-to-back, in a single write, and the answers are read afterwards, so
+ * the setup costs one round trip through the chain instead of one per hop.
+ * This works only if the proxy servers relay the bytes following a
+ * <code>CONNECT</code> request as soon as the tunnel is established (most
+ * do), and only for the hops that can be pipelined: plain HTTP proxy servers
+ * after the first one (a SOCKS or TLS hop needs its own round trips, so the
+ * chain falls back to waiting at such hops).
+ * <p>
+ * The setup latency of every hop is measured, from the moment the previous
+ * hop was answered (or the chain started, for the first hop, so it includes
+ * the connection time) until its own answer was read, and can be obtained per
+ * tunnel or as an average. This is the time every hop adds to the setup, in
+ * both modes: the latencies of the hops add up to the setup time of the
+ * tunnel.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.3, October 19, 2026
+ */
+public class ProxyChain {
+
+  /** The charset of the request line and of the headers. */
+  private static final Charset HEADER_CHARSET = Charset.forName("ISO-8859-1");
+
+  /** The connectors, one for each hop. */
+  private final List<ProxyConnector> connectors;
+
+  /** <code>True</code> if the requests should be pipelined. */
+  private volatile boolean pipelined;
+
+  /** The total setup latency, in nanoseconds, of every hop. */
+  private final AtomicLongArray totalHopLatencies;
+
+  /** The number of tunnels opened through the chain. */
+  private final AtomicLong tunnelCount = new AtomicLong();
+
+  /**
+   * Creates a new chain.
+   * 
+   * @param proxies
+   *          the proxy servers, in the order they are traversed
+   */
+  public ProxyChain(final Proxy... proxies) {
+    this(Arrays.asList(proxies));
+  }
+
+  /**
+   * Creates a new chain.
+   * 
+   * @param proxies
+   *          the proxy servers, in the order they are traversed
+   */
+  public ProxyChain(final List<Proxy> proxies) {
+
+    if (proxies.isEmpty()) {
+      throw new IllegalArgumentException("the chain needs at least one proxy");
+    }
+
+    List<ProxyConnector> connectors = new ArrayList<>(proxies.size());
+    for (Proxy proxy : proxies) {
+      connectors.add(new ProxyConnector(proxy));
+    }
+
+    this.connectors = Collections.unmodifiableList(connectors);
+
+    totalHopLatencies = new AtomicLongArray(proxies.size());
+  }
+
+  /**
+   * Opens a tunnel through all the proxy servers to the specified destination.
+   * 
+   * @param host
+   *          the host name, or address, of the destination
+   * @param port
+   *          the port number of the destination
+   * 
+   * @return the socket, ready to be used as if it were connected directly to
+   *         the destination
+   * 
+   * @throws ProxyResponseException
+   *           if a proxy server refuses the tunnel
+   * @throws IOException
+   *           if a connection fails or a limit is exceeded
+   */
+  public Socket openTunnel(final String host, final int port) throws IOException {
+    return openTunnel(host, port, null);
+  }
+
+  /**
+   * Opens a tunnel through all the proxy servers to the specified
+   * destination, and reports the setup latency of every hop.
+   * 
+   * @param host
+   *          the host name, or address, of the destination
+   * @param port
+   *          the port number of the destination
+   * @param hopLatencies
+   *          an array (with an element for each hop) filled with the setup
+   *          latency, in nanoseconds, of every hop (the time since the
+   *          previous hop was answered), or <code>null</code>
+   * 
+   * @return the socket, ready to be used as if it were connected directly to
+   *         the destination
+   * 
+   * @throws ProxyResponseException
+   *           if a proxy server refuses the tunnel
+   * @throws IOException
+   *           if a connection fails or a limit is exceeded
+   * @throws IllegalArgumentException
+   *           if the array does not have an element for each hop (checked
+   *           before connecting)
+   */
+  public Socket openTunnel(final String host, final int port, final long[] hopLatencies) throws IOException {
+
+    if (hopLatencies != null && hopLatencies.length != connectors.size()) {
+      throw new IllegalArgumentException("expected an element for each of the " + connectors.size() + " hops, found " + hopLatencies.length);
+    }
+
+    long[] latencies = hopLatencies == null ? new long[connectors.size()] : hopLatencies;
+
+    for (ProxyConnector connector : connectors) {
+      connector.acquireRequestPermit();
+    }
+
+    long start = System.nanoTime();
+
+    Socket socket = connectors.get(0).connect();
+
+    try {
+
+      int hop = 0;
+
+      while (hop < connectors.size()) {
+
+        if (hop > 0 && connectors.get(hop).getProxy().isSecure()) {
+          socket = ProxySslSessionCache.createSocket(socket, connectors.get(hop).getProxy());
+        }
+
+        int pipelinedHops = pipelined ? countPipelinedHops(hop) : 1;
+
+        if (pipelinedHops > 1) {
+          handshakePipelined(socket, hop, pipelinedHops, host, port, start, latencies);
+        } else {
+          connectors.get(hop).handshake(socket, getTargetHost(hop, host), getTargetPort(hop, port));
+          latencies[hop] = System.nanoTime() - start;
+        }
+
+        hop += pipelinedHops;
+        start = System.nanoTime();
+      }
+    }
+
+    // a bug must not leak the connection either
+    catch (IOException | RuntimeException e) {
+      socket.close();
+      throw e;
+    }
+
+    for (int hop = 0; hop < latencies.length; hop++) {
+      totalHopLatencies.addAndGet(hop, latencies[hop]);
+    }
+
+    tunnelCount.incrementAndGet();
+
+    return socket;
+  }
+
+  /**
+   * Counts the hops, starting with the specified one, that can be pipelined:
+   * the first one must be an HTTP proxy server, and the following ones must
+   * be plain (no TLS) HTTP proxy servers.
+   */
+  private int countPipelinedHops(final int firstHop) {
+
+    if (connectors.get(firstHop).getProxy().getType() != ProxyType.HTTP) {
+      return 1;
+    }
+
+    int count = 1;
+
+    while (firstHop + count < connectors.size()) {
+
+      Proxy proxy = connectors.get(firstHop + count).getProxy();
+
+      if (proxy.getType() != ProxyType.HTTP || proxy.isSecure()) {
+        break;
+      }
+
+      count++;
+    }
+
+    return count;
+  }
+
+  /**
+   * Sends the <code>CONNECT</code> requests of several hops in a single
+   * write, then reads the answers in order.
+   */
+  private void handshakePipelined(final Socket socket, final int firstHop, final int count, final String host, final int port, final long start, final long[] hopLatencies) throws IOException {
+
+    StringBuilder requests = new StringBuilder(256 * count);
+
+    for (int hop = firstHop; hop < firstHop + count; hop++) {
+      requests.append(connectors.get(hop).createConnectRequest(getTargetHost(hop, host), getTargetPort(hop, port)));
+    }
+
+    OutputStream out = socket.getOutputStream();
+    out.write(requests.toString().getBytes(HEADER_CHARSET));
+    out.flush();
+
+    InputStream in = socket.getInputStream();
+
+    long hopStart = start;
+
+    for (int hop = firstHop; hop < firstHop + count; hop++) {
+
+      ProxyConnector connector = connectors.get(hop);
+
+      try {
+        ProxyConnector.readConnectResponse(in);
+      }
+
+      catch (ProxyResponseException e) {
+        ProxyMetrics.getDefault().handshakeRefused(connector.getProxy(), e);
+        connector.handshakeOver(getTargetHost(hop, host), getTargetPort(hop, port), start, e);
+        throw e;
+      }
+
+      catch (IOException e) {
+        connector.handshakeOver(getTargetHost(hop, host), getTargetPort(hop, port), start, e);
+        throw e;
+      }
+
+      ProxyMetrics.getDefault().handshakeSucceeded(connector.getProxy());
+      connector.handshakeOver(getTargetHost(hop, host), getTargetPort(hop, port), start, null);
+
+      // since the previous answer, as for the hops that are not pipelined
+      long now = System.nanoTime();
+      hopLatencies[hop] = now - hopStart;
+      hopStart = now;
+    }
+  }
+
+  /**
+   * The host the specified hop tunnels to: the next proxy server, or the
+   * destination for the last hop.
+   */
+  private String getTargetHost(final int hop, final String host) {
+    return hop == connectors.size() - 1 ? host : connectors.get(hop + 1).getProxy().getHost();
+  }
+
+  /**
+   * The port the specified hop tunnels to: the next proxy server, or the
+   * destination for the last hop.
+   */
+  private int getTargetPort(final int hop, final int port) {
+    return hop == connectors.size() - 1 ? port : connectors.get(hop + 1).getProxy().getPort();
+  }
+
+  /**
+   * Returns the average setup latency of the specified hop, over all the
+   * tunnels opened through the chain: the time the hop adds to the setup,
+   * measured from the answer of the previous hop (pipelined or not).
+   * 
+   * @param hop
+   *          the index of the hop (<code>0</code> for the first proxy server)
+   * 
+   * @return the average latency, in nanoseconds, or <code>0</code> if no
+   *         tunnel was opened yet
+   */
+  public final long getAverageHopLatency(final int hop) {
+    long count = tunnelCount.get();
+    return count == 0 ? 0 : totalHopLatencies.get(hop) / count;
+  }
+
+  /**
+   * @return the connectors, one for each hop (to set timeouts, for example)
+   */
+  public final List<ProxyConnector> getConnectors() {
+    return connectors;
+  }
+
+  /**
+   * @return the pipelined
+   */
+  public final boolean isPipelined() {
+    return pipelined;
+  }
+
+  /**
+   * @param pipelined
+   *          the pipelined to set
+   */
+  public final void setPipelined(final boolean pipelined) {
+    this.pipelined = pipelined;
+  }
+
+}
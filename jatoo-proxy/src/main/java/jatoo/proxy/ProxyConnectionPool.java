@@ -0,0 +1,523 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLSocket;
+
+/**
+ * A pool of persistent (keep-alive) connections to a proxy server, used to
+ * forward HTTP requests without paying a new connection setup for each one.
+ * The idle connections are kept in a lock-free deque (most recently used
+ * first), so leasing and releasing do not contend on a lock.
+ * <p>
+ * The caller is responsible for the HTTP framing: a connection should be
+ * {@link #release(Socket)}d only after the response was fully read, and only
+ * if both sides agreed to keep it alive, otherwise it should be
+ * {@link #discard(Socket)}ed.
+ * <p>
+ * The number of connections the pool keeps open at the same time can also be
+ * capped: a lease waits, at most the connect timeout, for a connection to be
+ * released, and an idle connection is always reused before a new one is
+ * opened. A connection still carries one request (or one tunnel) at a time,
+ * nothing is multiplexed over it, so the cap bounds the number of concurrent
+ * requests to the proxy server, and a tunnel holds its connection until it is
+ * closed.
+ * <p>
+ * A connection that carries a tunnel cannot be released (it belongs to the
+ * tunnel), so for tunnels the pool keeps spare connections instead: they are
+ * opened ahead with {@link #fillIdleConnections()}, and taken without waiting
+ * with {@link #pollIdle()} (this is how the {@link ProxyForwarder} uses it).
+ * <p>
+ * Until closed, or no longer referenced, the state of the pool is exposed
+ * with the {@link ProxyMetrics}.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.5, October 19, 2026
+ */
+public class ProxyConnectionPool {
+
+  /** The default maximum number of idle connections. */
+  public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 8;
+
+  /** The default time, in milliseconds, a connection can stay idle. */
+  public static final long DEFAULT_MAX_IDLE_TIME = TimeUnit.SECONDS.toMillis(30);
+
+  /** Unlimited number of connections. */
+  public static final int UNLIMITED_CONNECTIONS = 0;
+
+  /** The connector used to open new connections. */
+  private final ProxyConnector connector;
+
+  /** The maximum number of idle connections. */
+  private final int maxIdleConnections;
+
+  /** The time, in nanoseconds, a connection can stay idle. */
+  private final long maxIdleTime;
+
+  /** The maximum number of leased connections, or <code>null</code>. */
+  private final Semaphore leasePermits;
+
+  /** The idle connections, most recently used first. */
+  private final ConcurrentLinkedDeque<IdleConnection> idleConnections = new ConcurrentLinkedDeque<>();
+
+  /** The number of idle connections (the deque size is not constant time). */
+  private final AtomicInteger idleCount = new AtomicInteger();
+
+  /** The number of leases served with an idle connection. */
+  private final AtomicLong reusedCount = new AtomicLong();
+
+  /** The number of leases served with a new connection. */
+  private final AtomicLong createdCount = new AtomicLong();
+
+  /** <code>True</code> after {@link #close()}. */
+  private volatile boolean closed;
+
+  /**
+   * Creates a new pool with the default limits.
+   * 
+   * @param connector
+   *          the connector used to open new connections
+   */
+  public ProxyConnectionPool(final ProxyConnector connector) {
+    this(connector, DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_MAX_IDLE_TIME);
+  }
+
+  /**
+   * Creates a new pool.
+   * 
+   * @param connector
+   *          the connector used to open new connections
+   * @param maxIdleConnections
+   *          the maximum number of idle connections
+   * @param maxIdleTime
+   *          the time, in milliseconds, a connection can stay idle
+   */
+  public ProxyConnectionPool(final ProxyConnector connector, final int maxIdleConnections, final long maxIdleTime) {
+    this(connector, maxIdleConnections, maxIdleTime, UNLIMITED_CONNECTIONS);
+  }
+
+  /**
+   * Creates a new pool, with a cap on the number of open connections.
+   * 
+   * @param connector
+   *          the connector used to open new connections
+   * @param maxIdleConnections
+   *          the maximum number of idle connections
+   * @param maxIdleTime
+   *          the time, in milliseconds, a connection can stay idle
+   * @param maxConnections
+   *          the maximum number of connections leased at the same time, or
+   *          {@link #UNLIMITED_CONNECTIONS}
+   */
+  public ProxyConnectionPool(final ProxyConnector connector, final int maxIdleConnections, final long maxIdleTime, final int maxConnections) {
+
+    if (maxConnections < 0) {
+      throw new IllegalArgumentException("the maximum number of connections cannot be negative");
+    }
+
+    this.connector = connector;
+    this.maxIdleConnections = maxIdleConnections;
+    this.maxIdleTime = TimeUnit.MILLISECONDS.toNanos(maxIdleTime);
+    this.leasePermits = maxConnections == UNLIMITED_CONNECTIONS ? null : new Semaphore(maxConnections, true);
+
+    ProxyMetrics.getDefault().addConnectionPool(this);
+  }
+
+  /**
+   * Leases a connection to the proxy server, reusing an idle one if possible.
+   * The request limit from {@link ProxyRateLimits} is enforced here, since
+   * every lease is followed by a request. If the number of connections is
+   * capped, the lease waits for a connection to be released.
+   * 
+   * @return the connected socket
+   * 
+   * @throws IOException
+   *           if a new connection is needed and it fails, or if a limit is
+   *           exceeded
+   */
+  public Socket lease() throws IOException {
+
+    if (closed) {
+      throw new IOException("the pool is closed");
+    }
+
+    ProxyRateLimiter limiter = ProxyRateLimits.getRequestLimiter(connector.getProxy());
+
+    if (limiter != null) {
+      try {
+        if (!limiter.tryAcquire(connector.getConnectTimeout(), TimeUnit.MILLISECONDS)) {
+          throw new IOException("the request rate limit for " + connector.getProxy().getHost() + ":" + connector.getProxy().getPort() + " was exceeded");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("interrupted while waiting for a request permit", e);
+      }
+    }
+
+    acquireLeasePermit();
+
+    try {
+      return leaseAfterPermit();
+    }
+
+    catch (IOException | RuntimeException e) {
+      releaseLeasePermit();
+      throw e;
+    }
+  }
+
+  /**
+   * Leases a connection, once there is room for one.
+   */
+  private Socket leaseAfterPermit() throws IOException {
+
+    IdleConnection idle;
+
+    while ((idle = idleConnections.pollFirst()) != null) {
+
+      idleCount.decrementAndGet();
+
+      if (isReusable(idle)) {
+        reusedCount.incrementAndGet();
+        return idle.socket;
+      }
+
+      closeQuietly(idle.socket);
+    }
+
+    Socket socket = connector.connect();
+    createdCount.incrementAndGet();
+
+    return socket;
+  }
+
+  /**
+   * Leases an idle connection, if there is one, without waiting and without
+   * opening a new one. Unlike {@link #lease()}, the request limit is left to
+   * the caller.
+   * 
+   * @return the connected socket, or <code>null</code> if there is no idle
+   *         connection (or no room for one more leased connection)
+   */
+  Socket pollIdle() {
+
+    if (closed || (leasePermits != null && !leasePermits.tryAcquire())) {
+      return null;
+    }
+
+    IdleConnection idle;
+
+    while ((idle = idleConnections.pollFirst()) != null) {
+
+      idleCount.decrementAndGet();
+
+      if (isReusable(idle)) {
+        reusedCount.incrementAndGet();
+        return idle.socket;
+      }
+
+      closeQuietly(idle.socket);
+    }
+
+    releaseLeasePermit();
+
+    return null;
+  }
+
+  /**
+   * Opens new connections until the pool keeps the maximum number of idle
+   * connections, so that the next leases do not wait for a connection setup.
+   * 
+   * @throws IOException
+   *           if a new connection fails (the ones opened so far are kept)
+   */
+  public void fillIdleConnections() throws IOException {
+
+    while (!closed && idleCount.get() < maxIdleConnections) {
+
+      Socket socket = connector.connect();
+
+      if (idleCount.incrementAndGet() > maxIdleConnections) {
+        idleCount.decrementAndGet();
+        closeQuietly(socket);
+        break;
+      }
+
+      idleConnections.offerFirst(new IdleConnection(socket, System.nanoTime()));
+    }
+
+    if (closed) {
+      evictIdleConnections(0);
+    }
+  }
+
+  /**
+   * Returns a connection to the pool. The connection is closed instead if the
+   * pool is full or closed.
+   * 
+   * @param socket
+   *          the connection, previously obtained with {@link #lease()}
+   */
+  public void release(final Socket socket) {
+
+    if (closed || socket.isClosed()) {
+      discard(socket);
+      return;
+    }
+
+    if (idleCount.incrementAndGet() > maxIdleConnections) {
+      idleCount.decrementAndGet();
+      discard(socket);
+      return;
+    }
+
+    idleConnections.offerFirst(new IdleConnection(socket, System.nanoTime()));
+
+    // only now, so that a waiting lease finds the connection
+    releaseLeasePermit();
+
+    if (closed) {
+      evictIdleConnections(0);
+    }
+  }
+
+  /**
+   * Closes a connection that cannot be reused (the response was not fully
+   * read, or one of the sides asked to close it), making room for a new one.
+   * 
+   * @param socket
+   *          the connection, previously obtained with {@link #lease()}
+   */
+  public void discard(final Socket socket) {
+    releaseLeasePermit();
+    closeQuietly(socket);
+  }
+
+  /**
+   * Closes the connections that stayed idle longer than allowed. Expired
+   * connections are also discarded by {@link #lease()}, so calling this method
+   * is only needed to release the sockets earlier.
+   */
+  public void evictIdleConnections() {
+    evictIdleConnections(maxIdleTime);
+  }
+
+  /**
+   * Closes the connections that stayed idle longer than the specified time.
+   */
+  private void evictIdleConnections(final long idleTime) {
+
+    long now = System.nanoTime();
+
+    // the oldest connections are at the end of the deque
+    IdleConnection idle;
+    while ((idle = idleConnections.peekLast()) != null && now - idle.since >= idleTime) {
+      if (idleConnections.removeLastOccurrence(idle)) {
+        idleCount.decrementAndGet();
+        closeQuietly(idle.socket);
+      }
+    }
+  }
+
+  /**
+   * Closes the pool and all the idle connections. Leased connections are
+   * closed when released.
+   */
+  public void close() {
+    closed = true;
+    evictIdleConnections(0);
+    ProxyMetrics.getDefault().removeConnectionPool(this);
+  }
+
+  /**
+   * Checks, cheaply, if an idle connection can be reused: it must be open, not
+   * idle for too long, and the proxy server must not have closed it or sent
+   * anything since (checked with a non-blocking read, or, for a TLS
+   * connection, with a read timing out after a millisecond).
+   */
+  private boolean isReusable(final IdleConnection idle) {
+
+    Socket socket = idle.socket;
+
+    if (System.nanoTime() - idle.since >= maxIdleTime) {
+      return false;
+    }
+
+    if (socket.isClosed() || !socket.isConnected() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+      return false;
+    }
+
+    SocketChannel channel = socket.getChannel();
+
+    // the channel of a TLS connection is the one of its plain connection, and
+    // reading it directly would take the TLS records (a key update, a session
+    // ticket) from under the TLS layer, so it is read through the TLS layer
+    if (channel == null || socket instanceof SSLSocket) {
+      return isSilent(socket);
+    }
+
+    try {
+
+      channel.configureBlocking(false);
+
+      try {
+        return channel.read(ByteBuffer.allocate(1)) == 0;
+      } finally {
+        channel.configureBlocking(true);
+      }
+    }
+
+    catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Checks that nothing (not even the end of the stream) can be read from a
+   * connection in a millisecond.
+   */
+  private static boolean isSilent(final Socket socket) {
+
+    try {
+
+      int timeout = socket.getSoTimeout();
+      socket.setSoTimeout(1);
+
+      try {
+        socket.getInputStream().read();
+        return false;
+      }
+
+      catch (SocketTimeoutException e) {
+        return true;
+      }
+
+      finally {
+        socket.setSoTimeout(timeout);
+      }
+    }
+
+    catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Waits, at most the connect timeout, for room for one more leased
+   * connection.
+   */
+  private void acquireLeasePermit() throws IOException {
+
+    if (leasePermits == null) {
+      return;
+    }
+
+    try {
+      if (!leasePermits.tryAcquire(connector.getConnectTimeout(), TimeUnit.MILLISECONDS)) {
+        throw new IOException("all the connections to " + connector.getProxy().getHost() + ":" + connector.getProxy().getPort() + " are in use");
+      }
+    }
+
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while waiting for a connection", e);
+    }
+  }
+
+  /**
+   * Makes room for one more leased connection.
+   */
+  private void releaseLeasePermit() {
+    if (leasePermits != null) {
+      leasePermits.release();
+    }
+  }
+
+  /**
+   * Closes the specified socket, ignoring any error.
+   */
+  private static void closeQuietly(final Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // nothing to do, the connection is discarded anyway
+    }
+  }
+
+  /**
+   * @return the connector
+   */
+  public final ProxyConnector getConnector() {
+    return connector;
+  }
+
+  /**
+   * @return the number of connections that can still be leased before a lease
+   *         has to wait, or <code>-1</code> if the number is not capped
+   */
+  public final int getAvailableConnections() {
+    return leasePermits == null ? -1 : leasePermits.availablePermits();
+  }
+
+  /**
+   * @return the number of idle connections
+   */
+  public final int getIdleCount() {
+    return idleCount.get();
+  }
+
+  /**
+   * @return the number of leases served with an idle connection
+   */
+  public final long getReusedCount() {
+    return reusedCount.get();
+  }
+
+  /**
+   * @return the number of leases served with a new connection
+   */
+  public final long getCreatedCount() {
+    return createdCount.get();
+  }
+
+  /**
+   * An idle connection, together with the moment it was released.
+   */
+  private static final class IdleConnection {
+
+    private final Socket socket;
+    private final long since;
+
+    private IdleConnection(final Socket socket, final long since) {
+      this.socket = socket;
+      this.since = since;
+    }
+  }
+
+}
@@ -0,0 +1,512 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Opens connections to a proxy server described by a {@link Proxy}, and
+ * tunnels through it (with <code>CONNECT</code>, or with a SOCKS5 handshake)
+ * to any destination. The connection and request limits from
+ * {@link ProxyRateLimits} are enforced here, waiting at most the connect
+ * timeout for a permit. Connections to a secure proxy server are secured with
+ * TLS, through the shared {@link ProxySslSessionCache}. The connections and
+ * the authentication outcomes are recorded in {@link ProxyMetrics}, and every
+ * phase (resolving, connecting, TLS, tunnel request) is traced with
+ * {@link ProxyEvents}.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.3, October 19, 2026
+ */
+public class ProxyConnector {
+
+  /** The default timeout, in milliseconds, for connecting to the proxy. */
+  public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+  /** The default timeout, in milliseconds, for reading from the proxy. */
+  public static final int DEFAULT_READ_TIMEOUT = 30000;
+
+  /** The maximum size of the headers accepted from the proxy server. */
+  private static final int MAX_RESPONSE_HEADER_SIZE = 8192;
+
+  /** The charset of the request line and of the headers. */
+  private static final Charset HEADER_CHARSET = Charset.forName("ISO-8859-1");
+
+  /** The proxy server. */
+  private final Proxy proxy;
+
+  /** The timeout, in milliseconds, for connecting to the proxy. */
+  private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+
+  /** The timeout, in milliseconds, for reading from the proxy. */
+  private int readTimeout = DEFAULT_READ_TIMEOUT;
+
+  /**
+   * Creates a new connector for the specified proxy server.
+   * 
+   * @param proxy
+   *          the proxy server
+   */
+  public ProxyConnector(final Proxy proxy) {
+    this.proxy = proxy;
+  }
+
+  /**
+   * Opens a new connection to the proxy server.
+   * 
+   * @return the connected socket
+   * 
+   * @throws IOException
+   *           if the connection fails or the connection limit is exceeded
+   */
+  public Socket connect() throws IOException {
+
+    acquire(ProxyRateLimits.getConnectionLimiter(proxy), "connection");
+
+    SocketChannel channel = SocketChannel.open();
+    Socket socket = channel.socket();
+
+    long start = System.nanoTime();
+
+    ProxyEvent.Type phase = ProxyEvent.Type.RESOLUTION;
+    long phaseStart = start;
+
+    try {
+
+      InetSocketAddress address = new InetSocketAddress(proxy.getHost(), proxy.getPort());
+
+      phaseStart = phaseOver(phase, phaseStart, null);
+      phase = ProxyEvent.Type.CONNECTION;
+
+      socket.connect(address, connectTimeout);
+      socket.setSoTimeout(readTimeout);
+      socket.setTcpNoDelay(true);
+
+      if (proxy.isSecure()) {
+
+        phaseStart = phaseOver(phase, phaseStart, null);
+        phase = ProxyEvent.Type.TLS_HANDSHAKE;
+
+        socket = ProxySslSessionCache.createSocket(socket, proxy);
+      }
+
+      phaseOver(phase, phaseStart, null);
+    }
+
+    catch (IOException e) {
+      phaseOver(phase, phaseStart, e);
+      channel.close();
+      throw e;
+    }
+
+    ProxyMetrics.getDefault().connected(proxy, System.nanoTime() - start);
+
+    return socket;
+  }
+
+  /**
+   * Opens a tunnel through the proxy server to the specified destination.
+   * 
+   * @param host
+   *          the host name, or address, of the destination
+   * @param port
+   *          the port number of the destination
+   * 
+   * @return the socket, ready to be used as if it were connected directly to
+   *         the destination
+   * 
+   * @throws ProxyResponseException
+   *           if the proxy server refuses the tunnel
+   * @throws IOException
+   *           if the connection fails or a limit is exceeded
+   */
+  public Socket openTunnel(final String host, final int port) throws IOException {
+
+    acquireRequestPermit();
+
+    Socket socket = connect();
+
+    try {
+      handshake(socket, host, port);
+    }
+
+    catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+
+    return socket;
+  }
+
+  /**
+   * Asks the proxy server, over an already opened connection, to tunnel to
+   * the specified destination.
+   * 
+   * @param socket
+   *          the connection to the proxy server
+   * @param host
+   *          the host name, or address, of the destination
+   * @param port
+   *          the port number of the destination
+   * 
+   * @throws ProxyResponseException
+   *           if the proxy server refuses the tunnel
+   * @throws IOException
+   *           if the handshake fails
+   */
+  void handshake(final Socket socket, final String host, final int port) throws IOException {
+    handshake(socket.getInputStream(), socket.getOutputStream(), host, port);
+  }
+
+  /**
+   * Asks the proxy server, over the streams of an already opened connection,
+   * to tunnel to the specified destination.
+   * 
+   * @param in
+   *          the input stream of the connection to the proxy server
+   * @param out
+   *          the output stream of the connection to the proxy server
+   * @param host
+   *          the host name, or address, of the destination
+   * @param port
+   *          the port number of the destination
+   * 
+   * @throws ProxyResponseException
+   *           if the proxy server refuses the tunnel
+   * @throws IOException
+   *           if the handshake fails
+   */
+  void handshake(final InputStream in, final OutputStream out, final String host, final int port) throws IOException {
+
+    long start = System.nanoTime();
+
+    try {
+
+      if (proxy.getType() == ProxyType.SOCKS) {
+        handshakeSocks5(in, out, host, port);
+      }
+
+      else {
+
+        out.write(createConnectRequest(host, port).getBytes(HEADER_CHARSET));
+        out.flush();
+
+        readConnectResponse(in);
+      }
+    }
+
+    catch (ProxyResponseException e) {
+      ProxyMetrics.getDefault().handshakeRefused(proxy, e);
+      handshakeOver(host, port, start, e);
+      throw e;
+    }
+
+    catch (IOException e) {
+      handshakeOver(host, port, start, e);
+      throw e;
+    }
+
+    ProxyMetrics.getDefault().handshakeSucceeded(proxy);
+    handshakeOver(host, port, start, null);
+  }
+
+  /**
+   * Emits the event of a connection phase, if enabled, and returns the moment
+   * the next phase starts.
+   */
+  private long phaseOver(final ProxyEvent.Type phase, final long start, final IOException failure) {
+
+    if (ProxyEvents.isEnabled()) {
+      ProxyEvents.emit(phase, proxy, null, 0, start, failure == null ? null : ProxyEvents.describe(failure), 0);
+    }
+
+    return System.nanoTime();
+  }
+
+  /**
+   * Emits the event of a tunnel request, if enabled.
+   * 
+   * @param host
+   *          the host name, or address, of the destination
+   * @param port
+   *          the port number of the destination
+   * @param start
+   *          the moment the request was sent, in nanoseconds
+   * @param failure
+   *          why the request failed, or <code>null</code>
+   */
+  void handshakeOver(final String host, final int port, final long start, final IOException failure) {
+    if (ProxyEvents.isEnabled()) {
+      ProxyEvents.emit(ProxyEvent.Type.PROXY_HANDSHAKE, proxy, host, port, start, failure == null ? null : ProxyEvents.describe(failure), 0);
+    }
+  }
+
+  /**
+   * Acquires a permit from the request limiter, if any.
+   * 
+   * @throws IOException
+   *           if the request limit is exceeded
+   */
+  void acquireRequestPermit() throws IOException {
+    acquire(ProxyRateLimits.getRequestLimiter(proxy), "request");
+  }
+
+  /**
+   * Creates the <code>CONNECT</code> request, with the credentials (if the
+   * proxy server requires authentication) sent preemptively.
+   * 
+   * @param host
+   *          the host name, or address, of the destination
+   * @param port
+   *          the port number of the destination
+   * 
+   * @return the request line and the headers
+   */
+  String createConnectRequest(final String host, final int port) {
+
+    StringBuilder request = new StringBuilder(128);
+
+    request.append("CONNECT ").append(host).append(':').append(port).append(" HTTP/1.1\r\n");
+    request.append("Host: ").append(host).append(':').append(port).append("\r\n");
+
+    if (proxy.isRequiringAuthentication()) {
+      request.append("Proxy-Authorization: ").append(createBasicAuthorization()).append("\r\n");
+    }
+
+    request.append("\r\n");
+
+    return request.toString();
+  }
+
+  /**
+   * Drives a {@link Socks5Handshake} over the blocking streams of a
+   * connection. The replies are read byte by byte, so that nothing from the
+   * tunnel is consumed.
+   */
+  private void handshakeSocks5(final InputStream in, final OutputStream out, final String host, final int port) throws IOException {
+
+    Socks5Handshake handshake;
+
+    if (proxy.isRequiringAuthentication()) {
+      handshake = new Socks5Handshake(host, port, proxy.getUsername(), proxy.getPassword());
+    } else {
+      handshake = new Socks5Handshake(host, port);
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(Socks5Handshake.MAX_MESSAGE_SIZE);
+
+    while (!handshake.isComplete()) {
+
+      if (handshake.isWriting()) {
+
+        buffer.clear();
+        handshake.write(buffer);
+
+        out.write(buffer.array(), 0, buffer.position());
+        out.flush();
+
+        buffer.clear();
+      }
+
+      else {
+
+        int b = in.read();
+
+        if (b == -1) {
+          throw new IOException("the proxy server closed the connection");
+        }
+
+        buffer.put((byte) b);
+        buffer.flip();
+
+        handshake.read(buffer);
+
+        buffer.compact();
+      }
+    }
+  }
+
+  /**
+   * Creates the value of the <code>Proxy-Authorization</code> header.
+   */
+  String createBasicAuthorization() {
+
+    String username = proxy.getUsername() == null ? "" : proxy.getUsername();
+    String password = proxy.getPassword() == null ? "" : proxy.getPassword();
+
+    return "Basic " + DatatypeConverter.printBase64Binary((username + ":" + password).getBytes(HEADER_CHARSET));
+  }
+
+  /**
+   * Reads the response to a <code>CONNECT</code> request into a buffer, a few
+   * bytes per read: never more than the end of the headers could still need
+   * (up to the four bytes of the blank line), so that nothing from the tunnel
+   * is consumed.
+   * 
+   * @param in
+   *          the input stream of the connection to the proxy server
+   * 
+   * @throws ProxyResponseException
+   *           if the proxy server refused the tunnel
+   * @throws IOException
+   *           if the response cannot be read
+   */
+  static void readConnectResponse(final InputStream in) throws IOException {
+
+    byte[] header = new byte[MAX_RESPONSE_HEADER_SIZE];
+    int length = 0;
+    int needed;
+
+    while ((needed = missingHeaderEnd(header, length)) > 0) {
+
+      if (length == header.length) {
+        throw new IOException("the response headers are too large");
+      }
+
+      int read = in.read(header, length, Math.min(needed, header.length - length));
+
+      if (read == -1) {
+        throw new IOException("the proxy server closed the connection");
+      }
+
+      length += read;
+    }
+
+    String response = new String(header, 0, length, HEADER_CHARSET);
+    String statusLine = response.substring(0, response.indexOf("\r\n"));
+
+    int statusCode = parseStatusCode(statusLine);
+
+    if (statusCode != 200) {
+      throw new ProxyResponseException(statusCode, statusLine);
+    }
+  }
+
+  /**
+   * Returns how many more bytes, at least, the headers read so far need to
+   * end with a blank line (<code>\r\n\r\n</code>), or <code>0</code> if
+   * they already do.
+   */
+  private static int missingHeaderEnd(final byte[] header, final int length) {
+
+    // the longest suffix that is also a prefix of the blank line
+    for (int matched = Math.min(4, length); matched > 0; matched--) {
+
+      boolean matches = true;
+
+      for (int i = 0; i < matched && matches; i++) {
+        matches = header[length - matched + i] == (i % 2 == 0 ? '\r' : '\n');
+      }
+
+      if (matches) {
+        return 4 - matched;
+      }
+    }
+
+    return 4;
+  }
+
+  /**
+   * Extracts the status code from a status line (for example
+   * <code>HTTP/1.1 200 Connection established</code>).
+   */
+  private static int parseStatusCode(final String statusLine) throws IOException {
+
+    String[] parts = statusLine.split(" ", 3);
+
+    if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+      throw new IOException("malformed status line: " + statusLine);
+    }
+
+    try {
+      return Integer.parseInt(parts[1]);
+    } catch (NumberFormatException e) {
+      throw new IOException("malformed status line: " + statusLine, e);
+    }
+  }
+
+  /**
+   * Acquires a permit from the specified limiter, if any, waiting at most the
+   * connect timeout.
+   */
+  private void acquire(final ProxyRateLimiter limiter, final String what) throws IOException {
+
+    if (limiter == null) {
+      return;
+    }
+
+    try {
+      if (!limiter.tryAcquire(connectTimeout, TimeUnit.MILLISECONDS)) {
+        throw new IOException("the " + what + " rate limit for " + proxy.getHost() + ":" + proxy.getPort() + " was exceeded");
+      }
+    }
+
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while waiting for a " + what + " permit", e);
+    }
+  }
+
+  /**
+   * @return the proxy
+   */
+  public final Proxy getProxy() {
+    return proxy;
+  }
+
+  /**
+   * @return the connectTimeout
+   */
+  public final int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  /**
+   * @param connectTimeout
+   *          the connectTimeout to set
+   */
+  public final void setConnectTimeout(final int connectTimeout) {
+    this.connectTimeout = connectTimeout;
+  }
+
+  /**
+   * @return the readTimeout
+   */
+  public final int getReadTimeout() {
+    return readTimeout;
+  }
+
+  /**
+   * @param readTimeout
+   *          the readTimeout to set
+   */
+  public final void setReadTimeout(final int readTimeout) {
+    this.readTimeout = readTimeout;
+  }
+
+}
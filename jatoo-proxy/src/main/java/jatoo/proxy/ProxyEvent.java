@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+/**
+ * A timed phase of the work with a proxy server (selecting it, resolving its
+ * address, connecting, authenticating, asking for a tunnel, relaying),
+ * delivered to the {@link ProxyEventListener}s registered with
+ * {@link ProxyEvents}.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public final class ProxyEvent {
+
+  /**
+   * The phases.
+   */
+  public enum Type {
+
+    /** A proxy server was selected (loaded, if stored, and configured). */
+    SELECTION,
+
+    /** The credentials were asked for by the JDK (after a <code>407</code>). */
+    AUTHENTICATION,
+
+    /** The address of the proxy server was resolved. */
+    RESOLUTION,
+
+    /** A TCP connection to the proxy server was opened. */
+    CONNECTION,
+
+    /** The connection to the proxy server was secured with TLS. */
+    TLS_HANDSHAKE,
+
+    /** A tunnel was asked for (with <code>CONNECT</code>, or SOCKS5). */
+    PROXY_HANDSHAKE,
+
+    /** The bytes were relayed through a tunnel, until it was closed. */
+    TUNNEL
+  }
+
+  private final Type type;
+  private final String upstream;
+  private final String destination;
+  private final long startTime;
+  private final long duration;
+  private final String failure;
+  private final long bytes;
+
+  ProxyEvent(final Type type, final String upstream, final String destination, final long startTime, final long duration, final String failure, final long bytes) {
+    this.type = type;
+    this.upstream = upstream;
+    this.destination = destination;
+    this.startTime = startTime;
+    this.duration = duration;
+    this.failure = failure;
+    this.bytes = bytes;
+  }
+
+  /**
+   * @return the phase
+   */
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * @return the proxy server (<code>host:port</code>), or <code>null</code>
+   *         if unknown
+   */
+  public String getUpstream() {
+    return upstream;
+  }
+
+  /**
+   * @return the destination of the tunnel (<code>host:port</code>), or
+   *         <code>null</code> if not known yet
+   */
+  public String getDestination() {
+    return destination;
+  }
+
+  /**
+   * @return the moment the phase started, in nanoseconds (as returned by
+   *         {@link System#nanoTime()})
+   */
+  public long getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * @return the duration of the phase, in nanoseconds
+   */
+  public long getDuration() {
+    return duration;
+  }
+
+  /**
+   * @return <code>true</code> if the phase succeeded
+   */
+  public boolean isSucceeded() {
+    return failure == null;
+  }
+
+  /**
+   * @return why the phase failed, or <code>null</code> if it succeeded
+   */
+  public String getFailure() {
+    return failure;
+  }
+
+  /**
+   * @return the number of bytes relayed (only for {@link Type#TUNNEL})
+   */
+  public long getBytes() {
+    return bytes;
+  }
+
+  @Override
+  public String toString() {
+
+    StringBuilder string = new StringBuilder(128);
+
+    string.append(type).append(' ').append(upstream);
+
+    if (destination != null) {
+      string.append(" -> ").append(destination);
+    }
+
+    string.append(' ').append(duration / 1000).append("us");
+
+    if (type == Type.TUNNEL) {
+      string.append(' ').append(bytes).append(" bytes");
+    }
+
+    if (failure != null) {
+      string.append(" failed: ").append(failure);
+    }
+
+    return string.toString();
+  }
+
+}
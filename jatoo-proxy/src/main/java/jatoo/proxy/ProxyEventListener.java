@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+/**
+ * Receives the {@link ProxyEvent}s, once registered with {@link ProxyEvents}.
+ * The events are delivered on the thread that did the work (an event loop of
+ * a {@link ProxyForwarder}, for example), so the listeners must be quick and
+ * must not block.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public interface ProxyEventListener {
+
+  /**
+   * Called once a phase is over.
+   * 
+   * @param event
+   *          the event
+   */
+  void proxyEvent(ProxyEvent event);
+
+}
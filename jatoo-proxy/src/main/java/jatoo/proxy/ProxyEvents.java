@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Registry of the {@link ProxyEventListener}s, used to trace where the time
+ * goes when connecting through a proxy server: selecting the proxy server,
+ * resolving its address, connecting, the TLS handshake, the authentication
+ * and the tunnel request, each with its duration and its upstream.
+ * <p>
+ * Without listeners the events are not even created: every place emitting
+ * them checks {@link #isEnabled()} (a single volatile read) first. A listener
+ * can forward the events to any profiler, for example committing them as
+ * Flight Recorder events on a JVM that has the <code>jdk.jfr</code> API.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public final class ProxyEvents {
+
+  /** The registered listeners. */
+  private static final List<ProxyEventListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+  /** <code>True</code> if there is at least one listener. */
+  private static volatile boolean enabled;
+
+  /**
+   * Utility classes (classes that contain only static methods or fields in
+   * their API) do not have a public constructor.
+   */
+  private ProxyEvents() {}
+
+  /**
+   * Registers a listener.
+   * 
+   * @param listener
+   *          the listener
+   */
+  public static synchronized void addListener(final ProxyEventListener listener) {
+    LISTENERS.add(listener);
+    enabled = true;
+  }
+
+  /**
+   * Unregisters a listener.
+   * 
+   * @param listener
+   *          the listener
+   */
+  public static synchronized void removeListener(final ProxyEventListener listener) {
+    LISTENERS.remove(listener);
+    enabled = !LISTENERS.isEmpty();
+  }
+
+  /**
+   * @return <code>true</code> if there is at least one listener (so the events
+   *         should be emitted)
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Creates an event for a phase that is over, and delivers it to all the
+   * listeners. The callers check {@link #isEnabled()} first.
+   * 
+   * @param type
+   *          the phase
+   * @param upstream
+   *          the proxy server, or <code>null</code>
+   * @param host
+   *          the host of the destination, or <code>null</code>
+   * @param port
+   *          the port of the destination
+   * @param startTime
+   *          the moment the phase started, in nanoseconds
+   * @param failure
+   *          why the phase failed, or <code>null</code>
+   * @param bytes
+   *          the number of bytes relayed
+   */
+  static void emit(final ProxyEvent.Type type, final Proxy upstream, final String host, final int port, final long startTime, final String failure, final long bytes) {
+
+    long duration = System.nanoTime() - startTime;
+
+    String upstreamAddress = upstream == null ? null : upstream.getHost() + ":" + upstream.getPort();
+    String destination = host == null ? null : host + ":" + port;
+
+    ProxyEvent event = new ProxyEvent(type, upstreamAddress, destination, startTime, duration, failure, bytes);
+
+    for (ProxyEventListener listener : LISTENERS) {
+
+      try {
+        listener.proxyEvent(event);
+      }
+
+      catch (RuntimeException e) {
+        // a failing listener must not break the connection, nor the other
+        // listeners
+      }
+    }
+  }
+
+  /**
+   * Describes why a phase failed.
+   * 
+   * @param e
+   *          the failure
+   * 
+   * @return the description
+   */
+  static String describe(final Throwable e) {
+    return e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+  }
+
+}
@@ -0,0 +1,764 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local forwarding proxy server: accepts <code>CONNECT</code> requests (from
+ * applications that cannot talk to the upstream proxy server themselves, or
+ * should not know its credentials) and opens the tunnels through the upstream
+ * proxy server described by a {@link Proxy}.
+ * <p>
+ * The connections are handled, without blocking, by several event loops (by
+ * default one for each processor). Where the platform supports
+ * <code>SO_REUSEPORT</code> (Java 9 or newer, on Linux for example) every
+ * loop has its own listening socket bound to the same port, and the kernel
+ * spreads the incoming connections between them, so accepting scales with the
+ * loops too. Otherwise a single acceptor hands off the connections to the
+ * loops, round-robin (unless there is only one loop, which then accepts the
+ * connections itself).
+ * <p>
+ * The relay buffers are leased from a {@link ProxyBufferPool} (the default
+ * one, unless set otherwise). Every state of a tunnel is limited in time:
+ * reading the request and the handshake with the upstream by the handshake
+ * timeout, connecting to the upstream by the connect timeout of the
+ * {@link #getConnector() connector}, and relaying by the idle timeout. Secure (TLS) upstream proxy servers are not
+ * supported.
+ * <p>
+ * A few connections to the upstream proxy server can be kept open ahead, as
+ * spares (see {@link #setSpareConnectionCount(int)}), so the new tunnels do
+ * not wait for the connection setup; a spare is validated before it is used,
+ * and replaced in the background once taken. Through an HTTP upstream proxy
+ * server speaking HTTP/2, the tunnels can instead be multiplexed, as streams,
+ * over a few connections (see {@link #setHttp2ConnectionCount(int)}), so the
+ * number of connections no longer grows with the number of tunnels. The connections, the bytes relayed and the swaps of the
+ * upstream are recorded in {@link ProxyMetrics}, and every connection can be
+ * written to a {@link ProxyAccessLog}, and to a {@link ProxyTraceRecorder}
+ * (to be replayed later).
+ * 
+ * <pre>
+ * ProxyForwarder forwarder = new ProxyForwarder(proxy);
+ * forwarder.start();
+ * // the applications use 127.0.0.1:forwarder.getPort() as their proxy server
+ * forwarder.close();
+ * </pre>
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.8, October 19, 2026
+ */
+public class ProxyForwarder implements Closeable {
+
+  /** The default timeout, in milliseconds, for an idle tunnel. */
+  public static final int DEFAULT_IDLE_TIMEOUT = 300000;
+
+  /** The default timeout, in milliseconds, for the request and the handshake. */
+  public static final int DEFAULT_HANDSHAKE_TIMEOUT = 30000;
+
+  /** The default number of event loops. */
+  public static final int DEFAULT_EVENT_LOOP_COUNT = Runtime.getRuntime().availableProcessors();
+
+  /** The default time, in milliseconds, a spare connection can stay unused. */
+  public static final long DEFAULT_SPARE_CONNECTION_IDLE_TIME = ProxyConnectionPool.DEFAULT_MAX_IDLE_TIME;
+
+  /** The maximum number of pending connections, for each listening socket. */
+  private static final int BACKLOG = 1024;
+
+  /** The connector of the upstream proxy server. */
+  private volatile ProxyConnector connector;
+
+  /** The upstream configuration used by the new tunnels, once started. */
+  private volatile ProxyUpstream upstream;
+
+  /** The local address to listen on. */
+  private final InetSocketAddress address;
+
+  /** The number of event loops. */
+  private int eventLoopCount = DEFAULT_EVENT_LOOP_COUNT;
+
+  /** <code>True</code> if <code>SO_REUSEPORT</code> should be used. */
+  private boolean reusePortEnabled = true;
+
+  /** The number of spare connections to the upstream (0 for none). */
+  private int spareConnectionCount;
+
+  /** The time, in milliseconds, a spare connection can stay unused. */
+  private long spareConnectionIdleTime = DEFAULT_SPARE_CONNECTION_IDLE_TIME;
+
+  /** The number of HTTP/2 connections of each event loop (0 for none). */
+  private int http2ConnectionCount;
+
+  /** The timeout, in milliseconds, for an idle tunnel (0 for none). */
+  private volatile int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+  /** The timeout, in milliseconds, for the request and the handshake. */
+  private volatile int handshakeTimeout = DEFAULT_HANDSHAKE_TIMEOUT;
+
+  /** The pool of the relay buffers. */
+  private volatile ProxyBufferPool bufferPool = ProxyBufferPool.getDefault();
+
+  /** The access log, or <code>null</code>. */
+  private volatile ProxyAccessLog accessLog;
+
+  /** The trace recorder, or <code>null</code>. */
+  private volatile ProxyTraceRecorder traceRecorder;
+
+  /** The event loops, once started. */
+  private ProxyForwarderLoop[] loops;
+
+  /** The listening socket of the acceptor, if <code>SO_REUSEPORT</code> is not used. */
+  private ServerSocketChannel acceptorChannel;
+
+  /** The thread of the acceptor, if <code>SO_REUSEPORT</code> is not used. */
+  private Thread acceptorThread;
+
+  /** The port the forwarder listens on, once started. */
+  private int port;
+
+  /**
+   * Creates a new forwarder, listening on an ephemeral port of the loopback
+   * interface.
+   * 
+   * @param upstream
+   *          the upstream proxy server
+   */
+  public ProxyForwarder(final Proxy upstream) {
+    this(upstream, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+  }
+
+  /**
+   * Creates a new forwarder.
+   * 
+   * @param upstream
+   *          the upstream proxy server
+   * @param address
+   *          the local address to listen on
+   */
+  public ProxyForwarder(final Proxy upstream, final InetSocketAddress address) {
+
+    checkUpstream(upstream);
+
+    this.connector = new ProxyConnector(upstream);
+    this.address = address;
+  }
+
+  /**
+   * Starts listening and the event loops.
+   * 
+   * @throws IOException
+   *           if the listening socket cannot be bound
+   */
+  public synchronized void start() throws IOException {
+
+    if (loops != null) {
+      throw new IllegalStateException("the forwarder is already started");
+    }
+
+    upstream = new ProxyUpstream(connector, spareConnectionCount, spareConnectionIdleTime, http2ConnectionCount);
+
+    ProxyForwarderLoop[] loops = new ProxyForwarderLoop[eventLoopCount];
+
+    try {
+
+      SocketOption<Boolean> reusePort = reusePortEnabled && eventLoopCount > 1 ? getReusePortOption() : null;
+
+      // a single loop can own the listening socket even without SO_REUSEPORT
+      if (reusePort != null || loops.length == 1) {
+
+        InetSocketAddress bindAddress = address;
+
+        for (int i = 0; i < loops.length; i++) {
+
+          ServerSocketChannel channel = ServerSocketChannel.open();
+
+          try {
+            if (reusePort != null) {
+              channel.setOption(reusePort, true);
+            }
+            channel.bind(bindAddress, BACKLOG);
+            loops[i] = new ProxyForwarderLoop(this, channel, "jatoo-proxy-forwarder-" + i);
+          } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+          }
+
+          // the next sockets share the port of the first one (even if ephemeral)
+          bindAddress = (InetSocketAddress) channel.getLocalAddress();
+        }
+
+        port = bindAddress.getPort();
+      }
+
+      else {
+
+        acceptorChannel = ServerSocketChannel.open();
+        acceptorChannel.bind(address, BACKLOG);
+
+        port = ((InetSocketAddress) acceptorChannel.getLocalAddress()).getPort();
+
+        for (int i = 0; i < loops.length; i++) {
+          loops[i] = new ProxyForwarderLoop(this, null, "jatoo-proxy-forwarder-" + i);
+        }
+
+        final ServerSocketChannel channel = acceptorChannel;
+        final ProxyForwarderLoop[] targetLoops = loops;
+
+        acceptorThread = new Thread(new Runnable() {
+          public void run() {
+            acceptLoop(channel, targetLoops);
+          }
+        }, "jatoo-proxy-forwarder-acceptor");
+        acceptorThread.setDaemon(true);
+      }
+    }
+
+    catch (IOException | RuntimeException e) {
+      this.loops = loops;
+      close();
+      throw e;
+    }
+
+    this.loops = loops;
+
+    for (ProxyForwarderLoop loop : loops) {
+      loop.start();
+    }
+
+    if (acceptorThread != null) {
+      acceptorThread.start();
+    }
+
+    upstream.fillSpareConnections();
+  }
+
+  /**
+   * Accepts the connections (blocking) and hands them off to the event loops,
+   * round-robin.
+   */
+  private static void acceptLoop(final ServerSocketChannel acceptorChannel, final ProxyForwarderLoop[] loops) {
+
+    int next = 0;
+
+    while (acceptorChannel.isOpen()) {
+
+      try {
+
+        SocketChannel channel = acceptorChannel.accept();
+
+        loops[next].handOff(channel);
+        next = (next + 1) % loops.length;
+      }
+
+      catch (ClosedChannelException e) {
+        break;
+      }
+
+      catch (IOException e) {
+        // the connection was lost before it was accepted, go on with the next
+      }
+    }
+  }
+
+  /**
+   * Stops listening, closes all the tunnels and stops the event loops.
+   */
+  @Override
+  public synchronized void close() {
+
+    if (acceptorChannel != null) {
+
+      try {
+        acceptorChannel.close();
+      } catch (IOException e) {
+        // nothing to do, the forwarder is stopped anyway
+      }
+
+      acceptorChannel = null;
+    }
+
+    if (loops != null) {
+
+      for (ProxyForwarderLoop loop : loops) {
+
+        if (loop == null) {
+          continue;
+        }
+
+        try {
+          loop.shutdown();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      loops = null;
+    }
+
+    if (upstream != null) {
+      upstream.close();
+    }
+
+    acceptorThread = null;
+  }
+
+  /**
+   * Swaps the upstream proxy server without dropping the open tunnels: the
+   * new tunnels use the new upstream right away, while the tunnels opened
+   * through the old one are given time to finish. The ones still open at the
+   * deadline are closed, and the old upstream is released. The timeouts of
+   * the current connector are kept.
+   * 
+   * @param proxy
+   *          the new upstream proxy server
+   * @param drainTimeout
+   *          the time, in milliseconds, the tunnels of the old upstream are
+   *          given to finish
+   * 
+   * @return the outcome of the swap (latency, drained and closed tunnels)
+   * 
+   * @throws InterruptedException
+   *           if interrupted while waiting for the tunnels to finish
+   */
+  public ProxyUpstreamSwap swapUpstream(final Proxy proxy, final long drainTimeout) throws InterruptedException {
+    return swapUpstream(proxy, drainTimeout, false);
+  }
+
+  /**
+   * Swaps the upstream proxy server because the current one failed, like
+   * {@link #swapUpstream(Proxy, long)}, but counted as a failover in the
+   * {@link ProxyMetrics} (a planned swap is not).
+   * 
+   * @param proxy
+   *          the new upstream proxy server
+   * @param drainTimeout
+   *          the time, in milliseconds, the tunnels of the old upstream are
+   *          given to finish
+   * 
+   * @return the outcome of the swap (latency, drained and closed tunnels)
+   * 
+   * @throws InterruptedException
+   *           if interrupted while waiting for the tunnels to finish
+   */
+  public ProxyUpstreamSwap failOverUpstream(final Proxy proxy, final long drainTimeout) throws InterruptedException {
+    return swapUpstream(proxy, drainTimeout, true);
+  }
+
+  private ProxyUpstreamSwap swapUpstream(final Proxy proxy, final long drainTimeout, final boolean failover) throws InterruptedException {
+
+    checkUpstream(proxy);
+
+    long start = System.nanoTime();
+
+    ProxyConnector newConnector = new ProxyConnector(proxy);
+    newConnector.setConnectTimeout(connector.getConnectTimeout());
+    newConnector.setReadTimeout(connector.getReadTimeout());
+
+    // resolved before the swap (and outside the lock), the new tunnels never
+    // wait for it
+    ProxyUpstream newUpstream = new ProxyUpstream(newConnector, getSpareConnectionCount(), getSpareConnectionIdleTime(), getHttp2ConnectionCount());
+
+    ProxyUpstream oldUpstream;
+    ProxyForwarderLoop[] loops;
+
+    synchronized (this) {
+
+      loops = this.loops;
+      oldUpstream = upstream;
+
+      if (loops != null) {
+        upstream = newUpstream;
+      }
+
+      connector = newConnector;
+    }
+
+    long swapLatency = System.nanoTime() - start;
+
+    if (loops == null) {
+      newUpstream.close();
+    }
+
+    else {
+
+      newUpstream.fillSpareConnections();
+
+      // only once the new one is published: the tunnels that did not make it
+      // in time use the new one
+      oldUpstream.retire();
+
+      // the spares of the old upstream would never be used
+      oldUpstream.close();
+    }
+
+    ProxyMetrics.getDefault().swapped(failover);
+
+    if (loops == null || oldUpstream == null) {
+      return new ProxyUpstreamSwap(swapLatency, 0, 0, 0);
+    }
+
+    start = System.nanoTime();
+
+    int inFlightCount = oldUpstream.getTunnelCount();
+
+    if (!oldUpstream.awaitDrained(start + TimeUnit.MILLISECONDS.toNanos(drainTimeout))) {
+
+      for (ProxyForwarderLoop loop : loops) {
+        loop.closeTunnels(oldUpstream);
+      }
+
+      // the loops close them right away
+      oldUpstream.awaitDrained(System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+    }
+
+    // no tunnel uses the HTTP/2 connections of the old upstream any longer
+    for (ProxyForwarderLoop loop : loops) {
+      loop.closeHttp2Connections(oldUpstream);
+    }
+
+    int closedCount = oldUpstream.getClosedCount();
+
+    return new ProxyUpstreamSwap(swapLatency, System.nanoTime() - start, Math.max(inFlightCount - closedCount, 0), closedCount);
+  }
+
+  /**
+   * Checks that the forwarder supports the upstream proxy server (before any
+   * tunnel uses it, a tunnel would fail otherwise).
+   */
+  private static void checkUpstream(final Proxy upstream) {
+
+    if (upstream.isSecure()) {
+      throw new IllegalArgumentException("secure upstream proxy servers are not supported");
+    }
+
+    if (upstream.getType() == ProxyType.SOCKS && upstream.isRequiringAuthentication() && upstream.getUsername() != null && !Socks5Handshake.canCarryCredentials(upstream.getUsername(), upstream.getPassword())) {
+      throw new IllegalArgumentException("the user name or the password of a SOCKS5 proxy server cannot be longer than 255 bytes");
+    }
+  }
+
+  /**
+   * Returns the <code>SO_REUSEPORT</code> socket option, if the platform
+   * supports it (the option exists only in Java 9 or newer, so it is looked up
+   * by reflection).
+   */
+  @SuppressWarnings("unchecked")
+  private static SocketOption<Boolean> getReusePortOption() {
+
+    try {
+
+      SocketOption<Boolean> option = (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+
+      try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+        return channel.supportedOptions().contains(option) ? option : null;
+      }
+    }
+
+    catch (ReflectiveOperationException | IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return the connector of the upstream proxy server (to set the timeouts,
+   *         for example)
+   */
+  public final ProxyConnector getConnector() {
+    return connector;
+  }
+
+  /**
+   * Returns the upstream configuration used by the new tunnels, with a new
+   * tunnel counted on it. A configuration is retired only after the next one
+   * is published, so a tunnel that loses the race with a swap retries with
+   * the new configuration, and is never missed by the drain of the old one.
+   * 
+   * @return the upstream configuration, to be released with
+   *         {@link ProxyUpstream#tunnelClosed()}
+   */
+  final ProxyUpstream pinUpstream() {
+
+    while (true) {
+
+      ProxyUpstream upstream = this.upstream;
+
+      if (upstream.tryOpenTunnel()) {
+        return upstream;
+      }
+    }
+  }
+
+  /**
+   * @return the idleTimeout
+   */
+  public final int getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  /**
+   * @param idleTimeout
+   *          the idleTimeout to set (<code>0</code> for none)
+   */
+  public final void setIdleTimeout(final int idleTimeout) {
+    this.idleTimeout = idleTimeout;
+  }
+
+  /**
+   * @return the handshakeTimeout
+   */
+  public final int getHandshakeTimeout() {
+    return handshakeTimeout;
+  }
+
+  /**
+   * @param handshakeTimeout
+   *          the handshakeTimeout to set
+   */
+  public final void setHandshakeTimeout(final int handshakeTimeout) {
+    this.handshakeTimeout = handshakeTimeout;
+  }
+
+  /**
+   * @return the bufferPool
+   */
+  public final ProxyBufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  /**
+   * @param bufferPool
+   *          the bufferPool to set (used by the tunnels opened afterwards)
+   */
+  public final void setBufferPool(final ProxyBufferPool bufferPool) {
+    this.bufferPool = bufferPool;
+  }
+
+  /**
+   * @return the accessLog, or <code>null</code>
+   */
+  public final ProxyAccessLog getAccessLog() {
+    return accessLog;
+  }
+
+  /**
+   * @param accessLog
+   *          the accessLog to set (<code>null</code> for none, the tunnels
+   *          closed afterwards are written to it, and it is not closed with
+   *          the forwarder)
+   */
+  public final void setAccessLog(final ProxyAccessLog accessLog) {
+    this.accessLog = accessLog;
+  }
+
+  /**
+   * @return the trace recorder, or <code>null</code>
+   */
+  public final ProxyTraceRecorder getTraceRecorder() {
+    return traceRecorder;
+  }
+
+  /**
+   * @param traceRecorder
+   *          the trace recorder to set (<code>null</code> for none, the
+   *          tunnels closed afterwards are recorded, and it is not closed
+   *          with the forwarder)
+   */
+  public final void setTraceRecorder(final ProxyTraceRecorder traceRecorder) {
+    this.traceRecorder = traceRecorder;
+  }
+
+  /**
+   * @return the port the forwarder listens on, once started
+   */
+  public final synchronized int getPort() {
+    return port;
+  }
+
+  /**
+   * @return <code>true</code> if every event loop has its own listening socket
+   *         (bound with <code>SO_REUSEPORT</code>, if there are several loops)
+   */
+  public final synchronized boolean isReusePort() {
+    return loops != null && acceptorThread == null;
+  }
+
+  /**
+   * @return the eventLoopCount
+   */
+  public final synchronized int getEventLoopCount() {
+    return eventLoopCount;
+  }
+
+  /**
+   * @param eventLoopCount
+   *          the eventLoopCount to set (before the forwarder is started)
+   */
+  public final synchronized void setEventLoopCount(final int eventLoopCount) {
+
+    if (eventLoopCount < 1) {
+      throw new IllegalArgumentException("the forwarder needs at least one event loop");
+    }
+
+    this.eventLoopCount = eventLoopCount;
+  }
+
+  /**
+   * @return the reusePortEnabled
+   */
+  public final synchronized boolean isReusePortEnabled() {
+    return reusePortEnabled;
+  }
+
+  /**
+   * @param reusePortEnabled
+   *          the reusePortEnabled to set (before the forwarder is started)
+   */
+  public final synchronized void setReusePortEnabled(final boolean reusePortEnabled) {
+    this.reusePortEnabled = reusePortEnabled;
+  }
+
+  /**
+   * @return the spareConnectionCount
+   */
+  public final synchronized int getSpareConnectionCount() {
+    return spareConnectionCount;
+  }
+
+  /**
+   * @param spareConnectionCount
+   *          the number of connections to the upstream proxy server kept open
+   *          ahead (<code>0</code>, the default, for none), set before the
+   *          forwarder is started or the upstream is swapped
+   */
+  public final synchronized void setSpareConnectionCount(final int spareConnectionCount) {
+
+    if (spareConnectionCount < 0) {
+      throw new IllegalArgumentException("the number of spare connections cannot be negative");
+    }
+
+    this.spareConnectionCount = spareConnectionCount;
+  }
+
+  /**
+   * @return the spareConnectionIdleTime
+   */
+  public final synchronized long getSpareConnectionIdleTime() {
+    return spareConnectionIdleTime;
+  }
+
+  /**
+   * @param spareConnectionIdleTime
+   *          the time, in milliseconds, a spare connection can stay unused
+   *          before it is no longer trusted (the next tunnel closes it, and it
+   *          is replaced), set before the forwarder is started or the upstream
+   *          is swapped
+   */
+  public final synchronized void setSpareConnectionIdleTime(final long spareConnectionIdleTime) {
+    this.spareConnectionIdleTime = spareConnectionIdleTime;
+  }
+
+  /**
+   * @return the http2ConnectionCount
+   */
+  public final synchronized int getHttp2ConnectionCount() {
+    return http2ConnectionCount;
+  }
+
+  /**
+   * @param http2ConnectionCount
+   *          the number of HTTP/2 connections (cleartext, with prior
+   *          knowledge) each event loop opens to the upstream proxy server,
+   *          at most, to multiplex the tunnels over (<code>0</code>, the
+   *          default, for a connection per tunnel, over HTTP/1.1), set before
+   *          the forwarder is started or the upstream is swapped; ignored for
+   *          a SOCKS proxy server, and no spares are kept meanwhile
+   */
+  public final synchronized void setHttp2ConnectionCount(final int http2ConnectionCount) {
+
+    if (http2ConnectionCount < 0) {
+      throw new IllegalArgumentException("the number of HTTP/2 connections cannot be negative");
+    }
+
+    this.http2ConnectionCount = http2ConnectionCount;
+  }
+
+  /**
+   * @return the number of connections accepted so far (by the running event
+   *         loops)
+   */
+  public final synchronized long getAcceptedCount() {
+
+    long count = 0;
+
+    if (loops != null) {
+      for (ProxyForwarderLoop loop : loops) {
+        count += loop.getAcceptedCount();
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * @return the number of tunnels closed (or refused) because they timed out
+   */
+  public final synchronized long getTimedOutCount() {
+
+    long count = 0;
+
+    if (loops != null) {
+      for (ProxyForwarderLoop loop : loops) {
+        count += loop.getTimedOutCount();
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * @return the thread of an event loop, once started (for the allocation
+   *         tests)
+   */
+  final synchronized Thread getEventLoopThread(final int index) {
+    return loops == null ? null : loops[index].getThread();
+  }
+
+  /**
+   * @return the number of open tunnels
+   */
+  public final synchronized int getTunnelCount() {
+
+    int count = 0;
+
+    if (loops != null) {
+      for (ProxyForwarderLoop loop : loops) {
+        count += loop.getTunnelCount();
+      }
+    }
+
+    return count;
+  }
+
+}
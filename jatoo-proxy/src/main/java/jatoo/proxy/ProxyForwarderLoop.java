@@ -0,0 +1,503 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An event loop of a {@link ProxyForwarder}: a thread with its own selector,
+ * driving all the tunnels of the connections it accepted (from its own
+ * listening socket) or was handed off (by the shared acceptor). The timeouts
+ * of the tunnels are tracked by a {@link ProxyTimingWheel}, advanced after
+ * every select.
+ * <p>
+ * If the tunnels are multiplexed over HTTP/2, the loop also keeps its own
+ * {@link Http2Connection}s to the upstream (never shared with the other
+ * loops, so a connection is driven by one thread only).
+ * <p>
+ * A tunnel that throws (a bug), while handling its connections, its timeout
+ * or a task, is closed, but never stops the loop and the other tunnels on it.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.5, October 19, 2026
+ */
+final class ProxyForwarderLoop implements Runnable {
+
+  /** The forwarder owning the loop. */
+  private final ProxyForwarder forwarder;
+
+  /** The duration of a tick of the timing wheel, in milliseconds. */
+  private static final long TICK_DURATION = 100;
+
+  /** The selector of the loop. */
+  private final Selector selector;
+
+  /** The listening socket of the loop, or <code>null</code>. */
+  private final ServerSocketChannel serverChannel;
+
+  /** The connections handed off by the acceptor, not yet registered. */
+  private final Queue<SocketChannel> handedOffChannels = new ConcurrentLinkedQueue<>();
+
+  /** The tasks submitted by other threads, to be run by the loop. */
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+  /** The thread of the loop. */
+  private final Thread thread;
+
+  /** The number of connections accepted by (or handed off to) the loop. */
+  private final AtomicLong acceptedCount = new AtomicLong();
+
+  /** The number of open tunnels. */
+  private final AtomicInteger tunnelCount = new AtomicInteger();
+
+  /** The number of timed out tunnels. */
+  private final AtomicLong timedOutCount = new AtomicLong();
+
+  /** The HTTP/2 connections of the loop, by upstream configuration. */
+  private final Map<ProxyUpstream, List<Http2Connection>> http2Connections = new HashMap<>();
+
+  /** The timeouts of the tunnels. */
+  private final ProxyTimingWheel timingWheel;
+
+  /** The time, in nanoseconds, of the last select. */
+  private long now;
+
+  private volatile boolean running = true;
+
+  /**
+   * Creates a new event loop.
+   * 
+   * @param forwarder
+   *          the forwarder owning the loop
+   * @param serverChannel
+   *          the listening socket of the loop, or <code>null</code> if the
+   *          connections are handed off by an acceptor
+   * @param name
+   *          the name of the thread
+   */
+  ProxyForwarderLoop(final ProxyForwarder forwarder, final ServerSocketChannel serverChannel, final String name) throws IOException {
+
+    this.forwarder = forwarder;
+    this.serverChannel = serverChannel;
+
+    selector = Selector.open();
+
+    now = System.nanoTime();
+    timingWheel = new ProxyTimingWheel(TICK_DURATION, now);
+
+    if (serverChannel != null) {
+      serverChannel.configureBlocking(false);
+      serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    thread = new Thread(this, name);
+    thread.setDaemon(true);
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  /**
+   * Hands off an accepted connection to the loop (called by the acceptor).
+   */
+  void handOff(final SocketChannel channel) {
+    handedOffChannels.offer(channel);
+    selector.wakeup();
+  }
+
+  /**
+   * Closes (on the thread of the loop) the tunnels using the specified
+   * upstream configuration.
+   */
+  void closeTunnels(final ProxyUpstream upstream) {
+
+    tasks.offer(new Runnable() {
+      public void run() {
+        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+
+          if (!(key.attachment() instanceof ProxyTunnel)) {
+            continue;
+          }
+
+          ProxyTunnel tunnel = (ProxyTunnel) key.attachment();
+
+          if (tunnel.getUpstream() == upstream && !tunnel.isClosed()) {
+
+            upstream.tunnelClosedByDrain();
+
+            try {
+              tunnel.close();
+            } catch (RuntimeException e) {
+              // closed anyway (the state is set first), go on with the others
+            }
+          }
+        }
+      }
+    });
+
+    selector.wakeup();
+  }
+
+  /**
+   * Closes (on the thread of the loop) the HTTP/2 connections to the
+   * specified upstream configuration, once no tunnel uses it.
+   */
+  void closeHttp2Connections(final ProxyUpstream upstream) {
+
+    tasks.offer(new Runnable() {
+      public void run() {
+
+        List<Http2Connection> connections = http2Connections.get(upstream);
+
+        if (connections != null) {
+          for (Http2Connection connection : new ArrayList<>(connections)) {
+            connection.close();
+          }
+        }
+      }
+    });
+
+    selector.wakeup();
+  }
+
+  /**
+   * Stops the loop, closing all its connections, and waits for it to finish.
+   */
+  void shutdown() throws InterruptedException {
+
+    if (thread.getState() == Thread.State.NEW) {
+      closeAll();
+      return;
+    }
+
+    running = false;
+    selector.wakeup();
+    thread.join();
+  }
+
+  @Override
+  public void run() {
+
+    try {
+
+      while (running) {
+
+        // wake up every tick only while there are timeouts to track
+        selector.select(timingWheel.size() == 0 ? 0 : TICK_DURATION);
+
+        now = System.nanoTime();
+
+        SocketChannel channel;
+        while ((channel = handedOffChannels.poll()) != null) {
+          register(channel);
+        }
+
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+
+          try {
+            task.run();
+          }
+
+          catch (RuntimeException e) {
+            // a failed task must not stop the loop either
+          }
+        }
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+        while (keys.hasNext()) {
+
+          SelectionKey key = keys.next();
+          keys.remove();
+
+          if (!key.isValid()) {
+            continue;
+          }
+
+          if (key.attachment() instanceof ProxyTunnel) {
+
+            ProxyTunnel tunnel = (ProxyTunnel) key.attachment();
+
+            try {
+              tunnel.handle(key);
+            }
+
+            catch (RuntimeException e) {
+              // a bug must not stop the loop (and every other tunnel on it),
+              // only this tunnel
+              tunnel.close();
+            }
+          }
+
+          else if (key.attachment() instanceof Http2Connection) {
+
+            Http2Connection connection = (Http2Connection) key.attachment();
+
+            try {
+              connection.handle(key);
+            }
+
+            catch (RuntimeException e) {
+              // only the tunnels of this connection
+              connection.abort(new IOException("the connection to the proxy server failed", e));
+            }
+          }
+
+          else {
+            accept();
+          }
+        }
+
+        timingWheel.advance(now);
+      }
+    }
+
+    catch (IOException e) {
+      // the selector failed, nothing else to do than to stop the loop
+    }
+
+    finally {
+      closeAll();
+    }
+  }
+
+  /**
+   * Accepts all the pending connections from the listening socket of the
+   * loop.
+   */
+  private void accept() {
+
+    try {
+
+      SocketChannel channel;
+      while ((channel = serverChannel.accept()) != null) {
+        register(channel);
+      }
+    }
+
+    catch (IOException e) {
+      // the connection was lost before it was accepted (or the process ran out
+      // of file descriptors), the next ones are accepted on the next select
+    }
+  }
+
+  /**
+   * Creates the tunnel of an accepted connection.
+   */
+  private void register(final SocketChannel channel) {
+
+    acceptedCount.incrementAndGet();
+    tunnelCount.incrementAndGet();
+
+    ProxyTunnel tunnel = new ProxyTunnel(this, forwarder, channel);
+
+    try {
+      tunnel.register(selector);
+    } catch (IOException e) {
+      tunnel.close();
+    }
+  }
+
+  /**
+   * Opens a stream for a tunnel over the least busy HTTP/2 connection to the
+   * upstream, opening a new connection while under the count of the upstream
+   * (and if the connection limiter allows it) unless an idle one is left.
+   * 
+   * @return the stream, or <code>null</code> if there is no connection and
+   *         the connection limiter does not allow a new one
+   */
+  Http2Connection.Stream openStream(final ProxyUpstream upstream, final ProxyTunnel tunnel, final String host, final int port) throws IOException {
+
+    List<Http2Connection> connections = http2Connections.get(upstream);
+
+    if (connections == null) {
+      connections = new ArrayList<>();
+      http2Connections.put(upstream, connections);
+    }
+
+    Http2Connection leastBusy = null;
+    int availableCount = 0;
+
+    for (Http2Connection connection : connections) {
+      if (connection.isAvailable()) {
+
+        availableCount++;
+
+        if (leastBusy == null || connection.getStreamCount() < leastBusy.getStreamCount()) {
+          leastBusy = connection;
+        }
+      }
+    }
+
+    if ((leastBusy == null || leastBusy.getStreamCount() > 0) && availableCount < upstream.getHttp2ConnectionCount()) {
+
+      ProxyRateLimiter connectionLimiter = ProxyRateLimits.getConnectionLimiter(upstream.getConnector().getProxy());
+
+      if (connectionLimiter == null || connectionLimiter.tryAcquire()) {
+
+        Http2Connection connection = new Http2Connection(this, forwarder, upstream);
+        connections.add(connection);
+
+        try {
+          connection.connect(selector);
+        } catch (IOException e) {
+          connection.abort(e);
+          throw e;
+        }
+
+        leastBusy = connection;
+      }
+    }
+
+    if (leastBusy == null) {
+      return null;
+    }
+
+    return leastBusy.openStream(tunnel, host, port);
+  }
+
+  /**
+   * Called by an HTTP/2 connection once closed.
+   */
+  void http2ConnectionClosed(final Http2Connection connection) {
+
+    List<Http2Connection> connections = http2Connections.get(connection.getUpstream());
+
+    if (connections != null) {
+
+      connections.remove(connection);
+
+      if (connections.isEmpty()) {
+        http2Connections.remove(connection.getUpstream());
+      }
+    }
+  }
+
+  /**
+   * @return the time, in nanoseconds, of the last select (cheaper than
+   *         {@link System#nanoTime()}, and precise enough for the timeouts)
+   */
+  long now() {
+    return now;
+  }
+
+  /**
+   * @return the timeouts of the tunnels
+   */
+  ProxyTimingWheel getTimingWheel() {
+    return timingWheel;
+  }
+
+  /**
+   * Called by a tunnel when it times out.
+   */
+  void tunnelTimedOut(final ProxyTunnel tunnel) {
+    timedOutCount.incrementAndGet();
+  }
+
+  /**
+   * Called by a tunnel once closed.
+   */
+  void tunnelClosed(final ProxyTunnel tunnel) {
+    tunnelCount.decrementAndGet();
+  }
+
+  /**
+   * Closes the listening socket, all the tunnels and the selector.
+   */
+  private void closeAll() {
+
+    for (SelectionKey key : new ArrayList<>(selector.keys())) {
+      if (key.attachment() instanceof ProxyTunnel) {
+        ((ProxyTunnel) key.attachment()).close();
+      }
+    }
+
+    for (List<Http2Connection> connections : new ArrayList<>(http2Connections.values())) {
+      for (Http2Connection connection : new ArrayList<>(connections)) {
+        connection.close();
+      }
+    }
+
+    SocketChannel channel;
+    while ((channel = handedOffChannels.poll()) != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // nothing to do, the loop is stopped anyway
+      }
+    }
+
+    try {
+
+      if (serverChannel != null) {
+        serverChannel.close();
+      }
+
+      selector.close();
+    }
+
+    catch (IOException e) {
+      // nothing to do, the loop is stopped anyway
+    }
+  }
+
+  /**
+   * @return the number of connections accepted by (or handed off to) the loop
+   */
+  long getAcceptedCount() {
+    return acceptedCount.get();
+  }
+
+  /**
+   * @return the number of timed out tunnels
+   */
+  long getTimedOutCount() {
+    return timedOutCount.get();
+  }
+
+  /**
+   * @return the thread of the loop
+   */
+  Thread getThread() {
+    return thread;
+  }
+
+  /**
+   * @return the number of open tunnels
+   */
+  int getTunnelCount() {
+    return tunnelCount.get();
+  }
+
+}
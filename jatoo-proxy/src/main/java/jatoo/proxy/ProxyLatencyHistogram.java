@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies, with logarithmic buckets: every power
+ * of two is split in {@value #SUB_BUCKETS} linear buckets, so the values are
+ * kept with a relative precision of 12.5%, from one microsecond to hundreds
+ * of years, in a fixed number of counters. Recording is an atomic increment
+ * of a bucket (plus the count, the sum and, rarely, the maximum), and never
+ * allocates.
+ * <p>
+ * The histograms of consecutive periods can be summed (see
+ * {@link #add(ProxyLatencyHistogram)}), for the percentiles of a sliding
+ * window.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.1, October 19, 2026
+ */
+public final class ProxyLatencyHistogram {
+
+  /** The number of bits of a sub-bucket index. */
+  private static final int SUB_BUCKET_BITS = 3;
+
+  /** The number of linear buckets of every power of two. */
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /** The number of buckets. */
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  /** The counts of the buckets. */
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+  /** The number of recorded values. */
+  private final ProxyStripedCounter count = new ProxyStripedCounter();
+
+  /** The sum of the recorded values. */
+  private final ProxyStripedCounter sum = new ProxyStripedCounter();
+
+  /** The largest recorded value. */
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records a latency.
+   * 
+   * @param nanos
+   *          the latency, in nanoseconds (negative values are recorded as
+   *          <code>0</code>)
+   */
+  public void record(final long nanos) {
+
+    long micros = Math.max(0, nanos / 1000);
+
+    buckets.getAndIncrement(bucket(micros));
+    count.increment();
+    sum.add(micros);
+
+    updateMax(micros);
+  }
+
+  /**
+   * Adds the latencies recorded by another histogram (the latencies it
+   * records meanwhile may or may not be added).
+   * 
+   * @param histogram
+   *          the other histogram
+   */
+  public void add(final ProxyLatencyHistogram histogram) {
+
+    for (int i = 0; i < BUCKETS; i++) {
+
+      long bucketCount = histogram.buckets.get(i);
+
+      if (bucketCount != 0) {
+        buckets.getAndAdd(i, bucketCount);
+      }
+    }
+
+    count.add(histogram.count.sum());
+    sum.add(histogram.sum.sum());
+
+    updateMax(histogram.max.get());
+  }
+
+  /**
+   * @return the number of recorded latencies
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * @return the average latency, in microseconds, or <code>0</code> if none
+   *         was recorded
+   */
+  public long getMean() {
+    long count = this.count.sum();
+    return count == 0 ? 0 : sum.sum() / count;
+  }
+
+  /**
+   * @return the largest latency, in microseconds
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns the latency below which the specified fraction of the recorded
+   * latencies fall (the upper bound of the bucket it falls in, so never
+   * underestimated, and never more than the maximum).
+   * 
+   * @param quantile
+   *          the fraction (between <code>0</code> and <code>1</code>, for
+   *          example <code>0.99</code> for the 99th percentile)
+   * 
+   * @return the latency, in microseconds, or <code>0</code> if none was
+   *         recorded
+   */
+  public long getQuantile(final double quantile) {
+
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets.get(i);
+      total += counts[i];
+    }
+
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+
+    for (int i = 0; i < BUCKETS; i++) {
+
+      seen += counts[i];
+
+      if (seen >= rank) {
+        return Math.min(upperBound(i), max.get());
+      }
+    }
+
+    return max.get();
+  }
+
+  /**
+   * Counts, in a single pass and without allocating, the recorded latencies
+   * below consecutive powers of two (the boundaries of the buckets, so the
+   * counts are exact), as needed for a cumulative histogram.
+   * 
+   * @param minExponent
+   *          the exponent of the first power of two, in microseconds (at
+   *          least {@value #SUB_BUCKET_BITS})
+   * @param counts
+   *          receives, at index <code>i</code>, the number of latencies below
+   *          <code>2^(minExponent + i)</code> microseconds, and, at the last
+   *          index, the number of all the latencies
+   * 
+   * @return the sum of all the latencies, in microseconds (not an atomic
+   *         snapshot with the counts)
+   */
+  long getCumulativeCounts(final int minExponent, final long[] counts) {
+
+    if (minExponent < SUB_BUCKET_BITS) {
+      throw new IllegalArgumentException("the minimum exponent must be at least " + SUB_BUCKET_BITS);
+    }
+
+    long seen = 0;
+    int index = 0;
+    int limit = firstBucket(minExponent);
+
+    for (int i = 0; i < BUCKETS; i++) {
+
+      if (i == limit && index < counts.length - 1) {
+        counts[index++] = seen;
+        limit = firstBucket(minExponent + index);
+      }
+
+      seen += buckets.get(i);
+    }
+
+    while (index < counts.length) {
+      counts[index++] = seen;
+    }
+
+    return sum.sum();
+  }
+
+  /**
+   * Resets the histogram (the concurrent recordings may or may not be lost).
+   */
+  public void reset() {
+
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets.set(i, 0);
+    }
+
+    count.reset();
+    sum.reset();
+    max.set(0);
+  }
+
+  private void updateMax(final long micros) {
+
+    long current;
+    while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+      // lost the race, try again against the new maximum
+    }
+  }
+
+  /**
+   * The bucket of a value: the values below {@link #SUB_BUCKETS} have their
+   * own buckets, the others are placed by their highest bit, and by the
+   * {@link #SUB_BUCKET_BITS} bits following it.
+   */
+  private static int bucket(final long value) {
+
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * The first bucket of a power of two (at least {@link #SUB_BUCKETS}).
+   */
+  private static int firstBucket(final int exponent) {
+    return Math.min(BUCKETS, (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+  }
+
+  /**
+   * The largest value of a bucket.
+   */
+  private static long upperBound(final int bucket) {
+
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+
+    int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long subBucket = bucket % SUB_BUCKETS;
+
+    long lowerBound = (1L << exponent) + (subBucket << (exponent - SUB_BUCKET_BITS));
+
+    return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+
+}
@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The metrics of the proxy layer: the connections opened to every proxy
+ * server, the TLS handshakes with the secure ones (full or resumed, see
+ * {@link ProxySslSessionCache}), the authentication outcomes, the connect
+ * latency, the bytes relayed, the swaps of the upstream and the failovers (the swaps forced by a
+ * failed proxy server). The metrics are recorded by the {@link ProxyConnector}s,
+ * the {@link ProxyChain}s and the {@link ProxyForwarder}s, and exposed through
+ * JMX (as {@value #OBJECT_NAME}), through the getters and, in the Prometheus
+ * text format, through a {@link ProxyMetricsEndpoint}. The state of the open
+ * {@link ProxyConnectionPool}s is exposed with them.
+ * <p>
+ * Recording is meant to stay on under load: the counters are striped (the
+ * threads do not contend on the same memory), the latencies go to a lock-free
+ * histogram, and nothing is allocated, except for the first connection to a
+ * new proxy server (the <code>host:port</code> key is cached by the
+ * {@link Proxy}, and built again only when its host or port changes).
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.5, October 19, 2026
+ */
+public class ProxyMetrics implements ProxyMetricsMXBean {
+
+  /** The name the metrics are registered with in the platform MBean server. */
+  public static final String OBJECT_NAME = "jatoo.proxy:type=ProxyMetrics";
+
+  /** The metrics recorded by default. */
+  private static final ProxyMetrics DEFAULT = new ProxyMetrics();
+
+  static {
+
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(DEFAULT, new ObjectName(OBJECT_NAME));
+    }
+
+    catch (JMException e) {
+      // already registered (by another class loader) or no JMX permission, the
+      // metrics are still recorded and available through the getters
+    }
+  }
+
+  /** The metrics of every proxy server, by <code>host:port</code>. */
+  private final ConcurrentMap<String, Upstream> upstreams = new ConcurrentHashMap<>();
+
+  /**
+   * The connection pools, by the <code>host:port</code> of their proxy server
+   * (weakly referenced, so a pool dropped without being closed is not kept
+   * alive by the metrics; guarded by itself).
+   */
+  private final Map<ProxyConnectionPool, String> connectionPools = new WeakHashMap<>();
+
+  private final ProxyStripedCounter connectionCount = new ProxyStripedCounter();
+  private final ProxyStripedCounter challengeCount = new ProxyStripedCounter();
+  private final ProxyStripedCounter authenticationSuccessCount = new ProxyStripedCounter();
+  private final ProxyStripedCounter authenticationFailureCount = new ProxyStripedCounter();
+  private final ProxyStripedCounter bytesRelayed = new ProxyStripedCounter();
+  private final ProxyStripedCounter swapCount = new ProxyStripedCounter();
+  private final ProxyStripedCounter failoverCount = new ProxyStripedCounter();
+
+  /** The time to connect to a proxy server (including the TLS handshake). */
+  private final ProxyLatencyHistogram connectLatency = new ProxyLatencyHistogram();
+
+  /**
+   * Creates new, unregistered, metrics.
+   */
+  ProxyMetrics() {}
+
+  /**
+   * @return the metrics recorded by default
+   */
+  public static ProxyMetrics getDefault() {
+    return DEFAULT;
+  }
+
+  //
+  // recording
+
+  /**
+   * Records a new connection to a proxy server.
+   * 
+   * @param proxy
+   *          the proxy server
+   * @param latency
+   *          the time it took to connect, in nanoseconds
+   */
+  void connected(final Proxy proxy, final long latency) {
+
+    Upstream upstream = getUpstream(proxy);
+
+    upstream.connectionCount.increment();
+    upstream.connectLatency.record(latency);
+
+    connectionCount.increment();
+    connectLatency.record(latency);
+  }
+
+  /**
+   * Records a TLS handshake with a secure proxy server.
+   * 
+   * @param proxy
+   *          the proxy server
+   * @param resumed
+   *          <code>true</code> if a cached session was resumed,
+   *          <code>false</code> for a full handshake
+   */
+  void tlsHandshaked(final Proxy proxy, final boolean resumed) {
+
+    Upstream upstream = getUpstream(proxy);
+
+    if (resumed) {
+      upstream.resumedHandshakeCount.increment();
+    } else {
+      upstream.fullHandshakeCount.increment();
+    }
+  }
+
+  /**
+   * Records a tunnel accepted by a proxy server.
+   * 
+   * @param proxy
+   *          the proxy server
+   */
+  void handshakeSucceeded(final Proxy proxy) {
+    if (proxy.isRequiringAuthentication()) {
+      authenticationSuccessCount.increment();
+    }
+  }
+
+  /**
+   * Records a tunnel refused by a proxy server.
+   * 
+   * @param proxy
+   *          the proxy server
+   * @param e
+   *          the answer of the proxy server
+   */
+  void handshakeRefused(final Proxy proxy, final ProxyResponseException e) {
+
+    if (!e.isAuthenticationRequired()) {
+      return;
+    }
+
+    challengeCount.increment();
+
+    if (proxy.isRequiringAuthentication()) {
+      authenticationFailureCount.increment();
+    }
+  }
+
+  /**
+   * Records relayed bytes.
+   * 
+   * @param bytes
+   *          the number of bytes
+   */
+  void relayed(final long bytes) {
+    if (bytes > 0) {
+      bytesRelayed.add(bytes);
+    }
+  }
+
+  /**
+   * Records a switch to another proxy server.
+   * 
+   * @param failover
+   *          <code>true</code> if the switch is a failover (the previous
+   *          proxy server failed), <code>false</code> for a planned swap
+   */
+  void swapped(final boolean failover) {
+
+    swapCount.increment();
+
+    if (failover) {
+      failoverCount.increment();
+    }
+  }
+
+  /**
+   * Adds a connection pool, whose state is exposed with the metrics until it
+   * is {@link #removeConnectionPool(ProxyConnectionPool) removed}, or no
+   * longer referenced.
+   * 
+   * @param pool
+   *          the connection pool
+   */
+  void addConnectionPool(final ProxyConnectionPool pool) {
+
+    String key = getKey(pool.getConnector().getProxy());
+
+    synchronized (connectionPools) {
+      connectionPools.put(pool, key);
+    }
+  }
+
+  /**
+   * Removes a connection pool (when closed).
+   * 
+   * @param pool
+   *          the connection pool
+   */
+  void removeConnectionPool(final ProxyConnectionPool pool) {
+    synchronized (connectionPools) {
+      connectionPools.remove(pool);
+    }
+  }
+
+  //
+  // collecting
+
+  /**
+   * @return the metrics of every proxy server, by <code>host:port</code> (a
+   *         live view)
+   */
+  Map<String, Upstream> getUpstreams() {
+    return upstreams;
+  }
+
+  /**
+   * @return the connection pools, with the <code>host:port</code> of their
+   *         proxy server (a snapshot)
+   */
+  Map<ProxyConnectionPool, String> getConnectionPools() {
+    synchronized (connectionPools) {
+      return new HashMap<>(connectionPools);
+    }
+  }
+
+  /**
+   * @return the connect latency of all the proxy servers
+   */
+  ProxyLatencyHistogram getConnectLatency() {
+    return connectLatency;
+  }
+
+  /**
+   * Returns a quantile of the connect latency of one proxy server.
+   * 
+   * @param upstream
+   *          the proxy server, as <code>host:port</code>
+   * @param quantile
+   *          the quantile, between <code>0</code> and <code>1</code>
+   * 
+   * @return the latency, in microseconds, or <code>-1</code> if there was no
+   *         connection to the proxy server
+   */
+  public long getUpstreamConnectLatency(final String upstream, final double quantile) {
+
+    Upstream metrics = upstreams.get(upstream);
+
+    if (metrics == null || metrics.connectLatency.getCount() == 0) {
+      return -1;
+    }
+
+    return metrics.connectLatency.getQuantile(quantile);
+  }
+
+  //
+  // ProxyMetricsMXBean
+
+  @Override
+  public long getConnectionCount() {
+    return connectionCount.sum();
+  }
+
+  @Override
+  public Map<String, Long> getUpstreamConnectionCounts() {
+
+    Map<String, Long> counts = new TreeMap<>();
+
+    for (Map.Entry<String, Upstream> entry : upstreams.entrySet()) {
+      counts.put(entry.getKey(), entry.getValue().connectionCount.sum());
+    }
+
+    return counts;
+  }
+
+  @Override
+  public Map<String, Long> getUpstreamFullHandshakeCounts() {
+
+    Map<String, Long> counts = new TreeMap<>();
+
+    for (Map.Entry<String, Upstream> entry : upstreams.entrySet()) {
+      if (entry.getValue().isSecure()) {
+        counts.put(entry.getKey(), entry.getValue().fullHandshakeCount.sum());
+      }
+    }
+
+    return counts;
+  }
+
+  @Override
+  public Map<String, Long> getUpstreamResumedHandshakeCounts() {
+
+    Map<String, Long> counts = new TreeMap<>();
+
+    for (Map.Entry<String, Upstream> entry : upstreams.entrySet()) {
+      if (entry.getValue().isSecure()) {
+        counts.put(entry.getKey(), entry.getValue().resumedHandshakeCount.sum());
+      }
+    }
+
+    return counts;
+  }
+
+  @Override
+  public Map<String, Integer> getUpstreamCachedSessionCounts() {
+
+    Map<String, Integer> counts = new TreeMap<>();
+
+    for (Map.Entry<String, Upstream> entry : upstreams.entrySet()) {
+      if (entry.getValue().isSecure()) {
+        counts.put(entry.getKey(), ProxySslSessionCache.getCachedSessionCount(entry.getKey()));
+      }
+    }
+
+    return counts;
+  }
+
+  @Override
+  public long getChallengeCount() {
+    return challengeCount.sum();
+  }
+
+  @Override
+  public long getAuthenticationSuccessCount() {
+    return authenticationSuccessCount.sum();
+  }
+
+  @Override
+  public long getAuthenticationFailureCount() {
+    return authenticationFailureCount.sum();
+  }
+
+  @Override
+  public long getConnectLatencyMean() {
+    return connectLatency.getMean();
+  }
+
+  @Override
+  public long getConnectLatencyP50() {
+    return connectLatency.getQuantile(0.5);
+  }
+
+  @Override
+  public long getConnectLatencyP99() {
+    return connectLatency.getQuantile(0.99);
+  }
+
+  @Override
+  public long getConnectLatencyP999() {
+    return connectLatency.getQuantile(0.999);
+  }
+
+  @Override
+  public long getConnectLatencyMax() {
+    return connectLatency.getMax();
+  }
+
+  @Override
+  public long getBytesRelayed() {
+    return bytesRelayed.sum();
+  }
+
+  @Override
+  public long getSwapCount() {
+    return swapCount.sum();
+  }
+
+  @Override
+  public long getFailoverCount() {
+    return failoverCount.sum();
+  }
+
+  @Override
+  public void reset() {
+
+    upstreams.clear();
+
+    connectionCount.reset();
+    challengeCount.reset();
+    authenticationSuccessCount.reset();
+    authenticationFailureCount.reset();
+    bytesRelayed.reset();
+    swapCount.reset();
+    failoverCount.reset();
+
+    connectLatency.reset();
+  }
+
+  /**
+   * Returns the metrics of a proxy server, creating them if needed.
+   */
+  private Upstream getUpstream(final Proxy proxy) {
+
+    String key = getKey(proxy);
+
+    Upstream upstream = upstreams.get(key);
+
+    if (upstream == null) {
+
+      Upstream newUpstream = new Upstream();
+      upstream = upstreams.putIfAbsent(key, newUpstream);
+
+      if (upstream == null) {
+        upstream = newUpstream;
+      }
+    }
+
+    return upstream;
+  }
+
+  /**
+   * The key of a proxy server: <code>host:port</code> (cached by the proxy,
+   * so nothing is allocated for every connection).
+   */
+  private static String getKey(final Proxy proxy) {
+    return proxy.getMetricsKey();
+  }
+
+  /**
+   * The metrics of a proxy server.
+   */
+  static final class Upstream {
+
+    /** The number of connections. */
+    final ProxyStripedCounter connectionCount = new ProxyStripedCounter();
+
+    /** The time to connect (including the TLS handshake). */
+    final ProxyLatencyHistogram connectLatency = new ProxyLatencyHistogram();
+
+    /** The TLS handshakes, full or resuming a cached session. */
+    final ProxyStripedCounter fullHandshakeCount = new ProxyStripedCounter();
+    final ProxyStripedCounter resumedHandshakeCount = new ProxyStripedCounter();
+
+    /**
+     * @return <code>true</code> if a TLS handshake was done with the proxy
+     *         server (since the last reset)
+     */
+    boolean isSecure() {
+      return fullHandshakeCount.sum() + resumedHandshakeCount.sum() > 0;
+    }
+  }
+
+}
@@ -0,0 +1,617 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * A tiny HTTP server exposing the {@link ProxyMetrics} in the Prometheus text
+ * format, at <code>/metrics</code>, on a local port:
+ * 
+ * <pre>
+ * ProxyMetricsEndpoint endpoint = new ProxyMetricsEndpoint(9464);
+ * endpoint.start();
+ * // Prometheus scrapes http://127.0.0.1:9464/metrics
+ * endpoint.close();
+ * </pre>
+ * 
+ * The scrapes are served one at a time, by a single thread, which reuses its
+ * buffers from one scrape to the next. Collecting only reads the counters and
+ * the histograms (no lock is taken, so the recording threads are never
+ * blocked), and the latency histograms are exposed with the powers of two of
+ * their buckets as boundaries, so they are exact.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.2, October 19, 2026
+ */
+public class ProxyMetricsEndpoint implements Closeable {
+
+  /** The path the metrics are served at. */
+  public static final String PATH = "/metrics";
+
+  /** The content type of the Prometheus text format. */
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  /** The timeout, in milliseconds, for reading a request. */
+  private static final int READ_TIMEOUT = 10000;
+
+  /** The maximum size of a request (the headers included). */
+  private static final int MAX_REQUEST_SIZE = 8192;
+
+  /** The exponent of the first latency boundary: 2^6 microseconds (64us). */
+  static final int MIN_LATENCY_EXPONENT = 6;
+
+  /** The number of latency boundaries: up to 2^25 microseconds (about 33s). */
+  static final int LATENCY_BOUNDARIES = 20;
+
+  private static final Charset US_ASCII = Charset.forName("US-ASCII");
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** The metrics to expose. */
+  private final ProxyMetrics metrics;
+
+  /** The local address to listen on. */
+  private final InetSocketAddress address;
+
+  /** The text of the scrape (reused, by the serving thread only). */
+  private final StringBuilder text = new StringBuilder(4096);
+
+  /** The request being read (reused). */
+  private final byte[] request = new byte[MAX_REQUEST_SIZE];
+
+  /** The encoded response body (reused, grown as needed). */
+  private byte[] body = new byte[4096];
+
+  /** The cumulative counts of a latency histogram (reused). */
+  private final long[] latencyCounts = new long[LATENCY_BOUNDARIES + 1];
+
+  /** The listening socket, once started. */
+  private ServerSocket serverSocket;
+
+  /**
+   * Creates a new endpoint for the default metrics, listening on a port of
+   * the loopback interface.
+   * 
+   * @param port
+   *          the port (<code>0</code> for an ephemeral one)
+   */
+  public ProxyMetricsEndpoint(final int port) {
+    this(ProxyMetrics.getDefault(), new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+  }
+
+  /**
+   * Creates a new endpoint.
+   * 
+   * @param metrics
+   *          the metrics to expose
+   * @param address
+   *          the local address to listen on
+   */
+  public ProxyMetricsEndpoint(final ProxyMetrics metrics, final InetSocketAddress address) {
+    this.metrics = metrics;
+    this.address = address;
+  }
+
+  /**
+   * Starts listening, and serving the scrapes on a daemon thread.
+   * 
+   * @throws IOException
+   *           if the listening socket cannot be bound
+   */
+  public synchronized void start() throws IOException {
+
+    if (serverSocket != null) {
+      throw new IllegalStateException("the endpoint is already started");
+    }
+
+    final ServerSocket serverSocket = new ServerSocket();
+
+    try {
+      serverSocket.setReuseAddress(true);
+      serverSocket.bind(address);
+    } catch (IOException e) {
+      serverSocket.close();
+      throw e;
+    }
+
+    this.serverSocket = serverSocket;
+
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        serve(serverSocket);
+      }
+    }, "jatoo-proxy-metrics");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stops listening.
+   */
+  @Override
+  public synchronized void close() {
+
+    if (serverSocket != null) {
+
+      try {
+        serverSocket.close();
+      } catch (IOException e) {
+        // nothing to do, the endpoint is stopped anyway
+      }
+
+      serverSocket = null;
+    }
+  }
+
+  /**
+   * @return the port the endpoint listens on, or <code>-1</code> if not
+   *         started
+   */
+  public synchronized int getPort() {
+    return serverSocket == null ? -1 : serverSocket.getLocalPort();
+  }
+
+  /**
+   * Accepts the scrapes, one at a time, until the listening socket is closed.
+   */
+  private void serve(final ServerSocket serverSocket) {
+
+    while (!serverSocket.isClosed()) {
+
+      try (Socket socket = serverSocket.accept()) {
+        socket.setSoTimeout(READ_TIMEOUT);
+        handle(socket);
+      }
+
+      catch (SocketException e) {
+        // closed, or the connection was lost, the loop condition tells
+      }
+
+      catch (IOException | RuntimeException e) {
+        // a broken scrape does not stop the endpoint, go on with the next
+      }
+    }
+  }
+
+  /**
+   * Reads a request and answers it.
+   */
+  private void handle(final Socket socket) throws IOException {
+
+    InputStream in = socket.getInputStream();
+    OutputStream out = socket.getOutputStream();
+
+    int length = readRequest(in);
+
+    if (length < 0) {
+      respond(out, "400 Bad Request", null, 0);
+      return;
+    }
+
+    // the request line: METHOD SP PATH[?QUERY] SP VERSION
+    int methodEnd = indexOf(request, 0, length, (byte) ' ');
+    int pathEnd = methodEnd < 0 ? -1 : indexOf(request, methodEnd + 1, length, (byte) ' ');
+
+    if (pathEnd < 0) {
+      respond(out, "400 Bad Request", null, 0);
+      return;
+    }
+
+    boolean get = regionEquals(request, 0, methodEnd, "GET");
+    boolean head = regionEquals(request, 0, methodEnd, "HEAD");
+
+    int queryStart = indexOf(request, methodEnd + 1, pathEnd, (byte) '?');
+
+    if (!regionEquals(request, methodEnd + 1, queryStart < 0 ? pathEnd : queryStart, PATH)) {
+      respond(out, "404 Not Found", null, 0);
+    }
+
+    else if (!get && !head) {
+      respond(out, "405 Method Not Allowed", null, 0);
+    }
+
+    else {
+
+      text.setLength(0);
+      render(text);
+
+      int bodyLength = encode(text);
+
+      respond(out, "200 OK", head ? null : body, bodyLength);
+    }
+  }
+
+  /**
+   * Reads a request into {@link #request}, up to the empty line after the
+   * headers (a scrape has no body).
+   * 
+   * @return the length of the request, or <code>-1</code> if it is too large
+   *         or incomplete
+   */
+  private int readRequest(final InputStream in) throws IOException {
+
+    int length = 0;
+
+    while (length < request.length) {
+
+      int read = in.read(request, length, request.length - length);
+
+      if (read < 0) {
+        return -1;
+      }
+
+      length += read;
+
+      for (int i = Math.max(3, length - read); i < length; i++) {
+        if (request[i] == '\n' && request[i - 1] == '\r' && request[i - 2] == '\n' && request[i - 3] == '\r') {
+          return length;
+        }
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Writes a response, and closes the connection after it.
+   */
+  private static void respond(final OutputStream out, final String status, final byte[] body, final int length) throws IOException {
+
+    StringBuilder head = new StringBuilder(128);
+    head.append("HTTP/1.1 ").append(status).append("\r\n");
+    head.append("Content-Type: ").append(CONTENT_TYPE).append("\r\n");
+    head.append("Content-Length: ").append(length).append("\r\n");
+    head.append("Connection: close\r\n\r\n");
+
+    out.write(head.toString().getBytes(US_ASCII));
+
+    if (body != null) {
+      out.write(body, 0, length);
+    }
+
+    out.flush();
+  }
+
+  /**
+   * Encodes the text into {@link #body}.
+   * 
+   * @return the number of bytes
+   */
+  private int encode(final CharSequence text) {
+
+    int length = text.length();
+
+    if (body.length < length) {
+      body = new byte[Math.max(length, body.length * 2)];
+    }
+
+    for (int i = 0; i < length; i++) {
+
+      char c = text.charAt(i);
+
+      // the host names are the only text that could be other than ASCII
+      if (c >= 0x80) {
+        body = text.toString().getBytes(UTF_8);
+        return body.length;
+      }
+
+      body[i] = (byte) c;
+    }
+
+    return length;
+  }
+
+  //
+  // rendering
+
+  /**
+   * Renders the metrics in the Prometheus text format.
+   * 
+   * @param out
+   *          receives the text
+   */
+  synchronized void render(final StringBuilder out) {
+
+    Map<String, ProxyMetrics.Upstream> upstreams = metrics.getUpstreams();
+
+    help(out, "jatoo_proxy_connections_total", "counter", "The connections opened to the proxy servers.");
+    for (Map.Entry<String, ProxyMetrics.Upstream> entry : upstreams.entrySet()) {
+      sample(out, "jatoo_proxy_connections_total", "upstream", entry.getKey(), null, null, entry.getValue().connectionCount.sum());
+    }
+
+    help(out, "jatoo_proxy_connect_latency_seconds", "histogram", "The time to connect to the proxy servers (including the TLS handshake).");
+    for (Map.Entry<String, ProxyMetrics.Upstream> entry : upstreams.entrySet()) {
+      histogram(out, "jatoo_proxy_connect_latency_seconds", entry.getKey(), entry.getValue().connectLatency);
+    }
+
+    help(out, "jatoo_proxy_tls_handshakes_total", "counter", "The TLS handshakes with the secure proxy servers, full or resuming a cached session.");
+    for (Map.Entry<String, ProxyMetrics.Upstream> entry : upstreams.entrySet()) {
+      if (entry.getValue().isSecure()) {
+        sample(out, "jatoo_proxy_tls_handshakes_total", "upstream", entry.getKey(), "session", "full", entry.getValue().fullHandshakeCount.sum());
+        sample(out, "jatoo_proxy_tls_handshakes_total", "upstream", entry.getKey(), "session", "resumed", entry.getValue().resumedHandshakeCount.sum());
+      }
+    }
+
+    help(out, "jatoo_proxy_tls_cached_sessions", "gauge", "The TLS sessions cached for the secure proxy servers.");
+    for (Map.Entry<String, ProxyMetrics.Upstream> entry : upstreams.entrySet()) {
+      if (entry.getValue().isSecure()) {
+        sample(out, "jatoo_proxy_tls_cached_sessions", "upstream", entry.getKey(), null, null, ProxySslSessionCache.getCachedSessionCount(entry.getKey()));
+      }
+    }
+
+    help(out, "jatoo_proxy_challenges_total", "counter", "The 407 answers (authentication required) received from the proxy servers.");
+    sample(out, "jatoo_proxy_challenges_total", null, null, null, null, metrics.getChallengeCount());
+
+    help(out, "jatoo_proxy_authentications_total", "counter", "The tunnels opened through proxy servers requiring authentication, by outcome.");
+    sample(out, "jatoo_proxy_authentications_total", "outcome", "success", null, null, metrics.getAuthenticationSuccessCount());
+    sample(out, "jatoo_proxy_authentications_total", "outcome", "failure", null, null, metrics.getAuthenticationFailureCount());
+
+    help(out, "jatoo_proxy_relayed_bytes_total", "counter", "The bytes relayed by the forwarders, in both directions.");
+    sample(out, "jatoo_proxy_relayed_bytes_total", null, null, null, null, metrics.getBytesRelayed());
+
+    help(out, "jatoo_proxy_upstream_swaps_total", "counter", "The switches of a forwarder to another upstream proxy server, planned or not.");
+    sample(out, "jatoo_proxy_upstream_swaps_total", null, null, null, null, metrics.getSwapCount());
+
+    help(out, "jatoo_proxy_failovers_total", "counter", "The switches of a forwarder to another upstream proxy server, because the previous one failed.");
+    sample(out, "jatoo_proxy_failovers_total", null, null, null, null, metrics.getFailoverCount());
+
+    renderConnectionPools(out);
+    renderBufferPool(out, ProxyBufferPool.getDefault());
+  }
+
+  /**
+   * Renders the state of the connection pools, summed by proxy server.
+   */
+  private void renderConnectionPools(final StringBuilder out) {
+
+    Map<ProxyConnectionPool, String> pools = metrics.getConnectionPools();
+
+    help(out, "jatoo_proxy_connection_pool_idle_connections", "gauge", "The idle connections kept by the connection pools.");
+    for (Map.Entry<ProxyConnectionPool, String> entry : pools.entrySet()) {
+      if (isFirstPool(pools, entry)) {
+        long idle = 0;
+        for (Map.Entry<ProxyConnectionPool, String> other : pools.entrySet()) {
+          if (other.getValue().equals(entry.getValue())) {
+            idle += other.getKey().getIdleCount();
+          }
+        }
+        sample(out, "jatoo_proxy_connection_pool_idle_connections", "upstream", entry.getValue(), null, null, idle);
+      }
+    }
+
+    help(out, "jatoo_proxy_connection_pool_available_connections", "gauge", "The connections that can still be leased before a lease has to wait (capped pools only).");
+    for (Map.Entry<ProxyConnectionPool, String> entry : pools.entrySet()) {
+      if (isFirstPool(pools, entry)) {
+        long available = 0;
+        boolean capped = false;
+        for (Map.Entry<ProxyConnectionPool, String> other : pools.entrySet()) {
+          int permits = other.getKey().getAvailableConnections();
+          if (permits >= 0 && other.getValue().equals(entry.getValue())) {
+            available += permits;
+            capped = true;
+          }
+        }
+        if (capped) {
+          sample(out, "jatoo_proxy_connection_pool_available_connections", "upstream", entry.getValue(), null, null, available);
+        }
+      }
+    }
+
+    help(out, "jatoo_proxy_connection_pool_leases_total", "counter", "The leases served by the connection pools, with an idle (reused) or a new (created) connection.");
+    for (Map.Entry<ProxyConnectionPool, String> entry : pools.entrySet()) {
+      if (isFirstPool(pools, entry)) {
+        long reused = 0;
+        long created = 0;
+        for (Map.Entry<ProxyConnectionPool, String> other : pools.entrySet()) {
+          if (other.getValue().equals(entry.getValue())) {
+            reused += other.getKey().getReusedCount();
+            created += other.getKey().getCreatedCount();
+          }
+        }
+        sample(out, "jatoo_proxy_connection_pool_leases_total", "upstream", entry.getValue(), "connection", "reused", reused);
+        sample(out, "jatoo_proxy_connection_pool_leases_total", "upstream", entry.getValue(), "connection", "created", created);
+      }
+    }
+  }
+
+  /**
+   * <code>True</code> if no pool before the specified one (in the iteration
+   * order) has the same proxy server, so every proxy server is rendered once
+   * (there are only a few pools, a quadratic walk is cheaper than a map).
+   */
+  private static boolean isFirstPool(final Map<ProxyConnectionPool, String> pools, final Map.Entry<ProxyConnectionPool, String> entry) {
+
+    for (Map.Entry<ProxyConnectionPool, String> other : pools.entrySet()) {
+
+      if (other.getKey() == entry.getKey()) {
+        return true;
+      }
+
+      if (other.getValue().equals(entry.getValue())) {
+        return false;
+      }
+    }
+
+    // removed meanwhile
+    return true;
+  }
+
+  /**
+   * Renders the state of a buffer pool.
+   */
+  private static void renderBufferPool(final StringBuilder out, final ProxyBufferPool pool) {
+
+    help(out, "jatoo_proxy_buffer_pool_leases_total", "counter", "The relay and header buffers leased.");
+    sample(out, "jatoo_proxy_buffer_pool_leases_total", null, null, null, null, pool.getLeaseCount());
+
+    help(out, "jatoo_proxy_buffer_pool_hits_total", "counter", "The buffer leases served without allocating a new slab.");
+    sample(out, "jatoo_proxy_buffer_pool_hits_total", null, null, null, null, pool.getHitCount());
+
+    help(out, "jatoo_proxy_buffer_pool_outstanding_bytes", "gauge", "The bytes leased and not yet released.");
+    sample(out, "jatoo_proxy_buffer_pool_outstanding_bytes", null, null, null, null, pool.getOutstandingBytes());
+
+    help(out, "jatoo_proxy_buffer_pool_allocated_bytes", "gauge", "The bytes allocated for slabs.");
+    sample(out, "jatoo_proxy_buffer_pool_allocated_bytes", null, null, null, null, pool.getAllocatedBytes());
+
+    help(out, "jatoo_proxy_buffer_pool_leaks_total", "counter", "The buffers garbage collected without being released (with the leak detection enabled).");
+    sample(out, "jatoo_proxy_buffer_pool_leaks_total", null, null, null, null, pool.getLeakCount());
+  }
+
+  /**
+   * Renders a latency histogram, in seconds.
+   */
+  private void histogram(final StringBuilder out, final String name, final String upstream, final ProxyLatencyHistogram histogram) {
+
+    long sum = histogram.getCumulativeCounts(MIN_LATENCY_EXPONENT, latencyCounts);
+
+    for (int i = 0; i < latencyCounts.length; i++) {
+
+      out.append(name).append("_bucket{upstream=\"");
+      escape(out, upstream);
+      out.append("\",le=\"");
+
+      if (i < LATENCY_BOUNDARIES) {
+        micros(out, 1L << (MIN_LATENCY_EXPONENT + i));
+      } else {
+        out.append("+Inf");
+      }
+
+      out.append("\"} ").append(latencyCounts[i]).append('\n');
+    }
+
+    out.append(name).append("_sum{upstream=\"");
+    escape(out, upstream);
+    out.append("\"} ");
+    micros(out, sum);
+    out.append('\n');
+
+    out.append(name).append("_count{upstream=\"");
+    escape(out, upstream);
+    out.append("\"} ").append(latencyCounts[LATENCY_BOUNDARIES]).append('\n');
+  }
+
+  /**
+   * Renders the <code>HELP</code> and <code>TYPE</code> lines of a metric.
+   */
+  private static void help(final StringBuilder out, final String name, final String type, final String help) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  /**
+   * Renders a sample, with up to two labels (the unused ones are
+   * <code>null</code>).
+   */
+  private static void sample(final StringBuilder out, final String name, final String label1, final String value1, final String label2, final String value2, final long value) {
+
+    out.append(name);
+
+    if (label1 != null) {
+
+      out.append('{').append(label1).append("=\"");
+      escape(out, value1);
+      out.append('"');
+
+      if (label2 != null) {
+        out.append(',').append(label2).append("=\"");
+        escape(out, value2);
+        out.append('"');
+      }
+
+      out.append('}');
+    }
+
+    out.append(' ').append(value).append('\n');
+  }
+
+  /**
+   * Appends a label value, escaped as the format requires (the backslash, the
+   * double quote and the line feed).
+   */
+  private static void escape(final StringBuilder out, final String value) {
+
+    for (int i = 0; i < value.length(); i++) {
+
+      char c = value.charAt(i);
+
+      if (c == '\\') {
+        out.append("\\\\");
+      } else if (c == '"') {
+        out.append("\\\"");
+      } else if (c == '\n') {
+        out.append("\\n");
+      } else {
+        out.append(c);
+      }
+    }
+  }
+
+  /**
+   * Appends microseconds as seconds, without the floating point formatting
+   * (which allocates).
+   */
+  static void micros(final StringBuilder out, final long micros) {
+
+    out.append(micros / 1000000).append('.');
+
+    long fraction = micros % 1000000;
+
+    for (long digit = 100000; digit > 1 && fraction < digit; digit /= 10) {
+      out.append('0');
+    }
+
+    out.append(fraction);
+  }
+
+  private static int indexOf(final byte[] bytes, final int from, final int to, final byte b) {
+
+    for (int i = from; i < to; i++) {
+      if (bytes[i] == b) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  private static boolean regionEquals(final byte[] bytes, final int from, final int to, final String text) {
+
+    if (to - from != text.length()) {
+      return false;
+    }
+
+    for (int i = 0; i < text.length(); i++) {
+      if (bytes[from + i] != text.charAt(i)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link ProxyMetrics}, registered with the
+ * platform MBean server as {@value ProxyMetrics#OBJECT_NAME}. The latencies
+ * are in microseconds.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.2, October 19, 2026
+ */
+public interface ProxyMetricsMXBean {
+
+  /**
+   * @return the number of connections opened to the proxy servers
+   */
+  long getConnectionCount();
+
+  /**
+   * @return the number of connections opened to every proxy server (by
+   *         <code>host:port</code>)
+   */
+  Map<String, Long> getUpstreamConnectionCounts();
+
+  /**
+   * @return the number of full TLS handshakes with every secure proxy server
+   *         (by <code>host:port</code>)
+   */
+  Map<String, Long> getUpstreamFullHandshakeCounts();
+
+  /**
+   * @return the number of TLS handshakes with every secure proxy server that
+   *         resumed a cached session (by <code>host:port</code>)
+   */
+  Map<String, Long> getUpstreamResumedHandshakeCounts();
+
+  /**
+   * @return the number of TLS sessions cached for every secure proxy server
+   *         (by <code>host:port</code>)
+   */
+  Map<String, Integer> getUpstreamCachedSessionCounts();
+
+  /**
+   * @return the number of <code>407</code> answers (authentication required)
+   *         received from the proxy servers
+   */
+  long getChallengeCount();
+
+  /**
+   * @return the number of tunnels accepted by proxy servers requiring
+   *         authentication
+   */
+  long getAuthenticationSuccessCount();
+
+  /**
+   * @return the number of tunnels refused with <code>407</code> although the
+   *         credentials were sent
+   */
+  long getAuthenticationFailureCount();
+
+  /**
+   * @return the average connect latency
+   */
+  long getConnectLatencyMean();
+
+  /**
+   * @return the median connect latency
+   */
+  long getConnectLatencyP50();
+
+  /**
+   * @return the 99th percentile of the connect latency
+   */
+  long getConnectLatencyP99();
+
+  /**
+   * @return the 99.9th percentile of the connect latency
+   */
+  long getConnectLatencyP999();
+
+  /**
+   * @return the largest connect latency
+   */
+  long getConnectLatencyMax();
+
+  /**
+   * @return the number of bytes relayed by the forwarders, in both directions
+   */
+  long getBytesRelayed();
+
+  /**
+   * @return the number of times a forwarder switched to another upstream
+   *         proxy server (planned swaps and failovers)
+   */
+  long getSwapCount();
+
+  /**
+   * @return the number of times a forwarder switched to another upstream
+   *         proxy server because the previous one failed
+   */
+  long getFailoverCount();
+
+  /**
+   * Resets all the metrics.
+   */
+  void reset();
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package jatoo.proxy;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+
+/**
+ * Checks a proxy server before it is used: connects to it and asks for a
+ * tunnel to a destination (with <code>CONNECT</code>, or with a SOCKS5
+ * handshake), measuring the time to connect and the time to the first byte
+ * of the answer, and telling if the credentials were accepted. The tunnel is
+ * closed right after it is established, nothing is sent through it.
+ * <p>
+ * The probe blocks the thread running it, and can be {@link #cancel()
+ * cancelled} from any other thread (right away once connected, otherwise as
+ * soon as the connection is opened or times out).
+ * 
+ * <pre>
+ * ProxyProbeResult result = new ProxyProbe(proxy, "www.google.com", 443).run();
+ * </pre>
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.1, October 19, 2026
+ */
+public class ProxyProbe {
+
+  /** The connector of the proxy server. */
+  private final ProxyConnector connector;
+
+  /** The destination of the tunnel. */
+  private final String targetHost;
+  private final int targetPort;
+
+  /** The connection being probed, if any. */
+  private volatile Socket socket;
+
+  /** <code>True</code> once cancelled. */
+  private volatile boolean cancelled;
+
+  /**
+   * Creates a new probe.
+   * 
+   * @param proxy
+   *          the proxy server
+   * @param targetHost
+   *          the host name, or address, of the destination
+   * @param targetPort
+   *          the port number of the destination
+   */
+  public ProxyProbe(final Proxy proxy, final String targetHost, final int targetPort) {
+    this.connector = new ProxyConnector(proxy);
+    this.targetHost = targetHost;
+    this.targetPort = targetPort;
+  }
+
+  /**
+   * Runs the probe (once).
+   * 
+   * @return the outcome (a failure is part of the outcome, not thrown)
+   */
+  public ProxyProbeResult run() {
+
+    final long[] firstByteTime = new long[] { -1 };
+
+    long start = System.nanoTime();
+    long connectTime = -1;
+    long requestTime = -1;
+
+    ProxyProbeResult.Authentication authentication = ProxyProbeResult.Authentication.UNKNOWN;
+    int statusCode = 0;
+    IOException failure = null;
+
+    try {
+
+      checkCancelled();
+
+      Socket socket = connector.connect();
+      this.socket = socket;
+
+      try {
+
+        // cancelled while connecting, the socket was not there to be closed
+        checkCancelled();
+
+        connectTime = System.nanoTime() - start;
+
+        InputStream in = new FilterInputStream(socket.getInputStream()) {
+          public int read() throws IOException {
+            int b = super.read();
+            if (firstByteTime[0] == -1) {
+              firstByteTime[0] = System.nanoTime();
+            }
+            return b;
+          }
+
+          public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (firstByteTime[0] == -1) {
+              firstByteTime[0] = System.nanoTime();
+            }
+            return read;
+          }
+        };
+
+        connector.acquireRequestPermit();
+
+        requestTime = System.nanoTime();
+        connector.handshake(in, socket.getOutputStream(), targetHost, targetPort);
+
+        statusCode = 200;
+        authentication = connector.getProxy().isRequiringAuthentication() ? ProxyProbeResult.Authentication.ACCEPTED : ProxyProbeResult.Authentication.NOT_REQUIRED;
+      }
+
+      finally {
+        this.socket = null;
+        socket.close();
+      }
+    }
+
+    catch (ProxyResponseException e) {
+      statusCode = e.getStatusCode();
+      authentication = e.isAuthenticationRequired() ? ProxyProbeResult.Authentication.REJECTED : ProxyProbeResult.Authentication.UNKNOWN;
+      failure = e;
+    }
+
+    catch (IOException e) {
+      failure = cancelled ? new IOException("cancelled", e) : e;
+    }
+
+    long timeToFirstByte = firstByteTime[0] == -1 ? -1 : firstByteTime[0] - requestTime;
+
+    return new ProxyProbeResult(connectTime, timeToFirstByte, System.nanoTime() - start, authentication, statusCode, failure, cancelled);
+  }
+
+  /**
+   * Fails if the probe was cancelled.
+   */
+  private void checkCancelled() throws IOException {
+    if (cancelled) {
+      throw new IOException("cancelled");
+    }
+  }
+
+  /**
+   * Cancels the probe: a running probe fails right away (by closing its
+   * connection), and a probe not yet run fails as soon as it is run.
+   */
+  public void cancel() {
+
+    cancelled = true;
+
+    Socket socket = this.socket;
+
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // nothing to do, the probe fails anyway
+      }
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the probe was cancelled
+   */
+  public final boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * @return the connector (to set the timeouts, for example)
+   */
+  public final ProxyConnector getConnector() {
+    return connector;
+  }
+
+}
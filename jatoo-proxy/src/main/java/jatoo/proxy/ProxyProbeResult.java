@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package jatoo.proxy;
+
+import java.io.IOException;
+
+/**
+ * The outcome of a {@link ProxyProbe}. The times are in nanoseconds, and are
+ * <code>-1</code> if the probe did not get that far.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public final class ProxyProbeResult {
+
+  /**
+   * What the proxy server did with the credentials.
+   */
+  public enum Authentication {
+
+    /** The tunnel was established without credentials. */
+    NOT_REQUIRED,
+
+    /** The tunnel was established with the credentials. */
+    ACCEPTED,
+
+    /** The proxy server asked for (other) credentials. */
+    REJECTED,
+
+    /** The probe failed before the proxy server answered. */
+    UNKNOWN
+  }
+
+  private final long connectTime;
+  private final long timeToFirstByte;
+  private final long totalTime;
+  private final Authentication authentication;
+  private final int statusCode;
+  private final IOException failure;
+  private final boolean cancelled;
+
+  ProxyProbeResult(final long connectTime, final long timeToFirstByte, final long totalTime, final Authentication authentication, final int statusCode, final IOException failure, final boolean cancelled) {
+    this.connectTime = connectTime;
+    this.timeToFirstByte = timeToFirstByte;
+    this.totalTime = totalTime;
+    this.authentication = authentication;
+    this.statusCode = statusCode;
+    this.failure = failure;
+    this.cancelled = cancelled;
+  }
+
+  /**
+   * @return <code>true</code> if the tunnel was established
+   */
+  public boolean isSuccessful() {
+    return failure == null;
+  }
+
+  /**
+   * @return the time to connect to the proxy server (including the TLS
+   *         handshake, for a secure one)
+   */
+  public long getConnectTime() {
+    return connectTime;
+  }
+
+  /**
+   * @return the time from sending the tunnel request to the first byte of
+   *         the answer
+   */
+  public long getTimeToFirstByte() {
+    return timeToFirstByte;
+  }
+
+  /**
+   * @return the time of the whole probe
+   */
+  public long getTotalTime() {
+    return totalTime;
+  }
+
+  /**
+   * @return what the proxy server did with the credentials
+   */
+  public Authentication getAuthentication() {
+    return authentication;
+  }
+
+  /**
+   * @return the status code of the answer (<code>200</code> for an
+   *         established tunnel, also for SOCKS), or <code>0</code> if there
+   *         was no answer
+   */
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  /**
+   * @return why the probe failed, or <code>null</code>
+   */
+  public IOException getFailure() {
+    return failure;
+  }
+
+  /**
+   * @return <code>true</code> if the probe was cancelled
+   */
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+}
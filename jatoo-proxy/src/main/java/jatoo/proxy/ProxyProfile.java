@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * A named proxy server, kept in a {@link ProxyProfileStore}. The password
+ * stays encrypted in the profile, and is decrypted only when the profile is
+ * turned into a {@link Proxy} (so thousands of profiles can be listed,
+ * filtered and sorted without decrypting any of them).
+ * <p>
+ * Profiles are immutable, and safe to share between threads.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public final class ProxyProfile {
+
+  private final String name;
+  private final ProxyType type;
+  private final String host;
+  private final int port;
+  private final boolean secure;
+  private final boolean requiringAuthentication;
+  private final String username;
+
+  /** The password, encrypted, or <code>null</code>. */
+  private final String encryptedPassword;
+
+  ProxyProfile(final String name, final ProxyType type, final String host, final int port, final boolean secure, final boolean requiringAuthentication, final String username, final String encryptedPassword) {
+    this.name = name;
+    this.type = type;
+    this.host = host;
+    this.port = port;
+    this.secure = secure;
+    this.requiringAuthentication = requiringAuthentication;
+    this.username = username;
+    this.encryptedPassword = encryptedPassword;
+  }
+
+  /**
+   * Creates a new profile, encrypting the password of the proxy (if any).
+   * 
+   * @param name
+   *          the name of the profile
+   * @param proxy
+   *          the proxy server
+   * 
+   * @return the new profile
+   * 
+   * @throws GeneralSecurityException
+   *           if the encryption fails
+   */
+  public static ProxyProfile create(final String name, final Proxy proxy) throws GeneralSecurityException {
+    return new ProxyProfile(name, proxy.getType(), proxy.getHost(), proxy.getPort(), proxy.isSecure(), proxy.isRequiringAuthentication(), proxy.getUsername(), proxy.getPassword() == null ? null : Proxy.encrypt(proxy.getPassword()));
+  }
+
+  /**
+   * Creates the (enabled) proxy of this profile, decrypting the password.
+   * 
+   * @return a new proxy
+   * 
+   * @throws GeneralSecurityException
+   *           if the decryption fails
+   */
+  public Proxy toProxy() throws GeneralSecurityException {
+
+    Proxy proxy = new Proxy(true, host, port, requiringAuthentication, username, encryptedPassword == null ? null : Proxy.decrypt(encryptedPassword));
+    proxy.setType(type);
+    proxy.setSecure(secure);
+
+    return proxy;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public ProxyType getType() {
+    return type;
+  }
+
+  public String getHost() {
+    return host;
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public boolean isSecure() {
+    return secure;
+  }
+
+  public boolean isRequiringAuthentication() {
+    return requiringAuthentication;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  /**
+   * @return <code>true</code> if the profile has a password (without
+   *         decrypting it)
+   */
+  public boolean hasPassword() {
+    return encryptedPassword != null;
+  }
+
+  String getEncryptedPassword() {
+    return encryptedPassword;
+  }
+
+  @Override
+  public String toString() {
+    return name + " (" + host + ":" + port + ")";
+  }
+
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Exports {@link ProxyProfile}s in bulk, to a {@link ProxyProfileFormat}, a
+ * profile at a time (through one reused line buffer). The passwords are
+ * exported encrypted, as <code>encryptedPassword</code>, so an export can be
+ * imported back (by {@link ProxyProfileImporter}) without ever being in
+ * clear.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public class ProxyProfileExporter {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** The fields exported (all but the password in clear). */
+  private static final int[] EXPORTED = { ProxyProfileFormat.NAME, ProxyProfileFormat.TYPE, ProxyProfileFormat.HOST, ProxyProfileFormat.PORT, ProxyProfileFormat.SECURE, ProxyProfileFormat.USERNAME, ProxyProfileFormat.ENCRYPTED_PASSWORD };
+
+  private final ProxyProfileFormat format;
+
+  /**
+   * Creates a new exporter.
+   * 
+   * @param format
+   *          the format of the output
+   */
+  public ProxyProfileExporter(final ProxyProfileFormat format) {
+    this.format = format;
+  }
+
+  /**
+   * Exports the profiles of a store to a (UTF-8) file.
+   * 
+   * @param store
+   *          the store
+   * @param file
+   *          the file, replaced if it exists
+   * 
+   * @return the number of profiles exported
+   * 
+   * @throws IOException
+   *           if writing fails
+   */
+  public int exportProfiles(final ProxyProfileStore store, final File file) throws IOException {
+
+    try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), UTF_8)) {
+      return exportProfiles(store.getProfiles(), writer);
+    }
+  }
+
+  /**
+   * Exports profiles to a writer (flushed, and left open).
+   * 
+   * @param profiles
+   *          the profiles
+   * @param writer
+   *          the output
+   * 
+   * @return the number of profiles exported
+   * 
+   * @throws IOException
+   *           if writing fails
+   */
+  public int exportProfiles(final List<ProxyProfile> profiles, final Writer writer) throws IOException {
+
+    StringBuilder line = new StringBuilder(256);
+
+    if (format == ProxyProfileFormat.CSV) {
+
+      for (int i = 0; i < EXPORTED.length; i++) {
+        if (i > 0) {
+          line.append(',');
+        }
+        line.append(ProxyProfileFormat.FIELDS[EXPORTED[i]]);
+      }
+
+      line.append("\r\n");
+      writer.append(line);
+    }
+
+    for (ProxyProfile profile : profiles) {
+
+      line.setLength(0);
+
+      if (format == ProxyProfileFormat.CSV) {
+        formatCsv(profile, line);
+      } else {
+        formatJson(profile, line);
+      }
+
+      writer.append(line);
+    }
+
+    writer.flush();
+
+    return profiles.size();
+  }
+
+  /**
+   * Appends the record of a profile, with the line separator (CRLF, as in RFC
+   * 4180).
+   */
+  static void formatCsv(final ProxyProfile profile, final StringBuilder line) {
+
+    for (int i = 0; i < EXPORTED.length; i++) {
+
+      if (i > 0) {
+        line.append(',');
+      }
+
+      String value = valueOf(profile, EXPORTED[i]);
+
+      if (value == null) {
+        continue;
+      }
+
+      boolean quoted = false;
+      for (int j = 0; j < value.length() && !quoted; j++) {
+        char c = value.charAt(j);
+        quoted = c == ',' || c == '"' || c == '\r' || c == '\n';
+      }
+
+      if (!quoted) {
+        line.append(value);
+        continue;
+      }
+
+      line.append('"');
+
+      for (int j = 0; j < value.length(); j++) {
+        char c = value.charAt(j);
+        if (c == '"') {
+          line.append('"');
+        }
+        line.append(c);
+      }
+
+      line.append('"');
+    }
+
+    line.append("\r\n");
+  }
+
+  /**
+   * Appends the object of a profile, with the line separator.
+   */
+  static void formatJson(final ProxyProfile profile, final StringBuilder line) {
+
+    line.append('{');
+
+    boolean first = true;
+
+    for (int field : EXPORTED) {
+
+      String value = valueOf(profile, field);
+
+      if (value == null) {
+        continue;
+      }
+
+      if (!first) {
+        line.append(',');
+      }
+      first = false;
+
+      line.append('"').append(ProxyProfileFormat.FIELDS[field]).append("\":");
+
+      if (field == ProxyProfileFormat.PORT || field == ProxyProfileFormat.SECURE) {
+        line.append(value);
+        continue;
+      }
+
+      line.append('"');
+
+      for (int i = 0; i < value.length(); i++) {
+
+        char c = value.charAt(i);
+
+        switch (c) {
+        case '"':
+          line.append("\\\"");
+          break;
+        case '\\':
+          line.append("\\\\");
+          break;
+        case '\n':
+          line.append("\\n");
+          break;
+        case '\r':
+          line.append("\\r");
+          break;
+        case '\t':
+          line.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            line.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+          } else {
+            line.append(c);
+          }
+          break;
+        }
+      }
+
+      line.append('"');
+    }
+
+    line.append("}\n");
+  }
+
+  private static String valueOf(final ProxyProfile profile, final int field) {
+
+    switch (field) {
+    case ProxyProfileFormat.NAME:
+      return profile.getName().isEmpty() ? null : profile.getName();
+    case ProxyProfileFormat.TYPE:
+      return profile.getType().name();
+    case ProxyProfileFormat.HOST:
+      return profile.getHost();
+    case ProxyProfileFormat.PORT:
+      return Integer.toString(profile.getPort());
+    case ProxyProfileFormat.SECURE:
+      return profile.isSecure() ? "true" : "false";
+    case ProxyProfileFormat.USERNAME:
+      return profile.getUsername();
+    case ProxyProfileFormat.ENCRYPTED_PASSWORD:
+      return profile.getEncryptedPassword();
+    default:
+      return null;
+    }
+  }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.util.Locale;
+
+/**
+ * The formats {@link ProxyProfile}s can be imported from, and exported to, in
+ * bulk (by {@link ProxyProfileImporter} and {@link ProxyProfileExporter}).
+ * <p>
+ * Both formats have the same fields: <code>name</code>, <code>type</code>
+ * (<code>HTTP</code> or <code>SOCKS</code>), <code>host</code>,
+ * <code>port</code>, <code>secure</code>, <code>username</code>, and either
+ * <code>password</code> (in clear, encrypted on import) or
+ * <code>encryptedPassword</code> (as exported, so the passwords never leave
+ * the store in clear). Only the host and the port are required.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.1, October 19, 2026
+ */
+public enum ProxyProfileFormat {
+
+  /**
+   * Comma separated values (RFC 4180), with a header row naming the fields,
+   * in any order.
+   */
+  CSV,
+
+  /** One (flat) JSON object per line. */
+  JSON_LINES;
+
+  /** The names of the fields, in the order of the columns of an export. */
+  static final String[] FIELDS = { "name", "type", "host", "port", "secure", "username", "password", "encryptedPassword" };
+
+  static final int NAME = 0;
+  static final int TYPE = 1;
+  static final int HOST = 2;
+  static final int PORT = 3;
+  static final int SECURE = 4;
+  static final int USERNAME = 5;
+  static final int PASSWORD = 6;
+  static final int ENCRYPTED_PASSWORD = 7;
+
+  /**
+   * @return the index of the field with the specified name, or -1
+   */
+  static int indexOf(final String name) {
+
+    for (int i = 0; i < FIELDS.length; i++) {
+      if (FIELDS[i].equalsIgnoreCase(name)) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Guesses the format of a file from its extension (<code>.csv</code>, or
+   * <code>.jsonl</code> / <code>.ndjson</code>).
+   * 
+   * @param fileName
+   *          the name of the file
+   * 
+   * @return the format
+   * 
+   * @throws IllegalArgumentException
+   *           if the extension is not known
+   */
+  public static ProxyProfileFormat forFileName(final String fileName) {
+
+    String lowerCase = fileName.toLowerCase(Locale.ROOT);
+
+    if (lowerCase.endsWith(".csv")) {
+      return CSV;
+    }
+
+    if (lowerCase.endsWith(".jsonl") || lowerCase.endsWith(".ndjson")) {
+      return JSON_LINES;
+    }
+
+    throw new IllegalArgumentException("unknown format: " + fileName);
+  }
+
+}
@@ -0,0 +1,759 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.crypto.Cipher;
+
+/**
+ * Imports {@link ProxyProfile}s in bulk, from a {@link ProxyProfileFormat},
+ * replacing all the profiles of a {@link ProxyProfileStore}.
+ * <p>
+ * The input is parsed as it is read (a record at a time, never a whole file
+ * in memory), in batches that are turned into profiles by a pool of threads,
+ * since encrypting the passwords is the costly part. Only a few batches are
+ * in flight at a time, so a slow disk or a slow encryption never lets the
+ * other side run ahead, and the profiles keep the order of the input.
+ * <p>
+ * The profiles are streamed to a {@link ProxyProfileStore.Transaction}, and
+ * committed once, at the end: if any record is not well formed, nothing is
+ * changed.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.1, October 19, 2026
+ */
+public class ProxyProfileImporter {
+
+  /** The default number of records of a batch. */
+  public static final int DEFAULT_BATCH_SIZE = 1024;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final ProxyProfileFormat format;
+  private final int batchSize;
+  private final int threads;
+
+  /**
+   * Creates a new importer, with one thread per processor.
+   * 
+   * @param format
+   *          the format of the input
+   */
+  public ProxyProfileImporter(final ProxyProfileFormat format) {
+    this(format, DEFAULT_BATCH_SIZE, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a new importer.
+   * 
+   * @param format
+   *          the format of the input
+   * @param batchSize
+   *          the number of records of a batch
+   * @param threads
+   *          the number of threads turning the batches into profiles
+   */
+  public ProxyProfileImporter(final ProxyProfileFormat format, final int batchSize, final int threads) {
+
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("batchSize: " + batchSize);
+    }
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads: " + threads);
+    }
+
+    this.format = format;
+    this.batchSize = batchSize;
+    this.threads = threads;
+  }
+
+  /**
+   * Imports the profiles of a (UTF-8) file.
+   * 
+   * @param file
+   *          the file to import
+   * @param store
+   *          the store whose profiles are replaced
+   * 
+   * @return the number of profiles imported
+   * 
+   * @throws IOException
+   *           if reading fails, or a record is not well formed (the profiles
+   *           of the store are kept)
+   */
+  public int importProfiles(final File file, final ProxyProfileStore store) throws IOException {
+
+    try (Reader reader = new InputStreamReader(new FileInputStream(file), UTF_8)) {
+      return importProfiles(reader, file.toString(), store);
+    }
+  }
+
+  /**
+   * Imports the profiles read by a reader (left open).
+   * 
+   * @param reader
+   *          the input
+   * @param source
+   *          the name of the input, for the error messages
+   * @param store
+   *          the store whose profiles are replaced
+   * 
+   * @return the number of profiles imported
+   * 
+   * @throws IOException
+   *           if reading fails, or a record is not well formed (the profiles
+   *           of the store are kept)
+   */
+  public int importProfiles(final Reader reader, final String source, final ProxyProfileStore store) throws IOException {
+
+    Input in = new Input(reader);
+    RecordParser parser = format == ProxyProfileFormat.CSV ? new CsvParser(in) : new JsonLinesParser(in);
+
+    // the batches in flight, in the order of the input
+    ArrayDeque<Future<List<ProxyProfile>>> pending = new ArrayDeque<>();
+    int maxPending = 2 * threads;
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      public Thread newThread(final Runnable runnable) {
+        Thread thread = new Thread(runnable, "jatoo-proxy-profile-importer");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    try (ProxyProfileStore.Transaction transaction = store.begin()) {
+
+      Batch batch = new Batch(source, batchSize);
+
+      while (true) {
+
+        String[] record;
+
+        try {
+          record = parser.next();
+        }
+
+        catch (IllegalArgumentException e) {
+          throw new IOException(source + ":" + in.recordLineNumber + ": " + e.getMessage(), e);
+        }
+
+        if (record != null) {
+          batch.add(record, in.recordLineNumber);
+        }
+
+        if (batch.size() == batchSize || (record == null && batch.size() > 0)) {
+
+          if (pending.size() == maxPending) {
+            addAll(transaction, pending.removeFirst());
+          }
+
+          pending.addLast(executor.submit(batch));
+          batch = new Batch(source, batchSize);
+        }
+
+        if (record == null) {
+          break;
+        }
+      }
+
+      while (!pending.isEmpty()) {
+        addAll(transaction, pending.removeFirst());
+      }
+
+      transaction.commit();
+
+      return transaction.size();
+    }
+
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void addAll(final ProxyProfileStore.Transaction transaction, final Future<List<ProxyProfile>> future) throws IOException {
+
+    List<ProxyProfile> profiles;
+
+    try {
+      profiles = future.get();
+    }
+
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted", e);
+    }
+
+    catch (ExecutionException e) {
+
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+
+      throw new IOException(e.getCause());
+    }
+
+    for (ProxyProfile profile : profiles) {
+      transaction.add(profile);
+    }
+  }
+
+  /**
+   * Creates the profile of a record.
+   * 
+   * @throws IllegalArgumentException
+   *           if the record is not valid
+   */
+  static ProxyProfile toProfile(final String[] record, final Cipher cipher) throws GeneralSecurityException {
+
+    String host = record[ProxyProfileFormat.HOST];
+    String port = record[ProxyProfileFormat.PORT];
+
+    if (host == null || port == null) {
+      throw new IllegalArgumentException("the host and the port are required");
+    }
+
+    int portNumber;
+
+    try {
+      portNumber = Integer.parseInt(port);
+    }
+
+    catch (NumberFormatException e) {
+      throw new IllegalArgumentException("the port is not a number: " + port);
+    }
+
+    if (portNumber < 1 || portNumber > 65535) {
+      throw new IllegalArgumentException("the port is out of range: " + port);
+    }
+
+    String type = record[ProxyProfileFormat.TYPE];
+    String name = record[ProxyProfileFormat.NAME];
+    String username = record[ProxyProfileFormat.USERNAME];
+    String password = record[ProxyProfileFormat.PASSWORD];
+    String encryptedPassword = record[ProxyProfileFormat.ENCRYPTED_PASSWORD];
+
+    if (encryptedPassword == null && password != null) {
+      encryptedPassword = Proxy.encrypt(cipher, password);
+    }
+
+    return new ProxyProfile(name == null ? "" : name, type == null ? ProxyType.HTTP : ProxyType.valueOf(type.toUpperCase(Locale.ROOT)), host, portNumber, Boolean.parseBoolean(record[ProxyProfileFormat.SECURE]), username != null || encryptedPassword != null, username, encryptedPassword);
+  }
+
+  /**
+   * The records of a batch, turned into profiles by one thread (with one
+   * cipher, created once for the whole batch).
+   */
+  private static final class Batch implements Callable<List<ProxyProfile>> {
+
+    private final String source;
+
+    private final List<String[]> records;
+    private final int[] lineNumbers;
+
+    private Batch(final String source, final int size) {
+      this.source = source;
+      this.records = new ArrayList<>(size);
+      this.lineNumbers = new int[size];
+    }
+
+    private void add(final String[] record, final int lineNumber) {
+      lineNumbers[records.size()] = lineNumber;
+      records.add(record);
+    }
+
+    private int size() {
+      return records.size();
+    }
+
+    @Override
+    public List<ProxyProfile> call() throws IOException {
+
+      List<ProxyProfile> profiles = new ArrayList<>(records.size());
+
+      try {
+
+        Cipher cipher = Proxy.createCipher(Cipher.ENCRYPT_MODE);
+
+        for (int i = 0; i < records.size(); i++) {
+
+          try {
+            profiles.add(toProfile(records.get(i), cipher));
+          }
+
+          catch (IllegalArgumentException e) {
+            throw new IOException(source + ":" + lineNumbers[i] + ": " + e.getMessage(), e);
+          }
+        }
+      }
+
+      catch (GeneralSecurityException e) {
+        throw new IOException(e);
+      }
+
+      return profiles;
+    }
+  }
+
+  /**
+   * Reads the records of the input, one at a time.
+   */
+  private interface RecordParser {
+
+    /**
+     * @return the fields of the next record (indexed like
+     *         {@link ProxyProfileFormat#FIELDS}), or <code>null</code> at the
+     *         end of the input
+     * 
+     * @throws IllegalArgumentException
+     *           if the record is not well formed
+     */
+    String[] next() throws IOException;
+  }
+
+  /**
+   * Comma separated values, after a header row naming the fields.
+   */
+  private static final class CsvParser implements RecordParser {
+
+    private final Input in;
+
+    private final List<String> values = new ArrayList<>();
+    private final StringBuilder value = new StringBuilder();
+
+    /** The field of each column, read from the header row. */
+    private int[] columns;
+
+    private CsvParser(final Input in) {
+      this.in = in;
+    }
+
+    @Override
+    public String[] next() throws IOException {
+
+      if (columns == null) {
+
+        if (!readRecord()) {
+          return null;
+        }
+
+        columns = new int[values.size()];
+
+        for (int i = 0; i < columns.length; i++) {
+
+          columns[i] = values.get(i) == null ? -1 : ProxyProfileFormat.indexOf(values.get(i).trim());
+
+          if (columns[i] == -1) {
+            throw new IllegalArgumentException("unknown column: " + values.get(i));
+          }
+        }
+      }
+
+      if (!readRecord()) {
+        return null;
+      }
+
+      if (values.size() != columns.length) {
+        throw new IllegalArgumentException("expected " + columns.length + " fields, found " + values.size());
+      }
+
+      String[] record = new String[ProxyProfileFormat.FIELDS.length];
+
+      for (int i = 0; i < columns.length; i++) {
+        record[columns[i]] = values.get(i);
+      }
+
+      return record;
+    }
+
+    /**
+     * Reads the values of the next (not empty) record.
+     * 
+     * @return <code>false</code> at the end of the input
+     */
+    private boolean readRecord() throws IOException {
+
+      int c;
+
+      // the empty lines are skipped
+      do {
+        c = in.read();
+      } while (c == '\n' || c == '\r');
+
+      if (c == -1) {
+        return false;
+      }
+
+      in.recordLineNumber = in.lineNumber;
+      values.clear();
+
+      while (true) {
+
+        value.setLength(0);
+
+        if (c == '"') {
+
+          while (true) {
+
+            c = in.read();
+
+            if (c == -1) {
+              throw new IllegalArgumentException("unterminated quoted field");
+            }
+
+            if (c == '"') {
+
+              c = in.read();
+
+              if (c != '"') {
+                break;
+              }
+            }
+
+            value.append((char) c);
+          }
+
+          if (c != ',' && c != '\n' && c != '\r' && c != -1) {
+            throw new IllegalArgumentException("unexpected character after a quoted field: " + (char) c);
+          }
+        }
+
+        else {
+          while (c != ',' && c != '\n' && c != '\r' && c != -1) {
+            value.append((char) c);
+            c = in.read();
+          }
+        }
+
+        values.add(value.length() == 0 ? null : value.toString());
+
+        if (c == ',') {
+          c = in.read();
+          continue;
+        }
+
+        if (c == '\r' && in.peek() == '\n') {
+          in.read();
+        }
+
+        return true;
+      }
+    }
+  }
+
+  /**
+   * One flat JSON object per line (strings, numbers, booleans and
+   * <code>null</code>s).
+   */
+  private static final class JsonLinesParser implements RecordParser {
+
+    private final Input in;
+
+    private final StringBuilder line = new StringBuilder();
+    private final StringBuilder value = new StringBuilder();
+
+    private int position;
+
+    private JsonLinesParser(final Input in) {
+      this.in = in;
+    }
+
+    @Override
+    public String[] next() throws IOException {
+
+      do {
+        in.recordLineNumber = in.lineNumber;
+        if (!in.readLine(line)) {
+          return null;
+        }
+        position = 0;
+        skipWhitespace();
+      } while (position == line.length());
+
+      String[] record = new String[ProxyProfileFormat.FIELDS.length];
+
+      expect('{');
+      skipWhitespace();
+
+      if (peek() == '}') {
+        position++;
+      }
+
+      else {
+
+        while (true) {
+
+          skipWhitespace();
+          expect('"');
+          String key = readString();
+
+          int field = ProxyProfileFormat.indexOf(key);
+          if (field == -1) {
+            throw new IllegalArgumentException("unknown field: " + key);
+          }
+
+          skipWhitespace();
+          expect(':');
+          skipWhitespace();
+
+          record[field] = readValue();
+
+          skipWhitespace();
+
+          if (peek() == ',') {
+            position++;
+            continue;
+          }
+
+          expect('}');
+          break;
+        }
+      }
+
+      skipWhitespace();
+
+      if (position != line.length()) {
+        throw new IllegalArgumentException("unexpected characters after the object");
+      }
+
+      return record;
+    }
+
+    private String readValue() {
+
+      int c = peek();
+
+      if (c == '"') {
+        position++;
+        return readString();
+      }
+
+      if (c == '{' || c == '[') {
+        throw new IllegalArgumentException("nested values are not supported");
+      }
+
+      int start = position;
+      while (position < line.length() && ",} \t".indexOf(line.charAt(position)) == -1) {
+        position++;
+      }
+
+      String literal = line.substring(start, position);
+
+      if (literal.isEmpty()) {
+        throw new IllegalArgumentException("missing value at column " + (start + 1));
+      }
+
+      return literal.equals("null") ? null : literal;
+    }
+
+    /**
+     * Reads a string, after the opening quote.
+     */
+    private String readString() {
+
+      value.setLength(0);
+
+      while (true) {
+
+        if (position == line.length()) {
+          throw new IllegalArgumentException("unterminated string");
+        }
+
+        char c = line.charAt(position++);
+
+        if (c == '"') {
+          return value.toString();
+        }
+
+        if (c != '\\') {
+          value.append(c);
+          continue;
+        }
+
+        if (position == line.length()) {
+          throw new IllegalArgumentException("unterminated string");
+        }
+
+        c = line.charAt(position++);
+
+        switch (c) {
+        case 'b':
+          value.append('\b');
+          break;
+        case 'f':
+          value.append('\f');
+          break;
+        case 'n':
+          value.append('\n');
+          break;
+        case 'r':
+          value.append('\r');
+          break;
+        case 't':
+          value.append('\t');
+          break;
+        case 'u':
+          if (position + 4 > line.length()) {
+            throw new IllegalArgumentException("truncated unicode escape");
+          }
+          try {
+            value.append((char) Integer.parseInt(line.substring(position, position + 4), 16));
+          } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid unicode escape");
+          }
+          position += 4;
+          break;
+        case '"':
+        case '\\':
+        case '/':
+          value.append(c);
+          break;
+        default:
+          throw new IllegalArgumentException("invalid escape: \\" + c);
+        }
+      }
+    }
+
+    private int peek() {
+      return position < line.length() ? line.charAt(position) : -1;
+    }
+
+    private void expect(final char expected) {
+
+      if (peek() != expected) {
+        throw new IllegalArgumentException("expected '" + expected + "' at column " + (position + 1));
+      }
+
+      position++;
+    }
+
+    private void skipWhitespace() {
+      while (position < line.length() && Character.isWhitespace(line.charAt(position))) {
+        position++;
+      }
+    }
+  }
+
+  /**
+   * A buffered reader of characters, counting the lines (and skipping the
+   * byte order mark some editors write at the start of a file).
+   */
+  private static final class Input {
+
+    private final Reader reader;
+
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+
+    /** The number of the line of the next character. */
+    private int lineNumber = 1;
+
+    /** The number of the line the last record started on. */
+    private int recordLineNumber = 1;
+
+    private Input(final Reader reader) throws IOException {
+
+      this.reader = reader;
+
+      if (peek() == '\uFEFF') {
+        position++;
+      }
+    }
+
+    private int read() throws IOException {
+
+      if (position == limit && !fill()) {
+        return -1;
+      }
+
+      char c = buffer[position++];
+
+      if (c == '\n') {
+        lineNumber++;
+      }
+
+      return c;
+    }
+
+    private int peek() throws IOException {
+
+      if (position == limit && !fill()) {
+        return -1;
+      }
+
+      return buffer[position];
+    }
+
+    /**
+     * Reads a line (without the line separator).
+     * 
+     * @return <code>false</code> at the end of the input
+     */
+    private boolean readLine(final StringBuilder line) throws IOException {
+
+      line.setLength(0);
+
+      int c = read();
+
+      if (c == -1) {
+        return false;
+      }
+
+      while (c != '\n' && c != -1) {
+        if (c != '\r') {
+          line.append((char) c);
+        }
+        c = read();
+      }
+
+      return true;
+    }
+
+    private boolean fill() throws IOException {
+
+      int read = reader.read(buffer);
+
+      if (read <= 0) {
+        return false;
+      }
+
+      position = 0;
+      limit = read;
+
+      return true;
+    }
+  }
+
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The {@link ProxyProfile}s, kept in one file (not one file per profile, like
+ * {@link Proxy#store()}). The profiles are loaded in memory once, and read
+ * from an immutable snapshot, so listing them never waits for the disk or for
+ * a writer; a new set of profiles is written next to the file (streamed, in
+ * a {@link Transaction}, for a bulk import) and then moved over it, so the
+ * file is never seen half written.
+ * <p>
+ * The file is UTF-8 text, one profile per line, with the fields separated by
+ * tabs (the name, the type, the host, the port, the TLS flag, the
+ * authentication flag, the user name and the encrypted password).
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.1, October 19, 2026
+ */
+public class ProxyProfileStore {
+
+  /** The default file of the profiles. */
+  public static final File DEFAULT_FILE = new File(new File(new File(System.getProperty("user.home")), ".jatoo"), "proxy-profiles.txt");
+
+  /** The first line of the file. */
+  private static final String HEADER = "# jatoo-proxy profiles 1";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** The number of fields of a line. */
+  private static final int FIELDS = 8;
+
+  private final File file;
+
+  /** The profiles, never modified once published. */
+  private volatile List<ProxyProfile> profiles = Collections.emptyList();
+
+  /**
+   * Creates a new store, for the {@link #DEFAULT_FILE}.
+   */
+  public ProxyProfileStore() {
+    this(DEFAULT_FILE);
+  }
+
+  /**
+   * Creates a new store.
+   * 
+   * @param file
+   *          the file of the profiles
+   */
+  public ProxyProfileStore(final File file) {
+    this.file = file;
+  }
+
+  /**
+   * Loads the profiles from the file. A missing file means no profiles.
+   * 
+   * @throws IOException
+   *           if reading the file fails, or the file is not well formed
+   */
+  public synchronized void load() throws IOException {
+
+    if (!file.exists()) {
+      profiles = Collections.emptyList();
+      return;
+    }
+
+    List<ProxyProfile> loaded = new ArrayList<>();
+
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), UTF_8)) {
+
+      int lineNumber = 0;
+      String line;
+
+      while ((line = reader.readLine()) != null) {
+
+        lineNumber++;
+
+        if (line.isEmpty() || line.charAt(0) == '#') {
+          continue;
+        }
+
+        try {
+          loaded.add(parse(line));
+        }
+
+        catch (IllegalArgumentException e) {
+          throw new IOException(file + ":" + lineNumber + ": " + e.getMessage(), e);
+        }
+      }
+    }
+
+    profiles = Collections.unmodifiableList(loaded);
+  }
+
+  /**
+   * Replaces all the profiles, in the file first, and then in memory. The
+   * readers see either the old profiles or the new ones, never a mix.
+   * 
+   * @param newProfiles
+   *          the new profiles
+   * 
+   * @throws IOException
+   *           if writing the file fails (the old profiles are kept)
+   */
+  public void replace(final List<ProxyProfile> newProfiles) throws IOException {
+
+    try (Transaction transaction = begin()) {
+
+      for (ProxyProfile profile : newProfiles) {
+        transaction.add(profile);
+      }
+
+      transaction.commit();
+    }
+  }
+
+  /**
+   * Begins replacing all the profiles with profiles added one by one (as they
+   * are imported, for example), written to a temporary file as they come.
+   * Nothing changes until {@link Transaction#commit()}; a transaction closed
+   * without a commit is rolled back. If two transactions overlap, the last
+   * one committed wins.
+   * 
+   * @return the new transaction
+   * 
+   * @throws IOException
+   *           if the temporary file cannot be created
+   */
+  public Transaction begin() throws IOException {
+    return new Transaction();
+  }
+
+  /**
+   * @return the profiles (an immutable snapshot)
+   */
+  public List<ProxyProfile> getProfiles() {
+    return profiles;
+  }
+
+  /**
+   * @return the file of the profiles
+   */
+  public final File getFile() {
+    return file;
+  }
+
+  /**
+   * Appends the line of a profile (without the line separator).
+   */
+  static void format(final ProxyProfile profile, final StringBuilder line) {
+
+    escape(profile.getName(), line);
+    line.append('\t').append(profile.getType().name());
+    line.append('\t');
+    escape(profile.getHost(), line);
+    line.append('\t').append(profile.getPort());
+    line.append('\t').append(profile.isSecure());
+    line.append('\t').append(profile.isRequiringAuthentication());
+    line.append('\t');
+    escape(profile.getUsername(), line);
+    line.append('\t');
+    escape(profile.getEncryptedPassword(), line);
+  }
+
+  /**
+   * Parses the line of a profile.
+   * 
+   * @throws IllegalArgumentException
+   *           if the line is not well formed
+   */
+  static ProxyProfile parse(final String line) {
+
+    String[] fields = new String[FIELDS];
+
+    int field = 0;
+    StringBuilder value = new StringBuilder();
+
+    for (int i = 0; i < line.length(); i++) {
+
+      char c = line.charAt(i);
+
+      if (c == '\t') {
+
+        if (field == FIELDS - 1) {
+          throw new IllegalArgumentException("too many fields");
+        }
+
+        fields[field++] = value.length() == 0 ? null : value.toString();
+        value.setLength(0);
+      }
+
+      else if (c == '\\' && i + 1 < line.length()) {
+
+        c = line.charAt(++i);
+
+        switch (c) {
+        case 't':
+          value.append('\t');
+          break;
+        case 'n':
+          value.append('\n');
+          break;
+        case 'r':
+          value.append('\r');
+          break;
+        default:
+          value.append(c);
+          break;
+        }
+      }
+
+      else {
+        value.append(c);
+      }
+    }
+
+    fields[field] = value.length() == 0 ? null : value.toString();
+
+    if (field != FIELDS - 1) {
+      throw new IllegalArgumentException("expected " + FIELDS + " fields, found " + (field + 1));
+    }
+
+    if (fields[2] == null || fields[3] == null) {
+      throw new IllegalArgumentException("the host and the port are required");
+    }
+
+    return new ProxyProfile(fields[0] == null ? "" : fields[0], fields[1] == null ? ProxyType.HTTP : ProxyType.valueOf(fields[1]), fields[2], Integer.parseInt(fields[3]), Boolean.parseBoolean(fields[4]), Boolean.parseBoolean(fields[5]), fields[6], fields[7]);
+  }
+
+  /**
+   * Appends a field, escaping the tabs, the line breaks and the backslashes.
+   */
+  private static void escape(final String value, final StringBuilder line) {
+
+    if (value == null) {
+      return;
+    }
+
+    for (int i = 0; i < value.length(); i++) {
+
+      char c = value.charAt(i);
+
+      switch (c) {
+      case '\t':
+        line.append("\\t");
+        break;
+      case '\n':
+        line.append("\\n");
+        break;
+      case '\r':
+        line.append("\\r");
+        break;
+      case '\\':
+        line.append("\\\\");
+        break;
+      default:
+        line.append(c);
+        break;
+      }
+    }
+  }
+
+  /**
+   * A replacement of all the profiles, written to a temporary file next to
+   * the file of the store, and moved over it on commit.
+   */
+  public final class Transaction implements Closeable {
+
+    private final File tmpFile;
+
+    private final BufferedWriter writer;
+
+    private final List<ProxyProfile> added = new ArrayList<>();
+
+    private final StringBuilder line = new StringBuilder(256);
+
+    private boolean done;
+
+    private Transaction() throws IOException {
+
+      File parent = file.getAbsoluteFile().getParentFile();
+      parent.mkdirs();
+
+      tmpFile = File.createTempFile(file.getName(), ".tmp", parent);
+
+      try {
+        writer = Files.newBufferedWriter(tmpFile.toPath(), UTF_8);
+        writer.write(HEADER);
+        writer.newLine();
+      }
+
+      catch (IOException e) {
+        Files.deleteIfExists(tmpFile.toPath());
+        throw e;
+      }
+    }
+
+    /**
+     * Adds a profile, after the ones already added.
+     * 
+     * @param profile
+     *          the profile
+     * 
+     * @throws IOException
+     *           if writing the temporary file fails
+     */
+    public void add(final ProxyProfile profile) throws IOException {
+
+      if (done) {
+        throw new IllegalStateException("the transaction is already done");
+      }
+
+      line.setLength(0);
+      format(profile, line);
+
+      writer.append(line);
+      writer.newLine();
+
+      added.add(profile);
+    }
+
+    /**
+     * @return the number of profiles added so far
+     */
+    public int size() {
+      return added.size();
+    }
+
+    /**
+     * Moves the new file over the file of the store, and then publishes the
+     * new profiles in memory.
+     * 
+     * @throws IOException
+     *           if writing or moving the file fails (the old profiles are
+     *           kept, and the transaction is rolled back)
+     */
+    public void commit() throws IOException {
+
+      if (done) {
+        throw new IllegalStateException("the transaction is already done");
+      }
+
+      done = true;
+
+      try {
+
+        writer.close();
+
+        synchronized (ProxyProfileStore.this) {
+          Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+          profiles = Collections.unmodifiableList(added);
+        }
+      }
+
+      finally {
+        Files.deleteIfExists(tmpFile.toPath());
+      }
+    }
+
+    /**
+     * Rolls back the transaction, unless committed.
+     */
+    @Override
+    public void close() throws IOException {
+
+      if (done) {
+        return;
+      }
+
+      done = true;
+
+      try {
+        writer.close();
+      } finally {
+        Files.deleteIfExists(tmpFile.toPath());
+      }
+    }
+  }
+
+}
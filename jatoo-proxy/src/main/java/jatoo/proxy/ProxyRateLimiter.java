@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket used to cap the rate of connections or requests
+ * sent to a proxy server. The bucket is kept as a single "theoretical arrival
+ * time" updated with compare-and-set (the GCRA form of the token bucket), so
+ * callers never block each other.
+ * <p>
+ * Three ways of acquiring a permit are offered:
+ * <ul>
+ * <li>{@link #tryAcquire()} never waits and fails if the bucket is empty</li>
+ * <li>{@link #reserve()} never fails and returns how long the caller must wait,
+ * so that an event loop can schedule the work instead of blocking a thread</li>
+ * <li>{@link #tryAcquire(long, TimeUnit)} blocks the calling thread up to the
+ * specified timeout</li>
+ * </ul>
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public class ProxyRateLimiter {
+
+  /** The number of permits added to the bucket every second. */
+  private final double permitsPerSecond;
+
+  /** The maximum number of permits that can be acquired at once. */
+  private final int burst;
+
+  /** The time, in nanoseconds, needed to add one permit to the bucket. */
+  private final long interval;
+
+  /** The time, in nanoseconds, a full bucket can absorb. */
+  private final long tolerance;
+
+  /** The theoretical arrival time of the next conforming permit. */
+  private final AtomicLong tat;
+
+  /** The number of permits acquired so far. */
+  private final AtomicLong acquiredCount = new AtomicLong();
+
+  /** The number of attempts rejected or delayed because of the limit. */
+  private final AtomicLong throttledCount = new AtomicLong();
+
+  /**
+   * Creates a new rate limiter.
+   * 
+   * @param permitsPerSecond
+   *          the number of permits added to the bucket every second
+   * @param burst
+   *          the maximum number of permits that can be acquired at once
+   * 
+   * @throws IllegalArgumentException
+   *           if the rate or the burst are not positive
+   */
+  public ProxyRateLimiter(final double permitsPerSecond, final int burst) {
+
+    if (!(permitsPerSecond > 0)) {
+      throw new IllegalArgumentException("the rate must be positive: " + permitsPerSecond);
+    }
+    if (burst < 1) {
+      throw new IllegalArgumentException("the burst must be positive: " + burst);
+    }
+
+    this.permitsPerSecond = permitsPerSecond;
+    this.burst = burst;
+
+    interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+    tolerance = interval * burst;
+
+    tat = new AtomicLong(System.nanoTime());
+  }
+
+  /**
+   * Acquires a permit only if one is available at the time of invocation.
+   * 
+   * @return <code>true</code> if the permit was acquired, <code>false</code>
+   *         otherwise
+   */
+  public final boolean tryAcquire() {
+
+    while (true) {
+
+      long now = System.nanoTime();
+      long current = tat.get();
+      long next = next(current, now);
+
+      if (next - now > tolerance) {
+        throttledCount.incrementAndGet();
+        return false;
+      }
+
+      if (tat.compareAndSet(current, next)) {
+        acquiredCount.incrementAndGet();
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Reserves a permit, without waiting, and returns the time the caller must
+   * wait before using it. Suited for callers that schedule their work (for
+   * example on an event loop) instead of blocking a thread.
+   * 
+   * @return the time to wait, in nanoseconds, before the permit can be used
+   *         (<code>0</code> if it can be used immediately)
+   */
+  public final long reserve() {
+
+    while (true) {
+
+      long now = System.nanoTime();
+      long current = tat.get();
+      long next = next(current, now);
+
+      if (tat.compareAndSet(current, next)) {
+
+        long wait = Math.max(0, next - now - tolerance);
+
+        if (wait > 0) {
+          throttledCount.incrementAndGet();
+        }
+
+        acquiredCount.incrementAndGet();
+
+        return wait;
+      }
+    }
+  }
+
+  /**
+   * Acquires a permit, waiting if needed, but not longer than the specified
+   * timeout. If the permit cannot be acquired within the timeout the method
+   * returns immediately, without waiting.
+   * 
+   * @param timeout
+   *          the maximum time to wait for the permit
+   * @param unit
+   *          the time unit of the timeout argument
+   * 
+   * @return <code>true</code> if the permit was acquired, <code>false</code>
+   *         otherwise
+   * 
+   * @throws InterruptedException
+   *           if the current thread is interrupted while waiting
+   */
+  public final boolean tryAcquire(final long timeout, final TimeUnit unit) throws InterruptedException {
+
+    long timeoutNanos = unit.toNanos(timeout);
+
+    while (true) {
+
+      long now = System.nanoTime();
+      long current = tat.get();
+      long next = next(current, now);
+      long wait = next - now - tolerance;
+
+      if (wait > timeoutNanos) {
+        throttledCount.incrementAndGet();
+        return false;
+      }
+
+      if (tat.compareAndSet(current, next)) {
+
+        acquiredCount.incrementAndGet();
+
+        if (wait > 0) {
+          throttledCount.incrementAndGet();
+          TimeUnit.NANOSECONDS.sleep(wait);
+        }
+
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Computes the theoretical arrival time following the current one.
+   */
+  private long next(final long current, final long now) {
+    return (current - now < 0 ? now : current) + interval;
+  }
+
+  /**
+   * @return the number of permits added to the bucket every second
+   */
+  public final double getPermitsPerSecond() {
+    return permitsPerSecond;
+  }
+
+  /**
+   * @return the maximum number of permits that can be acquired at once
+   */
+  public final int getBurst() {
+    return burst;
+  }
+
+  /**
+   * @return the number of permits acquired so far
+   */
+  public final long getAcquiredCount() {
+    return acquiredCount.get();
+  }
+
+  /**
+   * @return the number of attempts rejected or delayed because of the limit
+   */
+  public final long getThrottledCount() {
+    return throttledCount.get();
+  }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the {@link ProxyRateLimiter}s configured for each proxy server,
+ * one for the new connections and one for the requests sent through the proxy.
+ * The proxy servers are identified by host and port, so all the {@link Proxy}
+ * profiles pointing to the same server share the same limits.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public final class ProxyRateLimits {
+
+  /** The limiters for the new connections, by proxy server. */
+  private static final ConcurrentMap<String, ProxyRateLimiter> CONNECTION_LIMITERS = new ConcurrentHashMap<>();
+
+  /** The limiters for the requests, by proxy server. */
+  private static final ConcurrentMap<String, ProxyRateLimiter> REQUEST_LIMITERS = new ConcurrentHashMap<>();
+
+  /**
+   * Utility classes (classes that contain only static methods or fields in
+   * their API) do not have a public constructor.
+   */
+  private ProxyRateLimits() {}
+
+  /**
+   * Limits the rate of the new connections opened to the specified proxy.
+   * 
+   * @param proxy
+   *          the proxy
+   * @param connectionsPerSecond
+   *          the number of new connections allowed every second
+   * @param burst
+   *          the number of new connections allowed at once
+   */
+  public static void setConnectionLimit(final Proxy proxy, final double connectionsPerSecond, final int burst) {
+    CONNECTION_LIMITERS.put(key(proxy), new ProxyRateLimiter(connectionsPerSecond, burst));
+  }
+
+  /**
+   * Limits the rate of the requests sent through the specified proxy.
+   * 
+   * @param proxy
+   *          the proxy
+   * @param requestsPerSecond
+   *          the number of requests allowed every second
+   * @param burst
+   *          the number of requests allowed at once
+   */
+  public static void setRequestLimit(final Proxy proxy, final double requestsPerSecond, final int burst) {
+    REQUEST_LIMITERS.put(key(proxy), new ProxyRateLimiter(requestsPerSecond, burst));
+  }
+
+  /**
+   * Returns the limiter for the new connections opened to the specified proxy.
+   * 
+   * @param proxy
+   *          the proxy
+   * 
+   * @return the limiter, or <code>null</code> if the connections are not
+   *         limited
+   */
+  public static ProxyRateLimiter getConnectionLimiter(final Proxy proxy) {
+    return CONNECTION_LIMITERS.get(key(proxy));
+  }
+
+  /**
+   * Returns the limiter for the requests sent through the specified proxy.
+   * 
+   * @param proxy
+   *          the proxy
+   * 
+   * @return the limiter, or <code>null</code> if the requests are not limited
+   */
+  public static ProxyRateLimiter getRequestLimiter(final Proxy proxy) {
+    return REQUEST_LIMITERS.get(key(proxy));
+  }
+
+  /**
+   * Removes any limit previously set for the specified proxy.
+   * 
+   * @param proxy
+   *          the proxy
+   */
+  public static void removeLimits(final Proxy proxy) {
+    CONNECTION_LIMITERS.remove(key(proxy));
+    REQUEST_LIMITERS.remove(key(proxy));
+  }
+
+  /**
+   * Identifies the proxy server by host and port.
+   */
+  private static String key(final Proxy proxy) {
+    return proxy.getHost() + ":" + proxy.getPort();
+  }
+
+}
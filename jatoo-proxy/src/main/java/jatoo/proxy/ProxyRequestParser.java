@@ -0,0 +1,538 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * An incremental parser of the request line and of the headers of an HTTP
+ * request, working directly on the bytes of a {@link ByteBuffer} (heap or
+ * direct) without copying them and without creating any object: the method,
+ * the target (with the host and the port, for a <code>CONNECT</code> request)
+ * and the values of the selected headers are exposed as offsets in the
+ * buffer, and turned into strings only if asked.
+ * <p>
+ * The buffer is expected in fill mode (the request starting at index
+ * <code>0</code>, the bytes received so far ending at the position), as it is
+ * after reading from a channel. Every call of {@link #parse(ByteBuffer)}
+ * scans only the bytes received since the previous call, so a request split
+ * over many packets is not parsed again from the beginning.
+ * 
+ * <pre>
+ * ProxyRequestParser parser = new ProxyRequestParser("Proxy-Authorization");
+ * while (!parser.parse(buffer)) {
+ *   channel.read(buffer);
+ * }
+ * if (parser.isMethod(buffer, "CONNECT")) {
+ *   String host = parser.getHost(buffer);
+ *   int port = parser.getPort();
+ *   ...
+ * }
+ * </pre>
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.2, October 19, 2026
+ */
+public class ProxyRequestParser {
+
+  /** The charset of the request line and of the headers. */
+  private static final Charset HEADER_CHARSET = Charset.forName("ISO-8859-1");
+
+  /**
+   * The longest host accepted in an authority (the longest a DNS name can be,
+   * and the longest a SOCKS5 request can carry).
+   */
+  static final int MAX_HOST_LENGTH = 255;
+
+  /** The names of the selected headers, in lower case. */
+  private final byte[][] selectedHeaders;
+
+  /** The offsets of the values of the selected headers (or -1). */
+  private final int[] headerValueStarts;
+  private final int[] headerValueEnds;
+
+  /** The index of the first byte not scanned yet. */
+  private int scanned;
+
+  /** The index of the first byte of the current line. */
+  private int lineStart;
+
+  private int methodEnd;
+  private int targetStart;
+  private int targetEnd;
+  private int hostStart;
+  private int hostEnd;
+  private int port;
+  private int versionStart;
+  private int versionEnd;
+
+  /** The index following the empty line, or -1 if not reached yet. */
+  private int headerEnd;
+
+  /**
+   * Creates a new parser.
+   * 
+   * @param selectedHeaders
+   *          the names (case insensitive) of the headers whose values are
+   *          needed
+   */
+  public ProxyRequestParser(final String... selectedHeaders) {
+
+    this.selectedHeaders = new byte[selectedHeaders.length][];
+
+    for (int i = 0; i < selectedHeaders.length; i++) {
+      this.selectedHeaders[i] = selectedHeaders[i].toLowerCase(Locale.ROOT).getBytes(HEADER_CHARSET);
+    }
+
+    headerValueStarts = new int[selectedHeaders.length];
+    headerValueEnds = new int[selectedHeaders.length];
+
+    reset();
+  }
+
+  /**
+   * Prepares the parser for a new request.
+   */
+  public final void reset() {
+
+    scanned = 0;
+    lineStart = 0;
+
+    methodEnd = -1;
+    targetStart = -1;
+    targetEnd = -1;
+    hostStart = -1;
+    hostEnd = -1;
+    port = -1;
+    versionStart = -1;
+    versionEnd = -1;
+
+    headerEnd = -1;
+
+    for (int i = 0; i < headerValueStarts.length; i++) {
+      headerValueStarts[i] = -1;
+      headerValueEnds[i] = -1;
+    }
+  }
+
+  /**
+   * Parses the bytes received since the previous call.
+   * 
+   * @param buffer
+   *          the buffer with the request, in fill mode
+   * 
+   * @return <code>true</code> if the request line and all the headers were
+   *         received (see {@link #getHeaderEnd()}), <code>false</code> if more
+   *         bytes are needed
+   * 
+   * @throws IOException
+   *           if the request is malformed
+   */
+  public final boolean parse(final ByteBuffer buffer) throws IOException {
+
+    if (headerEnd != -1) {
+      return true;
+    }
+
+    int end = buffer.position();
+
+    for (; scanned < end; scanned++) {
+
+      if (buffer.get(scanned) != '\n') {
+        continue;
+      }
+
+      int lineEnd = scanned > lineStart && buffer.get(scanned - 1) == '\r' ? scanned - 1 : scanned;
+
+      if (methodEnd == -1) {
+        parseRequestLine(buffer, lineStart, lineEnd);
+      }
+
+      else if (lineEnd == lineStart) {
+        headerEnd = ++scanned;
+        return true;
+      }
+
+      else {
+        parseHeaderLine(buffer, lineStart, lineEnd);
+      }
+
+      lineStart = scanned + 1;
+    }
+
+    return false;
+  }
+
+  /**
+   * Parses the request line: <code>method SP target SP version</code>.
+   */
+  private void parseRequestLine(final ByteBuffer buffer, final int start, final int end) throws IOException {
+
+    int space1 = indexOf(buffer, start, end, ' ');
+    int space2 = space1 == -1 ? -1 : indexOf(buffer, space1 + 1, end, ' ');
+
+    if (space1 <= start || space2 <= space1 + 1 || space2 + 1 >= end) {
+      throw new IOException("malformed request line");
+    }
+
+    if (!regionMatches(buffer, space2 + 1, end, "HTTP/")) {
+      throw new IOException("malformed request line");
+    }
+
+    methodEnd = space1;
+    targetStart = space1 + 1;
+    targetEnd = space2;
+    versionStart = space2 + 1;
+    versionEnd = end;
+
+    parseAuthority(buffer, targetStart, targetEnd);
+  }
+
+  /**
+   * Parses the target as an authority (<code>host:port</code>, with the IPv6
+   * addresses in brackets), as used by <code>CONNECT</code>. The host and the
+   * port stay unknown for the other forms of targets, and for hosts longer
+   * than {@link #MAX_HOST_LENGTH}.
+   */
+  private void parseAuthority(final ByteBuffer buffer, final int start, final int end) {
+
+    int colon = lastIndexOf(buffer, start, end, ':');
+
+    if (colon <= start || colon == end - 1 || end - colon - 1 > 5 || colon - start > MAX_HOST_LENGTH + 2) {
+      return;
+    }
+
+    int value = 0;
+
+    for (int i = colon + 1; i < end; i++) {
+
+      byte b = buffer.get(i);
+
+      if (b < '0' || b > '9') {
+        return;
+      }
+
+      value = value * 10 + (b - '0');
+    }
+
+    if (value == 0 || value > 65535) {
+      return;
+    }
+
+    if (buffer.get(start) == '[') {
+
+      if (buffer.get(colon - 1) != ']' || colon - 1 == start + 1) {
+        return;
+      }
+
+      hostStart = start + 1;
+      hostEnd = colon - 1;
+    }
+
+    else {
+
+      if (indexOf(buffer, start, colon, ':') != -1 || indexOf(buffer, start, colon, '/') != -1 || colon - start > MAX_HOST_LENGTH) {
+        return;
+      }
+
+      hostStart = start;
+      hostEnd = colon;
+    }
+
+    port = value;
+  }
+
+  /**
+   * Parses a header line (<code>name: value</code>), keeping the offsets of
+   * the value if the header is one of the selected ones.
+   */
+  private void parseHeaderLine(final ByteBuffer buffer, final int start, final int end) throws IOException {
+
+    int colon = indexOf(buffer, start, end, ':');
+
+    if (colon <= start) {
+      throw new IOException("malformed header line");
+    }
+
+    for (int i = 0; i < selectedHeaders.length; i++) {
+
+      if (headerValueStarts[i] == -1 && equalsIgnoreCase(buffer, start, colon, selectedHeaders[i])) {
+
+        int valueStart = colon + 1;
+        int valueEnd = end;
+
+        while (valueStart < valueEnd && isWhitespace(buffer.get(valueStart))) {
+          valueStart++;
+        }
+
+        while (valueEnd > valueStart && isWhitespace(buffer.get(valueEnd - 1))) {
+          valueEnd--;
+        }
+
+        headerValueStarts[i] = valueStart;
+        headerValueEnds[i] = valueEnd;
+
+        break;
+      }
+    }
+  }
+
+  //
+  // the parsed request
+
+  /**
+   * @return <code>true</code> if the request line and all the headers were
+   *         received
+   */
+  public final boolean isComplete() {
+    return headerEnd != -1;
+  }
+
+  /**
+   * @return the index following the empty line that ends the headers (the
+   *         first byte of the body, or of the tunnel), or <code>-1</code>
+   */
+  public final int getHeaderEnd() {
+    return headerEnd;
+  }
+
+  /**
+   * Checks the method, without creating any object.
+   * 
+   * @param buffer
+   *          the parsed buffer
+   * @param method
+   *          the method (case sensitive, for example <code>CONNECT</code>)
+   * 
+   * @return <code>true</code> if the request uses the specified method
+   */
+  public final boolean isMethod(final ByteBuffer buffer, final String method) {
+    return methodEnd != -1 && methodEnd == method.length() && regionMatches(buffer, 0, methodEnd, method);
+  }
+
+  /**
+   * @return the index following the method, or <code>-1</code> (the method
+   *         starts at index <code>0</code>)
+   */
+  public final int getMethodEnd() {
+    return methodEnd;
+  }
+
+  /**
+   * @return the index of the first byte of the target, or <code>-1</code>
+   */
+  public final int getTargetStart() {
+    return targetStart;
+  }
+
+  /**
+   * @return the index following the target, or <code>-1</code>
+   */
+  public final int getTargetEnd() {
+    return targetEnd;
+  }
+
+  /**
+   * @return the index of the first byte of the host (of an authority target,
+   *         without brackets), or <code>-1</code>
+   */
+  public final int getHostStart() {
+    return hostStart;
+  }
+
+  /**
+   * @return the index following the host, or <code>-1</code>
+   */
+  public final int getHostEnd() {
+    return hostEnd;
+  }
+
+  /**
+   * @return the port (of an authority target), or <code>-1</code>
+   */
+  public final int getPort() {
+    return port;
+  }
+
+  /**
+   * @return the index of the first byte of the version, or <code>-1</code>
+   */
+  public final int getVersionStart() {
+    return versionStart;
+  }
+
+  /**
+   * @return the index following the version, or <code>-1</code>
+   */
+  public final int getVersionEnd() {
+    return versionEnd;
+  }
+
+  /**
+   * @param index
+   *          the index of the selected header (in the order given to the
+   *          constructor)
+   * 
+   * @return the index of the first byte of the value, or <code>-1</code> if
+   *         the header is missing
+   */
+  public final int getHeaderValueStart(final int index) {
+    return headerValueStarts[index];
+  }
+
+  /**
+   * @param index
+   *          the index of the selected header (in the order given to the
+   *          constructor)
+   * 
+   * @return the index following the value, or <code>-1</code> if the header
+   *         is missing
+   */
+  public final int getHeaderValueEnd(final int index) {
+    return headerValueEnds[index];
+  }
+
+  /**
+   * @param buffer
+   *          the parsed buffer
+   * 
+   * @return the method, or <code>null</code>
+   */
+  public final String getMethod(final ByteBuffer buffer) {
+    return getString(buffer, 0, methodEnd);
+  }
+
+  /**
+   * @param buffer
+   *          the parsed buffer
+   * 
+   * @return the target, or <code>null</code>
+   */
+  public final String getTarget(final ByteBuffer buffer) {
+    return getString(buffer, targetStart, targetEnd);
+  }
+
+  /**
+   * @param buffer
+   *          the parsed buffer
+   * 
+   * @return the host (of an authority target, without brackets), or
+   *         <code>null</code>
+   */
+  public final String getHost(final ByteBuffer buffer) {
+    return getString(buffer, hostStart, hostEnd);
+  }
+
+  /**
+   * @param buffer
+   *          the parsed buffer
+   * @param index
+   *          the index of the selected header (in the order given to the
+   *          constructor)
+   * 
+   * @return the value of the header, or <code>null</code> if missing
+   */
+  public final String getHeaderValue(final ByteBuffer buffer, final int index) {
+    return getString(buffer, headerValueStarts[index], headerValueEnds[index]);
+  }
+
+  //
+  // helpers
+
+  private static String getString(final ByteBuffer buffer, final int start, final int end) {
+
+    if (start == -1) {
+      return null;
+    }
+
+    byte[] bytes = new byte[end - start];
+
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = buffer.get(start + i);
+    }
+
+    return new String(bytes, HEADER_CHARSET);
+  }
+
+  private static int indexOf(final ByteBuffer buffer, final int start, final int end, final char c) {
+
+    for (int i = start; i < end; i++) {
+      if (buffer.get(i) == c) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  private static int lastIndexOf(final ByteBuffer buffer, final int start, final int end, final char c) {
+
+    for (int i = end - 1; i >= start; i--) {
+      if (buffer.get(i) == c) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  private static boolean regionMatches(final ByteBuffer buffer, final int start, final int end, final String s) {
+
+    if (end - start < s.length()) {
+      return false;
+    }
+
+    for (int i = 0; i < s.length(); i++) {
+      if (buffer.get(start + i) != s.charAt(i)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean equalsIgnoreCase(final ByteBuffer buffer, final int start, final int end, final byte[] lowerCase) {
+
+    if (end - start != lowerCase.length) {
+      return false;
+    }
+
+    for (int i = 0; i < lowerCase.length; i++) {
+
+      byte b = buffer.get(start + i);
+
+      if (b >= 'A' && b <= 'Z') {
+        b += 'a' - 'A';
+      }
+
+      if (b != lowerCase[i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean isWhitespace(final byte b) {
+    return b == ' ' || b == '\t';
+  }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.IOException;
+
+/**
+ * Signals that the proxy server refused a request (for example a
+ * <code>CONNECT</code> answered with <code>407</code>).
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+@SuppressWarnings("serial")
+public class ProxyResponseException extends IOException {
+
+  /** The status code sent by the proxy server. */
+  private final int statusCode;
+
+  /**
+   * Creates a new exception with the status line sent by the proxy server.
+   * 
+   * @param statusCode
+   *          the status code sent by the proxy server
+   * @param statusLine
+   *          the status line sent by the proxy server
+   */
+  public ProxyResponseException(final int statusCode, final String statusLine) {
+    super("the proxy server answered: " + statusLine);
+    this.statusCode = statusCode;
+  }
+
+  /**
+   * @return the status code sent by the proxy server
+   */
+  public final int getStatusCode() {
+    return statusCode;
+  }
+
+  /**
+   * @return <code>true</code> if the proxy server asked for authentication
+   *         (the status code is <code>407</code>)
+   */
+  public final boolean isAuthenticationRequired() {
+    return statusCode == 407;
+  }
+
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free ring buffer of preallocated entries, filled by many threads (the
+ * event loops) and drained by a thread of its own, which encodes the entries
+ * to a single buffer and writes it to an {@link Output} in batches. This is
+ * what the {@link ProxyAccessLog} and the {@link ProxyTraceRecorder} are
+ * built on: they keep the entries (in arrays of their own, indexed by slot)
+ * and the file, the ring keeps the order, the thread and the counts.
+ * <p>
+ * An entry is claimed ({@link #claim()}), filled, and then published
+ * ({@link #publish(long)}); the thread of the ring, parked while there is
+ * nothing to write, is woken up only if it is idle.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+final class ProxyRingWriter {
+
+  /**
+   * Where the entries go, called by the thread of the ring only.
+   */
+  interface Output {
+
+    /**
+     * Encodes the entry of a slot, and drops its references (the slot is
+     * reused right after).
+     * 
+     * @param slot
+     *          the slot of the entry
+     * @param bytes
+     *          the buffer, with room for the longest entry
+     */
+    void encode(int slot, ByteBuffer bytes);
+
+    /**
+     * Writes the bytes of a batch.
+     * 
+     * @param bytes
+     *          the bytes (to be written completely)
+     * 
+     * @throws IOException
+     *           if writing fails (the batch is lost)
+     */
+    void write(ByteBuffer bytes) throws IOException;
+
+    /**
+     * Closes the output, once everything is written.
+     * 
+     * @throws IOException
+     *           if closing fails
+     */
+    void close() throws IOException;
+  }
+
+  /** The size of the write buffer. */
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+  /** The time, in nanoseconds, the thread of the ring sleeps when idle. */
+  private static final long IDLE_PARK_TIME = TimeUnit.MILLISECONDS.toNanos(100);
+
+  /** The time, in nanoseconds, a blocked event loop waits between attempts. */
+  private static final long BLOCKED_PARK_TIME = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final Output output;
+
+  /** <code>True</code> to wait for room when full, instead of dropping. */
+  private final boolean blocking;
+
+  /** The room an entry needs in the write buffer, at most. */
+  private final int maxEntrySize;
+
+  /**
+   * The sequence of every entry: equal to its index in the lap when free, one
+   * more when written (the entry is published by setting it).
+   */
+  private final AtomicLongArray sequences;
+
+  /** <code>capacity - 1</code> (the capacity is a power of two). */
+  private final int mask;
+
+  /** The position of the next entry to write (shared by the event loops). */
+  private final AtomicLong tail = new AtomicLong();
+
+  /** The position of the next entry to read (the thread of the ring only). */
+  private long head;
+
+  /** The number of entries written. */
+  private final AtomicLong writtenCount = new AtomicLong();
+
+  /** The number of entries dropped because the ring buffer was full. */
+  private final AtomicLong droppedCount = new AtomicLong();
+
+  /** The thread of the ring, once started. */
+  private volatile Thread thread;
+
+  /** <code>True</code> while the thread of the ring is (about to be) parked. */
+  private volatile boolean idle;
+
+  /** <code>True</code> after {@link #close()}. */
+  private volatile boolean closed;
+
+  /** The last failure writing the output, if any. */
+  private volatile IOException lastFailure;
+
+  /**
+   * Creates a new ring.
+   * 
+   * @param capacity
+   *          the number of entries (rounded up to a power of two)
+   * @param blocking
+   *          <code>true</code> to wait for room when full, <code>false</code>
+   *          to drop the entry
+   * @param maxEntrySize
+   *          the room an entry needs in the write buffer, at most
+   * @param output
+   *          where the entries go
+   */
+  ProxyRingWriter(final int capacity, final boolean blocking, final int maxEntrySize, final Output output) {
+
+    this.output = output;
+    this.blocking = blocking;
+    this.maxEntrySize = maxEntrySize;
+
+    int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+
+    sequences = new AtomicLongArray(size);
+    mask = size - 1;
+
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Starts the thread of the ring.
+   * 
+   * @param name
+   *          the name of the thread
+   */
+  synchronized void start(final String name) {
+
+    if (thread != null || closed) {
+      throw new IllegalStateException("already started");
+    }
+
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        drainLoop();
+      }
+    }, name);
+    thread.setDaemon(true);
+
+    this.thread = thread;
+
+    thread.start();
+  }
+
+  /**
+   * Writes the entries still in the ring buffer, and closes the output. The
+   * entries claimed afterwards are dropped.
+   */
+  synchronized void close() {
+
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+
+    Thread thread = this.thread;
+
+    if (thread == null) {
+      return;
+    }
+
+    LockSupport.unpark(thread);
+
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  //
+  // recording (the event loops)
+
+  /**
+   * Claims the next free entry, and returns its position, or <code>-1</code>
+   * if the entry is dropped (counted): the ring buffer is full, and not
+   * blocking, or closed.
+   */
+  long claim() {
+
+    while (!closed) {
+
+      long position = tail.get();
+      long sequence = sequences.get((int) position & mask);
+
+      if (sequence == position) {
+        if (tail.compareAndSet(position, position + 1)) {
+          return position;
+        }
+      }
+
+      // the entry of the previous lap is not read yet: full
+      else if (sequence < position) {
+
+        if (!blocking) {
+          break;
+        }
+
+        LockSupport.parkNanos(BLOCKED_PARK_TIME);
+      }
+
+      // otherwise another event loop claimed it meanwhile, try again
+    }
+
+    droppedCount.incrementAndGet();
+
+    return -1;
+  }
+
+  /**
+   * @return the slot of the entry at a position
+   */
+  int slot(final long position) {
+    return (int) position & mask;
+  }
+
+  /**
+   * Publishes a claimed entry, once filled.
+   */
+  void publish(final long position) {
+
+    // a full fence, so that the thread of the ring, if about to park, is
+    // either seen idle here or sees the entry
+    sequences.set((int) position & mask, position + 1);
+
+    if (idle) {
+      Thread thread = this.thread;
+      if (thread != null) {
+        LockSupport.unpark(thread);
+      }
+    }
+  }
+
+  //
+  // writing (the thread of the ring)
+
+  /**
+   * Drains the ring buffer in batches, until closed.
+   */
+  private void drainLoop() {
+
+    ByteBuffer bytes = ByteBuffer.allocate(Math.max(WRITE_BUFFER_SIZE, maxEntrySize));
+
+    try {
+
+      while (true) {
+
+        boolean closing = closed;
+
+        int drained = 0;
+
+        while (isReadable(head)) {
+
+          if (bytes.remaining() < maxEntrySize) {
+            flush(bytes);
+          }
+
+          output.encode((int) head & mask, bytes);
+
+          // released right away, the entry is encoded
+          sequences.lazySet((int) head & mask, head + mask + 1);
+          head++;
+
+          drained++;
+        }
+
+        if (bytes.position() > 0) {
+          flush(bytes);
+        }
+
+        writtenCount.addAndGet(drained);
+
+        if (closing) {
+
+          // the entries claimed just before closing are about to be published
+          if (head == tail.get()) {
+            break;
+          }
+
+          Thread.yield();
+          continue;
+        }
+
+        if (drained == 0) {
+
+          idle = true;
+
+          if (!closed && !isReadable(head)) {
+            LockSupport.parkNanos(this, IDLE_PARK_TIME);
+          }
+
+          idle = false;
+        }
+      }
+    }
+
+    finally {
+      try {
+        output.close();
+      } catch (IOException e) {
+        lastFailure = e;
+      }
+    }
+  }
+
+  /**
+   * <code>True</code> if the entry at the position is published.
+   */
+  private boolean isReadable(final long position) {
+    return sequences.get((int) position & mask) == position + 1;
+  }
+
+  /**
+   * Writes the buffer to the output. A failure is remembered, and the entries
+   * are lost, but the ring goes on (the disk may recover).
+   */
+  private void flush(final ByteBuffer bytes) {
+
+    bytes.flip();
+
+    try {
+      output.write(bytes);
+    }
+
+    catch (IOException e) {
+      lastFailure = e;
+    }
+
+    finally {
+      bytes.clear();
+    }
+  }
+
+  //
+  // state
+
+  /**
+   * Remembers a failure of the output, outside of a write.
+   */
+  void failed(final IOException failure) {
+    lastFailure = failure;
+  }
+
+  /**
+   * @return <code>true</code> once started or closed
+   */
+  boolean isStartedOrClosed() {
+    return thread != null || closed;
+  }
+
+  /**
+   * @return the number of slots
+   */
+  int getCapacity() {
+    return mask + 1;
+  }
+
+  long getWrittenCount() {
+    return writtenCount.get();
+  }
+
+  long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  IOException getLastFailure() {
+    return lastFailure;
+  }
+
+}
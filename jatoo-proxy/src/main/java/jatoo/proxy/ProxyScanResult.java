@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.IOException;
+
+/**
+ * The outcome of scanning one proxy server with a {@link ProxyScanner}. The
+ * times are in nanoseconds, <code>-1</code> if the phase was not reached (or
+ * does not exist, like the authentication of an HTTP proxy server, sent with
+ * the <code>CONNECT</code> request).
+ * <p>
+ * The results are ranked by their natural order: the working proxy servers
+ * first, the fastest to open a tunnel (connect, authentication and
+ * <code>CONNECT</code>) first, and then the one with the highest throughput.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public final class ProxyScanResult implements Comparable<ProxyScanResult> {
+
+  private final Proxy proxy;
+  private final long connectTime;
+  private final long authenticationTime;
+  private final long tunnelTime;
+  private final long sampleBytes;
+  private final long sampleTime;
+  private final ProxyProbeResult.Authentication authentication;
+  private final int statusCode;
+  private final IOException failure;
+
+  ProxyScanResult(final Proxy proxy, final long connectTime, final long authenticationTime, final long tunnelTime, final long sampleBytes, final long sampleTime, final ProxyProbeResult.Authentication authentication, final int statusCode, final IOException failure) {
+    this.proxy = proxy;
+    this.connectTime = connectTime;
+    this.authenticationTime = authenticationTime;
+    this.tunnelTime = tunnelTime;
+    this.sampleBytes = sampleBytes;
+    this.sampleTime = sampleTime;
+    this.authentication = authentication;
+    this.statusCode = statusCode;
+    this.failure = failure;
+  }
+
+  /**
+   * @return the proxy server
+   */
+  public Proxy getProxy() {
+    return proxy;
+  }
+
+  /**
+   * @return <code>true</code> if the tunnel was established (and the sample,
+   *         if any, received)
+   */
+  public boolean isSuccessful() {
+    return failure == null;
+  }
+
+  /**
+   * @return the time to connect to the proxy server
+   */
+  public long getConnectTime() {
+    return connectTime;
+  }
+
+  /**
+   * @return the time of the SOCKS5 username/password sub-negotiation
+   */
+  public long getAuthenticationTime() {
+    return authenticationTime;
+  }
+
+  /**
+   * @return the time from asking for the tunnel to the answer
+   */
+  public long getTunnelTime() {
+    return tunnelTime;
+  }
+
+  /**
+   * @return the time to open the tunnel (connect, authentication and
+   *         <code>CONNECT</code>), or <code>-1</code> if not opened
+   */
+  public long getSetupTime() {
+    return tunnelTime == -1 ? -1 : connectTime + Math.max(0, authenticationTime) + tunnelTime;
+  }
+
+  /**
+   * @return the number of bytes of the throughput sample received
+   */
+  public long getSampleBytes() {
+    return sampleBytes;
+  }
+
+  /**
+   * @return the throughput of the sample, in bytes per second, or
+   *         <code>-1</code> if there was no sample
+   */
+  public long getThroughput() {
+    return sampleBytes == 0 || sampleTime <= 0 ? -1 : sampleBytes * 1000000000L / sampleTime;
+  }
+
+  /**
+   * @return what the proxy server did with the credentials
+   */
+  public ProxyProbeResult.Authentication getAuthentication() {
+    return authentication;
+  }
+
+  /**
+   * @return the status code of the answer to <code>CONNECT</code>
+   *         (<code>200</code> for an established tunnel, also for SOCKS), or
+   *         <code>0</code> if there was no answer
+   */
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  /**
+   * @return why the scan of the proxy server failed, or <code>null</code>
+   */
+  public IOException getFailure() {
+    return failure;
+  }
+
+  @Override
+  public int compareTo(final ProxyScanResult other) {
+
+    if (isSuccessful() != other.isSuccessful()) {
+      return isSuccessful() ? -1 : 1;
+    }
+
+    if (!isSuccessful()) {
+      return 0;
+    }
+
+    int result = Long.compare(getSetupTime(), other.getSetupTime());
+
+    return result != 0 ? result : Long.compare(other.getThroughput(), getThroughput());
+  }
+
+  @Override
+  public String toString() {
+
+    StringBuilder string = new StringBuilder(128);
+
+    string.append(proxy.getType()).append(' ').append(proxy.getHost()).append(':').append(proxy.getPort());
+
+    if (isSuccessful()) {
+
+      string.append(" connect ").append(connectTime / 1000).append("us");
+
+      if (authenticationTime != -1) {
+        string.append(" auth ").append(authenticationTime / 1000).append("us");
+      }
+
+      string.append(" tunnel ").append(tunnelTime / 1000).append("us");
+
+      if (getThroughput() != -1) {
+        string.append(" throughput ").append(getThroughput() / 1024).append("KiB/s");
+      }
+    }
+
+    else {
+      string.append(" failed: ").append(failure.getMessage());
+    }
+
+    return string.toString();
+  }
+
+}
@@ -0,0 +1,822 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans many proxy servers at once, on non-blocking connections driven by
+ * one selector, with at most a given number of them in flight: for each one
+ * it measures the time to connect, the time of the SOCKS5 authentication and
+ * the time to open a tunnel to a destination, and (if a sample request is
+ * set) the throughput of the answer to the sample request sent through the
+ * tunnel.
+ * <p>
+ * The scan runs on the calling thread, each result is handed to the listener
+ * as soon as the proxy server is scanned, and the ranked results (see
+ * {@link ProxyScanResult}) are returned at the end.
+ * 
+ * <pre>
+ * ProxyScanner scanner = new ProxyScanner("www.google.com", 443);
+ * scanner.setMaxInFlight(100);
+ * List&lt;ProxyScanResult&gt; results = scanner.scan(proxies, null);
+ * </pre>
+ * 
+ * It can also be run from the command line, with a file with a proxy server
+ * per line (<code>[http://|socks://][username:password@]host:port</code>):
+ * 
+ * <pre>
+ * java -cp jatoo-proxy.jar jatoo.proxy.ProxyScanner [--target host:port] [--max-in-flight n] [--timeout millis] file
+ * </pre>
+ * 
+ * The host names of the proxy servers are resolved on a few threads of their
+ * own, not on the thread of the scan, so a slow lookup delays only its own
+ * proxy server (and it is not part of its connect time, only of the time given
+ * to its scan).
+ * <p>
+ * The secure (TLS) proxy servers are not supported (they fail right away).
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.3, October 19, 2026
+ */
+public class ProxyScanner {
+
+  /** The default maximum number of proxy servers scanned at once. */
+  public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+  /** The default time to scan one proxy server, in milliseconds. */
+  public static final long DEFAULT_TIMEOUT = 10000;
+
+  /** The default number of bytes of the answer to the sample request. */
+  public static final int DEFAULT_SAMPLE_SIZE = 64 * 1024;
+
+  /** The duration of a tick of the timeouts, and of a select, in milliseconds. */
+  private static final long TICK = 100;
+
+  /** The size of the buffer of a connection (and the maximum answer header). */
+  private static final int BUFFER_SIZE = 8192;
+
+  /** The number of threads resolving the host names of a scan. */
+  private static final int RESOLVER_THREADS = 4;
+
+  private static final Charset HEADER_CHARSET = Charset.forName("ISO-8859-1");
+
+  /** The destination of the tunnels. */
+  private final String targetHost;
+  private final int targetPort;
+
+  private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+  private long timeout = DEFAULT_TIMEOUT;
+
+  private byte[] sampleRequest;
+  private int sampleSize = DEFAULT_SAMPLE_SIZE;
+
+  /**
+   * Creates a new scanner.
+   * 
+   * @param targetHost
+   *          the host name, or address, of the destination of the tunnels
+   * @param targetPort
+   *          the port number of the destination of the tunnels
+   */
+  public ProxyScanner(final String targetHost, final int targetPort) {
+    this.targetHost = targetHost;
+    this.targetPort = targetPort;
+  }
+
+  /**
+   * Sets the maximum number of proxy servers scanned at once.
+   * 
+   * @param maxInFlight
+   *          the maximum number of open connections
+   */
+  public void setMaxInFlight(final int maxInFlight) {
+
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("the maximum number of proxy servers in flight must be positive: " + maxInFlight);
+    }
+
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * @return the maximum number of proxy servers scanned at once
+   */
+  public final int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  /**
+   * Sets the time to scan one proxy server, from the connect to the end of
+   * the sample.
+   * 
+   * @param timeout
+   *          the timeout, in milliseconds
+   */
+  public void setTimeout(final long timeout) {
+
+    if (timeout < 1) {
+      throw new IllegalArgumentException("the timeout must be positive: " + timeout);
+    }
+
+    this.timeout = timeout;
+  }
+
+  /**
+   * @return the time to scan one proxy server, in milliseconds
+   */
+  public final long getTimeout() {
+    return timeout;
+  }
+
+  /**
+   * Sets the request sent through every tunnel to measure the throughput (a
+   * <code>GET</code> of a known file, for example), or <code>null</code> to
+   * only open the tunnels.
+   * 
+   * @param sampleRequest
+   *          the bytes of the request
+   * @param sampleSize
+   *          the number of bytes of the answer to read (less if the
+   *          destination closes the connection before)
+   */
+  public void setSampleRequest(final byte[] sampleRequest, final int sampleSize) {
+
+    if (sampleSize < 1) {
+      throw new IllegalArgumentException("the sample size must be positive: " + sampleSize);
+    }
+
+    this.sampleRequest = sampleRequest == null ? null : sampleRequest.clone();
+    this.sampleSize = sampleSize;
+  }
+
+  /**
+   * Scans the proxy servers.
+   * 
+   * @param proxies
+   *          the proxy servers (iterated lazily, as the scan goes)
+   * @param listener
+   *          the listener of the results, or <code>null</code>
+   * 
+   * @return the results, ranked
+   * 
+   * @throws IOException
+   *           if the selector fails (the failures of the proxy servers are
+   *           part of their results, not thrown)
+   */
+  public List<ProxyScanResult> scan(final Iterable<? extends Proxy> proxies, final ProxyScanListener listener) throws IOException {
+
+    List<ProxyScanResult> results = new ArrayList<>();
+    List<ProxyScanResult> completed = new ArrayList<>();
+
+    Selector selector = Selector.open();
+
+    ExecutorService resolver = Executors.newFixedThreadPool(RESOLVER_THREADS, new ThreadFactory() {
+      public Thread newThread(final Runnable runnable) {
+        Thread thread = new Thread(runnable, "jatoo-proxy-scanner-resolver");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    // the probes with their host names resolved, waiting to connect
+    Queue<Probe> resolved = new ConcurrentLinkedQueue<>();
+
+    try {
+
+      ProxyTimingWheel wheel = new ProxyTimingWheel(TICK, System.nanoTime());
+
+      Iterator<? extends Proxy> iterator = proxies.iterator();
+      int inFlight = 0;
+
+      while (true) {
+
+        while (inFlight < maxInFlight && iterator.hasNext()) {
+          new Probe(iterator.next(), selector, wheel, completed).start(resolver, resolved);
+          inFlight++;
+        }
+
+        if (inFlight == 0) {
+          break;
+        }
+
+        Probe probe;
+        while ((probe = resolved.poll()) != null) {
+          probe.connect();
+        }
+
+        if (completed.isEmpty()) {
+
+          selector.select(TICK);
+
+          for (SelectionKey key : selector.selectedKeys()) {
+            ((Probe) key.attachment()).handle(key);
+          }
+          selector.selectedKeys().clear();
+
+          wheel.advance(System.nanoTime());
+        }
+
+        for (ProxyScanResult result : completed) {
+
+          results.add(result);
+          inFlight--;
+
+          if (listener != null) {
+            listener.scanned(result);
+          }
+        }
+
+        completed.clear();
+      }
+    }
+
+    finally {
+
+      // all closed already, unless the scan stopped half way (a listener
+      // threw, or the selector failed)
+      for (SelectionKey key : selector.keys()) {
+        try {
+          key.channel().close();
+        } catch (IOException e) {
+          // nothing else to do
+        }
+      }
+
+      selector.close();
+
+      // a lookup still running is of no use any more
+      resolver.shutdownNow();
+    }
+
+    Collections.sort(results);
+
+    return results;
+  }
+
+  /**
+   * Resolves the address of a proxy server (called on the threads of the
+   * resolver, never on the thread of the scan).
+   * 
+   * @throws UnknownHostException
+   *           if the host name cannot be resolved
+   */
+  InetSocketAddress resolve(final Proxy proxy) throws UnknownHostException {
+
+    InetSocketAddress address = new InetSocketAddress(proxy.getHost(), proxy.getPort());
+
+    if (address.isUnresolved()) {
+      throw new UnknownHostException(proxy.getHost());
+    }
+
+    return address;
+  }
+
+  /**
+   * The scan of one proxy server, as a timeout of the wheel (expiring at the
+   * end of the time given to the scan).
+   */
+  private final class Probe extends ProxyTimingWheel.Timeout {
+
+    private final Proxy proxy;
+
+    private final Selector selector;
+    private final ProxyTimingWheel wheel;
+    private final List<ProxyScanResult> completed;
+
+    /** Set by the resolver, before the probe is queued to connect. */
+    private InetSocketAddress address;
+    private IOException resolveFailure;
+
+    private SocketChannel channel;
+    private SelectionKey key;
+
+    private final ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer out;
+
+    /** The SOCKS5 handshake, or <code>null</code> for an HTTP proxy server. */
+    private Socks5Handshake socks5Handshake;
+
+    /** <code>True</code> once the tunnel is open and the sample is on its way. */
+    private boolean sampling;
+    private boolean finished;
+
+    private long start;
+    private long connectTime = -1;
+    private long authenticationTime = -1;
+    private long tunnelTime = -1;
+    private long sampleBytes;
+    private long sampleTime;
+
+    /** When the tunnel was asked for, and when the last message was sent. */
+    private long requestStart;
+    private long messageStart;
+    private boolean authenticating;
+
+    private ProxyProbeResult.Authentication authentication = ProxyProbeResult.Authentication.UNKNOWN;
+    private int statusCode;
+
+    Probe(final Proxy proxy, final Selector selector, final ProxyTimingWheel wheel, final List<ProxyScanResult> completed) {
+      this.proxy = proxy;
+      this.selector = selector;
+      this.wheel = wheel;
+      this.completed = completed;
+    }
+
+    void start(final ExecutorService resolver, final Queue<Probe> resolved) {
+
+      // the lookup is part of the time given to the scan
+      wheel.schedule(this, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+
+      if (proxy.isSecure()) {
+        finish(new IOException("secure proxy servers are not supported by the scan"));
+        return;
+      }
+
+      resolver.execute(new Runnable() {
+        public void run() {
+
+          try {
+            address = resolve(proxy);
+          } catch (IOException e) {
+            resolveFailure = e;
+          } catch (RuntimeException e) {
+            resolveFailure = new IOException(e.getMessage(), e);
+          }
+
+          resolved.add(Probe.this);
+          selector.wakeup();
+        }
+      });
+    }
+
+    /**
+     * Connects to the resolved address (back on the thread of the scan).
+     */
+    void connect() {
+
+      // timed out while resolving
+      if (finished) {
+        return;
+      }
+
+      if (resolveFailure != null) {
+        finish(resolveFailure);
+        return;
+      }
+
+      start = System.nanoTime();
+
+      try {
+
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+        boolean connected = channel.connect(address);
+
+        key = channel.register(selector, connected ? 0 : SelectionKey.OP_CONNECT, this);
+
+        if (connected) {
+          connected();
+        }
+      }
+
+      catch (IOException e) {
+        finish(e);
+      }
+
+      catch (RuntimeException e) {
+        finish(new IOException(e.getMessage(), e));
+      }
+    }
+
+    void handle(final SelectionKey key) {
+
+      try {
+
+        if (key.isConnectable()) {
+          if (channel.finishConnect()) {
+            connected();
+          }
+          return;
+        }
+
+        if (key.isWritable()) {
+          write();
+        }
+
+        if (key.isValid() && key.isReadable()) {
+          read();
+        }
+      }
+
+      catch (IOException e) {
+        finish(e);
+      }
+
+      // one bad entry of the list must not stop the whole scan
+      catch (RuntimeException e) {
+        finish(new IOException(e.getMessage(), e));
+      }
+    }
+
+    private void connected() throws IOException {
+
+      connectTime = System.nanoTime() - start;
+      requestStart = System.nanoTime();
+
+      if (proxy.getType() == ProxyType.SOCKS) {
+
+        if (proxy.isRequiringAuthentication()) {
+          socks5Handshake = new Socks5Handshake(targetHost, targetPort, proxy.getUsername(), proxy.getPassword());
+        } else {
+          socks5Handshake = new Socks5Handshake(targetHost, targetPort);
+        }
+
+        out = ByteBuffer.allocate(Socks5Handshake.MAX_MESSAGE_SIZE);
+        writeSocks5Message();
+      }
+
+      else {
+        out = ByteBuffer.wrap(new ProxyConnector(proxy).createConnectRequest(targetHost, targetPort).getBytes(HEADER_CHARSET));
+        key.interestOps(SelectionKey.OP_WRITE);
+      }
+    }
+
+    private void writeSocks5Message() {
+
+      out.clear();
+      socks5Handshake.write(out);
+      out.flip();
+
+      // the username/password sub-negotiation starts with its own version
+      authenticating = out.get(0) == 1;
+      messageStart = System.nanoTime();
+
+      key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    private void write() throws IOException {
+
+      channel.write(out);
+
+      if (!out.hasRemaining()) {
+        key.interestOps(SelectionKey.OP_READ);
+      }
+    }
+
+    private void read() throws IOException {
+
+      int read = channel.read(in);
+
+      if (sampling) {
+        readSample(read);
+        return;
+      }
+
+      if (read == -1) {
+        throw new EOFException("the proxy server closed the connection");
+      }
+
+      if (socks5Handshake != null) {
+        readSocks5();
+      } else {
+        readConnect();
+      }
+    }
+
+    private void readConnect() throws IOException {
+
+      int headerEnd = ProxyTunnel.findHeaderEnd(in);
+
+      if (headerEnd == -1) {
+
+        if (!in.hasRemaining()) {
+          throw new IOException("the answer of the proxy server is too large");
+        }
+
+        return;
+      }
+
+      ProxyTunnel.checkStatusCode(in);
+
+      authentication = proxy.isRequiringAuthentication() ? ProxyProbeResult.Authentication.ACCEPTED : ProxyProbeResult.Authentication.NOT_REQUIRED;
+
+      tunnelOpened(in.position() - headerEnd);
+    }
+
+    private void readSocks5() throws IOException {
+
+      in.flip();
+
+      try {
+
+        while (!socks5Handshake.isComplete() && !socks5Handshake.isWriting() && socks5Handshake.read(in)) {
+
+          if (authenticating) {
+            authenticationTime = System.nanoTime() - messageStart;
+            authentication = ProxyProbeResult.Authentication.ACCEPTED;
+            authenticating = false;
+          }
+        }
+      }
+
+      finally {
+        in.compact();
+      }
+
+      if (socks5Handshake.isComplete()) {
+
+        if (authentication == ProxyProbeResult.Authentication.UNKNOWN) {
+          authentication = ProxyProbeResult.Authentication.NOT_REQUIRED;
+        }
+
+        tunnelOpened(in.position());
+      }
+
+      else if (socks5Handshake.isWriting()) {
+        writeSocks5Message();
+      }
+    }
+
+    private void tunnelOpened(final int tunnelBytes) throws IOException {
+
+      tunnelTime = System.nanoTime() - requestStart - Math.max(0, authenticationTime);
+      statusCode = 200;
+
+      if (sampleRequest == null) {
+        finish(null);
+        return;
+      }
+
+      // anything after the answer is already part of the sample
+      sampleBytes = tunnelBytes;
+      in.clear();
+
+      sampling = true;
+      requestStart = System.nanoTime();
+
+      out = ByteBuffer.wrap(sampleRequest);
+      key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void readSample(final int read) throws IOException {
+
+      in.clear();
+
+      if (read == -1) {
+
+        if (sampleBytes == 0) {
+          throw new EOFException("the destination closed the connection before answering the sample request");
+        }
+
+        finish(null);
+        return;
+      }
+
+      sampleBytes += read;
+      sampleTime = System.nanoTime() - requestStart;
+
+      if (sampleBytes >= sampleSize) {
+        finish(null);
+      }
+
+      // the request written, only the answer left
+      else if (!out.hasRemaining()) {
+        key.interestOps(SelectionKey.OP_READ);
+      }
+    }
+
+    @Override
+    void expire() {
+
+      // a slow sample is still a sample
+      if (sampling && sampleBytes > 0) {
+        finish(null);
+      } else {
+        finish(new SocketTimeoutException("scan timed out after " + timeout + " ms"));
+      }
+    }
+
+    private void finish(final IOException failure) {
+
+      if (finished) {
+        return;
+      }
+
+      finished = true;
+
+      wheel.cancel(this);
+
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          // nothing to do, the result is known
+        }
+      }
+
+      if (failure instanceof ProxyResponseException) {
+        statusCode = ((ProxyResponseException) failure).getStatusCode();
+        authentication = ((ProxyResponseException) failure).isAuthenticationRequired() ? ProxyProbeResult.Authentication.REJECTED : ProxyProbeResult.Authentication.UNKNOWN;
+      }
+
+      completed.add(new ProxyScanResult(proxy, connectTime, authenticationTime, failure == null ? tunnelTime : -1, failure == null ? sampleBytes : 0, sampleTime, authentication, statusCode, failure));
+    }
+  }
+
+  /**
+   * Parses a proxy server from a line of a list:
+   * <code>[http://|socks://][username:password@]host:port</code>.
+   */
+  static Proxy parseProxy(final String line) {
+
+    String text = line.trim();
+    ProxyType type = ProxyType.HTTP;
+
+    int scheme = text.indexOf("://");
+
+    if (scheme != -1) {
+
+      String name = text.substring(0, scheme).toLowerCase(Locale.ROOT);
+
+      if (name.startsWith("socks")) {
+        type = ProxyType.SOCKS;
+      } else if (!name.equals("http")) {
+        throw new IllegalArgumentException("unsupported proxy server type: " + line);
+      }
+
+      text = text.substring(scheme + 3);
+    }
+
+    String username = null;
+    String password = null;
+
+    int at = text.lastIndexOf('@');
+
+    if (at != -1) {
+
+      String credentials = text.substring(0, at);
+      int colon = credentials.indexOf(':');
+
+      username = colon == -1 ? credentials : credentials.substring(0, colon);
+      password = colon == -1 ? "" : credentials.substring(colon + 1);
+
+      text = text.substring(at + 1);
+    }
+
+    int colon = text.lastIndexOf(':');
+
+    if (colon <= 0) {
+      throw new IllegalArgumentException("the port number is missing: " + line);
+    }
+
+    String host = text.substring(0, colon);
+
+    if (host.startsWith("[") && host.endsWith("]")) {
+      host = host.substring(1, host.length() - 1);
+    }
+
+    int port;
+
+    try {
+      port = Integer.parseInt(text.substring(colon + 1));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("bad port number: " + line);
+    }
+
+    Proxy proxy = username == null ? new Proxy(host, port) : new Proxy(host, port, username, password);
+    proxy.setType(type);
+
+    return proxy;
+  }
+
+  /**
+   * Scans the proxy servers of a file, printing the results as they come (with
+   * their rank so far), and the final ranking.
+   * 
+   * @param args
+   *          <code>[--target host:port] [--max-in-flight n] [--timeout millis] file</code>
+   * 
+   * @throws IOException
+   *           if the file cannot be read
+   */
+  public static void main(final String[] args) throws IOException {
+
+    String target = "www.google.com:443";
+    String file = null;
+
+    int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    long timeout = DEFAULT_TIMEOUT;
+
+    for (int i = 0; i < args.length; i++) {
+
+      if (args[i].equals("--target") && i + 1 < args.length) {
+        target = args[++i];
+      } else if (args[i].equals("--max-in-flight") && i + 1 < args.length) {
+        maxInFlight = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("--timeout") && i + 1 < args.length) {
+        timeout = Long.parseLong(args[++i]);
+      } else if (!args[i].startsWith("--") && file == null) {
+        file = args[i];
+      } else {
+        file = null;
+        break;
+      }
+    }
+
+    if (file == null || target.lastIndexOf(':') <= 0) {
+      System.err.println("usage: java jatoo.proxy.ProxyScanner [--target host:port] [--max-in-flight n] [--timeout millis] file");
+      System.exit(2);
+      return;
+    }
+
+    List<Proxy> proxies = new ArrayList<>();
+
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+
+      String line;
+      while ((line = reader.readLine()) != null) {
+
+        if (line.trim().isEmpty() || line.trim().startsWith("#")) {
+          continue;
+        }
+
+        try {
+          proxies.add(parseProxy(line));
+        } catch (IllegalArgumentException e) {
+          System.err.println("skipped: " + e.getMessage());
+        }
+      }
+    }
+
+    int colon = target.lastIndexOf(':');
+
+    ProxyScanner scanner = new ProxyScanner(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)));
+    scanner.setMaxInFlight(maxInFlight);
+    scanner.setTimeout(timeout);
+
+    final List<ProxyScanResult> ranking = new ArrayList<>();
+    final int total = proxies.size();
+
+    List<ProxyScanResult> results = scanner.scan(proxies, new ProxyScanListener() {
+      public void scanned(final ProxyScanResult result) {
+
+        int index = Collections.binarySearch(ranking, result);
+        if (index < 0) {
+          index = -index - 1;
+        }
+        ranking.add(index, result);
+
+        System.out.println("[" + ranking.size() + "/" + total + "] " + (result.isSuccessful() ? "#" + (index + 1) : "-") + " " + result);
+      }
+    });
+
+    System.out.println();
+
+    for (int i = 0; i < results.size(); i++) {
+      System.out.println((i + 1) + ". " + results.get(i));
+    }
+  }
+
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+
+/**
+ * Shared TLS state for the connections to the secure proxy servers (see
+ * {@link Proxy#isSecure()}). Each proxy server gets its own
+ * {@link SSLContext}, created once and reused by all the connections, so that
+ * its client session cache lets repeat connections resume the session instead
+ * of doing a full handshake.
+ * <p>
+ * The certificate of the proxy server is checked against the trust managers,
+ * and its name against the host of the proxy (as HTTPS does), so a trusted
+ * certificate issued for another host is refused.
+ * <p>
+ * A handshake is counted as resumed when the negotiated session was created
+ * before the handshake started, which is how resumption shows up with TLS 1.2
+ * and older. The handshakes are also counted by the {@link ProxyMetrics}, with
+ * the number of cached sessions, for every proxy server.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.2, October 19, 2026
+ */
+public final class ProxySslSessionCache {
+
+  /** The default number of sessions cached for each proxy server. */
+  public static final int DEFAULT_SESSION_CACHE_SIZE = 64;
+
+  /** The default time, in seconds, a cached session can be resumed. */
+  public static final int DEFAULT_SESSION_TIMEOUT = 3600;
+
+  /** The TLS state, by proxy server. */
+  private static final ConcurrentMap<String, Entry> ENTRIES = new ConcurrentHashMap<>();
+
+  /** The trust managers for new contexts (<code>null</code> for default). */
+  private static volatile TrustManager[] trustManagers;
+
+  /** The protocols to enable (<code>null</code> for default). */
+  private static volatile String[] enabledProtocols;
+
+  /** The number of sessions cached for each proxy server. */
+  private static volatile int sessionCacheSize = DEFAULT_SESSION_CACHE_SIZE;
+
+  /** The time, in seconds, a cached session can be resumed. */
+  private static volatile int sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+
+  /**
+   * Utility classes (classes that contain only static methods or fields in
+   * their API) do not have a public constructor.
+   */
+  private ProxySslSessionCache() {}
+
+  /**
+   * Layers TLS over a connection to the specified proxy server, and completes
+   * the handshake (resuming a cached session if possible).
+   * 
+   * @param socket
+   *          the (plain) connection to the proxy server
+   * @param proxy
+   *          the proxy server
+   * 
+   * @return the secured socket
+   * 
+   * @throws IOException
+   *           if the handshake fails (the certificate is not trusted, or not
+   *           issued for the host of the proxy server)
+   */
+  public static SSLSocket createSocket(final Socket socket, final Proxy proxy) throws IOException {
+
+    Entry entry = getEntry(proxy);
+
+    SSLSocket sslSocket = (SSLSocket) entry.context.getSocketFactory().createSocket(socket, proxy.getHost(), proxy.getPort(), true);
+
+    SSLParameters parameters = sslSocket.getSSLParameters();
+    parameters.setEndpointIdentificationAlgorithm("HTTPS");
+
+    String[] protocols = enabledProtocols;
+    if (protocols != null) {
+      parameters.setProtocols(protocols);
+    }
+
+    sslSocket.setSSLParameters(parameters);
+
+    long start = System.currentTimeMillis();
+
+    try {
+      sslSocket.startHandshake();
+    }
+
+    catch (IOException e) {
+      sslSocket.close();
+      throw e;
+    }
+
+    SSLSession session = sslSocket.getSession();
+
+    boolean resumed = session.getCreationTime() < start;
+
+    if (resumed) {
+      entry.resumedHandshakeCount.incrementAndGet();
+    } else {
+      entry.fullHandshakeCount.incrementAndGet();
+    }
+
+    ProxyMetrics.getDefault().tlsHandshaked(proxy, resumed);
+
+    return sslSocket;
+  }
+
+  /**
+   * Returns the TLS state for the specified proxy server, creating it if
+   * needed.
+   */
+  private static Entry getEntry(final Proxy proxy) throws IOException {
+
+    String key = key(proxy);
+    Entry entry = ENTRIES.get(key);
+
+    if (entry == null) {
+
+      SSLContext context;
+
+      try {
+        context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers, null);
+      } catch (GeneralSecurityException e) {
+        throw new IOException("failed to create the TLS context for " + key, e);
+      }
+
+      SSLSessionContext sessionContext = context.getClientSessionContext();
+      sessionContext.setSessionCacheSize(sessionCacheSize);
+      sessionContext.setSessionTimeout(sessionTimeout);
+
+      Entry newEntry = new Entry(context);
+
+      entry = ENTRIES.putIfAbsent(key, newEntry);
+      if (entry == null) {
+        entry = newEntry;
+      }
+    }
+
+    return entry;
+  }
+
+  /**
+   * Returns the number of full handshakes done with the specified proxy
+   * server.
+   * 
+   * @param proxy
+   *          the proxy server
+   * 
+   * @return the number of full handshakes
+   */
+  public static long getFullHandshakeCount(final Proxy proxy) {
+    Entry entry = ENTRIES.get(key(proxy));
+    return entry == null ? 0 : entry.fullHandshakeCount.get();
+  }
+
+  /**
+   * Returns the number of handshakes with the specified proxy server that
+   * resumed a cached session.
+   * 
+   * @param proxy
+   *          the proxy server
+   * 
+   * @return the number of resumed handshakes
+   */
+  public static long getResumedHandshakeCount(final Proxy proxy) {
+    Entry entry = ENTRIES.get(key(proxy));
+    return entry == null ? 0 : entry.resumedHandshakeCount.get();
+  }
+
+  /**
+   * Returns the number of sessions cached for the specified proxy server.
+   * 
+   * @param proxy
+   *          the proxy server
+   * 
+   * @return the number of cached sessions
+   */
+  public static int getCachedSessionCount(final Proxy proxy) {
+    return getCachedSessionCount(key(proxy));
+  }
+
+  /**
+   * Returns the number of sessions cached for the proxy server with the
+   * specified <code>host:port</code> (for the {@link ProxyMetrics}).
+   */
+  static int getCachedSessionCount(final String key) {
+    Entry entry = ENTRIES.get(key);
+    return entry == null ? 0 : Collections.list(entry.context.getClientSessionContext().getIds()).size();
+  }
+
+  /**
+   * Drops the cached sessions (and the counters) of the specified proxy
+   * server.
+   * 
+   * @param proxy
+   *          the proxy server
+   */
+  public static void invalidate(final Proxy proxy) {
+    ENTRIES.remove(key(proxy));
+  }
+
+  /**
+   * Sets the trust managers used to verify the certificates of the proxy
+   * servers. Only the proxy servers contacted afterwards (or invalidated) are
+   * affected.
+   * 
+   * @param trustManagers
+   *          the trust managers, or <code>null</code> to use the default ones
+   */
+  public static void setTrustManagers(final TrustManager[] trustManagers) {
+    ProxySslSessionCache.trustManagers = trustManagers;
+  }
+
+  /**
+   * Sets the protocols enabled on the connections to the proxy servers.
+   * 
+   * @param enabledProtocols
+   *          the protocols, or <code>null</code> to use the default ones
+   */
+  public static void setEnabledProtocols(final String... enabledProtocols) {
+    ProxySslSessionCache.enabledProtocols = enabledProtocols;
+  }
+
+  /**
+   * Sets the number of sessions cached for each proxy server. Only the proxy
+   * servers contacted afterwards (or invalidated) are affected.
+   * 
+   * @param sessionCacheSize
+   *          the number of sessions, or <code>0</code> for no limit
+   */
+  public static void setSessionCacheSize(final int sessionCacheSize) {
+    ProxySslSessionCache.sessionCacheSize = sessionCacheSize;
+  }
+
+  /**
+   * Sets the time a cached session can be resumed. Only the proxy servers
+   * contacted afterwards (or invalidated) are affected.
+   * 
+   * @param sessionTimeout
+   *          the time, in seconds, or <code>0</code> for no limit
+   */
+  public static void setSessionTimeout(final int sessionTimeout) {
+    ProxySslSessionCache.sessionTimeout = sessionTimeout;
+  }
+
+  /**
+   * Identifies the proxy server by host and port.
+   */
+  private static String key(final Proxy proxy) {
+    return proxy.getHost() + ":" + proxy.getPort();
+  }
+
+  /**
+   * The TLS state of a proxy server.
+   */
+  private static final class Entry {
+
+    private final SSLContext context;
+
+    private final AtomicLong fullHandshakeCount = new AtomicLong();
+    private final AtomicLong resumedHandshakeCount = new AtomicLong();
+
+    private Entry(final SSLContext context) {
+      this.context = context;
+    }
+  }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter spread over several cells (stripes), so that the threads adding
+ * to it concurrently do not contend on the same memory (the role of the
+ * <code>LongAdder</code> of later Java versions). Every thread adds to the
+ * cell chosen by its identifier, and the cells are padded to be on different
+ * cache lines. Reading the sum walks all the cells, so it is meant to be
+ * done rarely (when the metrics are collected), not on the hot path.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+final class ProxyStripedCounter {
+
+  /** The number of stripes (a power of two, covering all the processors). */
+  private static final int STRIPES = Math.min(64, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1);
+
+  /** The distance between two cells, in longs (a cache line of 64 bytes). */
+  private static final int PADDING = 8;
+
+  /** The cells, one every {@link #PADDING} elements. */
+  private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+  /**
+   * Adds to the counter.
+   * 
+   * @param value
+   *          the value to add
+   */
+  void add(final long value) {
+    cells.getAndAdd(stripe(), value);
+  }
+
+  /**
+   * Adds one to the counter.
+   */
+  void increment() {
+    cells.getAndIncrement(stripe());
+  }
+
+  /**
+   * @return the sum of all the cells (not an atomic snapshot, the concurrent
+   *         additions may or may not be included)
+   */
+  long sum() {
+
+    long sum = 0;
+
+    for (int i = 0; i < cells.length(); i += PADDING) {
+      sum += cells.get(i);
+    }
+
+    return sum;
+  }
+
+  /**
+   * Resets all the cells to <code>0</code> (the concurrent additions may or
+   * may not be lost).
+   */
+  void reset() {
+    for (int i = 0; i < cells.length(); i += PADDING) {
+      cells.set(i, 0);
+    }
+  }
+
+  /**
+   * The index of the cell of the current thread.
+   */
+  private static int stripe() {
+
+    // the identifiers of the threads are sequential, mixed so that the threads
+    // created together do not collide as soon as the stripes wrap around
+    long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+
+    return ((int) (id >>> 32) & (STRIPES - 1)) * PADDING;
+  }
+
+}
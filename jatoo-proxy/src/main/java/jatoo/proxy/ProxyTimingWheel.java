@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed hierarchical timing wheel, tracking the timeouts of the tunnels of
+ * an event loop: scheduling, rescheduling and cancelling are constant time
+ * (the timeouts are intrusive nodes of doubly linked lists, so they do not
+ * allocate either), and the expired timeouts are collected and then expired
+ * in a batch, every time the event loop advances the wheel.
+ * <p>
+ * The wheel has {@value #LEVELS} levels of {@value #SLOTS} slots. A slot of
+ * the first level covers one tick, a slot of the next level covers all the
+ * slots of the previous one, and so on. When the first level wraps around, the
+ * timeouts from the next slot of the second level are cascaded (spread again
+ * over the first level), and so on. The timeouts beyond the range of the
+ * wheel are kept in the last level, and cascaded until they are in range.
+ * <p>
+ * Not thread safe: the wheel belongs to the thread of the event loop.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+final class ProxyTimingWheel {
+
+  /** The number of levels. */
+  static final int LEVELS = 4;
+
+  /** The number of slots of a level (a power of two). */
+  static final int SLOTS = 64;
+
+  /** The number of bits of a slot index. */
+  private static final int SLOT_BITS = 6;
+
+  /** The mask of a slot index. */
+  private static final int SLOT_MASK = SLOTS - 1;
+
+  /** The duration of a tick, in nanoseconds. */
+  private final long tickDuration;
+
+  /** The slots of all the levels. */
+  private final Slot[][] levels = new Slot[LEVELS][SLOTS];
+
+  /** The timeouts expired by the current advance, not yet handled. */
+  private final Slot expired = new Slot();
+
+  /** The moment of the tick <code>0</code>. */
+  private final long origin;
+
+  /** The last tick the wheel advanced to. */
+  private long currentTick;
+
+  /** The number of scheduled timeouts. */
+  private int size;
+
+  /**
+   * Creates a new wheel.
+   * 
+   * @param tickDuration
+   *          the duration of a tick, in milliseconds (the precision of the
+   *          timeouts)
+   * @param now
+   *          the current time, in nanoseconds (as returned by
+   *          {@link System#nanoTime()})
+   */
+  ProxyTimingWheel(final long tickDuration, final long now) {
+
+    this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+    this.origin = now;
+
+    for (Slot[] level : levels) {
+      for (int i = 0; i < level.length; i++) {
+        level[i] = new Slot();
+      }
+    }
+  }
+
+  /**
+   * Schedules (or reschedules, if already scheduled) a timeout.
+   * 
+   * @param timeout
+   *          the timeout
+   * @param deadline
+   *          the moment the timeout expires, in nanoseconds (as returned by
+   *          {@link System#nanoTime()})
+   */
+  void schedule(final Timeout timeout, final long deadline) {
+
+    if (timeout.slot != null) {
+      cancel(timeout);
+    }
+
+    // rounded up, a timeout never expires early
+    long deadlineTick = (deadline - origin + tickDuration - 1) / tickDuration;
+
+    timeout.deadlineTick = Math.max(deadlineTick, currentTick + 1);
+
+    place(timeout);
+
+    size++;
+  }
+
+  /**
+   * Cancels a timeout, if scheduled.
+   * 
+   * @param timeout
+   *          the timeout
+   */
+  void cancel(final Timeout timeout) {
+
+    if (timeout.slot == null) {
+      return;
+    }
+
+    timeout.slot.remove(timeout);
+
+    size--;
+  }
+
+  /**
+   * Advances the wheel to the specified moment, and expires (in a batch) all
+   * the timeouts due until then.
+   * 
+   * @param now
+   *          the current time, in nanoseconds (as returned by
+   *          {@link System#nanoTime()})
+   * 
+   * @return the number of expired timeouts
+   */
+  int advance(final long now) {
+
+    long nowTick = (now - origin) / tickDuration;
+
+    if (size == 0) {
+      currentTick = Math.max(currentTick, nowTick);
+      return 0;
+    }
+
+    while (currentTick < nowTick) {
+
+      currentTick++;
+
+      // cascade the next slot of every level whose previous level wrapped
+      for (int level = 1; level < LEVELS; level++) {
+
+        if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+          break;
+        }
+
+        Slot slot = levels[level][(int) (currentTick >>> (SLOT_BITS * level)) & SLOT_MASK];
+
+        Timeout timeout;
+        while ((timeout = slot.head) != null) {
+          slot.remove(timeout);
+          place(timeout);
+        }
+      }
+
+      Slot slot = levels[0][(int) currentTick & SLOT_MASK];
+
+      Timeout timeout;
+      while ((timeout = slot.head) != null) {
+        slot.remove(timeout);
+        expired.add(timeout);
+      }
+    }
+
+    int count = 0;
+
+    // a timeout can cancel, or reschedule, other expired timeouts
+    Timeout timeout;
+    while ((timeout = expired.head) != null) {
+      expired.remove(timeout);
+      size--;
+      count++;
+      timeout.expire();
+    }
+
+    return count;
+  }
+
+  /**
+   * Places a timeout in the slot its deadline falls in, relative to the
+   * current tick.
+   */
+  private void place(final Timeout timeout) {
+
+    long ticks = timeout.deadlineTick - currentTick;
+
+    if (ticks <= 0) {
+      expired.add(timeout);
+      return;
+    }
+
+    for (int level = 0; level < LEVELS; level++) {
+      if (ticks < (1L << (SLOT_BITS * (level + 1)))) {
+        levels[level][(int) (timeout.deadlineTick >>> (SLOT_BITS * level)) & SLOT_MASK].add(timeout);
+        return;
+      }
+    }
+
+    // beyond the range, kept in the farthest slot and cascaded from there
+    long farthestTick = currentTick + (1L << (SLOT_BITS * LEVELS)) - 1;
+    levels[LEVELS - 1][(int) (farthestTick >>> (SLOT_BITS * (LEVELS - 1))) & SLOT_MASK].add(timeout);
+  }
+
+  /**
+   * @return the number of scheduled timeouts
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return the duration of a tick, in milliseconds
+   */
+  long getTickDuration() {
+    return TimeUnit.NANOSECONDS.toMillis(tickDuration);
+  }
+
+  /**
+   * A timeout: a node of the list of a slot, expired by the wheel.
+   */
+  abstract static class Timeout {
+
+    private long deadlineTick;
+
+    private Slot slot;
+    private Timeout previous;
+    private Timeout next;
+
+    /**
+     * Called when the timeout expires (on the thread advancing the wheel).
+     */
+    abstract void expire();
+
+    /**
+     * @return <code>true</code> if the timeout is scheduled
+     */
+    final boolean isScheduled() {
+      return slot != null;
+    }
+  }
+
+  /**
+   * A slot: a doubly linked list of timeouts.
+   */
+  private static final class Slot {
+
+    private Timeout head;
+
+    private void add(final Timeout timeout) {
+
+      timeout.slot = this;
+      timeout.previous = null;
+      timeout.next = head;
+
+      if (head != null) {
+        head.previous = timeout;
+      }
+
+      head = timeout;
+    }
+
+    private void remove(final Timeout timeout) {
+
+      if (timeout.previous != null) {
+        timeout.previous.next = timeout.next;
+      } else {
+        head = timeout.next;
+      }
+
+      if (timeout.next != null) {
+        timeout.next.previous = timeout.previous;
+      }
+
+      timeout.slot = null;
+      timeout.previous = null;
+      timeout.next = null;
+    }
+  }
+
+}
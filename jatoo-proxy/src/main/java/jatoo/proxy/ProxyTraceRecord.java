@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+/**
+ * A connection handled by a {@link ProxyForwarder}, as read back from a trace
+ * written by a {@link ProxyTraceRecorder}: when it arrived, how long the
+ * tunnel took to open and how long it lasted, the status sent to the client,
+ * and the bytes relayed in both directions (the payloads are never
+ * recorded). The times are in nanoseconds, with the precision of a
+ * microsecond.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public final class ProxyTraceRecord implements Comparable<ProxyTraceRecord> {
+
+  private final long arrival;
+  private final long setupTime;
+  private final long duration;
+  private final int statusCode;
+  private final long bytesToUpstream;
+  private final long bytesToClient;
+
+  ProxyTraceRecord(final long arrival, final long setupTime, final long duration, final int statusCode, final long bytesToUpstream, final long bytesToClient) {
+    this.arrival = arrival;
+    this.setupTime = setupTime;
+    this.duration = duration;
+    this.statusCode = statusCode;
+    this.bytesToUpstream = bytesToUpstream;
+    this.bytesToClient = bytesToClient;
+  }
+
+  /**
+   * @return when the connection was accepted, from the start of the trace
+   */
+  public long getArrival() {
+    return arrival;
+  }
+
+  /**
+   * @return the time from accepting the connection to the tunnel being
+   *         established, or <code>-1</code> if it was not
+   */
+  public long getSetupTime() {
+    return setupTime;
+  }
+
+  /**
+   * @return the time from accepting the connection to closing it
+   */
+  public long getDuration() {
+    return duration;
+  }
+
+  /**
+   * @return the status sent to the client, or <code>0</code> if none
+   */
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  /**
+   * @return the bytes relayed from the client to the upstream
+   */
+  public long getBytesToUpstream() {
+    return bytesToUpstream;
+  }
+
+  /**
+   * @return the bytes relayed from the upstream to the client
+   */
+  public long getBytesToClient() {
+    return bytesToClient;
+  }
+
+  /**
+   * Orders the records by arrival.
+   */
+  @Override
+  public int compareTo(final ProxyTraceRecord other) {
+    return Long.compare(arrival, other.arrival);
+  }
+
+  @Override
+  public String toString() {
+    return "+" + arrival / 1000 + "us setup " + (setupTime == -1 ? "-" : setupTime / 1000 + "us") + " duration " + duration / 1000 + "us " + statusCode + " " + bytesToUpstream + " " + bytesToClient;
+  }
+
+}
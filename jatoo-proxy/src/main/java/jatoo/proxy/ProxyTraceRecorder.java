@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the shape of the traffic handled by a {@link ProxyForwarder}, to be
+ * replayed later: for every connection, when it was accepted, how long the
+ * tunnel took to open and how long it lasted, the status sent to the client
+ * and the bytes relayed in both directions, but never the payloads, nor the
+ * addresses.
+ * <p>
+ * The trace is a compact binary file: a header (the magic
+ * <code>JPTR</code>, the version and the wall-clock start of the trace, in
+ * milliseconds), followed by a record for every connection, in the order
+ * they were closed, as variable length integers: the arrival (in
+ * microseconds, as a zig-zag delta from the arrival of the previous record),
+ * the setup time (in microseconds, plus one, <code>0</code> if the tunnel was
+ * not established), the duration (in microseconds), the status, and the
+ * bytes relayed to the upstream and to the client. A typical record takes
+ * about a dozen bytes.
+ * <p>
+ * As with the {@link ProxyAccessLog} (and through the same
+ * {@link ProxyRingWriter}), the event loops never wait for the disk: a
+ * connection is only recorded in a lock-free ring buffer, of preallocated
+ * entries, and written later by the thread of the recorder, in batches. If the ring buffer is full the record is dropped (and counted).
+ * 
+ * <pre>
+ * ProxyTraceRecorder recorder = new ProxyTraceRecorder(new File("traffic.trace"));
+ * recorder.start();
+ * forwarder.setTraceRecorder(recorder);
+ * ...
+ * recorder.close();
+ * List&lt;ProxyTraceRecord&gt; records = ProxyTraceRecorder.read(new File("traffic.trace"));
+ * </pre>
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.1, October 19, 2026
+ */
+public class ProxyTraceRecorder implements Closeable {
+
+  /** The default number of entries of the ring buffer. */
+  public static final int DEFAULT_CAPACITY = 8192;
+
+  /** The first bytes of a trace. */
+  private static final int MAGIC = 0x4A505452;
+
+  /** The version of the format. */
+  private static final int VERSION = 1;
+
+  /** The number of values of an entry. */
+  private static final int FIELDS = 6;
+
+  /** The longest record, as variable length integers. */
+  private static final int MAX_RECORD_SIZE = FIELDS * 10;
+
+  /** The file written. */
+  private final File file;
+
+  /** The values of the entries of the ring buffer, {@link #FIELDS} each. */
+  private final long[] values;
+
+  /** The ring buffer, and the thread of the recorder. */
+  private final ProxyRingWriter ring;
+
+  /** The start of the trace, in nanoseconds, once started. */
+  private volatile long origin;
+
+  /** The file channel (the thread of the recorder only). */
+  private FileChannel channel;
+
+  /**
+   * Creates a new recorder, with the default capacity.
+   * 
+   * @param file
+   *          the file to write (replaced)
+   */
+  public ProxyTraceRecorder(final File file) {
+    this(file, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a new recorder.
+   * 
+   * @param file
+   *          the file to write (replaced)
+   * @param capacity
+   *          the number of records the ring buffer holds (rounded up to a
+   *          power of two)
+   */
+  public ProxyTraceRecorder(final File file, final int capacity) {
+
+    if (capacity < 1 || capacity > 1 << 26) {
+      throw new IllegalArgumentException("the capacity must be between 1 and 2^26");
+    }
+
+    this.file = file;
+
+    ring = new ProxyRingWriter(capacity, false, MAX_RECORD_SIZE, new Writer());
+
+    values = new long[ring.getCapacity() * FIELDS];
+  }
+
+  /**
+   * Creates the file, writes the header, and starts the thread of the
+   * recorder. The trace starts now: the connections accepted before are
+   * recorded as arrived at the start.
+   * 
+   * @throws IOException
+   *           if the file cannot be created
+   */
+  public synchronized void start() throws IOException {
+
+    if (ring.isStartedOrClosed()) {
+      throw new IllegalStateException("the trace recorder is already started");
+    }
+
+    File parent = file.getAbsoluteFile().getParentFile();
+
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("cannot create the directory " + parent);
+    }
+
+    channel = new FileOutputStream(file).getChannel();
+
+    ByteBuffer header = ByteBuffer.allocate(16);
+    header.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).flip();
+
+    while (header.hasRemaining()) {
+      channel.write(header);
+    }
+
+    origin = System.nanoTime();
+
+    ring.start("jatoo-proxy-trace-recorder");
+  }
+
+  /**
+   * Writes the records still in the ring buffer, and closes the file. The
+   * connections recorded afterwards are dropped.
+   */
+  @Override
+  public void close() {
+    ring.close();
+  }
+
+  //
+  // recording (the event loops)
+
+  /**
+   * Records a connection, without blocking and without allocating.
+   * 
+   * @param acceptTime
+   *          when the connection was accepted, in nanoseconds
+   *          ({@link System#nanoTime()})
+   * @param establishTime
+   *          when the tunnel was established, or <code>0</code> if it was not
+   * @param closeTime
+   *          when the connection was closed
+   * @param status
+   *          the status sent to the client, or <code>0</code> if none
+   * @param bytesToUpstream
+   *          the bytes relayed from the client to the upstream
+   * @param bytesToClient
+   *          the bytes relayed from the upstream to the client
+   * 
+   * @return <code>false</code> if the record was dropped
+   */
+  boolean record(final long acceptTime, final long establishTime, final long closeTime, final int status, final long bytesToUpstream, final long bytesToClient) {
+
+    long position = ring.claim();
+
+    if (position < 0) {
+      return false;
+    }
+
+    int index = ring.slot(position) * FIELDS;
+
+    values[index] = acceptTime;
+    values[index + 1] = establishTime;
+    values[index + 2] = closeTime;
+    values[index + 3] = status;
+    values[index + 4] = bytesToUpstream;
+    values[index + 5] = bytesToClient;
+
+    ring.publish(position);
+
+    return true;
+  }
+
+  //
+  // writing (the thread of the recorder)
+
+  /**
+   * Writes a non negative value, 7 bits at a time, the lowest first.
+   */
+  private static void putVarLong(final ByteBuffer bytes, final long value) {
+
+    long remaining = value;
+
+    while ((remaining & ~0x7FL) != 0) {
+      bytes.put((byte) ((remaining & 0x7F) | 0x80));
+      remaining >>>= 7;
+    }
+
+    bytes.put((byte) remaining);
+  }
+
+  //
+  // reading
+
+  /**
+   * Reads a trace.
+   * 
+   * @param file
+   *          the trace
+   * 
+   * @return the records, ordered by arrival
+   * 
+   * @throws IOException
+   *           if the file cannot be read, or is not a trace
+   */
+  public static List<ProxyTraceRecord> read(final File file) throws IOException {
+    try (InputStream in = new FileInputStream(file)) {
+      return read(in);
+    }
+  }
+
+  /**
+   * Reads a trace.
+   * 
+   * @param stream
+   *          the trace (not closed)
+   * 
+   * @return the records, ordered by arrival
+   * 
+   * @throws IOException
+   *           if the stream cannot be read, or is not a trace
+   */
+  public static List<ProxyTraceRecord> read(final InputStream stream) throws IOException {
+
+    DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+
+    if (in.readInt() != MAGIC) {
+      throw new IOException("not a trace");
+    }
+
+    int version = in.readInt();
+
+    if (version != VERSION) {
+      throw new IOException("unsupported trace version: " + version);
+    }
+
+    // the wall-clock start, not needed to replay
+    in.readLong();
+
+    List<ProxyTraceRecord> records = new ArrayList<>();
+
+    long arrival = 0;
+
+    while (true) {
+
+      int first = in.read();
+
+      if (first == -1) {
+        break;
+      }
+
+      long zigzag = getVarLong(in, first);
+      arrival += (zigzag >>> 1) ^ -(zigzag & 1);
+
+      long setup = getVarLong(in, in.read());
+      long duration = getVarLong(in, in.read());
+      long status = getVarLong(in, in.read());
+      long bytesToUpstream = getVarLong(in, in.read());
+      long bytesToClient = getVarLong(in, in.read());
+
+      records.add(new ProxyTraceRecord(TimeUnit.MICROSECONDS.toNanos(arrival), setup == 0 ? -1 : TimeUnit.MICROSECONDS.toNanos(setup - 1), TimeUnit.MICROSECONDS.toNanos(duration), (int) status, bytesToUpstream, bytesToClient));
+    }
+
+    // closed, and so written, in a slightly different order than accepted
+    Collections.sort(records);
+
+    return records;
+  }
+
+  /**
+   * Reads a value written by {@link #putVarLong(ByteBuffer, long)}, of which
+   * the first byte is already read.
+   */
+  private static long getVarLong(final InputStream in, final int first) throws IOException {
+
+    long value = 0;
+    int b = first;
+
+    for (int shift = 0;; shift += 7) {
+
+      if (b == -1) {
+        throw new EOFException("truncated trace");
+      }
+
+      if (shift > 63) {
+        throw new IOException("malformed trace");
+      }
+
+      value |= (long) (b & 0x7F) << shift;
+
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+
+      b = in.read();
+    }
+  }
+
+  //
+  // state
+
+  /**
+   * @return the file written
+   */
+  public final File getFile() {
+    return file;
+  }
+
+  /**
+   * @return the number of records written
+   */
+  public final long getWrittenCount() {
+    return ring.getWrittenCount();
+  }
+
+  /**
+   * @return the number of records dropped because the ring buffer was full
+   *         (or the recorder closed)
+   */
+  public final long getDroppedCount() {
+    return ring.getDroppedCount();
+  }
+
+  /**
+   * @return the last failure writing the file, or <code>null</code>
+   */
+  public final IOException getLastFailure() {
+    return ring.getLastFailure();
+  }
+
+  /**
+   * Encodes the entries as records, and writes them to the file (the thread
+   * of the recorder only).
+   */
+  private final class Writer implements ProxyRingWriter.Output {
+
+    /** The arrival of the previous record, in microseconds. */
+    private long previousArrival;
+
+    @Override
+    public void encode(final int slot, final ByteBuffer bytes) {
+
+      int index = slot * FIELDS;
+
+      long arrival = TimeUnit.NANOSECONDS.toMicros(Math.max(0, values[index] - origin));
+      long delta = arrival - previousArrival;
+      previousArrival = arrival;
+
+      putVarLong(bytes, (delta << 1) ^ (delta >> 63));
+      putVarLong(bytes, values[index + 1] == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(Math.max(0, values[index + 1] - values[index])) + 1);
+      putVarLong(bytes, TimeUnit.NANOSECONDS.toMicros(Math.max(0, values[index + 2] - values[index])));
+      putVarLong(bytes, values[index + 3]);
+      putVarLong(bytes, values[index + 4]);
+      putVarLong(bytes, values[index + 5]);
+    }
+
+    @Override
+    public void write(final ByteBuffer bytes) throws IOException {
+      while (bytes.hasRemaining()) {
+        channel.write(bytes);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+}
@@ -0,0 +1,1101 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A tunnel handled by a {@link ProxyForwarder}: reads the <code>CONNECT</code>
+ * request of the client, opens the tunnel through the upstream proxy server
+ * (without blocking, so one event loop can drive many tunnels), and then
+ * relays the bytes in both directions.
+ * <p>
+ * Through an HTTP upstream, the tunnel can also be a stream of an
+ * {@link Http2Connection} shared with the other tunnels of the event loop
+ * (see {@link ProxyForwarder#setHttp2ConnectionCount(int)}), instead of a
+ * connection of its own: the connection then moves the bytes between the
+ * relay buffers and the proxy server, and calls back the tunnel.
+ * <p>
+ * Reading the request, connecting to the upstream and the handshake are
+ * limited in time, and so is the idle time while relaying. The idle timeout
+ * is tracked lazily: the activity only records the moment, and the timeout,
+ * once expired, is rescheduled if there was activity in the meantime.
+ * <p>
+ * Connecting, the handshake and the relaying are traced with
+ * {@link ProxyEvents}, if enabled, and every tunnel is written, once closed,
+ * to the {@link ProxyAccessLog} and to the {@link ProxyTraceRecorder} of the
+ * forwarder, if any.
+ * <p>
+ * All the methods are called from the thread of the event loop owning the
+ * tunnel.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.6, October 19, 2026
+ */
+final class ProxyTunnel {
+
+  /** The charset of the request line and of the headers. */
+  private static final Charset HEADER_CHARSET = Charset.forName("ISO-8859-1");
+
+  /** The answer sent to the client once the tunnel is established. */
+  private static final byte[] ESTABLISHED_RESPONSE = "HTTP/1.1 200 Connection established\r\n\r\n".getBytes(HEADER_CHARSET);
+
+  /**
+   * The states of the tunnel.
+   */
+  private enum State {
+    READING_REQUEST, CONNECTING, HANDSHAKING, RELAYING, CLOSING, CLOSED
+  }
+
+  /** The event loop owning the tunnel. */
+  private final ProxyForwarderLoop loop;
+
+  /** The connection from the client. */
+  private final SocketChannel client;
+
+  /** The pool the buffers are leased from. */
+  private final ProxyBufferPool bufferPool;
+
+  /** The forwarder the tunnel belongs to. */
+  private final ProxyForwarder forwarder;
+
+  /** The upstream configuration, once connecting (kept even if swapped). */
+  private ProxyUpstream upstreamConfig;
+
+  /** The connection to the upstream proxy server. */
+  private SocketChannel upstream;
+
+  /** The stream to the upstream proxy server, if multiplexed over HTTP/2. */
+  private Http2Connection.Stream stream;
+
+  private SelectionKey clientKey;
+  private SelectionKey upstreamKey;
+
+  /** The bytes read from the client, not yet written to the upstream. */
+  private final ByteBuffer clientToUpstream;
+
+  /** The bytes read from the upstream, not yet written to the client. */
+  private final ByteBuffer upstreamToClient;
+
+  /** The handshake message being sent to the upstream, if any. */
+  private ByteBuffer handshakeOut;
+
+  /** The answer being sent to the client, before anything else, if any. */
+  private ByteBuffer response;
+
+  /** The parser of the request, until the request is read. */
+  private ProxyRequestParser requestParser = new ProxyRequestParser();
+
+  /** The SOCKS5 handshake, if the upstream is a SOCKS proxy server. */
+  private Socks5Handshake socks5Handshake;
+
+  /** The destination requested by the client. */
+  private String host;
+  private int port;
+
+  private boolean clientEof;
+  private boolean upstreamEof;
+  private boolean clientOutputShutdown;
+  private boolean upstreamOutputShutdown;
+
+  private State state = State.READING_REQUEST;
+
+  /** The timeout of the current state. */
+  private final ProxyTimingWheel.Timeout timeout = new ProxyTimingWheel.Timeout() {
+    void expire() {
+
+      try {
+        timedOut();
+      }
+
+      // only this tunnel, the other timeouts of the loop still expire
+      catch (RuntimeException e) {
+        close();
+      }
+    }
+  };
+
+  /** The time, in nanoseconds, of the last relayed bytes. */
+  private long lastActivity;
+
+  /** The time, in nanoseconds, the connection to the upstream started. */
+  private long connectStart;
+
+  /** The time, in nanoseconds, the handshake with the upstream started. */
+  private long handshakeStart;
+
+  /** The time, in nanoseconds, the tunnel was established. */
+  private long establishTime;
+
+  /** The time, in nanoseconds, the connection was accepted. */
+  private long acceptTime;
+
+  /** The status sent to the client, or <code>0</code> if none yet. */
+  private int statusCode;
+
+  /** The number of bytes relayed, in both directions. */
+  private long relayedBytes;
+
+  /** The number of bytes relayed from the upstream to the client. */
+  private long relayedToClient;
+
+  /** The metrics the tunnel is recorded in. */
+  private final ProxyMetrics metrics = ProxyMetrics.getDefault();
+
+  /**
+   * Creates a new tunnel for an accepted connection.
+   */
+  ProxyTunnel(final ProxyForwarderLoop loop, final ProxyForwarder forwarder, final SocketChannel client) {
+
+    this.loop = loop;
+    this.forwarder = forwarder;
+    this.bufferPool = forwarder.getBufferPool();
+    this.client = client;
+    this.acceptTime = loop.now();
+
+    clientToUpstream = bufferPool.lease();
+    upstreamToClient = bufferPool.lease();
+  }
+
+  /**
+   * Registers the connection from the client with the selector of the event
+   * loop, and starts reading the request.
+   */
+  void register(final Selector selector) throws IOException {
+    client.configureBlocking(false);
+    client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    clientKey = client.register(selector, SelectionKey.OP_READ, this);
+
+    scheduleTimeout(forwarder.getHandshakeTimeout());
+  }
+
+  /**
+   * Handles the readiness of one of the two connections.
+   */
+  void handle(final SelectionKey key) {
+
+    lastActivity = loop.now();
+
+    try {
+
+      if (key == clientKey) {
+        handleClient(key);
+      } else {
+        handleUpstream(key);
+      }
+
+      if (state != State.CLOSED) {
+        updateInterestOps();
+      }
+    }
+
+    catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  private void handleClient(final SelectionKey key) throws IOException {
+
+    if (key.isValid() && key.isReadable()) {
+
+      if (client.read(clientToUpstream) == -1) {
+        clientEof = true;
+      }
+
+      if (state == State.READING_REQUEST) {
+
+        if (clientEof) {
+          close();
+          return;
+        }
+
+        readRequest();
+      }
+
+      else if (state == State.RELAYING) {
+        flushToUpstream();
+      }
+    }
+
+    if (key.isValid() && key.isWritable()) {
+      flushToClient();
+    }
+  }
+
+  private void handleUpstream(final SelectionKey key) throws IOException {
+
+    if (key.isValid() && key.isConnectable()) {
+      upstream.finishConnect();
+      connected();
+      startHandshake();
+    }
+
+    if (key.isValid() && key.isWritable()) {
+
+      if (state == State.HANDSHAKING) {
+
+        upstream.write(handshakeOut);
+
+        if (!handshakeOut.hasRemaining()) {
+          handshakeOut = null;
+        }
+      }
+
+      else {
+        flushToUpstream();
+      }
+    }
+
+    if (key.isValid() && key.isReadable()) {
+
+      if (upstream.read(upstreamToClient) == -1) {
+
+        if (state == State.HANDSHAKING) {
+          throw new IOException("the proxy server closed the connection");
+        }
+
+        upstreamEof = true;
+      }
+
+      if (state == State.HANDSHAKING) {
+        readHandshake();
+      } else {
+        flushToClient();
+      }
+    }
+  }
+
+  /**
+   * Parses the request received so far, and once complete, starts connecting
+   * to the upstream. Any bytes following the header are kept, to be relayed
+   * once the tunnel is established.
+   */
+  private void readRequest() throws IOException {
+
+    boolean complete;
+
+    try {
+      complete = requestParser.parse(clientToUpstream);
+    } catch (IOException e) {
+      reject(400, "Bad Request");
+      return;
+    }
+
+    if (!complete) {
+
+      if (!clientToUpstream.hasRemaining()) {
+        reject(431, "Request Header Fields Too Large");
+      }
+
+      return;
+    }
+
+    if (!requestParser.isMethod(clientToUpstream, "CONNECT")) {
+      reject(405, "Method Not Allowed");
+      return;
+    }
+
+    if (requestParser.getPort() == -1) {
+      reject(400, "Bad Request");
+      return;
+    }
+
+    host = requestParser.getHost(clientToUpstream);
+    port = requestParser.getPort();
+
+    consume(clientToUpstream, requestParser.getHeaderEnd());
+    requestParser = null;
+
+    connect();
+  }
+
+  /**
+   * Starts connecting to the upstream, if the limits from
+   * {@link ProxyRateLimits} allow it (without waiting, since the event loop
+   * cannot block), or starts the handshake right away over a spare connection.
+   */
+  private void connect() throws IOException {
+
+    upstreamConfig = forwarder.pinUpstream();
+
+    ProxyConnector connector = upstreamConfig.getConnector();
+
+    ProxyRateLimiter connectionLimiter = ProxyRateLimits.getConnectionLimiter(connector.getProxy());
+    ProxyRateLimiter requestLimiter = ProxyRateLimits.getRequestLimiter(connector.getProxy());
+
+    if (requestLimiter != null && !requestLimiter.tryAcquire()) {
+      reject(503, "Service Unavailable");
+      return;
+    }
+
+    if (upstreamConfig.getHttp2ConnectionCount() > 0) {
+      openStream();
+      return;
+    }
+
+    // a spare was counted by the connection limiter when it was opened
+    SocketChannel spare = upstreamConfig.takeSpareConnection();
+
+    if (spare != null) {
+
+      upstream = spare;
+      upstream.configureBlocking(false);
+
+      upstreamKey = upstream.register(clientKey.selector(), 0, this);
+
+      connectStart = loop.now();
+      startHandshake();
+
+      return;
+    }
+
+    if (connectionLimiter != null && !connectionLimiter.tryAcquire()) {
+      reject(503, "Service Unavailable");
+      return;
+    }
+
+    state = State.CONNECTING;
+    scheduleTimeout(connector.getConnectTimeout());
+
+    upstream = SocketChannel.open();
+    upstream.configureBlocking(false);
+    upstream.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+    upstreamKey = upstream.register(clientKey.selector(), SelectionKey.OP_CONNECT, this);
+
+    connectStart = loop.now();
+
+    if (upstream.connect(upstreamConfig.getAddress())) {
+      connected();
+      startHandshake();
+    }
+  }
+
+  /**
+   * Opens a stream over one of the HTTP/2 connections of the event loop (the
+   * loop applies the connection limiter, only when opening a new connection).
+   * Connecting, if the connection is new, and the handshake are limited
+   * together by the handshake timeout.
+   */
+  private void openStream() throws IOException {
+
+    connectStart = loop.now();
+    handshakeStart = connectStart;
+
+    // before the stream exists, a connection failing right away fails it
+    state = State.HANDSHAKING;
+    scheduleTimeout(forwarder.getHandshakeTimeout());
+
+    stream = loop.openStream(upstreamConfig, this, host, port);
+
+    if (stream == null) {
+      reject(503, "Service Unavailable");
+    }
+  }
+
+  /**
+   * Called by the stream once the upstream accepted the tunnel.
+   */
+  void streamEstablished() {
+
+    try {
+      establish();
+      updateInterestOps();
+    }
+
+    catch (IOException e) {
+      fail(e);
+    }
+
+    catch (RuntimeException e) {
+      close();
+    }
+  }
+
+  /**
+   * Called by the stream with the bytes received from the upstream (never
+   * more than the window announced, the room left in the relay buffer).
+   */
+  void streamData(final ByteBuffer data) {
+
+    lastActivity = loop.now();
+
+    try {
+
+      if (data.remaining() > upstreamToClient.remaining()) {
+        throw new IOException("the proxy server exceeded the window of the stream");
+      }
+
+      upstreamToClient.put(data);
+
+      flushToClient();
+
+      if (state != State.CLOSED) {
+        updateInterestOps();
+      }
+    }
+
+    catch (IOException e) {
+      fail(e);
+    }
+
+    catch (RuntimeException e) {
+      close();
+    }
+  }
+
+  /**
+   * Called by the stream once the upstream ended it (the equivalent of its
+   * connection shut down for output).
+   */
+  void streamEnded() {
+
+    upstreamEof = true;
+
+    try {
+
+      flushToClient();
+
+      if (state != State.CLOSED) {
+        updateInterestOps();
+      }
+    }
+
+    catch (IOException e) {
+      fail(e);
+    }
+
+    catch (RuntimeException e) {
+      close();
+    }
+  }
+
+  /**
+   * Called by the stream once the upstream gave more room to send.
+   */
+  void streamWritable() {
+
+    try {
+
+      flushToUpstream();
+
+      if (state != State.CLOSED) {
+        updateInterestOps();
+      }
+    }
+
+    catch (IOException e) {
+      fail(e);
+    }
+
+    catch (RuntimeException e) {
+      close();
+    }
+  }
+
+  /**
+   * Called by the stream once the upstream, done answering, no longer wants
+   * the bytes of the client (they are dropped from now on).
+   */
+  void streamStopped() {
+
+    upstreamOutputShutdown = true;
+    clientToUpstream.clear();
+
+    closeIfDone();
+  }
+
+  /**
+   * Called by the stream if it failed (or if the connection did): a
+   * connection not made in time is answered as any other timeout.
+   */
+  void streamFailed(final IOException e) {
+
+    if (e instanceof SocketTimeoutException && state == State.HANDSHAKING) {
+      timedOut();
+    } else {
+      fail(e);
+    }
+  }
+
+  /**
+   * Records the new connection to the upstream.
+   */
+  private void connected() {
+
+    Proxy proxy = upstreamConfig.getConnector().getProxy();
+
+    metrics.connected(proxy, loop.now() - connectStart);
+
+    if (ProxyEvents.isEnabled()) {
+      ProxyEvents.emit(ProxyEvent.Type.CONNECTION, proxy, host, port, connectStart, null, 0);
+    }
+  }
+
+  /**
+   * Prepares the first handshake message for the upstream (a destination
+   * SOCKS5 cannot carry fails the handshake, answered with a 502).
+   */
+  private void startHandshake() throws IOException {
+
+    ProxyConnector connector = upstreamConfig.getConnector();
+
+    handshakeStart = loop.now();
+
+    state = State.HANDSHAKING;
+    scheduleTimeout(forwarder.getHandshakeTimeout());
+
+    if (connector.getProxy().getType() == ProxyType.SOCKS) {
+
+      if (connector.getProxy().isRequiringAuthentication()) {
+        socks5Handshake = new Socks5Handshake(host, port, connector.getProxy().getUsername(), connector.getProxy().getPassword());
+      } else {
+        socks5Handshake = new Socks5Handshake(host, port);
+      }
+
+      handshakeOut = ByteBuffer.allocate(Socks5Handshake.MAX_MESSAGE_SIZE);
+      socks5Handshake.write(handshakeOut);
+      handshakeOut.flip();
+    }
+
+    else {
+      handshakeOut = ByteBuffer.wrap(connector.createConnectRequest(host, port).getBytes(HEADER_CHARSET));
+    }
+  }
+
+  /**
+   * Processes what the upstream answered so far to the handshake.
+   */
+  private void readHandshake() throws IOException {
+
+    if (socks5Handshake != null) {
+
+      upstreamToClient.flip();
+      boolean consumed = socks5Handshake.read(upstreamToClient);
+      upstreamToClient.compact();
+
+      if (socks5Handshake.isComplete()) {
+        establish();
+      }
+
+      else if (consumed && socks5Handshake.isWriting()) {
+        handshakeOut.clear();
+        socks5Handshake.write(handshakeOut);
+        handshakeOut.flip();
+      }
+    }
+
+    else {
+
+      int headerEnd = findHeaderEnd(upstreamToClient);
+
+      if (headerEnd == -1) {
+
+        if (!upstreamToClient.hasRemaining()) {
+          throw new IOException("the response headers are too large");
+        }
+
+        return;
+      }
+
+      checkStatusCode(upstreamToClient);
+
+      consume(upstreamToClient, headerEnd);
+
+      establish();
+    }
+  }
+
+  /**
+   * Answers the client that the tunnel is established, and starts relaying.
+   */
+  private void establish() throws IOException {
+
+    metrics.handshakeSucceeded(upstreamConfig.getConnector().getProxy());
+
+    if (ProxyEvents.isEnabled()) {
+      ProxyEvents.emit(ProxyEvent.Type.PROXY_HANDSHAKE, upstreamConfig.getConnector().getProxy(), host, port, handshakeStart, null, 0);
+    }
+
+    establishTime = loop.now();
+
+    state = State.RELAYING;
+    statusCode = 200;
+    response = ByteBuffer.wrap(ESTABLISHED_RESPONSE);
+
+    lastActivity = loop.now();
+
+    if (forwarder.getIdleTimeout() > 0) {
+      scheduleTimeout(forwarder.getIdleTimeout());
+    } else {
+      loop.getTimingWheel().cancel(timeout);
+    }
+
+    flushToClient();
+    flushToUpstream();
+  }
+
+  /**
+   * Writes to the client the pending answer, if any, and then the bytes from
+   * the upstream.
+   */
+  private void flushToClient() throws IOException {
+
+    if (response != null) {
+
+      client.write(response);
+
+      if (response.hasRemaining()) {
+        return;
+      }
+
+      response = null;
+
+      if (state == State.CLOSING) {
+        close();
+        return;
+      }
+    }
+
+    if (state != State.RELAYING) {
+      return;
+    }
+
+    int bytes = flush(upstreamToClient, client);
+    relayedToClient += bytes;
+    relayed(bytes);
+
+    if (stream != null && bytes > 0) {
+      stream.consumed(bytes);
+    }
+
+    if (upstreamEof && upstreamToClient.position() == 0 && !clientOutputShutdown) {
+      client.shutdownOutput();
+      clientOutputShutdown = true;
+      closeIfDone();
+    }
+  }
+
+  /**
+   * Writes to the upstream the bytes from the client.
+   */
+  private void flushToUpstream() throws IOException {
+
+    if (state != State.RELAYING) {
+      return;
+    }
+
+    if (stream != null) {
+
+      relayed(stream.send(clientToUpstream));
+
+      if (clientEof && clientToUpstream.position() == 0 && !upstreamOutputShutdown) {
+        stream.end();
+        upstreamOutputShutdown = true;
+        closeIfDone();
+      }
+
+      return;
+    }
+
+    relayed(flush(clientToUpstream, upstream));
+
+    if (clientEof && clientToUpstream.position() == 0 && !upstreamOutputShutdown) {
+      upstream.shutdownOutput();
+      upstreamOutputShutdown = true;
+      closeIfDone();
+    }
+  }
+
+  /**
+   * Counts the relayed bytes.
+   */
+  private void relayed(final int bytes) {
+    relayedBytes += bytes;
+    metrics.relayed(bytes);
+  }
+
+  /**
+   * Writes as much as possible from the buffer (kept in fill mode) to the
+   * channel, and returns the number of bytes written.
+   */
+  private static int flush(final ByteBuffer buffer, final SocketChannel channel) throws IOException {
+
+    if (buffer.position() == 0) {
+      return 0;
+    }
+
+    buffer.flip();
+
+    try {
+      return channel.write(buffer);
+    } finally {
+      buffer.compact();
+    }
+  }
+
+  /**
+   * Closes the tunnel once both directions are finished.
+   */
+  private void closeIfDone() {
+    if (clientOutputShutdown && upstreamOutputShutdown) {
+      close();
+    }
+  }
+
+  /**
+   * Sets the interest of both connections, according to the state of the
+   * tunnel and to the room left in the buffers.
+   */
+  private void updateInterestOps() {
+
+    int clientOps = 0;
+    int upstreamOps = 0;
+
+    switch (state) {
+
+      case READING_REQUEST:
+        clientOps = SelectionKey.OP_READ;
+        break;
+
+      case CONNECTING:
+        upstreamOps = SelectionKey.OP_CONNECT;
+        break;
+
+      case HANDSHAKING:
+        upstreamOps = handshakeOut != null ? SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+        break;
+
+      case RELAYING:
+        if (!clientEof && clientToUpstream.hasRemaining()) {
+          clientOps |= SelectionKey.OP_READ;
+        }
+        if (response != null || upstreamToClient.position() > 0) {
+          clientOps |= SelectionKey.OP_WRITE;
+        }
+        if (!upstreamEof && upstreamToClient.hasRemaining()) {
+          upstreamOps |= SelectionKey.OP_READ;
+        }
+        if (clientToUpstream.position() > 0) {
+          upstreamOps |= SelectionKey.OP_WRITE;
+        }
+        break;
+
+      case CLOSING:
+        clientOps = SelectionKey.OP_WRITE;
+        break;
+
+      default:
+        return;
+    }
+
+    if (clientKey.isValid()) {
+      clientKey.interestOps(clientOps);
+    }
+
+    if (upstreamKey != null && upstreamKey.isValid()) {
+      upstreamKey.interestOps(upstreamOps);
+    }
+  }
+
+  /**
+   * Answers the client with an error, and closes the tunnel afterwards.
+   */
+  private void reject(final int statusCode, final String reasonPhrase) throws IOException {
+
+    state = State.CLOSING;
+    this.statusCode = statusCode;
+    scheduleTimeout(forwarder.getHandshakeTimeout());
+    response = ByteBuffer.wrap(("HTTP/1.1 " + statusCode + " " + reasonPhrase + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes(HEADER_CHARSET));
+
+    closeQuietly(upstream);
+
+    if (stream != null) {
+      stream.close();
+    }
+
+    flushToClient();
+  }
+
+  /**
+   * Handles a failure: if the client did not get an answer yet, it is told
+   * that the upstream failed, otherwise the tunnel is simply closed.
+   */
+  private void fail(final IOException e) {
+
+    if (e instanceof ProxyResponseException) {
+      metrics.handshakeRefused(upstreamConfig.getConnector().getProxy(), (ProxyResponseException) e);
+    }
+
+    if (state == State.CONNECTING || state == State.HANDSHAKING) {
+
+      setupFailed(ProxyEvents.describe(e));
+
+      try {
+        reject(502, "Bad Gateway");
+        updateInterestOps();
+        return;
+      }
+
+      catch (IOException e2) {
+        // nothing to do, the tunnel is closed below
+      }
+    }
+
+    close();
+  }
+
+  /**
+   * Schedules the timeout of the current state.
+   */
+  private void scheduleTimeout(final long duration) {
+    loop.getTimingWheel().schedule(timeout, loop.now() + TimeUnit.MILLISECONDS.toNanos(duration));
+  }
+
+  /**
+   * Handles the expired timeout of the current state: an idle tunnel is
+   * closed (unless there was activity since the timeout was scheduled), the
+   * client waiting for the upstream is told that the upstream timed out, and
+   * any other tunnel is closed.
+   */
+  private void timedOut() {
+
+    if (state == State.RELAYING) {
+
+      long idleDeadline = lastActivity + TimeUnit.MILLISECONDS.toNanos(forwarder.getIdleTimeout());
+
+      if (idleDeadline > loop.now()) {
+        loop.getTimingWheel().schedule(timeout, idleDeadline);
+        return;
+      }
+    }
+
+    loop.tunnelTimedOut(this);
+
+    if (state == State.CONNECTING || state == State.HANDSHAKING) {
+
+      setupFailed("timed out");
+
+      try {
+        reject(504, "Gateway Timeout");
+        updateInterestOps();
+        return;
+      }
+
+      catch (IOException e) {
+        // nothing to do, the tunnel is closed below
+      }
+    }
+
+    close();
+  }
+
+  /**
+   * Emits the event of the phase that failed, connecting or the handshake, if
+   * enabled.
+   */
+  private void setupFailed(final String failure) {
+
+    if (!ProxyEvents.isEnabled()) {
+      return;
+    }
+
+    if (state == State.CONNECTING) {
+      ProxyEvents.emit(ProxyEvent.Type.CONNECTION, upstreamConfig.getConnector().getProxy(), host, port, connectStart, failure, 0);
+    } else {
+      ProxyEvents.emit(ProxyEvent.Type.PROXY_HANDSHAKE, upstreamConfig.getConnector().getProxy(), host, port, handshakeStart, failure, 0);
+    }
+  }
+
+  /**
+   * Closes both connections, and returns the buffers to the pool.
+   */
+  void close() {
+
+    if (state == State.CLOSED) {
+      return;
+    }
+
+    if (state == State.RELAYING && ProxyEvents.isEnabled()) {
+      ProxyEvents.emit(ProxyEvent.Type.TUNNEL, upstreamConfig.getConnector().getProxy(), host, port, establishTime, null, relayedBytes);
+    }
+
+    state = State.CLOSED;
+
+    loop.getTimingWheel().cancel(timeout);
+
+    ProxyAccessLog accessLog = forwarder.getAccessLog();
+
+    if (accessLog != null) {
+      logAccess(accessLog);
+    }
+
+    ProxyTraceRecorder traceRecorder = forwarder.getTraceRecorder();
+
+    if (traceRecorder != null) {
+      traceRecorder.record(acceptTime, establishTime, loop.now(), statusCode, relayedBytes - relayedToClient, relayedToClient);
+    }
+
+    closeQuietly(client);
+    closeQuietly(upstream);
+
+    if (stream != null) {
+      stream.close();
+    }
+
+    bufferPool.release(clientToUpstream);
+    bufferPool.release(upstreamToClient);
+
+    if (upstreamConfig != null) {
+      upstreamConfig.tunnelClosed();
+    }
+
+    loop.tunnelClosed(this);
+  }
+
+  /**
+   * Writes the tunnel to the access log (before the client connection is
+   * closed, while its address is still available).
+   */
+  private void logAccess(final ProxyAccessLog accessLog) {
+
+    InetSocketAddress clientAddress;
+
+    try {
+      clientAddress = (InetSocketAddress) client.getRemoteAddress();
+    } catch (IOException e) {
+      clientAddress = null;
+    }
+
+    Proxy proxy = upstreamConfig == null ? null : upstreamConfig.getConnector().getProxy();
+
+    accessLog.log(clientAddress, proxy, host, port, statusCode, relayedBytes - relayedToClient, relayedToClient, loop.now() - acceptTime);
+  }
+
+  /**
+   * @return the upstream configuration, or <code>null</code> if not
+   *         connecting yet
+   */
+  ProxyUpstream getUpstream() {
+    return upstreamConfig;
+  }
+
+  /**
+   * @return <code>true</code> if the tunnel is closed
+   */
+  boolean isClosed() {
+    return state == State.CLOSED;
+  }
+
+  /**
+   * Finds the end of the header (the position after the empty line) in the
+   * bytes read so far, or returns <code>-1</code>.
+   */
+  static int findHeaderEnd(final ByteBuffer buffer) {
+
+    for (int i = 3; i < buffer.position(); i++) {
+      if (buffer.get(i) == '\n' && buffer.get(i - 1) == '\r' && buffer.get(i - 2) == '\n' && buffer.get(i - 3) == '\r') {
+        return i + 1;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Checks, without creating any object unless it fails, that the status line
+   * at the beginning of the buffer (for example
+   * <code>HTTP/1.1 200 Connection established</code>) has the code 200.
+   */
+  static void checkStatusCode(final ByteBuffer buffer) throws IOException {
+
+    int lineEnd = 0;
+    while (buffer.get(lineEnd) != '\r') {
+      lineEnd++;
+    }
+
+    int space = 0;
+    while (space < lineEnd && buffer.get(space) != ' ') {
+      space++;
+    }
+
+    int statusCode = 0;
+
+    for (int i = space + 1; i < space + 4 && i < lineEnd; i++) {
+
+      byte b = buffer.get(i);
+
+      if (b < '0' || b > '9') {
+        statusCode = -1;
+        break;
+      }
+
+      statusCode = statusCode * 10 + (b - '0');
+    }
+
+    if (statusCode == 200 && buffer.get(0) == 'H' && (space + 4 == lineEnd || buffer.get(space + 4) == ' ')) {
+      return;
+    }
+
+    byte[] statusLine = new byte[lineEnd];
+    for (int i = 0; i < lineEnd; i++) {
+      statusLine[i] = buffer.get(i);
+    }
+
+    if (statusCode < 100 || space + 4 > lineEnd || buffer.get(0) != 'H') {
+      throw new IOException("malformed status line: " + new String(statusLine, HEADER_CHARSET));
+    }
+
+    throw new ProxyResponseException(statusCode, new String(statusLine, HEADER_CHARSET));
+  }
+
+  /**
+   * Discards the first bytes from the buffer (kept in fill mode).
+   */
+  private static void consume(final ByteBuffer buffer, final int length) {
+    buffer.flip();
+    buffer.position(length);
+    buffer.compact();
+  }
+
+  /**
+   * Closes the specified channel, ignoring any error.
+   */
+  private static void closeQuietly(final SocketChannel channel) {
+
+    if (channel == null) {
+      return;
+    }
+
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // nothing to do, the tunnel is discarded anyway
+    }
+  }
+
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An upstream configuration of a {@link ProxyForwarder}: the connector and
+ * the resolved address of the upstream proxy server, together with the
+ * number of tunnels still using them. Every tunnel keeps the configuration it
+ * connected with, so swapping the configuration affects only the new tunnels,
+ * and the old configuration can be drained.
+ * <p>
+ * The tunnels are counted without a lock (the event loops open and close
+ * them concurrently): a tunnel {@link #tryOpenTunnel() opens} only until the
+ * configuration is {@link #retire() retired}, so once retired the count can
+ * only go down, and the drain is signalled when it reaches zero.
+ * <p>
+ * The configuration can also keep spare connections to the upstream proxy
+ * server, opened ahead (in the background, since the event loops cannot
+ * block) in a {@link ProxyConnectionPool}, so a new tunnel can skip the
+ * connection setup. A tunnel keeps its connection, so every spare taken is
+ * replaced. Or, through an HTTP proxy server, the tunnels can share a few
+ * {@link Http2Connection}s instead (no spares are needed then).
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.3, October 19, 2026
+ */
+final class ProxyUpstream {
+
+  /** Opens the spare connections, one task per configuration at most. */
+  private static final ExecutorService SPARE_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+    public Thread newThread(final Runnable runnable) {
+      Thread thread = new Thread(runnable, "jatoo-proxy-forwarder-spares");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  /** The connector of the upstream proxy server. */
+  private final ProxyConnector connector;
+
+  /** The resolved address of the upstream proxy server. */
+  private final InetSocketAddress address;
+
+  /** The spare connections, or <code>null</code> if none are kept. */
+  private final ProxyConnectionPool spareConnections;
+
+  /** The number of HTTP/2 connections of each event loop (0 for none). */
+  private final int http2ConnectionCount;
+
+  /** <code>True</code> while the spare connections are being opened. */
+  private final AtomicBoolean filling = new AtomicBoolean();
+
+  /** Set in {@link #tunnelState} once the configuration is retired. */
+  private static final int RETIRED = Integer.MIN_VALUE;
+
+  /** The number of tunnels using the configuration, and the retired flag. */
+  private final AtomicInteger tunnelState = new AtomicInteger();
+
+  /** Released once retired and no tunnel uses the configuration. */
+  private final CountDownLatch drained = new CountDownLatch(1);
+
+  /** The number of tunnels closed because the drain timed out. */
+  private final AtomicInteger closedCount = new AtomicInteger();
+
+  /**
+   * Creates a new configuration, resolving the address of the upstream proxy
+   * server.
+   * 
+   * @param spareConnectionCount
+   *          the number of spare connections to keep (<code>0</code> for none)
+   * @param spareConnectionIdleTime
+   *          the time, in milliseconds, a spare connection can stay unused
+   * @param http2ConnectionCount
+   *          the number of HTTP/2 connections of each event loop the tunnels
+   *          are multiplexed over (<code>0</code> for a connection per tunnel,
+   *          always for a SOCKS proxy server)
+   */
+  ProxyUpstream(final ProxyConnector connector, final int spareConnectionCount, final long spareConnectionIdleTime, final int http2ConnectionCount) {
+
+    long start = System.nanoTime();
+
+    this.connector = connector;
+    this.address = new InetSocketAddress(connector.getProxy().getHost(), connector.getProxy().getPort());
+    this.http2ConnectionCount = connector.getProxy().getType() == ProxyType.HTTP ? http2ConnectionCount : 0;
+    this.spareConnections = spareConnectionCount > 0 && this.http2ConnectionCount == 0 ? new ProxyConnectionPool(connector, spareConnectionCount, spareConnectionIdleTime) : null;
+
+    if (ProxyEvents.isEnabled()) {
+      ProxyEvents.emit(ProxyEvent.Type.RESOLUTION, connector.getProxy(), null, 0, start, address.isUnresolved() ? "unresolved address" : null, 0);
+    }
+  }
+
+  ProxyConnector getConnector() {
+    return connector;
+  }
+
+  InetSocketAddress getAddress() {
+    return address;
+  }
+
+  int getHttp2ConnectionCount() {
+    return http2ConnectionCount;
+  }
+
+  /**
+   * Takes a spare connection, if there is one ready (validated, without
+   * blocking), and starts opening its replacement.
+   * 
+   * @return the connection, owned by the caller from now on, or
+   *         <code>null</code>
+   */
+  SocketChannel takeSpareConnection() {
+
+    if (spareConnections == null) {
+      return null;
+    }
+
+    Socket socket = spareConnections.pollIdle();
+
+    fillSpareConnections();
+
+    return socket == null ? null : socket.getChannel();
+  }
+
+  /**
+   * Opens, in the background, the missing spare connections (if not already
+   * opening them).
+   */
+  void fillSpareConnections() {
+
+    if (spareConnections == null || !filling.compareAndSet(false, true)) {
+      return;
+    }
+
+    SPARE_EXECUTOR.execute(new Runnable() {
+      public void run() {
+
+        try {
+          spareConnections.fillIdleConnections();
+        }
+
+        catch (IOException e) {
+          // the tunnels connect by themselves until the next attempt
+        }
+
+        finally {
+          filling.set(false);
+        }
+      }
+    });
+  }
+
+  /**
+   * Closes the spare connections (once the configuration is no longer used
+   * by the new tunnels).
+   */
+  void close() {
+    if (spareConnections != null) {
+      spareConnections.close();
+    }
+  }
+
+  /**
+   * Counts a new tunnel, unless the configuration is retired (the tunnel
+   * should then use the current configuration of the forwarder).
+   * 
+   * @return <code>true</code> if the tunnel can use the configuration
+   */
+  boolean tryOpenTunnel() {
+
+    while (true) {
+
+      int state = tunnelState.get();
+
+      if ((state & RETIRED) != 0) {
+        return false;
+      }
+
+      if (tunnelState.compareAndSet(state, state + 1)) {
+        return true;
+      }
+    }
+  }
+
+  void tunnelClosed() {
+    if (tunnelState.decrementAndGet() == RETIRED) {
+      drained.countDown();
+    }
+  }
+
+  /**
+   * Stops counting new tunnels (once the configuration is no longer the
+   * current one), so the configuration can be drained.
+   */
+  void retire() {
+
+    while (true) {
+
+      int state = tunnelState.get();
+
+      if ((state & RETIRED) != 0) {
+        return;
+      }
+
+      if (tunnelState.compareAndSet(state, state | RETIRED)) {
+
+        if (state == 0) {
+          drained.countDown();
+        }
+
+        return;
+      }
+    }
+  }
+
+  int getTunnelCount() {
+    return tunnelState.get() & ~RETIRED;
+  }
+
+  void tunnelClosedByDrain() {
+    closedCount.incrementAndGet();
+  }
+
+  int getClosedCount() {
+    return closedCount.get();
+  }
+
+  /**
+   * Waits until no tunnel uses the (retired) configuration, or until the
+   * deadline.
+   * 
+   * @return <code>true</code> if drained
+   */
+  boolean awaitDrained(final long deadline) throws InterruptedException {
+    return drained.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+  }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+/**
+ * The outcome of {@link ProxyForwarder#swapUpstream(Proxy, long)}.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public final class ProxyUpstreamSwap {
+
+  private final long swapLatency;
+  private final long drainTime;
+  private final int drainedCount;
+  private final int closedCount;
+
+  ProxyUpstreamSwap(final long swapLatency, final long drainTime, final int drainedCount, final int closedCount) {
+    this.swapLatency = swapLatency;
+    this.drainTime = drainTime;
+    this.drainedCount = drainedCount;
+    this.closedCount = closedCount;
+  }
+
+  /**
+   * @return the time, in nanoseconds, until the new upstream was used by the
+   *         new tunnels (including the resolution of its address)
+   */
+  public long getSwapLatency() {
+    return swapLatency;
+  }
+
+  /**
+   * @return the time, in nanoseconds, spent waiting for the tunnels of the
+   *         old upstream to finish (and closing the remaining ones)
+   */
+  public long getDrainTime() {
+    return drainTime;
+  }
+
+  /**
+   * @return the number of tunnels of the old upstream that finished before
+   *         the deadline
+   */
+  public int getDrainedCount() {
+    return drainedCount;
+  }
+
+  /**
+   * @return the number of tunnels of the old upstream that were still open at
+   *         the deadline, and were closed
+   */
+  public int getClosedCount() {
+    return closedCount;
+  }
+
+}
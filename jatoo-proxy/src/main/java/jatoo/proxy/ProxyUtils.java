@@ -28,7 +28,7 @@ import java.security.GeneralSecurityException;
  * A collection of utility methods to ease the work with proxies.
  * 
  * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
- * @version 6.0, June 10, 2014
+ * @version 6.5, October 19, 2026
  */
 public final class ProxyUtils {
 
@@ -48,6 +48,22 @@ public final class ProxyUtils {
    */
   private static final String SYSTEM_PROPERTY_PROXY_PORT = "proxyPort";
 
+  /**
+   * The host name, or address, of the SOCKS proxy server. See: <a href=
+   * "http://docs.oracle.com/javase/7/docs/api/java/net/doc-files/net-properties.html"
+   * >http://docs.oracle.com/javase/7/docs/api/java/net/doc-files/net-properties
+   * . html</a>
+   */
+  private static final String SYSTEM_PROPERTY_SOCKS_PROXY_HOST = "socksProxyHost";
+
+  /**
+   * The port number of the SOCKS proxy server. See: <a href=
+   * "http://docs.oracle.com/javase/7/docs/api/java/net/doc-files/net-properties.html"
+   * >http://docs.oracle.com/javase/7/docs/api/java/net/doc-files/net-properties
+   * . html</a>
+   */
+  private static final String SYSTEM_PROPERTY_SOCKS_PROXY_PORT = "socksProxyPort";
+
   /**
    * Utility classes (classes that contain only static methods or fields in
    * their API) do not have a public constructor.
@@ -66,12 +82,120 @@ public final class ProxyUtils {
    */
   public static void setProxy(final String host, final int port, final Authenticator authenticator) {
 
+    System.getProperties().remove(SYSTEM_PROPERTY_SOCKS_PROXY_HOST);
+    System.getProperties().remove(SYSTEM_PROPERTY_SOCKS_PROXY_PORT);
+
     System.setProperty(SYSTEM_PROPERTY_PROXY_HOST, host);
     System.setProperty(SYSTEM_PROPERTY_PROXY_PORT, Integer.toString(port));
 
     Authenticator.setDefault(authenticator);
   }
 
+  /**
+   * Configures the SOCKS proxy with the provided host, port and authenticator
+   * (used for the SOCKS5 username/password authentication).
+   * 
+   * @param host
+   *          the host name, or address, of the SOCKS proxy server
+   * @param port
+   *          the port number of the SOCKS proxy server
+   * @param authenticator
+   *          the authentication object
+   */
+  public static void setSocksProxy(final String host, final int port, final Authenticator authenticator) {
+
+    System.getProperties().remove(SYSTEM_PROPERTY_PROXY_HOST);
+    System.getProperties().remove(SYSTEM_PROPERTY_PROXY_PORT);
+
+    System.setProperty(SYSTEM_PROPERTY_SOCKS_PROXY_HOST, host);
+    System.setProperty(SYSTEM_PROPERTY_SOCKS_PROXY_PORT, Integer.toString(port));
+
+    Authenticator.setDefault(authenticator);
+  }
+
+  /**
+   * Configures the SOCKS proxy with the provided host, port, username and
+   * password.
+   * 
+   * @param host
+   *          the host name, or address, of the SOCKS proxy server
+   * @param port
+   *          the port number of the SOCKS proxy server
+   * @param username
+   *          the user name
+   * @param password
+   *          the user's password (as a {@link String})
+   */
+  public static void setSocksProxy(final String host, final int port, final String username, final String password) {
+    setSocksProxy(host, port, new ProxyAuthenticator(username, password.toCharArray()));
+  }
+
+  /**
+   * Configures the SOCKS proxy (no authentication) with the provided host and
+   * port.
+   * 
+   * @param host
+   *          the host name, or address, of the SOCKS proxy server
+   * @param port
+   *          the port number of the SOCKS proxy server
+   */
+  public static void setSocksProxy(final String host, final int port) {
+    setSocksProxy(host, port, null);
+  }
+
+  /**
+   * Configures the proxy described by the provided {@link Proxy} (of any
+   * {@link ProxyType}, with or without authentication). A disabled proxy is
+   * removed.
+   * <p>
+   * The JVM-wide proxy settings always talk to the proxy server in clear, so a
+   * {@link Proxy#isSecure() secure} proxy is refused rather than silently used
+   * without TLS (use a {@link ProxyConnector}, or a {@link ProxyForwarder}
+   * for the applications that only know the JVM-wide settings).
+   * 
+   * @param proxy
+   *          the proxy
+   * 
+   * @throws IllegalArgumentException
+   *           if the proxy is secure
+   */
+  public static void setProxy(final Proxy proxy) {
+    select(proxy, System.nanoTime());
+  }
+
+  /**
+   * Configures the proxy described by the provided {@link Proxy}, and traces
+   * the selection with {@link ProxyEvents} (from the specified moment, in
+   * nanoseconds).
+   */
+  private static void select(final Proxy proxy, final long start) {
+
+    if (!proxy.isEnabled()) {
+      removeProxy();
+      return;
+    }
+
+    if (proxy.isSecure()) {
+      throw new IllegalArgumentException("the JVM-wide proxy settings cannot use TLS to the proxy server: " + proxy.getHost() + ":" + proxy.getPort());
+    }
+
+    Authenticator authenticator = null;
+
+    if (proxy.isRequiringAuthentication()) {
+      authenticator = new ProxyAuthenticator(proxy.getUsername(), proxy.getPassword().toCharArray());
+    }
+
+    if (proxy.getType() == ProxyType.SOCKS) {
+      setSocksProxy(proxy.getHost(), proxy.getPort(), authenticator);
+    } else {
+      setProxy(proxy.getHost(), proxy.getPort(), authenticator);
+    }
+
+    if (ProxyEvents.isEnabled()) {
+      ProxyEvents.emit(ProxyEvent.Type.SELECTION, proxy, null, 0, start, null, 0);
+    }
+  }
+
   /**
    * Configures the proxy with the provided host, port, username and password.
    * 
@@ -196,21 +320,18 @@ public final class ProxyUtils {
    *           if decryption of the store file fails
    * @throws IOException
    *           if reading from the store file fails
+   * @throws IllegalArgumentException
+   *           if the stored proxy is secure (see {@link #setProxy(Proxy)})
    */
   public static void setStoredProxy() throws GeneralSecurityException, IOException {
 
+    long start = System.nanoTime();
+
     Proxy proxy = new Proxy();
     proxy.load();
 
     if (proxy.isEnabled()) {
-
-      if (proxy.isRequiringAuthentication()) {
-        setProxy(proxy.getHost(), proxy.getPort(), proxy.getUsername(), proxy.getPassword());
-      }
-
-      else {
-        setProxy(proxy.getHost(), proxy.getPort());
-      }
+      select(proxy, start);
     }
   }
 
@@ -227,7 +348,12 @@ public final class ProxyUtils {
     isProxySet = isProxySet && System.getProperty(SYSTEM_PROPERTY_PROXY_HOST) != null;
     isProxySet = isProxySet && System.getProperty(SYSTEM_PROPERTY_PROXY_PORT) != null;
 
-    return isProxySet;
+    boolean isSocksProxySet = true;
+
+    isSocksProxySet = isSocksProxySet && System.getProperty(SYSTEM_PROPERTY_SOCKS_PROXY_HOST) != null;
+    isSocksProxySet = isSocksProxySet && System.getProperty(SYSTEM_PROPERTY_SOCKS_PROXY_PORT) != null;
+
+    return isProxySet || isSocksProxySet;
   }
 
   /**
@@ -238,6 +364,9 @@ public final class ProxyUtils {
     System.getProperties().remove(SYSTEM_PROPERTY_PROXY_HOST);
     System.getProperties().remove(SYSTEM_PROPERTY_PROXY_PORT);
 
+    System.getProperties().remove(SYSTEM_PROPERTY_SOCKS_PROXY_HOST);
+    System.getProperties().remove(SYSTEM_PROPERTY_SOCKS_PROXY_PORT);
+
     Authenticator.setDefault(null);
   }
 
@@ -292,4 +421,80 @@ public final class ProxyUtils {
     }
   }
 
+  /**
+   * A shortcut for <code>jatoo.proxy.dialog.ProxyDialog#prewarm()</code>
+   * method. If <code>jatoo-proxy-dialog</code> is not in classpath then a
+   * {@link RuntimeException} is thrown.
+   * 
+   * @throws UnsupportedOperationException
+   *           if <code>jatoo-proxy-dialog</code> is not in classpath or if the
+   *           invocation fails
+   */
+  public static void prewarmProxyDialog() throws UnsupportedOperationException {
+
+    try {
+      Class.forName("jatoo.proxy.dialog.ProxyDialog").getMethod("prewarm").invoke(null);
+    }
+
+    catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException | NoSuchMethodException | SecurityException e) {
+      throw new UnsupportedOperationException("failed to invoke #prewarm() method", e);
+    }
+
+    catch (ClassNotFoundException e) {
+      throw new UnsupportedOperationException("jatoo-proxy-dialog is not in classpath", e);
+    }
+  }
+
+  /**
+   * A shortcut for <code>jatoo.proxy.dialog.ProxyDashboard#show()</code>
+   * method. If <code>jatoo-proxy-dialog</code> is not in classpath then a
+   * {@link RuntimeException} is thrown.
+   * 
+   * @throws UnsupportedOperationException
+   *           if <code>jatoo-proxy-dialog</code> is not in classpath or if the
+   *           invocation fails
+   */
+  public static void showProxyDashboard() throws UnsupportedOperationException {
+
+    try {
+      Class.forName("jatoo.proxy.dialog.ProxyDashboard").getMethod("show").invoke(null);
+    }
+
+    catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException | NoSuchMethodException | SecurityException e) {
+      throw new UnsupportedOperationException("failed to invoke #show() method", e);
+    }
+
+    catch (ClassNotFoundException e) {
+      throw new UnsupportedOperationException("jatoo-proxy-dialog is not in classpath", e);
+    }
+  }
+
+  /**
+   * A shortcut for
+   * <code>jatoo.proxy.dialog.ProxyDashboard#show(Component)</code> method. If
+   * <code>jatoo-proxy-dialog</code> is not in classpath then a
+   * {@link RuntimeException} is thrown.
+   * 
+   * @param owner
+   *          the {@code Component} from which the dashboard is displayed
+   * 
+   * @throws UnsupportedOperationException
+   *           if <code>jatoo-proxy-dialog</code> is not in classpath or if the
+   *           invocation fails
+   */
+  public static void showProxyDashboard(final Component owner) throws UnsupportedOperationException {
+
+    try {
+      Class.forName("jatoo.proxy.dialog.ProxyDashboard").getMethod("show", Component.class).invoke(null, owner);
+    }
+
+    catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException | NoSuchMethodException | SecurityException e) {
+      throw new UnsupportedOperationException("failed to invoke #show(owner) method", e);
+    }
+
+    catch (ClassNotFoundException e) {
+      throw new UnsupportedOperationException("jatoo-proxy-dialog is not in classpath", e);
+    }
+  }
+
 }
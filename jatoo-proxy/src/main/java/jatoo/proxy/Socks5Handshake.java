@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * The client side of a SOCKS5 handshake (greeting, username/password
+ * authentication and <code>CONNECT</code>, see RFC 1928 and RFC 1929),
+ * written as a state machine that never blocks: the caller moves the bytes,
+ * so the same handshake can be driven by blocking streams or by a selector
+ * loop handling many connections on one thread.
+ * <p>
+ * The caller alternates between the two directions:
+ * 
+ * <pre>
+ * while (!handshake.isComplete()) {
+ *   if (handshake.isWriting()) {
+ *     handshake.write(out); // then send the bytes from out
+ *   } else {
+ *     // receive some bytes into in, then
+ *     handshake.read(in);
+ *   }
+ * }
+ * </pre>
+ * 
+ * {@link #read(ByteBuffer)} consumes only complete messages, so partial reads
+ * are simply retried with more bytes, and the bytes following the last reply
+ * (already from the tunnel) are left in the buffer.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.2, October 19, 2026
+ */
+public class Socks5Handshake {
+
+  /** The maximum size of a message sent by this handshake. */
+  public static final int MAX_MESSAGE_SIZE = 513;
+
+  /** The SOCKS protocol version. */
+  private static final byte VERSION = 5;
+
+  /** The username/password authentication sub-negotiation version. */
+  private static final byte AUTHENTICATION_VERSION = 1;
+
+  /** The authentication methods. */
+  private static final byte METHOD_NONE = 0x00;
+  private static final byte METHOD_USERNAME_PASSWORD = 0x02;
+  private static final byte METHOD_NOT_ACCEPTABLE = (byte) 0xFF;
+
+  /** The <code>CONNECT</code> command. */
+  private static final byte COMMAND_CONNECT = 0x01;
+
+  /** The address types. */
+  private static final byte ADDRESS_IPV4 = 0x01;
+  private static final byte ADDRESS_DOMAIN = 0x03;
+  private static final byte ADDRESS_IPV6 = 0x04;
+
+  /** The charset of the username, password and host name. */
+  private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+  /**
+   * The states of the handshake.
+   */
+  private enum State {
+    SEND_GREETING, READ_METHOD, SEND_AUTHENTICATION, READ_AUTHENTICATION, SEND_CONNECT, READ_CONNECT, COMPLETE
+  }
+
+  /** The user name, or <code>null</code> for no authentication. */
+  private final byte[] username;
+
+  /** The user's password. */
+  private final byte[] password;
+
+  /** The host name, or address, of the destination. */
+  private final byte[] host;
+
+  /** The port number of the destination. */
+  private final int port;
+
+  /** The current state. */
+  private State state = State.SEND_GREETING;
+
+  /**
+   * Creates a new handshake, without authentication.
+   * 
+   * @param host
+   *          the host name, or address, of the destination
+   * @param port
+   *          the port number of the destination
+   * 
+   * @throws IOException
+   *           if the host name is longer than SOCKS5 can carry (255 bytes)
+   */
+  public Socks5Handshake(final String host, final int port) throws IOException {
+    this(host, port, null, null);
+  }
+
+  /**
+   * Creates a new handshake, offering username/password authentication.
+   * 
+   * @param host
+   *          the host name, or address, of the destination
+   * @param port
+   *          the port number of the destination
+   * @param username
+   *          the user name
+   * @param password
+   *          the user's password
+   * 
+   * @throws IOException
+   *           if the host name, the user name or the password is longer than
+   *           SOCKS5 can carry (255 bytes each), the handshake fails like any
+   *           other, before anything is sent
+   */
+  public Socks5Handshake(final String host, final int port, final String username, final String password) throws IOException {
+
+    this.host = host.getBytes(CHARSET);
+    this.port = port;
+
+    this.username = username == null ? null : username.getBytes(CHARSET);
+    this.password = password == null ? new byte[0] : password.getBytes(CHARSET);
+
+    if (this.host.length > 255) {
+      throw new IOException("the host name is too long for SOCKS5: " + host);
+    }
+    if (this.username != null && (this.username.length > 255 || this.password.length > 255)) {
+      throw new IOException("the user name or the password is too long for SOCKS5");
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the user name and the password fit in the
+   *         username/password authentication (255 bytes each)
+   */
+  static boolean canCarryCredentials(final String username, final String password) {
+    return username.getBytes(CHARSET).length <= 255 && (password == null || password.getBytes(CHARSET).length <= 255);
+  }
+
+  /**
+   * @return <code>true</code> if the handshake has a message to send
+   */
+  public final boolean isWriting() {
+    return state == State.SEND_GREETING || state == State.SEND_AUTHENTICATION || state == State.SEND_CONNECT;
+  }
+
+  /**
+   * @return <code>true</code> if the tunnel is established
+   */
+  public final boolean isComplete() {
+    return state == State.COMPLETE;
+  }
+
+  /**
+   * Puts the next message into the specified buffer.
+   * 
+   * @param out
+   *          the buffer, with at least {@link #MAX_MESSAGE_SIZE} bytes
+   *          remaining
+   * 
+   * @throws IllegalStateException
+   *           if the handshake is waiting for a reply
+   */
+  public final void write(final ByteBuffer out) {
+
+    switch (state) {
+
+    case SEND_GREETING:
+
+      if (username == null) {
+        out.put(VERSION).put((byte) 1).put(METHOD_NONE);
+      } else {
+        out.put(VERSION).put((byte) 2).put(METHOD_NONE).put(METHOD_USERNAME_PASSWORD);
+      }
+
+      state = State.READ_METHOD;
+      break;
+
+    case SEND_AUTHENTICATION:
+
+      out.put(AUTHENTICATION_VERSION);
+      out.put((byte) username.length).put(username);
+      out.put((byte) password.length).put(password);
+
+      state = State.READ_AUTHENTICATION;
+      break;
+
+    case SEND_CONNECT:
+
+      out.put(VERSION).put(COMMAND_CONNECT).put((byte) 0);
+      out.put(ADDRESS_DOMAIN).put((byte) host.length).put(host);
+      out.putShort((short) port);
+
+      state = State.READ_CONNECT;
+      break;
+
+    default:
+      throw new IllegalStateException("nothing to write in state " + state);
+    }
+  }
+
+  /**
+   * Consumes the reply from the specified buffer, if it was fully received.
+   * Nothing is consumed otherwise, and the call should be repeated after more
+   * bytes are received.
+   * 
+   * @param in
+   *          the buffer, ready to be read
+   * 
+   * @return <code>true</code> if a reply was consumed
+   * 
+   * @throws ProxyResponseException
+   *           if the proxy server refused the authentication (status code
+   *           <code>407</code>) or the tunnel (status code <code>502</code>)
+   * @throws IOException
+   *           if the reply is malformed
+   * @throws IllegalStateException
+   *           if the handshake has a message to send
+   */
+  public final boolean read(final ByteBuffer in) throws IOException {
+
+    int position = in.position();
+
+    switch (state) {
+
+    case READ_METHOD:
+
+      if (in.remaining() < 2) {
+        return false;
+      }
+
+      checkVersion(in.get(position), VERSION);
+
+      byte method = in.get(position + 1);
+
+      if (method == METHOD_NONE) {
+        state = State.SEND_CONNECT;
+      } else if (method == METHOD_USERNAME_PASSWORD && username != null) {
+        state = State.SEND_AUTHENTICATION;
+      } else if (method == METHOD_NOT_ACCEPTABLE) {
+        throw new ProxyResponseException(407, "SOCKS5 no acceptable authentication method");
+      } else {
+        throw new IOException("unexpected SOCKS5 authentication method: " + method);
+      }
+
+      in.position(position + 2);
+      return true;
+
+    case READ_AUTHENTICATION:
+
+      if (in.remaining() < 2) {
+        return false;
+      }
+
+      checkVersion(in.get(position), AUTHENTICATION_VERSION);
+
+      if (in.get(position + 1) != 0) {
+        throw new ProxyResponseException(407, "SOCKS5 authentication failed");
+      }
+
+      state = State.SEND_CONNECT;
+
+      in.position(position + 2);
+      return true;
+
+    case READ_CONNECT:
+
+      if (in.remaining() < 5) {
+        return false;
+      }
+
+      checkVersion(in.get(position), VERSION);
+
+      int reply = in.get(position + 1) & 0xFF;
+
+      if (reply != 0) {
+        throw new ProxyResponseException(502, "SOCKS5 reply " + reply + " (" + getReplyMessage(reply) + ")");
+      }
+
+      int length;
+
+      switch (in.get(position + 3)) {
+      case ADDRESS_IPV4:
+        length = 4 + 4 + 2;
+        break;
+      case ADDRESS_IPV6:
+        length = 4 + 16 + 2;
+        break;
+      case ADDRESS_DOMAIN:
+        length = 4 + 1 + (in.get(position + 4) & 0xFF) + 2;
+        break;
+      default:
+        throw new IOException("unexpected SOCKS5 address type: " + in.get(position + 3));
+      }
+
+      if (in.remaining() < length) {
+        return false;
+      }
+
+      state = State.COMPLETE;
+
+      in.position(position + length);
+      return true;
+
+    default:
+      throw new IllegalStateException("nothing to read in state " + state);
+    }
+  }
+
+  /**
+   * Checks the version of a reply.
+   */
+  private static void checkVersion(final byte version, final byte expected) throws IOException {
+    if (version != expected) {
+      throw new IOException("unexpected SOCKS version: " + version);
+    }
+  }
+
+  /**
+   * Describes the reply codes from RFC 1928.
+   */
+  private static String getReplyMessage(final int reply) {
+    switch (reply) {
+    case 1:
+      return "general SOCKS server failure";
+    case 2:
+      return "connection not allowed by ruleset";
+    case 3:
+      return "network unreachable";
+    case 4:
+      return "host unreachable";
+    case 5:
+      return "connection refused";
+    case 6:
+      return "TTL expired";
+    case 7:
+      return "command not supported";
+    case 8:
+      return "address type not supported";
+    default:
+      return "unassigned";
+    }
+  }
+
+}
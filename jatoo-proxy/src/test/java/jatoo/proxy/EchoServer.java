@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A local stand-in for a destination server, echoing back everything it
+ * receives.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public class EchoServer implements Closeable {
+
+  private final ServerSocket serverSocket;
+
+  private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+
+  public EchoServer() throws IOException {
+
+    serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+    Thread acceptor = new Thread("echo-server-" + getPort()) {
+      public void run() {
+        while (!serverSocket.isClosed()) {
+          try {
+            final Socket socket = serverSocket.accept();
+            sockets.add(socket);
+            Thread thread = new Thread() {
+              public void run() {
+                echo(socket);
+              }
+            };
+            thread.setDaemon(true);
+            thread.start();
+          } catch (IOException e) {
+            // closed
+          }
+        }
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  public String getHost() {
+    return serverSocket.getInetAddress().getHostAddress();
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  public int getConnectionCount() {
+    return sockets.size();
+  }
+
+  /**
+   * Closes, from the server side, all the accepted connections.
+   */
+  public void closeConnections() throws IOException {
+    for (Socket socket : sockets) {
+      socket.close();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    closeConnections();
+  }
+
+  private static void echo(final Socket socket) {
+    byte[] buffer = new byte[8192];
+    try {
+      InputStream in = socket.getInputStream();
+      OutputStream out = socket.getOutputStream();
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+        out.flush();
+      }
+    } catch (IOException e) {
+      // closed
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException e) {}
+    }
+  }
+
+}
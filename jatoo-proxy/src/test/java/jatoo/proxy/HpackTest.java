@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HpackTest {
+
+  @Test
+  public void testIntegers() throws Exception {
+
+    // RFC 7541, C.1
+    ByteBuffer out = ByteBuffer.allocate(8);
+
+    Hpack.encodeInteger(out, 0x00, 5, 10);
+    Hpack.encodeInteger(out, 0x00, 5, 1337);
+    Hpack.encodeInteger(out, 0x00, 8, 42);
+
+    Assert.assertArrayEquals(bytes("0a1f9a0a2a"), Arrays.copyOf(out.array(), out.position()));
+
+    out.flip();
+
+    Assert.assertEquals(10, Hpack.Decoder.decodeInteger(out, 5));
+    Assert.assertEquals(1337, Hpack.Decoder.decodeInteger(out, 5));
+    Assert.assertEquals(42, Hpack.Decoder.decodeInteger(out, 8));
+  }
+
+  @Test
+  public void testDynamicTable() throws Exception {
+
+    Hpack.Decoder decoder = new Hpack.Decoder();
+
+    // RFC 7541, C.2.1, a literal added to the dynamic table
+    Assert.assertEquals(Arrays.asList("custom-key", "custom-header"), decode(decoder, "400a637573746f6d2d6b65790d637573746f6d2d686561646572"));
+
+    // then indexed
+    Assert.assertEquals(Arrays.asList("custom-key", "custom-header"), decode(decoder, "be"));
+
+    // emptied by a size update
+    decode(decoder, "20");
+
+    try {
+      decode(decoder, "be");
+      Assert.fail("the dynamic table is empty");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testRequests() throws Exception {
+
+    Hpack.Decoder decoder = new Hpack.Decoder();
+
+    // RFC 7541, C.4, with Huffman and the dynamic table
+    Assert.assertEquals(Arrays.asList(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"), decode(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff"));
+    Assert.assertEquals(Arrays.asList(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com", "cache-control", "no-cache"), decode(decoder, "828684be5886a8eb10649cbf"));
+    Assert.assertEquals(Arrays.asList(":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com", "custom-key", "custom-value"), decode(decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"));
+  }
+
+  @Test
+  public void testEncoding() throws Exception {
+
+    StringBuilder value = new StringBuilder();
+    for (int i = 0; i < 256; i++) {
+      value.append((char) i);
+    }
+
+    String[] values = { "", "www.example.com:443", "Basic dXNlcm5hbWU6cGFzc3dvcmQ=", value.toString() };
+
+    for (String v : values) {
+
+      ByteBuffer block = ByteBuffer.allocate(2048);
+
+      Hpack.encodeHeader(block, ":authority", v);
+      Hpack.encodeHeader(block, "x-custom", v);
+
+      block.flip();
+
+      List<String> headers = new ArrayList<>();
+      new Hpack.Decoder().decode(block, headers);
+
+      Assert.assertEquals(Arrays.asList(":authority", v, "x-custom", v), headers);
+    }
+
+    // Huffman coded, and never indexed, with the name from the static table
+    ByteBuffer block = ByteBuffer.allocate(64);
+    Hpack.encodeHeader(block, ":authority", "www.example.com");
+
+    Assert.assertArrayEquals(bytes("118cf1e3c2e5f23a6ba0ab90f4ff"), Arrays.copyOf(block.array(), block.position()));
+  }
+
+  @Test
+  public void testMalformed() throws Exception {
+
+    String[] blocks = {
+        // an index out of the tables
+        "ff00",
+        // a truncated string
+        "400a6375",
+        // a padding longer than 7 bits
+        "0082ffff",
+        // a padding not of ones
+        "008100",
+        // a table larger than allowed
+        "3fe21f" };
+
+    for (String block : blocks) {
+      try {
+        decode(new Hpack.Decoder(), block);
+        Assert.fail(block + " is malformed");
+      } catch (IOException e) {
+        // expected
+      }
+    }
+  }
+
+  private static List<String> decode(final Hpack.Decoder decoder, final String block) throws IOException {
+    List<String> headers = new ArrayList<>();
+    decoder.decode(ByteBuffer.wrap(bytes(block)), headers);
+    return headers;
+  }
+
+  private static byte[] bytes(final String hex) {
+
+    byte[] bytes = new byte[hex.length() / 2];
+
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+    }
+
+    return bytes;
+  }
+
+}
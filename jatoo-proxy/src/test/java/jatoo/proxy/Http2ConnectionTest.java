@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.proxy;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Http2ConnectionTest {
+
+  @Test
+  public void testMultiplexing() throws Exception {
+
+    try (EchoServer origin = new EchoServer(); StandInHttp2Proxy standIn = new StandInHttp2Proxy()) {
+
+      standIn.setCredentials("username", "password");
+
+      Proxy upstream = standIn.getProxy();
+      upstream.setRequiringAuthentication(true);
+      upstream.setUsername("username");
+      upstream.setPassword("password");
+
+      try (ProxyForwarder forwarder = new ProxyForwarder(upstream)) {
+
+        forwarder.setEventLoopCount(1);
+        forwarder.setHttp2ConnectionCount(2);
+        forwarder.start();
+
+        final ProxyConnector connector = createConnector(forwarder);
+        final EchoServer destination = origin;
+
+        ExecutorService executor = Executors.newFixedThreadPool(20);
+
+        try {
+
+          List<Future<Void>> tunnels = new ArrayList<>();
+
+          for (int i = 0; i < 20; i++) {
+            tunnels.add(executor.submit(new Callable<Void>() {
+              public Void call() throws Exception {
+                try (Socket socket = connector.openTunnel(destination.getHost(), destination.getPort())) {
+                  echo(socket, 100000);
+                }
+                return null;
+              }
+            }));
+          }
+
+          for (Future<Void> tunnel : tunnels) {
+            tunnel.get();
+          }
+        }
+
+        finally {
+          executor.shutdownNow();
+        }
+
+        // 20 tunnels, over 2 connections
+        Assert.assertEquals(20, standIn.getStreamCount());
+        Assert.assertEquals(2, standIn.getConnectionCount());
+        Assert.assertTrue(standIn.getMaxOpenStreamCount() > 1);
+
+        // the connections stay open for the next tunnels
+        try (Socket socket = connector.openTunnel(origin.getHost(), origin.getPort())) {
+          echo(socket, 1000);
+        }
+
+        Assert.assertEquals(2, standIn.getConnectionCount());
+
+        waitForTunnels(forwarder);
+      }
+    }
+  }
+
+  @Test
+  public void testFlowControl() throws Exception {
+
+    try (EchoServer origin = new EchoServer(); SizedOrigin sizedOrigin = new SizedOrigin(); StandInHttp2Proxy standIn = new StandInHttp2Proxy()) {
+
+      // the padding is given back to the windows too
+      standIn.setPadding(10);
+
+      try (ProxyForwarder forwarder = new ProxyForwarder(standIn.getProxy())) {
+
+        forwarder.setEventLoopCount(1);
+        forwarder.setHttp2ConnectionCount(1);
+        forwarder.start();
+
+        ProxyConnector connector = createConnector(forwarder);
+
+        // a client not reading a download (larger than all the socket buffers
+        // on the way) holds back its own stream only
+        try (Socket stalled = connector.openTunnel(sizedOrigin.getHost(), sizedOrigin.getPort())) {
+
+          SizedOrigin.writeHeader(stalled.getOutputStream(), 0, 1024L * 1024 * 1024);
+
+          Thread.sleep(1000);
+
+          // many windows in both directions, on the same connection
+          try (Socket socket = connector.openTunnel(origin.getHost(), origin.getPort())) {
+            echo(socket, 4 * 1024 * 1024);
+          }
+
+          Assert.assertEquals(1, standIn.getConnectionCount());
+        }
+
+        waitForTunnels(forwarder);
+      }
+    }
+  }
+
+  @Test
+  public void testHalfClose() throws Exception {
+
+    try (EchoServer origin = new EchoServer(); StandInHttp2Proxy standIn = new StandInHttp2Proxy()) {
+
+      try (ProxyForwarder forwarder = new ProxyForwarder(standIn.getProxy())) {
+
+        forwarder.setEventLoopCount(1);
+        forwarder.setHttp2ConnectionCount(1);
+        forwarder.start();
+
+        try (Socket socket = createConnector(forwarder).openTunnel(origin.getHost(), origin.getPort())) {
+
+          socket.getOutputStream().write("hello".getBytes());
+          socket.shutdownOutput();
+
+          // the echo still comes back, and then the end of the stream
+          InputStream in = socket.getInputStream();
+          byte[] echo = new byte[5];
+          int length = 0;
+          int read;
+          while ((read = in.read(echo, length, echo.length - length)) > 0) {
+            length += read;
+          }
+
+          Assert.assertEquals("hello", new String(echo, 0, length));
+          Assert.assertEquals(-1, in.read());
+        }
+
+        waitForTunnels(forwarder);
+      }
+    }
+  }
+
+  @Test
+  public void testMaxConcurrentStreams() throws Exception {
+
+    try (EchoServer origin = new EchoServer(); StandInHttp2Proxy standIn = new StandInHttp2Proxy()) {
+
+      standIn.setMaxConcurrentStreams(2);
+
+      try (ProxyForwarder forwarder = new ProxyForwarder(standIn.getProxy())) {
+
+        forwarder.setEventLoopCount(1);
+        forwarder.setHttp2ConnectionCount(1);
+        forwarder.start();
+
+        ProxyConnector connector = createConnector(forwarder);
+
+        List<Socket> sockets = new ArrayList<>();
+
+        try {
+
+          // the first stream waits for the settings of the proxy server
+          sockets.add(connector.openTunnel(origin.getHost(), origin.getPort()));
+          sockets.add(connector.openTunnel(origin.getHost(), origin.getPort()));
+
+          // waits for one of the first two to close
+          final Socket third = connector.connect();
+          third.getOutputStream().write(("CONNECT " + origin.getHost() + ":" + origin.getPort() + " HTTP/1.1\r\n\r\n").getBytes());
+          sockets.add(third);
+
+          Thread.sleep(200);
+          Assert.assertEquals(2, standIn.getStreamCount());
+
+          sockets.get(0).close();
+
+          ProxyConnector.readConnectResponse(third.getInputStream());
+          echo(third, 1000);
+
+          Assert.assertEquals(3, standIn.getStreamCount());
+          Assert.assertEquals(2, standIn.getMaxOpenStreamCount());
+          Assert.assertEquals(1, standIn.getConnectionCount());
+        }
+
+        finally {
+          for (Socket socket : sockets) {
+            socket.close();
+          }
+        }
+
+        waitForTunnels(forwarder);
+      }
+    }
+  }
+
+  @Test
+  public void testErrors() throws Exception {
+
+    try (EchoServer origin = new EchoServer(); StandInHttp2Proxy standIn = new StandInHttp2Proxy()) {
+
+      standIn.setCredentials("username", "password");
+
+      // the forwarder does not know the credentials of the upstream
+      try (ProxyForwarder forwarder = new ProxyForwarder(standIn.getProxy())) {
+
+        forwarder.setEventLoopCount(1);
+        forwarder.setHttp2ConnectionCount(1);
+        forwarder.start();
+
+        ProxyConnector connector = createConnector(forwarder);
+
+        for (int i = 0; i < 2; i++) {
+          try {
+            connector.openTunnel(origin.getHost(), origin.getPort());
+            Assert.fail("the upstream refused the tunnel, so the forwarder should refuse it too");
+          } catch (ProxyResponseException e) {
+            Assert.assertEquals(502, e.getStatusCode());
+          }
+        }
+
+        // a refused stream leaves the connection usable
+        Assert.assertEquals(1, standIn.getConnectionCount());
+
+        // a lost connection fails its tunnels, and is replaced for the next ones
+        standIn.setCredentials("", "");
+
+        Proxy upstream = standIn.getProxy();
+        upstream.setRequiringAuthentication(true);
+        upstream.setUsername("");
+        upstream.setPassword("");
+
+        forwarder.swapUpstream(upstream, 1000);
+
+        try (Socket socket = connector.openTunnel(origin.getHost(), origin.getPort())) {
+
+          echo(socket, 1000);
+
+          standIn.closeConnections();
+
+          Assert.assertEquals(-1, socket.getInputStream().read());
+        }
+
+        try (Socket socket = connector.openTunnel(origin.getHost(), origin.getPort())) {
+          echo(socket, 1000);
+        }
+
+        waitForTunnels(forwarder);
+      }
+    }
+
+    // a proxy server not speaking HTTP/2
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn = new StandInProxy()) {
+
+      try (ProxyForwarder forwarder = new ProxyForwarder(standIn.getProxy())) {
+
+        forwarder.setEventLoopCount(1);
+        forwarder.setHttp2ConnectionCount(1);
+        forwarder.start();
+
+        try {
+          createConnector(forwarder).openTunnel(origin.getHost(), origin.getPort());
+          Assert.fail("the upstream does not speak HTTP/2");
+        } catch (ProxyResponseException e) {
+          Assert.assertEquals(502, e.getStatusCode());
+        }
+      }
+    }
+  }
+
+  private static ProxyConnector createConnector(final ProxyForwarder forwarder) {
+    return new ProxyConnector(new Proxy(InetAddress.getLoopbackAddress().getHostAddress(), forwarder.getPort()));
+  }
+
+  /**
+   * Sends the bytes (from another thread, the echo comes back meanwhile) and
+   * checks the echo.
+   */
+  private static void echo(final Socket socket, final int length) throws Exception {
+
+    final byte[] data = new byte[length];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i * 31);
+    }
+
+    final OutputStream out = socket.getOutputStream();
+
+    Thread writer = new Thread() {
+      public void run() {
+        try {
+          out.write(data);
+          out.flush();
+        } catch (Exception e) {
+          // the echo is incomplete then
+        }
+      }
+    };
+    writer.setDaemon(true);
+    writer.start();
+
+    InputStream in = socket.getInputStream();
+
+    byte[] echo = new byte[data.length];
+    int read = 0;
+    while (read < echo.length) {
+      int n = in.read(echo, read, echo.length - read);
+      Assert.assertTrue("the echo ended after " + read + " bytes", n > 0);
+      read += n;
+    }
+
+    writer.join();
+
+    Assert.assertArrayEquals(data, echo);
+  }
+
+  private static void waitForTunnels(final ProxyForwarder forwarder) throws InterruptedException {
+
+    for (int i = 0; i < 200 && forwarder.getTunnelCount() > 0; i++) {
+      Thread.sleep(10);
+    }
+
+    Assert.assertEquals(0, forwarder.getTunnelCount());
+  }
+
+}
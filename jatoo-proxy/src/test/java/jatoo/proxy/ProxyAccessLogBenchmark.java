@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the connection rate of a {@link ProxyForwarder} without an access
+ * log, and with one for each {@link ProxyAccessLog.OverflowPolicy}. Every
+ * connection sends a request that the forwarder refuses right away, so the
+ * lines come as fast as the event loops can produce them, and the cost of
+ * logging is not hidden behind an upstream.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public class ProxyAccessLogBenchmark {
+
+  private static final long DURATION = TimeUnit.SECONDS.toNanos(5);
+
+  private static final byte[] REQUEST = "GET / HTTP/1.1\r\n\r\n".getBytes();
+
+  public static void main(String[] args) throws Exception {
+
+    int processors = Runtime.getRuntime().availableProcessors();
+    int clients = args.length > 0 ? Integer.parseInt(args[0]) : 2 * processors;
+
+    File file = File.createTempFile("jatoo-proxy-access", ".log");
+    file.deleteOnExit();
+
+    System.out.println("access log      connections per second  lines written  lines dropped  (" + clients + " clients)");
+
+    // warm up
+    run(null, clients);
+
+    System.out.printf("%-14s  %22d%n", "disabled", run(null, clients));
+
+    for (ProxyAccessLog.OverflowPolicy policy : ProxyAccessLog.OverflowPolicy.values()) {
+
+      ProxyAccessLog accessLog = new ProxyAccessLog(file, ProxyAccessLog.DEFAULT_CAPACITY, policy, Long.MAX_VALUE, 0);
+      accessLog.start();
+
+      long rate = run(accessLog, clients);
+
+      accessLog.close();
+
+      System.out.printf("%-14s  %22d  %13d  %13d%n", policy, rate, accessLog.getWrittenCount(), accessLog.getDroppedCount());
+    }
+  }
+
+  private static long run(final ProxyAccessLog accessLog, final int clients) throws Exception {
+
+    try (ProxyForwarder forwarder = new ProxyForwarder(new Proxy("localhost", 9))) {
+
+      forwarder.setAccessLog(accessLog);
+      forwarder.start();
+
+      final InetAddress address = InetAddress.getLoopbackAddress();
+      final int port = forwarder.getPort();
+      final long end = System.nanoTime() + DURATION;
+
+      final AtomicLong connections = new AtomicLong();
+      final CountDownLatch done = new CountDownLatch(clients);
+
+      for (int i = 0; i < clients; i++) {
+        new Thread() {
+          public void run() {
+            try {
+              byte[] buffer = new byte[256];
+              while (System.nanoTime() < end) {
+                try (Socket socket = new Socket(address, port)) {
+                  socket.getOutputStream().write(REQUEST);
+                  InputStream in = socket.getInputStream();
+                  while (in.read(buffer) != -1) {
+                    // the forwarder closes the connection after the answer
+                  }
+                }
+                connections.incrementAndGet();
+              }
+            } catch (Exception e) {
+              e.printStackTrace();
+            } finally {
+              done.countDown();
+            }
+          }
+        }.start();
+      }
+
+      done.await();
+
+      return connections.get() * TimeUnit.SECONDS.toNanos(1) / DURATION;
+    }
+  }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProxyAccessLogTest {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  @Test
+  public void testLine() throws Exception {
+
+    File file = newFile("line");
+
+    ProxyAccessLog accessLog = new ProxyAccessLog(file);
+    accessLog.start();
+
+    accessLog.log(new InetSocketAddress("127.0.0.1", 51234), new Proxy("proxy", 8080), "example.com", 443, 200, 1234, 5678, TimeUnit.MILLISECONDS.toNanos(15));
+    accessLog.log(null, null, null, 0, 0, 0, 0, 0);
+
+    accessLog.close();
+
+    List<String> lines = Files.readAllLines(file.toPath(), UTF_8);
+
+    Assert.assertEquals(2, lines.size());
+    Assert.assertTrue(lines.get(0), lines.get(0).matches("\\d{4}-\\d\\d-\\d\\dT\\d\\d:\\d\\d:\\d\\d\\.\\d{3}Z 127\\.0\\.0\\.1:51234 proxy:8080 example\\.com:443 200 1234 5678 15"));
+    Assert.assertTrue(lines.get(1), lines.get(1).endsWith("Z - - - - 0 0 0"));
+
+    Assert.assertEquals(2, accessLog.getWrittenCount());
+    Assert.assertEquals(0, accessLog.getDroppedCount());
+    Assert.assertNull(accessLog.getLastFailure());
+  }
+
+  @Test
+  public void testDrop() throws Exception {
+
+    File file = newFile("drop");
+
+    // not started, so nothing is drained
+    ProxyAccessLog accessLog = new ProxyAccessLog(file, 2, ProxyAccessLog.OverflowPolicy.DROP, ProxyAccessLog.DEFAULT_MAX_FILE_SIZE, 0);
+
+    Assert.assertTrue(accessLog.log(null, null, "a", 1, 200, 0, 0, 0));
+    Assert.assertTrue(accessLog.log(null, null, "b", 1, 200, 0, 0, 0));
+    Assert.assertFalse(accessLog.log(null, null, "c", 1, 200, 0, 0, 0));
+
+    Assert.assertEquals(1, accessLog.getDroppedCount());
+
+    accessLog.start();
+    accessLog.close();
+
+    List<String> lines = Files.readAllLines(file.toPath(), UTF_8);
+
+    Assert.assertEquals(2, lines.size());
+    Assert.assertTrue(lines.get(0).contains(" a:1 "));
+    Assert.assertTrue(lines.get(1).contains(" b:1 "));
+  }
+
+  @Test
+  public void testBlock() throws Exception {
+
+    File file = newFile("block");
+
+    final ProxyAccessLog accessLog = new ProxyAccessLog(file, 4, ProxyAccessLog.OverflowPolicy.BLOCK, ProxyAccessLog.DEFAULT_MAX_FILE_SIZE, 0);
+    accessLog.start();
+
+    Thread[] threads = new Thread[4];
+
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        public void run() {
+          for (int j = 0; j < 1000; j++) {
+            accessLog.log(null, null, "example.com", 443, 200, j, j, j);
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    accessLog.close();
+
+    Assert.assertEquals(0, accessLog.getDroppedCount());
+    Assert.assertEquals(4000, accessLog.getWrittenCount());
+    Assert.assertEquals(4000, Files.readAllLines(file.toPath(), UTF_8).size());
+  }
+
+  @Test
+  public void testRotation() throws Exception {
+
+    File file = newFile("rotation");
+
+    ProxyAccessLog accessLog = new ProxyAccessLog(file, 16, ProxyAccessLog.OverflowPolicy.BLOCK, 200, 2);
+    accessLog.start();
+
+    for (int i = 0; i < 20; i++) {
+      accessLog.log(null, null, "example.com", 443, 200, 0, 0, 0);
+      // one line (of about 60 bytes) at a time
+      Thread.sleep(5);
+    }
+
+    accessLog.close();
+
+    File rotated1 = new File(file.getPath() + ".1");
+    File rotated2 = new File(file.getPath() + ".2");
+
+    Assert.assertTrue(file.length() <= 200);
+    Assert.assertTrue(rotated1.length() > 0 && rotated1.length() <= 200);
+    Assert.assertTrue(rotated2.length() > 0 && rotated2.length() <= 200);
+    Assert.assertFalse(new File(file.getPath() + ".3").exists());
+  }
+
+  @Test
+  public void testForwarder() throws Exception {
+
+    File file = newFile("forwarder");
+
+    ProxyAccessLog accessLog = new ProxyAccessLog(file);
+    accessLog.start();
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn = new StandInProxy(); ProxyForwarder forwarder = new ProxyForwarder(standIn.getProxy())) {
+
+      forwarder.setEventLoopCount(1);
+      forwarder.setAccessLog(accessLog);
+      forwarder.start();
+
+      try (Socket socket = new Socket(standIn.getProxy().getHost(), forwarder.getPort())) {
+
+        socket.getOutputStream().write(("CONNECT " + origin.getHost() + ":" + origin.getPort() + " HTTP/1.1\r\n\r\nping").getBytes());
+
+        byte[] expected = "HTTP/1.1 200 Connection established\r\n\r\nping".getBytes();
+        byte[] received = new byte[expected.length];
+        int length = 0;
+        while (length < received.length) {
+          length += socket.getInputStream().read(received, length, received.length - length);
+        }
+
+        Assert.assertArrayEquals(expected, received);
+      }
+
+      try (Socket socket = new Socket(standIn.getProxy().getHost(), forwarder.getPort())) {
+        socket.getOutputStream().write("GET / HTTP/1.1\r\n\r\n".getBytes());
+        while (socket.getInputStream().read() != -1) {
+          // the forwarder closes the connection after the answer
+        }
+      }
+
+      // written when the event loop closes the tunnels
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (forwarder.getTunnelCount() > 0 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+    }
+
+    accessLog.close();
+
+    List<String> lines = Files.readAllLines(file.toPath(), UTF_8);
+
+    Assert.assertEquals(2, lines.size());
+
+    String tunnel = lines.get(0).contains(" 200 ") ? lines.get(0) : lines.get(1);
+    String refused = lines.get(0).contains(" 405 ") ? lines.get(0) : lines.get(1);
+
+    Assert.assertTrue(tunnel, tunnel.contains(" 200 4 4 "));
+    Assert.assertTrue(refused, refused.contains(" - 405 0 0 "));
+  }
+
+  private static File newFile(final String name) throws IOException {
+
+    File directory = new File("target/access-log/" + name);
+
+    if (directory.isDirectory()) {
+      for (File file : directory.listFiles()) {
+        Files.delete(file.toPath());
+      }
+    }
+
+    return new File(directory, "access.log");
+  }
+
+}
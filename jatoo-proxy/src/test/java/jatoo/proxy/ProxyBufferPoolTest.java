@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProxyBufferPoolTest {
+
+  @Test
+  public void testLeaseAndRelease() throws Exception {
+
+    ProxyBufferPool pool = new ProxyBufferPool(1024, 4096);
+
+    ByteBuffer buffer1 = pool.lease();
+
+    Assert.assertTrue(buffer1.isDirect());
+    Assert.assertEquals(1024, buffer1.capacity());
+    Assert.assertEquals(4096, pool.getAllocatedBytes());
+    Assert.assertEquals(1024, pool.getOutstandingBytes());
+
+    buffer1.put((byte) 1);
+    pool.release(buffer1);
+
+    ByteBuffer buffer2 = pool.lease();
+
+    // the thread cache returns the last released buffer, cleared
+    Assert.assertSame(buffer1, buffer2);
+    Assert.assertEquals(0, buffer2.position());
+
+    // the rest of the slab serves the next leases
+    ByteBuffer buffer3 = pool.lease();
+    ByteBuffer buffer4 = pool.lease();
+    ByteBuffer buffer5 = pool.lease();
+
+    Assert.assertEquals(4096, pool.getAllocatedBytes());
+    Assert.assertEquals(4096, pool.getOutstandingBytes());
+    Assert.assertEquals(4, pool.getHitCount());
+    Assert.assertEquals(5, pool.getLeaseCount());
+
+    // the buffers do not overlap
+    buffer2.put(0, (byte) 2);
+    buffer3.put(0, (byte) 3);
+    buffer4.put(0, (byte) 4);
+    buffer5.put(0, (byte) 5);
+
+    Assert.assertEquals(2, buffer2.get(0));
+    Assert.assertEquals(3, buffer3.get(0));
+    Assert.assertEquals(4, buffer4.get(0));
+    Assert.assertEquals(5, buffer5.get(0));
+
+    pool.lease();
+
+    Assert.assertEquals(8192, pool.getAllocatedBytes());
+
+    try {
+      pool.release(ByteBuffer.allocate(1024));
+      Assert.fail("the buffer does not belong to the pool");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testLeakDetection() throws Exception {
+
+    ProxyBufferPool pool = new ProxyBufferPool(1024, 1024);
+    pool.setLeakDetectionEnabled(true);
+
+    pool.release(pool.lease());
+    Assert.assertEquals(0, pool.getOutstandingBytes());
+
+    // leaked
+    pool.lease();
+
+    for (int i = 0; i < 100 && pool.getLeakCount() == 0; i++) {
+      System.gc();
+      Thread.sleep(10);
+      pool.release(pool.lease());
+    }
+
+    Assert.assertEquals(1, pool.getLeakCount());
+    Assert.assertNotNull(pool.getLastLeakTrace());
+    Assert.assertEquals(0, pool.getOutstandingBytes());
+
+    // the memory of the leaked buffer was recovered
+    Assert.assertEquals(1024, pool.getAllocatedBytes());
+  }
+
+  @Test
+  public void testThreadCacheOfEndedThread() throws Exception {
+
+    final ProxyBufferPool pool = new ProxyBufferPool(1024, 2048);
+    pool.setLeakDetectionEnabled(true);
+
+    final CountDownLatch released = new CountDownLatch(5);
+
+    // every thread caches the 2 buffers of its own slab (while the others are
+    // alive), and then ends
+    Thread[] threads = new Thread[5];
+
+    for (int i = 0; i < threads.length; i++) {
+
+      threads[i] = new Thread(new Runnable() {
+        public void run() {
+
+          ByteBuffer buffer1 = pool.lease();
+          ByteBuffer buffer2 = pool.lease();
+          pool.release(buffer1);
+          pool.release(buffer2);
+
+          released.countDown();
+
+          try {
+            released.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+    }
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Assert.assertEquals(5 * 2048, pool.getAllocatedBytes());
+
+    for (int i = 0; i < 10; i++) {
+      System.gc();
+      Thread.sleep(10);
+      pool.release(pool.lease());
+    }
+
+    // the cached buffers are not leaks
+    Assert.assertEquals(0, pool.getLeakCount());
+    Assert.assertEquals(0, pool.getOutstandingBytes());
+
+    // and they are reused, instead of new slabs
+    ByteBuffer[] buffers = new ByteBuffer[10];
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = pool.lease();
+    }
+
+    Assert.assertEquals(5 * 2048, pool.getAllocatedBytes());
+    Assert.assertEquals(10 * 1024, pool.getOutstandingBytes());
+  }
+
+}
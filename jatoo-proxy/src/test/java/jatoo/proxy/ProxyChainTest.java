@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProxyChainTest {
+
+  private static final long DELAY = 100;
+
+  @Test
+  public void testSequential() throws Exception {
+    test(false);
+  }
+
+  @Test
+  public void testPipelined() throws Exception {
+    test(true);
+  }
+
+  @Test
+  public void testPipeliningSavesRoundTrips() throws Exception {
+
+    long sequential = test(false);
+    long pipelined = test(true);
+
+    // one trip over the slow link to the first proxy, instead of three
+    Assert.assertTrue(pipelined + " vs " + sequential, pipelined + DELAY <= sequential);
+  }
+
+  @Test
+  public void testHopLatenciesLength() throws Exception {
+
+    try (StandInProxy standIn1 = new StandInProxy(); StandInProxy standIn2 = new StandInProxy()) {
+
+      ProxyChain chain = new ProxyChain(standIn1.getProxy(), standIn2.getProxy());
+
+      for (long[] hopLatencies : new long[][] { new long[1], new long[3] }) {
+        try {
+          chain.openTunnel("localhost", 443, hopLatencies);
+          Assert.fail("the array must have an element for each hop");
+        } catch (IllegalArgumentException e) {
+          // expected
+        }
+      }
+
+      // checked before connecting
+      Assert.assertEquals(0, standIn1.getRequests().size());
+    }
+  }
+
+  /**
+   * Opens a tunnel through three stand-in proxies, the first one behind a
+   * slow link, and returns the setup time, in milliseconds.
+   */
+  private long test(final boolean pipelined) throws Exception {
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn1 = new StandInProxy(); StandInProxy standIn2 = new StandInProxy(); StandInProxy standIn3 = new StandInProxy()) {
+
+      standIn1.setLatency(DELAY);
+
+      standIn1.setDelay(DELAY);
+      standIn2.setDelay(DELAY);
+      standIn3.setDelay(DELAY);
+
+      standIn2.setCredentials("username", "password");
+
+      Proxy proxy2 = standIn2.getProxy();
+      proxy2.setRequiringAuthentication(true);
+      proxy2.setUsername("username");
+      proxy2.setPassword("password");
+
+      ProxyChain chain = new ProxyChain(standIn1.getProxy(), proxy2, standIn3.getProxy());
+      chain.setPipelined(pipelined);
+
+      long[] hopLatencies = new long[3];
+
+      long start = System.nanoTime();
+
+      long duration;
+
+      try (Socket socket = chain.openTunnel(origin.getHost(), origin.getPort(), hopLatencies)) {
+
+        duration = System.nanoTime() - start;
+
+        socket.getOutputStream().write('x');
+        Assert.assertEquals('x', socket.getInputStream().read());
+
+        // every stand-in waits before answering, and the answers come back over the slow link
+        Assert.assertTrue(duration >= TimeUnit.MILLISECONDS.toNanos(3 * DELAY + (pipelined ? 1 : 3) * DELAY));
+
+        // the time every hop adds, so they add up to the setup time
+        long total = 0;
+
+        for (int hop = 0; hop < hopLatencies.length; hop++) {
+
+          Assert.assertEquals(hopLatencies[hop], chain.getAverageHopLatency(hop));
+          total += hopLatencies[hop];
+
+          // an answer is back only after the stand-ins up to its hop waited,
+          // and over the slow link (an answer late on the link shortens the
+          // next hop, so only the sum is bound)
+          Assert.assertTrue(total >= TimeUnit.MILLISECONDS.toNanos((hop + 2) * DELAY));
+        }
+
+        Assert.assertTrue(total <= duration);
+      }
+
+      Assert.assertEquals(1, standIn1.getRequests().size());
+      Assert.assertEquals(1, standIn2.getRequests().size());
+      Assert.assertEquals(1, standIn3.getRequests().size());
+
+      Assert.assertTrue(standIn1.getRequests().get(0).startsWith("CONNECT " + proxy2.getHost() + ":" + proxy2.getPort() + " "));
+      Assert.assertTrue(standIn3.getRequests().get(0).startsWith("CONNECT " + origin.getHost() + ":" + origin.getPort() + " "));
+
+      return TimeUnit.NANOSECONDS.toMillis(duration);
+    }
+  }
+
+}
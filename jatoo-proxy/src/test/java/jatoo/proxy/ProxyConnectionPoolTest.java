@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProxyConnectionPoolTest {
+
+  @Test
+  public void testReuse() throws Exception {
+
+    try (EchoServer server = new EchoServer()) {
+
+      ProxyConnectionPool pool = new ProxyConnectionPool(new ProxyConnector(new Proxy(server.getHost(), server.getPort())));
+
+      Socket socket1 = pool.lease();
+      pool.release(socket1);
+
+      Socket socket2 = pool.lease();
+
+      Assert.assertSame(socket1, socket2);
+      Assert.assertEquals(1, pool.getCreatedCount());
+      Assert.assertEquals(1, pool.getReusedCount());
+
+      pool.close();
+      pool.release(socket2);
+
+      Assert.assertTrue(socket2.isClosed());
+    }
+  }
+
+  @Test
+  public void testValidation() throws Exception {
+
+    try (EchoServer server = new EchoServer()) {
+
+      ProxyConnectionPool pool = new ProxyConnectionPool(new ProxyConnector(new Proxy(server.getHost(), server.getPort())));
+
+      Socket socket1 = pool.lease();
+      pool.release(socket1);
+
+      // the server closes the idle connection
+      while (server.getConnectionCount() == 0) {
+        Thread.sleep(10);
+      }
+      server.closeConnections();
+      Thread.sleep(100);
+
+      Socket socket2 = pool.lease();
+
+      Assert.assertNotSame(socket1, socket2);
+      Assert.assertTrue(socket1.isClosed());
+      Assert.assertEquals(2, pool.getCreatedCount());
+
+      pool.close();
+    }
+  }
+
+  @Test
+  public void testSecureValidation() throws Exception {
+
+    KeyStore keyStore = KeyStore.getInstance("JKS");
+
+    try (InputStream in = getClass().getResourceAsStream("stand-in.jks")) {
+      keyStore.load(in, "changeit".toCharArray());
+    }
+
+    KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    keyManagerFactory.init(keyStore, "changeit".toCharArray());
+
+    TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+    trustManagerFactory.init(keyStore);
+
+    SSLContext serverContext = SSLContext.getInstance("TLS");
+    serverContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+    ProxySslSessionCache.setTrustManagers(trustManagerFactory.getTrustManagers());
+
+    final List<Socket> accepted = new CopyOnWriteArrayList<>();
+
+    try (final ServerSocket serverSocket = serverContext.getServerSocketFactory().createServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+
+      // a TLS echo server (the default protocol, so TLS 1.3), updating its
+      // keys after the first byte, as a TLS record the client has not read yet
+      Thread acceptor = new Thread() {
+        public void run() {
+          while (!serverSocket.isClosed()) {
+            try {
+              final Socket socket = serverSocket.accept();
+              accepted.add(socket);
+              Thread echo = new Thread() {
+                public void run() {
+                  try (Socket closing = socket) {
+                    InputStream in = socket.getInputStream();
+                    OutputStream out = socket.getOutputStream();
+                    int b;
+                    while ((b = in.read()) != -1) {
+                      out.write(b);
+                      out.flush();
+                      if (b == 'x') {
+                        ((SSLSocket) socket).startHandshake();
+                      }
+                    }
+                  } catch (IOException e) {
+                    // closed
+                  }
+                }
+              };
+              echo.setDaemon(true);
+              echo.start();
+            } catch (IOException e) {
+              // closed
+            }
+          }
+        }
+      };
+      acceptor.setDaemon(true);
+      acceptor.start();
+
+      Proxy proxy = new Proxy(serverSocket.getInetAddress().getHostAddress(), serverSocket.getLocalPort());
+      proxy.setSecure(true);
+
+      ProxyConnectionPool pool = new ProxyConnectionPool(new ProxyConnector(proxy));
+
+      Socket socket1 = pool.lease();
+      socket1.getOutputStream().write('x');
+      Assert.assertEquals('x', socket1.getInputStream().read());
+      pool.release(socket1);
+      Thread.sleep(100);
+
+      // still alive, and still usable after the check
+      Socket socket2 = pool.lease();
+
+      Assert.assertSame(socket1, socket2);
+      socket2.getOutputStream().write('y');
+      Assert.assertEquals('y', socket2.getInputStream().read());
+
+      pool.release(socket2);
+
+      // the server closes the idle connection
+      for (Socket socket : accepted) {
+        socket.close();
+      }
+      Thread.sleep(100);
+
+      Socket socket3 = pool.lease();
+
+      Assert.assertNotSame(socket1, socket3);
+      Assert.assertTrue(socket1.isClosed());
+      Assert.assertEquals(2, pool.getCreatedCount());
+
+      pool.discard(socket3);
+      pool.close();
+
+      ProxySslSessionCache.invalidate(proxy);
+    }
+
+    finally {
+      ProxySslSessionCache.setTrustManagers(null);
+    }
+  }
+
+  @Test
+  public void testFillIdleConnections() throws Exception {
+
+    try (EchoServer server = new EchoServer()) {
+
+      ProxyConnectionPool pool = new ProxyConnectionPool(new ProxyConnector(new Proxy(server.getHost(), server.getPort())), 3, 10000);
+
+      pool.fillIdleConnections();
+
+      Assert.assertEquals(3, pool.getIdleCount());
+
+      Socket socket = pool.pollIdle();
+
+      Assert.assertNotNull(socket);
+      Assert.assertEquals(2, pool.getIdleCount());
+      Assert.assertEquals(1, pool.getReusedCount());
+      Assert.assertEquals(0, pool.getCreatedCount());
+
+      socket.close();
+      pool.close();
+
+      Assert.assertNull(pool.pollIdle());
+    }
+  }
+
+  @Test
+  public void testLimits() throws Exception {
+
+    try (EchoServer server = new EchoServer()) {
+
+      ProxyConnectionPool pool = new ProxyConnectionPool(new ProxyConnector(new Proxy(server.getHost(), server.getPort())), 1, 50);
+
+      Socket socket1 = pool.lease();
+      Socket socket2 = pool.lease();
+
+      pool.release(socket1);
+      pool.release(socket2);
+
+      Assert.assertEquals(1, pool.getIdleCount());
+      Assert.assertTrue(socket2.isClosed());
+
+      Thread.sleep(100);
+      pool.evictIdleConnections();
+
+      Assert.assertEquals(0, pool.getIdleCount());
+      Assert.assertTrue(socket1.isClosed());
+    }
+  }
+
+  @Test
+  public void testMaxConnections() throws Exception {
+
+    try (EchoServer server = new EchoServer()) {
+
+      final ProxyConnectionPool pool = new ProxyConnectionPool(new ProxyConnector(new Proxy(server.getHost(), server.getPort())), 4, 10000, 4);
+
+      ExecutorService executor = Executors.newFixedThreadPool(32);
+      List<Future<Void>> futures = new ArrayList<>();
+
+      for (int i = 0; i < 32; i++) {
+        futures.add(executor.submit(new Callable<Void>() {
+          public Void call() throws Exception {
+
+            for (int j = 0; j < 20; j++) {
+
+              Socket socket = pool.lease();
+
+              socket.getOutputStream().write('x');
+              Assert.assertEquals('x', socket.getInputStream().read());
+
+              pool.release(socket);
+            }
+
+            return null;
+          }
+        }));
+      }
+
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+
+      executor.shutdown();
+
+      // 640 requests over (at most) 4 connections
+      Assert.assertTrue(pool.getCreatedCount() <= 4);
+      Assert.assertEquals(640, pool.getCreatedCount() + pool.getReusedCount());
+      Assert.assertTrue(server.getConnectionCount() <= 4);
+      Assert.assertEquals(4, pool.getAvailableConnections());
+
+      Socket socket = pool.lease();
+      pool.discard(socket);
+
+      Assert.assertTrue(socket.isClosed());
+      Assert.assertEquals(4, pool.getAvailableConnections());
+
+      pool.close();
+    }
+  }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProxyConnectorTest {
+
+  @Test
+  public void testTunnel() throws Exception {
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn = new StandInProxy()) {
+
+      standIn.setCredentials("username", "password");
+
+      Proxy proxy = standIn.getProxy();
+      proxy.setRequiringAuthentication(true);
+      proxy.setUsername("username");
+      proxy.setPassword("password");
+
+      try (Socket socket = new ProxyConnector(proxy).openTunnel(origin.getHost(), origin.getPort())) {
+
+        socket.getOutputStream().write("ping".getBytes());
+
+        byte[] pong = new byte[4];
+        int length = 0;
+        while (length < pong.length) {
+          length += socket.getInputStream().read(pong, length, pong.length - length);
+        }
+
+        Assert.assertEquals("ping", new String(pong));
+      }
+    }
+  }
+
+  @Test
+  public void testAuthenticationRequired() throws Exception {
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn = new StandInProxy()) {
+
+      standIn.setCredentials("username", "password");
+
+      try {
+        new ProxyConnector(standIn.getProxy()).openTunnel(origin.getHost(), origin.getPort());
+        Assert.fail("the proxy requires authentication, so the tunnel should be refused");
+      } catch (ProxyResponseException e) {
+        Assert.assertTrue(e.isAuthenticationRequired());
+      }
+    }
+  }
+
+  @Test
+  public void testReadConnectResponse() throws Exception {
+
+    final int[] reads = new int[1];
+
+    ByteArrayInputStream in = new ByteArrayInputStream("HTTP/1.1 200 Connection established\r\nVia: 1.1 proxy\r\n\r\nhello".getBytes("ISO-8859-1")) {
+      @Override
+      public synchronized int read(final byte[] b, final int off, final int len) {
+        reads[0]++;
+        return super.read(b, off, len);
+      }
+    };
+
+    ProxyConnector.readConnectResponse(in);
+
+    // read a few bytes at a time, but nothing of the tunnel
+    Assert.assertTrue(Integer.toString(reads[0]), reads[0] < 20);
+    Assert.assertEquals(5, in.available());
+  }
+
+  @Test
+  public void testConnectionLimit() throws Exception {
+
+    try (EchoServer server = new EchoServer()) {
+
+      Proxy proxy = new Proxy(server.getHost(), server.getPort());
+      ProxyRateLimits.setConnectionLimit(proxy, 0.1, 1);
+
+      try {
+
+        ProxyConnector connector = new ProxyConnector(proxy);
+        connector.setConnectTimeout(100);
+
+        connector.connect().close();
+
+        try {
+          connector.connect();
+          Assert.fail("the connection limit should be exceeded");
+        } catch (IOException e) {}
+      }
+
+      finally {
+        ProxyRateLimits.removeLimits(proxy);
+      }
+    }
+  }
+
+}
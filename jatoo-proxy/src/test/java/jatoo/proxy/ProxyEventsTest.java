@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.net.Authenticator;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProxyEventsTest {
+
+  private final List<ProxyEvent> events = new CopyOnWriteArrayList<>();
+
+  private final ProxyEventListener listener = new ProxyEventListener() {
+    public void proxyEvent(final ProxyEvent event) {
+      events.add(event);
+    }
+  };
+
+  @Before
+  public void addListener() {
+    ProxyEvents.addListener(listener);
+  }
+
+  @After
+  public void removeListener() {
+    ProxyEvents.removeListener(listener);
+    Assert.assertFalse(ProxyEvents.isEnabled());
+  }
+
+  @Test
+  public void testConnector() throws Exception {
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn = new StandInProxy()) {
+
+      standIn.setCredentials("username", "password");
+
+      Proxy proxy = standIn.getProxy();
+      String upstream = proxy.getHost() + ":" + proxy.getPort();
+      String destination = origin.getHost() + ":" + origin.getPort();
+
+      try {
+        new ProxyConnector(proxy).openTunnel(origin.getHost(), origin.getPort());
+        Assert.fail("the proxy requires authentication, so the tunnel should be refused");
+      } catch (ProxyResponseException e) {}
+
+      Assert.assertEquals(3, events.size());
+
+      assertEvent(events.get(0), ProxyEvent.Type.RESOLUTION, upstream, null, true);
+      assertEvent(events.get(1), ProxyEvent.Type.CONNECTION, upstream, null, true);
+      assertEvent(events.get(2), ProxyEvent.Type.PROXY_HANDSHAKE, upstream, destination, false);
+      Assert.assertTrue(events.get(2).getFailure().contains("407"));
+
+      events.clear();
+
+      proxy.setRequiringAuthentication(true);
+      proxy.setUsername("username");
+      proxy.setPassword("password");
+
+      new ProxyConnector(proxy).openTunnel(origin.getHost(), origin.getPort()).close();
+
+      Assert.assertEquals(3, events.size());
+      assertEvent(events.get(2), ProxyEvent.Type.PROXY_HANDSHAKE, upstream, destination, true);
+    }
+  }
+
+  @Test
+  public void testForwarder() throws Exception {
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn = new StandInProxy(); ProxyForwarder forwarder = new ProxyForwarder(standIn.getProxy())) {
+
+      forwarder.start();
+
+      String upstream = standIn.getProxy().getHost() + ":" + standIn.getPort();
+      String destination = origin.getHost() + ":" + origin.getPort();
+
+      try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), forwarder.getPort())) {
+
+        socket.getOutputStream().write(("CONNECT " + destination + " HTTP/1.1\r\n\r\nping").getBytes());
+
+        byte[] received = new byte["HTTP/1.1 200 Connection established\r\n\r\nping".length()];
+        int length = 0;
+        while (length < received.length) {
+          length += socket.getInputStream().read(received, length, received.length - length);
+        }
+      }
+
+      // the tunnel is traced once the forwarder sees it closed
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+      while (events.size() < 4 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+
+      Assert.assertEquals(4, events.size());
+
+      assertEvent(events.get(0), ProxyEvent.Type.RESOLUTION, upstream, null, true);
+      assertEvent(events.get(1), ProxyEvent.Type.CONNECTION, upstream, destination, true);
+      assertEvent(events.get(2), ProxyEvent.Type.PROXY_HANDSHAKE, upstream, destination, true);
+      assertEvent(events.get(3), ProxyEvent.Type.TUNNEL, upstream, destination, true);
+      Assert.assertEquals(8, events.get(3).getBytes());
+    }
+  }
+
+  @Test
+  public void testSelectionAndAuthentication() throws Exception {
+
+    Proxy proxy = new Proxy("localhost", 3128, "username", "password");
+
+    try {
+
+      ProxyUtils.setProxy(proxy);
+
+      Authenticator.requestPasswordAuthentication("localhost", null, 3128, "http", "proxy", "basic", new URL("https://example.com/"), Authenticator.RequestorType.PROXY);
+    }
+
+    finally {
+      ProxyUtils.removeProxy();
+    }
+
+    Assert.assertEquals(2, events.size());
+
+    assertEvent(events.get(0), ProxyEvent.Type.SELECTION, "localhost:3128", null, true);
+    assertEvent(events.get(1), ProxyEvent.Type.AUTHENTICATION, "localhost:3128", "example.com:443", true);
+  }
+
+  private static void assertEvent(final ProxyEvent event, final ProxyEvent.Type type, final String upstream, final String destination, final boolean succeeded) {
+    Assert.assertEquals(event.toString(), type, event.getType());
+    Assert.assertEquals(event.toString(), upstream, event.getUpstream());
+    Assert.assertEquals(event.toString(), destination, event.getDestination());
+    Assert.assertEquals(event.toString(), succeeded, event.isSucceeded());
+    Assert.assertTrue(event.toString(), event.getDuration() >= 0);
+  }
+
+}
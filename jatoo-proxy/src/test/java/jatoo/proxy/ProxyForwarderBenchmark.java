@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the connection rate of a {@link ProxyForwarder} for an increasing
+ * number of event loops, with and without <code>SO_REUSEPORT</code>. Every
+ * connection sends a request that the forwarder refuses right away, so the
+ * measurement covers accepting, reading and answering, but not the upstream.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public class ProxyForwarderBenchmark {
+
+  private static final long DURATION = TimeUnit.SECONDS.toNanos(5);
+
+  private static final byte[] REQUEST = "GET / HTTP/1.1\r\n\r\n".getBytes();
+
+  public static void main(String[] args) throws Exception {
+
+    int processors = Runtime.getRuntime().availableProcessors();
+    int clients = args.length > 0 ? Integer.parseInt(args[0]) : 2 * processors;
+
+    System.out.println("loops  SO_REUSEPORT  acceptor  (connections per second, " + clients + " clients)");
+
+    for (int loops = 1; loops <= processors; loops *= 2) {
+      System.out.printf("%5d  %12d  %8d%n", loops, run(loops, true, clients), run(loops, false, clients));
+    }
+  }
+
+  private static long run(final int loops, final boolean reusePortEnabled, final int clients) throws Exception {
+
+    try (ProxyForwarder forwarder = new ProxyForwarder(new Proxy("localhost", 9))) {
+
+      forwarder.setEventLoopCount(loops);
+      forwarder.setReusePortEnabled(reusePortEnabled);
+      forwarder.start();
+
+      final InetAddress address = InetAddress.getLoopbackAddress();
+      final int port = forwarder.getPort();
+      final long end = System.nanoTime() + DURATION;
+
+      final AtomicLong connections = new AtomicLong();
+      final CountDownLatch done = new CountDownLatch(clients);
+
+      for (int i = 0; i < clients; i++) {
+        new Thread() {
+          public void run() {
+            try {
+              byte[] buffer = new byte[256];
+              while (System.nanoTime() < end) {
+                try (Socket socket = new Socket(address, port)) {
+                  socket.getOutputStream().write(REQUEST);
+                  InputStream in = socket.getInputStream();
+                  while (in.read(buffer) != -1) {
+                    // the forwarder closes the connection after the answer
+                  }
+                }
+                connections.incrementAndGet();
+              }
+            } catch (Exception e) {
+              e.printStackTrace();
+            } finally {
+              done.countDown();
+            }
+          }
+        }.start();
+      }
+
+      done.await();
+
+      return connections.get() * TimeUnit.SECONDS.toNanos(1) / DURATION;
+    }
+  }
+
+}
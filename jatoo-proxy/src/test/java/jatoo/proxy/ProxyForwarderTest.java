@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProxyForwarderTest {
+
+  @Test
+  public void testReusePort() throws Exception {
+    test(true);
+  }
+
+  @Test
+  public void testAcceptor() throws Exception {
+    test(false);
+  }
+
+  private void test(final boolean reusePortEnabled) throws Exception {
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn = new StandInProxy()) {
+
+      standIn.setCredentials("username", "password");
+
+      Proxy upstream = standIn.getProxy();
+      upstream.setRequiringAuthentication(true);
+      upstream.setUsername("username");
+      upstream.setPassword("password");
+
+      try (ProxyForwarder forwarder = new ProxyForwarder(upstream)) {
+
+        forwarder.setEventLoopCount(4);
+        forwarder.setReusePortEnabled(reusePortEnabled);
+        forwarder.start();
+
+        if (!reusePortEnabled) {
+          Assert.assertFalse(forwarder.isReusePort());
+        }
+
+        // the applications do not need the credentials of the upstream
+        ProxyConnector connector = new ProxyConnector(new Proxy(InetAddress.getLoopbackAddress().getHostAddress(), forwarder.getPort()));
+
+        for (int i = 0; i < 16; i++) {
+          try (Socket socket = connector.openTunnel(origin.getHost(), origin.getPort())) {
+
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+
+            byte[] data = new byte[100000];
+            for (int j = 0; j < data.length; j++) {
+              data[j] = (byte) j;
+            }
+
+            out.write(data);
+            out.flush();
+
+            byte[] echo = new byte[data.length];
+            int length = 0;
+            while (length < echo.length) {
+              length += in.read(echo, length, echo.length - length);
+            }
+
+            Assert.assertArrayEquals(data, echo);
+          }
+        }
+
+        Assert.assertEquals(16, forwarder.getAcceptedCount());
+        Assert.assertEquals(16, standIn.getRequests().size());
+
+        // the tunnels are closed once both sides closed their connections
+        origin.closeConnections();
+
+        for (int i = 0; i < 100 && forwarder.getTunnelCount() > 0; i++) {
+          Thread.sleep(10);
+        }
+
+        Assert.assertEquals(0, forwarder.getTunnelCount());
+      }
+    }
+  }
+
+  @Test
+  public void testSpareConnections() throws Exception {
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn = new StandInProxy()) {
+
+      Proxy upstream = standIn.getProxy();
+      String key = upstream.getHost() + ":" + upstream.getPort();
+
+      ProxyConnectionPool spares;
+
+      try (ProxyForwarder forwarder = new ProxyForwarder(upstream)) {
+
+        forwarder.setEventLoopCount(1);
+        forwarder.setSpareConnectionCount(2);
+        forwarder.start();
+
+        spares = getConnectionPool(key);
+
+        ProxyConnector connector = new ProxyConnector(new Proxy(InetAddress.getLoopbackAddress().getHostAddress(), forwarder.getPort()));
+
+        for (int i = 0; i < 4; i++) {
+
+          // opened ahead, and replaced once taken
+          for (int j = 0; j < 100 && spares.getIdleCount() < 2; j++) {
+            Thread.sleep(10);
+          }
+          Assert.assertEquals(2, spares.getIdleCount());
+
+          try (Socket tunnel = connector.openTunnel(origin.getHost(), origin.getPort())) {
+            tunnel.getOutputStream().write('x');
+            Assert.assertEquals('x', tunnel.getInputStream().read());
+          }
+        }
+
+        // every tunnel took a spare, none connected by itself
+        Assert.assertEquals(4, spares.getReusedCount());
+        Assert.assertEquals(4, standIn.getRequests().size());
+
+        for (int i = 0; i < 100 && standIn.getConnectionCount() < 6; i++) {
+          Thread.sleep(10);
+        }
+        Assert.assertEquals(6, standIn.getConnectionCount());
+      }
+
+      // the spares are closed with the forwarder
+      Assert.assertEquals(0, spares.getIdleCount());
+      Assert.assertNull(getConnectionPool(key));
+    }
+  }
+
+  private static ProxyConnectionPool getConnectionPool(final String key) {
+
+    for (Map.Entry<ProxyConnectionPool, String> entry : ProxyMetrics.getDefault().getConnectionPools().entrySet()) {
+      if (entry.getValue().equals(key)) {
+        return entry.getKey();
+      }
+    }
+
+    return null;
+  }
+
+  @Test
+  public void testSwapUpstream() throws Exception {
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn1 = new StandInProxy(); StandInProxy standIn2 = new StandInProxy()) {
+
+      try (final ProxyForwarder forwarder = new ProxyForwarder(standIn1.getProxy())) {
+
+        forwarder.setEventLoopCount(2);
+        forwarder.start();
+
+        ProxyConnector connector = new ProxyConnector(new Proxy(origin.getHost(), forwarder.getPort()));
+
+        Socket tunnel1 = connector.openTunnel(origin.getHost(), origin.getPort());
+        final Socket tunnel2 = connector.openTunnel(origin.getHost(), origin.getPort());
+
+        final ProxyUpstreamSwap[] swap = new ProxyUpstreamSwap[1];
+        final Proxy proxy2 = standIn2.getProxy();
+
+        Thread swapper = new Thread() {
+          public void run() {
+            try {
+              swap[0] = forwarder.swapUpstream(proxy2, 500);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        };
+        swapper.start();
+
+        Thread.sleep(100);
+
+        // the new tunnels use the new upstream right away
+        try (Socket tunnel3 = connector.openTunnel(origin.getHost(), origin.getPort())) {
+          tunnel3.getOutputStream().write('x');
+          Assert.assertEquals('x', tunnel3.getInputStream().read());
+        }
+
+        Assert.assertEquals(2, standIn1.getRequests().size());
+        Assert.assertEquals(1, standIn2.getRequests().size());
+
+        // the old tunnels still work while draining
+        tunnel1.getOutputStream().write('y');
+        Assert.assertEquals('y', tunnel1.getInputStream().read());
+
+        // one of them finishes in time
+        tunnel2.close();
+
+        swapper.join();
+
+        Assert.assertEquals(1, swap[0].getDrainedCount());
+        Assert.assertEquals(1, swap[0].getClosedCount());
+        Assert.assertTrue(swap[0].getDrainTime() >= TimeUnit.MILLISECONDS.toNanos(500));
+
+        // the other one was closed at the deadline
+        Assert.assertEquals(-1, tunnel1.getInputStream().read());
+        tunnel1.close();
+      }
+    }
+  }
+
+  @Test
+  public void testErrors() throws Exception {
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn = new StandInProxy()) {
+
+      standIn.setCredentials("username", "password");
+
+      // the forwarder does not know the credentials of the upstream
+      try (ProxyForwarder forwarder = new ProxyForwarder(standIn.getProxy())) {
+
+        forwarder.setEventLoopCount(1);
+        forwarder.start();
+
+        ProxyConnector connector = new ProxyConnector(new Proxy(InetAddress.getLoopbackAddress().getHostAddress(), forwarder.getPort()));
+
+        try {
+          connector.openTunnel(origin.getHost(), origin.getPort());
+          Assert.fail("the upstream refused the tunnel, so the forwarder should refuse it too");
+        } catch (ProxyResponseException e) {
+          Assert.assertEquals(502, e.getStatusCode());
+        }
+
+        try (Socket socket = connector.connect()) {
+
+          socket.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes("ISO-8859-1"));
+
+          try {
+            ProxyConnector.readConnectResponse(socket.getInputStream());
+            Assert.fail("only CONNECT is supported");
+          } catch (ProxyResponseException e) {
+            Assert.assertEquals(405, e.getStatusCode());
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSocksLimits() throws Exception {
+
+    char[] tooLong = new char[ProxyRequestParser.MAX_HOST_LENGTH + 1];
+    Arrays.fill(tooLong, 'a');
+
+    // a SOCKS upstream that never answers (the connections wait in the backlog)
+    try (ServerSocket upstream = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+
+      Proxy proxy = new Proxy(upstream.getInetAddress().getHostAddress(), upstream.getLocalPort());
+      proxy.setType(ProxyType.SOCKS);
+
+      // a user name SOCKS5 cannot carry is refused up front, not by every tunnel
+      Proxy tooLongUsername = new Proxy(true, proxy.getHost(), proxy.getPort(), true, new String(tooLong), "password");
+      tooLongUsername.setType(ProxyType.SOCKS);
+
+      try {
+        new ProxyForwarder(tooLongUsername).close();
+        Assert.fail("the user name is too long");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+
+      try (ProxyForwarder forwarder = new ProxyForwarder(proxy)) {
+
+        forwarder.setEventLoopCount(1);
+        forwarder.start();
+
+        try {
+          forwarder.swapUpstream(tooLongUsername, 0);
+          Assert.fail("the user name is too long");
+        } catch (IllegalArgumentException e) {
+          Assert.assertSame(proxy, forwarder.getConnector().getProxy());
+        }
+
+        ProxyConnector connector = new ProxyConnector(new Proxy(InetAddress.getLoopbackAddress().getHostAddress(), forwarder.getPort()));
+
+        // a host SOCKS5 cannot carry is refused as a bad request
+        try {
+          connector.openTunnel(new String(tooLong), 443);
+          Assert.fail("the host is too long");
+        } catch (ProxyResponseException e) {
+          Assert.assertEquals(400, e.getStatusCode());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testTimeouts() throws Exception {
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn = new StandInProxy()) {
+
+      try (ProxyForwarder forwarder = new ProxyForwarder(standIn.getProxy())) {
+
+        forwarder.setEventLoopCount(1);
+        forwarder.setIdleTimeout(300);
+        forwarder.setHandshakeTimeout(300);
+        forwarder.start();
+
+        ProxyConnector connector = new ProxyConnector(new Proxy(origin.getHost(), forwarder.getPort()));
+
+        // idle
+        try (Socket socket = connector.openTunnel(origin.getHost(), origin.getPort())) {
+
+          socket.getOutputStream().write('x');
+          Assert.assertEquals('x', socket.getInputStream().read());
+
+          Thread.sleep(200);
+
+          socket.getOutputStream().write('y');
+          Assert.assertEquals('y', socket.getInputStream().read());
+
+          // closed by the forwarder, once idle for longer than the timeout
+          Assert.assertEquals(-1, socket.getInputStream().read());
+        }
+
+        // the upstream is too slow
+        standIn.setDelay(1000);
+
+        try {
+          connector.openTunnel(origin.getHost(), origin.getPort());
+          Assert.fail("the upstream is too slow, so the tunnel should time out");
+        } catch (ProxyResponseException e) {
+          Assert.assertEquals(504, e.getStatusCode());
+        }
+
+        Assert.assertEquals(2, forwarder.getTimedOutCount());
+      }
+    }
+  }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package jatoo.proxy;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the tunnels of a {@link ProxyForwarder} through a local HTTP/1.1
+ * upstream proxy (a connection per tunnel) with the tunnels multiplexed over a
+ * few HTTP/2 connections to a local HTTP/2 stand-in. All the tunnels are open
+ * at the same time; the benchmark reports the connections the upstream
+ * accepted, the latencies of opening the tunnels and the latencies of the
+ * small round trips through them.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public class ProxyHttp2Benchmark {
+
+  private static final int ROUND_TRIPS = 100;
+
+  private static final byte[] MESSAGE = new byte[64];
+
+  public static void main(String[] args) throws Exception {
+
+    int tunnels = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int connections = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+    System.out.println("upstream  connections  open p50  open p99  round trip p50  round trip p99  (microseconds, " + tunnels + " tunnels)");
+
+    try (EchoServer origin = new EchoServer()) {
+
+      try (StandInProxy standIn = new StandInProxy()) {
+        print("HTTP/1.1", run(standIn.getProxy(), 0, tunnels, origin), standIn.getConnectionCount());
+      }
+
+      try (StandInHttp2Proxy standIn = new StandInHttp2Proxy()) {
+        print("HTTP/2", run(standIn.getProxy(), connections, tunnels, origin), standIn.getConnectionCount());
+      }
+    }
+  }
+
+  private static void print(final String upstream, final ProxyLatencyHistogram[] latencies, final int connections) {
+    System.out.printf("%8s  %11d  %8d  %8d  %14d  %14d%n", upstream, connections, latencies[0].getQuantile(0.5), latencies[0].getQuantile(0.99), latencies[1].getQuantile(0.5), latencies[1].getQuantile(0.99));
+  }
+
+  /**
+   * Opens all the tunnels, waits until all of them are open (so the upstream
+   * sees them at the same time) and then makes the round trips through every
+   * one of them.
+   * 
+   * @return the latencies of opening the tunnels, and of the round trips
+   */
+  private static ProxyLatencyHistogram[] run(final Proxy upstream, final int http2ConnectionCount, final int tunnels, final EchoServer origin) throws Exception {
+
+    final ProxyLatencyHistogram openLatencies = new ProxyLatencyHistogram();
+    final ProxyLatencyHistogram roundTripLatencies = new ProxyLatencyHistogram();
+
+    try (ProxyForwarder forwarder = new ProxyForwarder(upstream)) {
+
+      forwarder.setEventLoopCount(1);
+      forwarder.setHttp2ConnectionCount(http2ConnectionCount);
+      forwarder.start();
+
+      final ProxyConnector connector = new ProxyConnector(new Proxy(InetAddress.getLoopbackAddress().getHostAddress(), forwarder.getPort()));
+
+      final CountDownLatch open = new CountDownLatch(tunnels);
+      final CountDownLatch done = new CountDownLatch(tunnels);
+      final AtomicInteger failures = new AtomicInteger();
+
+      for (int i = 0; i < tunnels; i++) {
+        new Thread() {
+          public void run() {
+            Socket socket = null;
+            try {
+
+              long start = System.nanoTime();
+              socket = connector.openTunnel(origin.getHost(), origin.getPort());
+              openLatencies.record(System.nanoTime() - start);
+
+              open.countDown();
+              open.await();
+
+              OutputStream out = socket.getOutputStream();
+              InputStream in = socket.getInputStream();
+              byte[] echo = new byte[MESSAGE.length];
+
+              for (int j = 0; j < ROUND_TRIPS; j++) {
+
+                start = System.nanoTime();
+
+                out.write(MESSAGE);
+                out.flush();
+
+                for (int read = 0; read < echo.length;) {
+                  int n = in.read(echo, read, echo.length - read);
+                  if (n == -1) {
+                    throw new IllegalStateException("the echo ended after " + read + " bytes");
+                  }
+                  read += n;
+                }
+
+                roundTripLatencies.record(System.nanoTime() - start);
+              }
+            }
+
+            catch (Exception e) {
+              failures.incrementAndGet();
+              e.printStackTrace();
+            }
+
+            finally {
+              if (socket == null) {
+                open.countDown();
+              }
+              closeQuietly(socket);
+              done.countDown();
+            }
+          }
+        }.start();
+      }
+
+      done.await();
+
+      if (failures.get() > 0) {
+        System.out.println(failures.get() + " tunnels failed");
+      }
+    }
+
+    return new ProxyLatencyHistogram[] { openLatencies, roundTripLatencies };
+  }
+
+  private static void closeQuietly(final Closeable closeable) {
+    try {
+      if (closeable != null) {
+        closeable.close();
+      }
+    } catch (Exception e) {
+      // nothing to do
+    }
+  }
+
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An open loop load generator: sends GET requests to an URL, through whatever
+ * proxy {@link ProxyUtils} configured, at a fixed rate, whether the previous
+ * requests were answered or not, and reports the latency percentiles.
+ * <p>
+ * The latency of a request is measured from the moment it should have been
+ * sent (by the schedule), not from the moment a worker got to send it, so a
+ * stall is charged to every request it delayed, not only to the one that hit
+ * it (the correction of the coordinated omission). The uncorrected latencies
+ * are reported as well, to show the difference.
+ * 
+ * <pre>
+ * java jatoo.proxy.ProxyLoadGenerator [rate] [requests] [proxy delay millis] [failure rate]
+ * </pre>
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public class ProxyLoadGenerator {
+
+  private final URL url;
+
+  private double rate = 100;
+  private int requestCount = 1000;
+  private int threadCount = 32;
+  private int timeout = 10000;
+
+  public ProxyLoadGenerator(final URL url) {
+    this.url = url;
+  }
+
+  /**
+   * Sets the number of requests per second.
+   */
+  public void setRate(final double rate) {
+    this.rate = rate;
+  }
+
+  public void setRequestCount(final int requestCount) {
+    this.requestCount = requestCount;
+  }
+
+  /**
+   * Sets the number of threads sending the requests (the most requests in
+   * flight at once).
+   */
+  public void setThreadCount(final int threadCount) {
+    this.threadCount = threadCount;
+  }
+
+  /**
+   * Sets the connect and read timeouts of a request, in milliseconds.
+   */
+  public void setTimeout(final int timeout) {
+    this.timeout = timeout;
+  }
+
+  /**
+   * Sends all the requests, on the schedule, and waits for them.
+   */
+  public Report run() throws InterruptedException {
+
+    final Report report = new Report();
+
+    final long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+    final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+
+    final AtomicLong next = new AtomicLong();
+
+    Thread[] threads = new Thread[Math.max(1, Math.min(threadCount, requestCount))];
+
+    for (int i = 0; i < threads.length; i++) {
+
+      threads[i] = new Thread("load-generator-" + i) {
+        public void run() {
+
+          long index;
+          while ((index = next.getAndIncrement()) < requestCount) {
+
+            long intended = start + index * interval;
+
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+              LockSupport.parkNanos(wait);
+            }
+
+            long sent = System.nanoTime();
+            boolean ok = request();
+            long end = System.nanoTime();
+
+            report.corrected.record(end - intended);
+            report.uncorrected.record(end - sent);
+
+            if (!ok) {
+              report.errorCount.incrementAndGet();
+            }
+          }
+        }
+      };
+
+      threads[i].setDaemon(true);
+      threads[i].start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    report.duration = System.nanoTime() - start;
+
+    return report;
+  }
+
+  /**
+   * Sends one request and reads the whole answer.
+   * 
+   * @return <code>true</code> if answered with <code>200</code>
+   */
+  private boolean request() {
+
+    HttpURLConnection connection = null;
+
+    try {
+
+      connection = (HttpURLConnection) url.openConnection();
+      connection.setUseCaches(false);
+      connection.setConnectTimeout(timeout);
+      connection.setReadTimeout(timeout);
+
+      int code = connection.getResponseCode();
+
+      InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+
+      if (in != null) {
+        try {
+          byte[] buffer = new byte[8192];
+          while (in.read(buffer) != -1) {
+            // the whole answer is part of the latency
+          }
+        } finally {
+          in.close();
+        }
+      }
+
+      return code == 200;
+    }
+
+    catch (IOException e) {
+      return false;
+    }
+
+    finally {
+      if (connection != null) {
+        connection.disconnect();
+      }
+    }
+  }
+
+  /**
+   * The outcome of a run: the latency percentiles, in microseconds.
+   */
+  public static class Report {
+
+    private final ProxyLatencyHistogram corrected = new ProxyLatencyHistogram();
+    private final ProxyLatencyHistogram uncorrected = new ProxyLatencyHistogram();
+
+    private final AtomicInteger errorCount = new AtomicInteger();
+
+    private long duration;
+
+    public long getCount() {
+      return corrected.getCount();
+    }
+
+    public int getErrorCount() {
+      return errorCount.get();
+    }
+
+    /**
+     * @return the latency (from the scheduled moment) below which the
+     *         specified fraction of the requests were answered
+     */
+    public long getQuantile(final double quantile) {
+      return corrected.getQuantile(quantile);
+    }
+
+    /**
+     * @return the latency (from the moment the request was actually sent)
+     *         below which the specified fraction of the requests were
+     *         answered
+     */
+    public long getUncorrectedQuantile(final double quantile) {
+      return uncorrected.getQuantile(quantile);
+    }
+
+    /**
+     * @return the achieved number of requests per second
+     */
+    public double getThroughput() {
+      return getCount() * (double) TimeUnit.SECONDS.toNanos(1) / duration;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d requests (%d errors), %.1f/s%n" //
+          + "             p50        p99      p99.9        max (microseconds)%n" //
+          + "corrected    %-10d %-10d %-10d %d%n" //
+          + "uncorrected  %-10d %-10d %-10d %d", //
+          getCount(), getErrorCount(), getThroughput(), //
+          getQuantile(0.5), getQuantile(0.99), getQuantile(0.999), corrected.getMax(), //
+          getUncorrectedQuantile(0.5), getUncorrectedQuantile(0.99), getUncorrectedQuantile(0.999), uncorrected.getMax());
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    double rate = args.length > 0 ? Double.parseDouble(args[0]) : 200;
+    int requests = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    long delay = args.length > 2 ? Long.parseLong(args[2]) : 0;
+    double failureRate = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+
+    // the loopback is not proxied by default
+    System.setProperty("http.nonProxyHosts", "");
+
+    try (StandInOrigin origin = new StandInOrigin(); StandInProxy standIn = new StandInProxy()) {
+
+      origin.setBodySize(16 * 1024);
+
+      standIn.setCredentials("username", "password");
+      standIn.setDelay(delay);
+      standIn.setFailureRate(failureRate);
+
+      ProxyUtils.setProxy(standIn.getProxy().getHost(), standIn.getPort(), "username", "password");
+
+      ProxyLoadGenerator generator = new ProxyLoadGenerator(new URL(origin.getUrl("/")));
+      generator.setRate(rate);
+      generator.setRequestCount(requests);
+
+      System.out.println(generator.run());
+    }
+
+    finally {
+      ProxyUtils.removeProxy();
+    }
+  }
+
+}
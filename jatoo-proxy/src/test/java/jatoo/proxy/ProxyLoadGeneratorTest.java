@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProxyLoadGeneratorTest {
+
+  private StandInOrigin origin;
+  private StandInProxy standIn;
+
+  @Before
+  public void start() throws Exception {
+
+    // the loopback is not proxied by default
+    System.setProperty("http.nonProxyHosts", "");
+
+    origin = new StandInOrigin();
+    origin.setBodySize(1024);
+
+    standIn = new StandInProxy();
+    standIn.setCredentials("username", "password");
+
+    ProxyUtils.setProxy(standIn.getProxy().getHost(), standIn.getPort(), "username", "password");
+  }
+
+  @After
+  public void stop() throws Exception {
+
+    ProxyUtils.removeProxy();
+    System.clearProperty("http.nonProxyHosts");
+
+    standIn.close();
+    origin.close();
+  }
+
+  @Test
+  public void testThroughProxy() throws Exception {
+
+    ProxyLoadGenerator generator = new ProxyLoadGenerator(new URL(origin.getUrl("/")));
+    generator.setRate(50);
+    generator.setRequestCount(50);
+
+    ProxyLoadGenerator.Report report = generator.run();
+
+    Assert.assertEquals(50, report.getCount());
+    Assert.assertEquals(0, report.getErrorCount());
+    Assert.assertEquals(50, origin.getRequestCount());
+
+    Assert.assertTrue(report.getQuantile(0.5) > 0);
+    Assert.assertTrue(report.getQuantile(0.5) <= report.getQuantile(0.99));
+    Assert.assertTrue(report.getQuantile(0.99) <= report.getQuantile(0.999));
+    Assert.assertTrue(report.getUncorrectedQuantile(0.99) <= report.getQuantile(0.99));
+  }
+
+  @Test
+  public void testFailures() throws Exception {
+
+    standIn.setFailureRate(0.2);
+
+    ProxyLoadGenerator generator = new ProxyLoadGenerator(new URL(origin.getUrl("/")));
+    generator.setRate(50);
+    generator.setRequestCount(50);
+
+    ProxyLoadGenerator.Report report = generator.run();
+
+    Assert.assertEquals(50, report.getCount());
+    Assert.assertEquals(10, report.getErrorCount());
+    Assert.assertEquals(40, origin.getRequestCount());
+  }
+
+  @Test
+  public void testCoordinatedOmission() throws Exception {
+
+    // one request at a time, each taking longer than the interval between them
+    standIn.setDelay(50);
+
+    ProxyLoadGenerator generator = new ProxyLoadGenerator(new URL(origin.getUrl("/")));
+    generator.setRate(100);
+    generator.setRequestCount(40);
+    generator.setThreadCount(1);
+
+    ProxyLoadGenerator.Report report = generator.run();
+
+    Assert.assertEquals(0, report.getErrorCount());
+
+    // measured from when they were sent, the requests look fine
+    Assert.assertTrue(report.getUncorrectedQuantile(0.5) >= TimeUnit.MILLISECONDS.toMicros(50));
+
+    // but the last ones waited for all the others
+    Assert.assertTrue(report.toString(), report.getQuantile(0.99) > TimeUnit.SECONDS.toMicros(1));
+    Assert.assertTrue(report.toString(), report.getQuantile(0.99) > 4 * report.getUncorrectedQuantile(0.99));
+  }
+
+}
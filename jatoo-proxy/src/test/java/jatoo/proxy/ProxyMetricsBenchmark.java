@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the cost of recording the metrics from an increasing number of
+ * threads: a plain {@link AtomicLong} (all the threads on the same counter)
+ * against a {@link ProxyStripedCounter}, and the latency histogram. The
+ * results are the nanoseconds spent per recording, on each thread, so they
+ * tell how much the recording adds to a relay write or to a connection.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public class ProxyMetricsBenchmark {
+
+  private static final int OPERATIONS = 10000000;
+
+  private static final int RUNS = 5;
+
+  public static void main(String[] args) throws Exception {
+
+    int processors = Runtime.getRuntime().availableProcessors();
+
+    final AtomicLong atomicLong = new AtomicLong();
+    final ProxyStripedCounter stripedCounter = new ProxyStripedCounter();
+    final ProxyLatencyHistogram histogram = new ProxyLatencyHistogram();
+
+    Runnable[] operations = new Runnable[] {
+
+        new Runnable() {
+          public void run() {
+            for (int i = 0; i < OPERATIONS; i++) {
+              atomicLong.addAndGet(i);
+            }
+          }
+        },
+
+        new Runnable() {
+          public void run() {
+            for (int i = 0; i < OPERATIONS; i++) {
+              stripedCounter.add(i);
+            }
+          }
+        },
+
+        new Runnable() {
+          public void run() {
+            for (int i = 0; i < OPERATIONS; i++) {
+              histogram.record(i);
+            }
+          }
+        }
+    };
+
+    System.out.println("threads  AtomicLong  striped counter  histogram  (nanoseconds per recording)");
+
+    for (int threads = 1; threads <= 2 * processors; threads *= 2) {
+
+      System.out.printf("%7d", threads);
+
+      for (Runnable operation : operations) {
+
+        long best = Long.MAX_VALUE;
+
+        for (int run = 0; run < RUNS; run++) {
+          best = Math.min(best, run(operation, threads));
+        }
+
+        System.out.printf("  %10.1f", (double) best / OPERATIONS);
+      }
+
+      System.out.println();
+    }
+
+    // keeps the results alive
+    System.out.println("(" + (atomicLong.get() + stripedCounter.sum() + histogram.getCount()) + ")");
+  }
+
+  /**
+   * Runs the operation on the specified number of threads, and returns the
+   * average time, in nanoseconds, a thread spent.
+   */
+  private static long run(final Runnable operation, final int threads) throws InterruptedException {
+
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    final AtomicLong time = new AtomicLong();
+
+    for (int i = 0; i < threads; i++) {
+      new Thread() {
+        public void run() {
+          try {
+            start.await();
+            long begin = System.nanoTime();
+            operation.run();
+            time.addAndGet(System.nanoTime() - begin);
+          } catch (InterruptedException e) {
+            // not interrupted
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+
+    start.countDown();
+    done.await();
+
+    return time.get() / threads;
+  }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProxyMetricsEndpointTest {
+
+  @Test
+  public void testCumulativeCounts() {
+
+    ProxyLatencyHistogram histogram = new ProxyLatencyHistogram();
+
+    histogram.record(TimeUnit.MICROSECONDS.toNanos(10));
+    histogram.record(TimeUnit.MICROSECONDS.toNanos(127));
+    histogram.record(TimeUnit.MICROSECONDS.toNanos(128));
+    histogram.record(TimeUnit.SECONDS.toNanos(100));
+
+    long[] counts = new long[4];
+    long sum = histogram.getCumulativeCounts(6, counts);
+
+    // below 64us, 128us, 256us, and all of them
+    Assert.assertArrayEquals(new long[] { 1, 2, 3, 4 }, counts);
+    Assert.assertEquals(100000265, sum);
+  }
+
+  @Test
+  public void testMicros() {
+
+    StringBuilder out = new StringBuilder();
+
+    ProxyMetricsEndpoint.micros(out, 0);
+    out.append(' ');
+    ProxyMetricsEndpoint.micros(out, 64);
+    out.append(' ');
+    ProxyMetricsEndpoint.micros(out, 33554432);
+
+    Assert.assertEquals("0.000000 0.000064 33.554432", out.toString());
+  }
+
+  @Test
+  public void testRender() {
+
+    ProxyMetrics metrics = new ProxyMetrics();
+    metrics.connected(new Proxy("proxy\"1", 8080), TimeUnit.MILLISECONDS.toNanos(1));
+    metrics.connected(new Proxy("proxy\"1", 8080), TimeUnit.MILLISECONDS.toNanos(3));
+
+    StringBuilder out = new StringBuilder();
+    new ProxyMetricsEndpoint(metrics, new InetSocketAddress(0)).render(out);
+
+    String text = out.toString();
+
+    Assert.assertTrue(text, text.contains("# TYPE jatoo_proxy_connections_total counter\n"));
+    Assert.assertTrue(text, text.contains("jatoo_proxy_connections_total{upstream=\"proxy\\\"1:8080\"} 2\n"));
+    Assert.assertTrue(text, text.contains("jatoo_proxy_connect_latency_seconds_bucket{upstream=\"proxy\\\"1:8080\",le=\"0.001024\"} 1\n"));
+    Assert.assertTrue(text, text.contains("jatoo_proxy_connect_latency_seconds_bucket{upstream=\"proxy\\\"1:8080\",le=\"+Inf\"} 2\n"));
+    Assert.assertTrue(text, text.contains("jatoo_proxy_connect_latency_seconds_sum{upstream=\"proxy\\\"1:8080\"} 0.004000\n"));
+    Assert.assertTrue(text, text.contains("jatoo_proxy_connect_latency_seconds_count{upstream=\"proxy\\\"1:8080\"} 2\n"));
+  }
+
+  @Test
+  public void testConnectionPools() {
+
+    Proxy proxy = new Proxy("localhost", 1);
+
+    ProxyConnectionPool pool1 = new ProxyConnectionPool(new ProxyConnector(proxy), 8, 1000, 3);
+    ProxyConnectionPool pool2 = new ProxyConnectionPool(new ProxyConnector(proxy), 8, 1000, 2);
+
+    try {
+
+      StringBuilder out = new StringBuilder();
+      new ProxyMetricsEndpoint(0).render(out);
+
+      // the pools of the same proxy server are summed
+      Assert.assertTrue(out.toString(), out.toString().contains("jatoo_proxy_connection_pool_available_connections{upstream=\"localhost:1\"} 5\n"));
+    }
+
+    finally {
+      pool1.close();
+      pool2.close();
+    }
+
+    StringBuilder out = new StringBuilder();
+    new ProxyMetricsEndpoint(0).render(out);
+
+    Assert.assertFalse(out.toString(), out.toString().contains("upstream=\"localhost:1\"} 5"));
+  }
+
+  @Test
+  public void testScrape() throws Exception {
+
+    ProxyMetrics.getDefault().connected(new Proxy("localhost", 2), TimeUnit.MILLISECONDS.toNanos(1));
+
+    try (ProxyMetricsEndpoint endpoint = new ProxyMetricsEndpoint(0)) {
+
+      endpoint.start();
+
+      String response = request(endpoint.getPort(), "GET /metrics HTTP/1.1\r\nHost: localhost\r\n\r\n");
+      Assert.assertTrue(response, response.startsWith("HTTP/1.1 200 OK\r\n"));
+      Assert.assertTrue(response, response.contains("Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n"));
+      Assert.assertTrue(response, response.contains("\njatoo_proxy_connections_total{upstream=\"localhost:2\"} "));
+
+      // served one after the other, with the same buffers
+      Assert.assertEquals(response.length(), request(endpoint.getPort(), "GET /metrics HTTP/1.1\r\n\r\n").length());
+
+      Assert.assertTrue(request(endpoint.getPort(), "GET / HTTP/1.1\r\n\r\n").startsWith("HTTP/1.1 404 "));
+      Assert.assertTrue(request(endpoint.getPort(), "POST /metrics HTTP/1.1\r\n\r\n").startsWith("HTTP/1.1 405 "));
+      Assert.assertTrue(request(endpoint.getPort(), "GARBAGE\r\n\r\n").startsWith("HTTP/1.1 400 "));
+    }
+  }
+
+  private static String request(final int port, final String request) throws Exception {
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+
+      socket.setSoTimeout(5000);
+      socket.getOutputStream().write(request.getBytes("US-ASCII"));
+
+      InputStream in = socket.getInputStream();
+      ByteArrayOutputStream response = new ByteArrayOutputStream();
+
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        response.write(buffer, 0, read);
+      }
+
+      return response.toString("UTF-8");
+    }
+  }
+
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProxyMetricsTest {
+
+  @Test
+  public void testStripedCounter() throws Exception {
+
+    final ProxyStripedCounter counter = new ProxyStripedCounter();
+
+    Thread[] threads = new Thread[8];
+
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        public void run() {
+          for (int j = 0; j < 100000; j++) {
+            counter.increment();
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Assert.assertEquals(800000, counter.sum());
+
+    counter.reset();
+    Assert.assertEquals(0, counter.sum());
+  }
+
+  @Test
+  public void testLatencyHistogram() {
+
+    ProxyLatencyHistogram histogram = new ProxyLatencyHistogram();
+
+    Assert.assertEquals(0, histogram.getQuantile(0.5));
+
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+    }
+
+    Assert.assertEquals(1000, histogram.getCount());
+    Assert.assertEquals(500500, histogram.getMean());
+    Assert.assertEquals(1000000, histogram.getMax());
+
+    // never underestimated, and at most one bucket (12.5%) above
+    assertQuantile(500000, histogram.getQuantile(0.5));
+    assertQuantile(990000, histogram.getQuantile(0.99));
+    Assert.assertEquals(1000000, histogram.getQuantile(1));
+
+    histogram.record(-1);
+    histogram.record(7000);
+    Assert.assertEquals(7, histogram.getQuantile(0.0015));
+  }
+
+  @Test
+  public void testLatencyHistogramAdd() {
+
+    ProxyLatencyHistogram first = new ProxyLatencyHistogram();
+    ProxyLatencyHistogram second = new ProxyLatencyHistogram();
+
+    for (int i = 1; i <= 500; i++) {
+      first.record(TimeUnit.MILLISECONDS.toNanos(i));
+      second.record(TimeUnit.MILLISECONDS.toNanos(500 + i));
+    }
+
+    ProxyLatencyHistogram sum = new ProxyLatencyHistogram();
+    sum.add(first);
+    sum.add(second);
+
+    Assert.assertEquals(1000, sum.getCount());
+    Assert.assertEquals(500500, sum.getMean());
+    Assert.assertEquals(1000000, sum.getMax());
+
+    assertQuantile(500000, sum.getQuantile(0.5));
+    assertQuantile(990000, sum.getQuantile(0.99));
+
+    // the added ones are left as they were
+    Assert.assertEquals(500, first.getCount());
+    Assert.assertEquals(500000, first.getMax());
+  }
+
+  @Test
+  public void testConnector() throws Exception {
+
+    ProxyMetrics metrics = ProxyMetrics.getDefault();
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn = new StandInProxy()) {
+
+      standIn.setCredentials("username", "password");
+
+      Proxy proxy = standIn.getProxy();
+      String key = proxy.getHost() + ":" + proxy.getPort();
+
+      long connections = metrics.getConnectionCount();
+      long challenges = metrics.getChallengeCount();
+      long successes = metrics.getAuthenticationSuccessCount();
+      long failures = metrics.getAuthenticationFailureCount();
+
+      // no credentials sent: a challenge, not a failure
+      try {
+        new ProxyConnector(proxy).openTunnel(origin.getHost(), origin.getPort());
+        Assert.fail("the proxy requires authentication, so the tunnel should be refused");
+      } catch (ProxyResponseException e) {}
+
+      proxy.setRequiringAuthentication(true);
+      proxy.setUsername("username");
+      proxy.setPassword("wrong");
+
+      try {
+        new ProxyConnector(proxy).openTunnel(origin.getHost(), origin.getPort());
+        Assert.fail("the credentials are wrong, so the tunnel should be refused");
+      } catch (ProxyResponseException e) {}
+
+      proxy.setPassword("password");
+
+      new ProxyConnector(proxy).openTunnel(origin.getHost(), origin.getPort()).close();
+
+      Assert.assertEquals(3, metrics.getConnectionCount() - connections);
+      Assert.assertEquals(Long.valueOf(3), metrics.getUpstreamConnectionCounts().get(key));
+      Assert.assertEquals(2, metrics.getChallengeCount() - challenges);
+      Assert.assertEquals(1, metrics.getAuthenticationFailureCount() - failures);
+      Assert.assertEquals(1, metrics.getAuthenticationSuccessCount() - successes);
+      Assert.assertTrue(metrics.getConnectLatencyMax() > 0);
+    }
+  }
+
+  @Test
+  public void testForwarder() throws Exception {
+
+    ProxyMetrics metrics = ProxyMetrics.getDefault();
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn = new StandInProxy(); ProxyForwarder forwarder = new ProxyForwarder(standIn.getProxy())) {
+
+      forwarder.start();
+
+      long bytesRelayed = metrics.getBytesRelayed();
+      long swaps = metrics.getSwapCount();
+      long failovers = metrics.getFailoverCount();
+
+      try (Socket socket = new Socket(standIn.getProxy().getHost(), forwarder.getPort())) {
+
+        socket.getOutputStream().write(("CONNECT " + origin.getHost() + ":" + origin.getPort() + " HTTP/1.1\r\n\r\nping").getBytes());
+
+        byte[] expected = "HTTP/1.1 200 Connection established\r\n\r\nping".getBytes();
+        byte[] received = new byte[expected.length];
+        int length = 0;
+        while (length < received.length) {
+          length += socket.getInputStream().read(received, length, received.length - length);
+        }
+
+        Assert.assertArrayEquals(expected, received);
+      }
+
+      // the bytes of the tunnel, not the answer of the forwarder (recorded by
+      // the event loop right after it wrote them)
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+      while (metrics.getBytesRelayed() - bytesRelayed < 8 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+
+      Assert.assertEquals(8, metrics.getBytesRelayed() - bytesRelayed);
+
+      // a planned swap is not a failover
+      forwarder.swapUpstream(standIn.getProxy(), 0);
+      Assert.assertEquals(1, metrics.getSwapCount() - swaps);
+      Assert.assertEquals(0, metrics.getFailoverCount() - failovers);
+
+      forwarder.failOverUpstream(standIn.getProxy(), 0);
+      Assert.assertEquals(2, metrics.getSwapCount() - swaps);
+      Assert.assertEquals(1, metrics.getFailoverCount() - failovers);
+    }
+  }
+
+  @Test
+  public void testMBean() throws Exception {
+
+    ProxyMetrics.getDefault().connected(new Proxy("localhost", 1), TimeUnit.MILLISECONDS.toNanos(1));
+
+    Object connectionCount = ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(ProxyMetrics.OBJECT_NAME), "ConnectionCount");
+
+    Assert.assertTrue((Long) connectionCount > 0);
+  }
+
+  private static void assertQuantile(final long expected, final long actual) {
+    Assert.assertTrue(actual + " < " + expected, actual >= expected);
+    Assert.assertTrue(actual + " > " + expected + " + 12.5%", actual <= expected + expected / 8);
+  }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package jatoo.proxy;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProxyProbeTest {
+
+  @Test
+  public void testSuccess() throws Exception {
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn = new StandInProxy()) {
+
+      standIn.setDelay(50);
+
+      ProxyProbeResult result = new ProxyProbe(standIn.getProxy(), origin.getHost(), origin.getPort()).run();
+
+      Assert.assertTrue(String.valueOf(result.getFailure()), result.isSuccessful());
+      Assert.assertEquals(200, result.getStatusCode());
+      Assert.assertEquals(ProxyProbeResult.Authentication.NOT_REQUIRED, result.getAuthentication());
+      Assert.assertTrue(result.getConnectTime() >= 0);
+      Assert.assertTrue(result.getTimeToFirstByte() >= TimeUnit.MILLISECONDS.toNanos(50));
+      Assert.assertTrue(result.getTotalTime() >= result.getConnectTime() + result.getTimeToFirstByte());
+    }
+  }
+
+  @Test
+  public void testAuthentication() throws Exception {
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn = new StandInProxy()) {
+
+      standIn.setCredentials("username", "password");
+
+      Proxy proxy = standIn.getProxy();
+      proxy.setRequiringAuthentication(true);
+      proxy.setUsername("username");
+      proxy.setPassword("wrong");
+
+      ProxyProbeResult result = new ProxyProbe(proxy, origin.getHost(), origin.getPort()).run();
+
+      Assert.assertFalse(result.isSuccessful());
+      Assert.assertEquals(407, result.getStatusCode());
+      Assert.assertEquals(ProxyProbeResult.Authentication.REJECTED, result.getAuthentication());
+      Assert.assertTrue(result.getTimeToFirstByte() >= 0);
+
+      proxy.setPassword("password");
+
+      result = new ProxyProbe(proxy, origin.getHost(), origin.getPort()).run();
+
+      Assert.assertTrue(result.isSuccessful());
+      Assert.assertEquals(ProxyProbeResult.Authentication.ACCEPTED, result.getAuthentication());
+    }
+  }
+
+  @Test
+  public void testUnreachable() throws Exception {
+
+    Proxy proxy;
+
+    try (StandInProxy standIn = new StandInProxy()) {
+      proxy = standIn.getProxy();
+    }
+
+    ProxyProbeResult result = new ProxyProbe(proxy, "localhost", 1).run();
+
+    Assert.assertFalse(result.isSuccessful());
+    Assert.assertEquals(-1, result.getConnectTime());
+    Assert.assertEquals(ProxyProbeResult.Authentication.UNKNOWN, result.getAuthentication());
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn = new StandInProxy()) {
+
+      standIn.setDelay(10000);
+
+      final ProxyProbe probe = new ProxyProbe(standIn.getProxy(), origin.getHost(), origin.getPort());
+
+      new Thread() {
+        public void run() {
+          try {
+            Thread.sleep(100);
+          } catch (InterruptedException e) {}
+          probe.cancel();
+        }
+      }.start();
+
+      long start = System.nanoTime();
+      ProxyProbeResult result = probe.run();
+
+      Assert.assertTrue(result.isCancelled());
+      Assert.assertFalse(result.isSuccessful());
+      Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+  }
+
+  @Test
+  public void testSocksLimits() throws Exception {
+
+    char[] tooLong = new char[256];
+    Arrays.fill(tooLong, 'a');
+
+    // a SOCKS proxy server that never answers (the connection waits in the
+    // backlog), the handshake fails before anything is sent
+    try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+
+      Proxy proxy = new Proxy(serverSocket.getInetAddress().getHostAddress(), serverSocket.getLocalPort(), new String(tooLong), "password");
+      proxy.setType(ProxyType.SOCKS);
+
+      // reported in the result, not thrown
+      ProxyProbeResult result = new ProxyProbe(proxy, "localhost", 443).run();
+
+      Assert.assertFalse(result.isSuccessful());
+      Assert.assertTrue(result.getFailure().getMessage(), result.getFailure().getMessage().contains("too long"));
+
+      proxy.setUsername("username");
+
+      result = new ProxyProbe(proxy, new String(tooLong), 443).run();
+
+      Assert.assertFalse(result.isSuccessful());
+      Assert.assertTrue(result.getFailure().getMessage(), result.getFailure().getMessage().contains("too long"));
+    }
+  }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+/**
+ * Measures the throughput of {@link ProxyProfileImporter} and
+ * {@link ProxyProfileExporter}, on a generated file of (by default) a million
+ * profiles, half of them with a password to encrypt, in both formats.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public class ProxyProfileImportBenchmark {
+
+  public static void main(String[] args) throws Exception {
+
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+    File directory = Files.createTempDirectory("jatoo-proxy-profiles").toFile();
+    directory.deleteOnExit();
+
+    System.out.println("format       import profiles/s  export profiles/s  heap after import (MB)  (" + count + " profiles, " + threads + " threads)");
+
+    for (ProxyProfileFormat format : ProxyProfileFormat.values()) {
+
+      File input = new File(directory, "input." + format);
+      File output = new File(directory, "output." + format);
+      File storeFile = new File(directory, "profiles.txt");
+
+      input.deleteOnExit();
+      output.deleteOnExit();
+      storeFile.deleteOnExit();
+
+      generate(format, count, input);
+
+      ProxyProfileStore store = new ProxyProfileStore(storeFile);
+      ProxyProfileImporter importer = new ProxyProfileImporter(format, ProxyProfileImporter.DEFAULT_BATCH_SIZE, threads);
+
+      // warm up
+      importer.importProfiles(input, store);
+
+      long start = System.nanoTime();
+      importer.importProfiles(input, store);
+      long importTime = System.nanoTime() - start;
+
+      System.gc();
+      long heap = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+
+      start = System.nanoTime();
+      new ProxyProfileExporter(format).exportProfiles(store, output);
+      long exportTime = System.nanoTime() - start;
+
+      System.out.printf("%-11s  %17d  %17d  %22d%n", format, count * 1000000000L / importTime, count * 1000000000L / exportTime, heap >> 20);
+    }
+  }
+
+  private static void generate(final ProxyProfileFormat format, final int count, final File file) throws Exception {
+
+    try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), Charset.forName("UTF-8"))) {
+
+      if (format == ProxyProfileFormat.CSV) {
+        writer.write("name,type,host,port,secure,username,password\n");
+      }
+
+      for (int i = 0; i < count; i++) {
+
+        boolean authenticated = i % 2 == 0;
+
+        if (format == ProxyProfileFormat.CSV) {
+          writer.write("\"proxy " + i + "\"," + (i % 3 == 0 ? "SOCKS" : "HTTP") + ",proxy" + i + ".example.com," + (1024 + i % 60000) + "," + (i % 5 == 0) + "," + (authenticated ? "user" + i + ",secret" + i : ",") + "\n");
+        } else {
+          writer.write("{\"name\":\"proxy " + i + "\",\"type\":\"" + (i % 3 == 0 ? "SOCKS" : "HTTP") + "\",\"host\":\"proxy" + i + ".example.com\",\"port\":" + (1024 + i % 60000) + ",\"secure\":" + (i % 5 == 0) + (authenticated ? ",\"username\":\"user" + i + "\",\"password\":\"secret" + i + "\"" : "") + "}\n");
+        }
+      }
+    }
+  }
+
+}
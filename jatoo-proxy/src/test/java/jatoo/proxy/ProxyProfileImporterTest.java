@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProxyProfileImporterTest {
+
+  @Test
+  public void testCsv() throws Exception {
+
+    ProxyProfileStore store = new ProxyProfileStore(newFile("csv"));
+
+    String csv = "\uFEFFhost,port,name,type,secure,username,password\r\n"
+        + "proxy,8080,,,,,\r\n"
+        + "\r\n"
+        + "socks,1080,\"comma, \"\"quote\"\"\nand line\",socks,true,user,pass\r\n";
+
+    Assert.assertEquals(2, new ProxyProfileImporter(ProxyProfileFormat.CSV).importProfiles(new StringReader(csv), "csv", store));
+
+    List<ProxyProfile> profiles = store.getProfiles();
+
+    Assert.assertEquals("", profiles.get(0).getName());
+    Assert.assertEquals(ProxyType.HTTP, profiles.get(0).getType());
+    Assert.assertFalse(profiles.get(0).isRequiringAuthentication());
+
+    ProxyProfile second = profiles.get(1);
+    Assert.assertEquals("comma, \"quote\"\nand line", second.getName());
+    Assert.assertEquals(ProxyType.SOCKS, second.getType());
+    Assert.assertTrue(second.isSecure());
+
+    Proxy proxy = second.toProxy();
+    Assert.assertEquals("user", proxy.getUsername());
+    Assert.assertEquals("pass", proxy.getPassword());
+    Assert.assertTrue(proxy.isRequiringAuthentication());
+  }
+
+  @Test
+  public void testJsonLines() throws Exception {
+
+    ProxyProfileStore store = new ProxyProfileStore(newFile("json-lines"));
+
+    String jsonLines = "{\"name\": \"tab\\there \\u00e9\", \"host\": \"proxy\", \"port\": 8080, \"secure\": false, \"username\": null}\n"
+        + "\n"
+        + "{\"host\":\"socks\",\"port\":\"1080\",\"type\":\"SOCKS\",\"username\":\"user\",\"password\":\"p\\\"a\\\\ss\"}\n";
+
+    Assert.assertEquals(2, new ProxyProfileImporter(ProxyProfileFormat.JSON_LINES).importProfiles(new StringReader(jsonLines), "json", store));
+
+    List<ProxyProfile> profiles = store.getProfiles();
+
+    Assert.assertEquals("tab\there \u00e9", profiles.get(0).getName());
+    Assert.assertNull(profiles.get(0).getUsername());
+    Assert.assertEquals(1080, profiles.get(1).getPort());
+    Assert.assertEquals("p\"a\\ss", profiles.get(1).toProxy().getPassword());
+  }
+
+  @Test
+  public void testOrder() throws Exception {
+
+    StringBuilder csv = new StringBuilder("name,host,port,password\n");
+    for (int i = 0; i < 1000; i++) {
+      csv.append("profile").append(i).append(",host").append(i).append(',').append(1 + i).append(",secret").append(i).append('\n');
+    }
+
+    File file = newFile("order");
+    ProxyProfileStore store = new ProxyProfileStore(file);
+
+    // many small batches, finished out of order by the threads
+    Assert.assertEquals(1000, new ProxyProfileImporter(ProxyProfileFormat.CSV, 7, 4).importProfiles(new StringReader(csv.toString()), "order", store));
+
+    ProxyProfileStore loaded = new ProxyProfileStore(file);
+    loaded.load();
+
+    for (int i = 0; i < 1000; i++) {
+      ProxyProfile profile = loaded.getProfiles().get(i);
+      Assert.assertEquals("profile" + i, profile.getName());
+      Assert.assertEquals(1 + i, profile.getPort());
+      Assert.assertEquals("secret" + i, profile.toProxy().getPassword());
+    }
+  }
+
+  @Test
+  public void testMalformed() throws Exception {
+
+    File file = newFile("malformed");
+
+    ProxyProfileStore store = new ProxyProfileStore(file);
+    store.replace(Arrays.asList(ProxyProfile.create("old", new Proxy("old", 1))));
+
+    assertFails(ProxyProfileFormat.CSV, "host,port\nproxy,1\nproxy,x\n", store, "malformed:3: ");
+    assertFails(ProxyProfileFormat.CSV, "host,port\nproxy,1\n\nproxy\n", store, "malformed:4: ");
+    assertFails(ProxyProfileFormat.CSV, "host,port,unknown\n", store, "malformed:1: ");
+    assertFails(ProxyProfileFormat.CSV, "host,port\n\"proxy,1\n", store, "malformed:2: ");
+    assertFails(ProxyProfileFormat.JSON_LINES, "{\"host\":\"proxy\",\"port\":1}\n{\"host\":\"proxy\"\n", store, "malformed:2: ");
+    assertFails(ProxyProfileFormat.JSON_LINES, "{\"host\":\"proxy\",\"port\":70000}\n", store, "malformed:1: ");
+
+    // the old profiles are kept, in memory and in the file
+    Assert.assertEquals("old", store.getProfiles().get(0).getName());
+
+    ProxyProfileStore loaded = new ProxyProfileStore(file);
+    loaded.load();
+    Assert.assertEquals("old", loaded.getProfiles().get(0).getName());
+
+    // and no temporary file is left behind
+    Assert.assertEquals(1, file.getParentFile().listFiles().length);
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+
+    Proxy socks = new Proxy("socks", 1080, "user,\"name\"", "pass\nword");
+    socks.setType(ProxyType.SOCKS);
+
+    ProxyProfileStore store = new ProxyProfileStore(newFile("round-trip"));
+    store.replace(Arrays.asList(ProxyProfile.create("first, \"quoted\"", new Proxy("proxy", 8080)), ProxyProfile.create("second", socks)));
+
+    for (ProxyProfileFormat format : ProxyProfileFormat.values()) {
+
+      StringWriter out = new StringWriter();
+      Assert.assertEquals(2, new ProxyProfileExporter(format).exportProfiles(store.getProfiles(), out));
+
+      // never in clear
+      Assert.assertFalse(out.toString().contains("pass"));
+
+      ProxyProfileStore imported = new ProxyProfileStore(newFile("round-trip-" + format));
+      Assert.assertEquals(2, new ProxyProfileImporter(format).importProfiles(new StringReader(out.toString()), format.name(), imported));
+
+      for (int i = 0; i < 2; i++) {
+
+        StringBuilder expected = new StringBuilder();
+        ProxyProfileStore.format(store.getProfiles().get(i), expected);
+
+        StringBuilder actual = new StringBuilder();
+        ProxyProfileStore.format(imported.getProfiles().get(i), actual);
+
+        Assert.assertEquals(expected.toString(), actual.toString());
+      }
+    }
+  }
+
+  private static void assertFails(final ProxyProfileFormat format, final String input, final ProxyProfileStore store, final String expected) {
+
+    try {
+      new ProxyProfileImporter(format, 1, 2).importProfiles(new StringReader(input), "malformed", store);
+      Assert.fail(input);
+    }
+
+    catch (IOException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().startsWith(expected));
+    }
+  }
+
+  private static File newFile(final String name) throws IOException {
+
+    File directory = new File("target/profile-import/" + name);
+
+    if (directory.isDirectory()) {
+      for (File file : directory.listFiles()) {
+        Files.delete(file.toPath());
+      }
+    }
+
+    directory.mkdirs();
+
+    return new File(directory, "profiles.txt");
+  }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProxyProfileStoreTest {
+
+  @Test
+  public void testRoundTrip() throws Exception {
+
+    File file = newFile("round-trip");
+
+    Proxy socks = new Proxy("socks\thost", 1080, "user\\name", "pass\nword");
+    socks.setType(ProxyType.SOCKS);
+    socks.setSecure(true);
+
+    ProxyProfileStore store = new ProxyProfileStore(file);
+    store.replace(Arrays.asList(ProxyProfile.create("first", new Proxy("proxy", 8080)), ProxyProfile.create("second", socks)));
+
+    ProxyProfileStore loaded = new ProxyProfileStore(file);
+    loaded.load();
+
+    List<ProxyProfile> profiles = loaded.getProfiles();
+    Assert.assertEquals(2, profiles.size());
+
+    Assert.assertEquals("first", profiles.get(0).getName());
+    Assert.assertEquals(ProxyType.HTTP, profiles.get(0).getType());
+    Assert.assertEquals(8080, profiles.get(0).getPort());
+    Assert.assertFalse(profiles.get(0).hasPassword());
+
+    ProxyProfile second = profiles.get(1);
+    Assert.assertEquals("socks\thost", second.getHost());
+    Assert.assertEquals("user\\name", second.getUsername());
+    Assert.assertTrue(second.hasPassword());
+
+    // kept encrypted until the proxy is needed
+    Assert.assertFalse(new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8")).contains("pass"));
+
+    Proxy proxy = second.toProxy();
+    Assert.assertEquals("pass\nword", proxy.getPassword());
+    Assert.assertEquals(ProxyType.SOCKS, proxy.getType());
+    Assert.assertTrue(proxy.isSecure());
+    Assert.assertTrue(proxy.isRequiringAuthentication());
+  }
+
+  @Test
+  public void testMissingFile() throws Exception {
+
+    ProxyProfileStore store = new ProxyProfileStore(newFile("missing"));
+    store.load();
+
+    Assert.assertTrue(store.getProfiles().isEmpty());
+  }
+
+  @Test
+  public void testReplace() throws Exception {
+
+    File file = newFile("replace");
+
+    ProxyProfileStore store = new ProxyProfileStore(file);
+    store.replace(Arrays.asList(ProxyProfile.create("old", new Proxy("old", 1))));
+
+    List<ProxyProfile> snapshot = store.getProfiles();
+
+    store.replace(Arrays.asList(ProxyProfile.create("new", new Proxy("new", 1)), ProxyProfile.create("newer", new Proxy("newer", 1))));
+
+    // the snapshots taken before are not changed
+    Assert.assertEquals(1, snapshot.size());
+    Assert.assertEquals(2, store.getProfiles().size());
+
+    // and no temporary file is left behind
+    Assert.assertEquals(1, file.getParentFile().listFiles().length);
+  }
+
+  @Test
+  public void testMalformed() throws Exception {
+
+    File file = newFile("malformed");
+    Files.write(file.toPath(), "name\tHTTP\thost\n".getBytes("UTF-8"));
+
+    try {
+      new ProxyProfileStore(file).load();
+      Assert.fail();
+    }
+
+    catch (IOException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains(":1: "));
+    }
+  }
+
+  private static File newFile(final String name) throws IOException {
+
+    File directory = new File("target/profile-store/" + name);
+
+    if (directory.isDirectory()) {
+      for (File file : directory.listFiles()) {
+        Files.delete(file.toPath());
+      }
+    }
+
+    directory.mkdirs();
+
+    return new File(directory, "profiles.txt");
+  }
+
+}
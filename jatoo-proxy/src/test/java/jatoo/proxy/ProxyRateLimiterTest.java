@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProxyRateLimiterTest {
+
+  @Test
+  public void testTryAcquire() {
+
+    ProxyRateLimiter limiter = new ProxyRateLimiter(1, 5);
+
+    for (int i = 0; i < 5; i++) {
+      Assert.assertTrue(limiter.tryAcquire());
+    }
+
+    Assert.assertFalse(limiter.tryAcquire());
+
+    Assert.assertEquals(5, limiter.getAcquiredCount());
+    Assert.assertEquals(1, limiter.getThrottledCount());
+  }
+
+  @Test
+  public void testReserve() {
+
+    ProxyRateLimiter limiter = new ProxyRateLimiter(10, 1);
+
+    Assert.assertEquals(0, limiter.reserve());
+
+    long wait = limiter.reserve();
+
+    Assert.assertTrue(wait > 0);
+    Assert.assertTrue(wait <= TimeUnit.MILLISECONDS.toNanos(100));
+    Assert.assertEquals(1, limiter.getThrottledCount());
+  }
+
+  @Test
+  public void testTryAcquireWithTimeout() throws Exception {
+
+    // a permit every 50ms
+    ProxyRateLimiter limiter = new ProxyRateLimiter(20, 1);
+
+    long start = System.nanoTime();
+
+    Assert.assertTrue(limiter.tryAcquire());
+    Assert.assertFalse(limiter.tryAcquire(1, TimeUnit.MILLISECONDS));
+
+    Assert.assertTrue(limiter.tryAcquire(1, TimeUnit.SECONDS));
+
+    // waited for the next permit, but not for the whole timeout
+    long elapsed = System.nanoTime() - start;
+    Assert.assertTrue(String.valueOf(elapsed), elapsed >= TimeUnit.MILLISECONDS.toNanos(50));
+    Assert.assertTrue(String.valueOf(elapsed), elapsed < TimeUnit.SECONDS.toNanos(1));
+  }
+
+  @Test
+  public void testLimits() {
+
+    Proxy proxy = new Proxy("host", 8080);
+
+    ProxyRateLimits.setConnectionLimit(proxy, 10, 2);
+    Assert.assertNotNull(ProxyRateLimits.getConnectionLimiter(new Proxy("host", 8080)));
+    Assert.assertNull(ProxyRateLimits.getRequestLimiter(proxy));
+
+    ProxyRateLimits.removeLimits(proxy);
+    Assert.assertNull(ProxyRateLimits.getConnectionLimiter(proxy));
+  }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProxyRequestParserTest {
+
+  private static final String REQUEST = "CONNECT example.com:443 HTTP/1.1\r\nHost: example.com:443\r\nproxy-authorization:  Basic dXNlcjpwYXNz \r\n\r\ntunnel";
+
+  @Test
+  public void testConnect() throws Exception {
+
+    ProxyRequestParser parser = new ProxyRequestParser("User-Agent", "Proxy-Authorization");
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(256);
+
+    // one byte at a time, as if every byte came in its own packet
+    for (byte b : REQUEST.getBytes("ISO-8859-1")) {
+
+      buffer.put(b);
+
+      if (!parser.isComplete()) {
+        parser.parse(buffer);
+      }
+    }
+
+    Assert.assertTrue(parser.isComplete());
+    Assert.assertTrue(parser.isMethod(buffer, "CONNECT"));
+    Assert.assertFalse(parser.isMethod(buffer, "CONNEC"));
+    Assert.assertEquals("CONNECT", parser.getMethod(buffer));
+    Assert.assertEquals("example.com:443", parser.getTarget(buffer));
+    Assert.assertEquals("example.com", parser.getHost(buffer));
+    Assert.assertEquals(443, parser.getPort());
+
+    Assert.assertNull(parser.getHeaderValue(buffer, 0));
+    Assert.assertEquals("Basic dXNlcjpwYXNz", parser.getHeaderValue(buffer, 1));
+
+    Assert.assertEquals(REQUEST.indexOf("tunnel"), parser.getHeaderEnd());
+
+    parser.reset();
+    Assert.assertFalse(parser.isComplete());
+    Assert.assertEquals(-1, parser.getPort());
+  }
+
+  @Test
+  public void testTargets() throws Exception {
+
+    ByteBuffer ipv6 = buffer("CONNECT [::1]:8080 HTTP/1.1\r\n\r\n");
+    ProxyRequestParser parser = new ProxyRequestParser();
+
+    Assert.assertTrue(parser.parse(ipv6));
+    Assert.assertEquals("::1", parser.getHost(ipv6));
+    Assert.assertEquals(8080, parser.getPort());
+
+    // not authorities
+    Assert.assertEquals(-1, parse("GET / HTTP/1.1\r\n\r\n").getPort());
+    Assert.assertEquals(-1, parse("GET http://host:80/ HTTP/1.1\r\n\r\n").getPort());
+    Assert.assertEquals(-1, parse("CONNECT host:port HTTP/1.1\r\n\r\n").getPort());
+    Assert.assertEquals(-1, parse("CONNECT host:65536 HTTP/1.1\r\n\r\n").getPort());
+    Assert.assertEquals(-1, parse("CONNECT :80 HTTP/1.1\r\n\r\n").getPort());
+
+    // longer than a DNS name (and than SOCKS5 can carry)
+    Assert.assertEquals(80, parse("CONNECT " + host(ProxyRequestParser.MAX_HOST_LENGTH) + ":80 HTTP/1.1\r\n\r\n").getPort());
+    Assert.assertEquals(-1, parse("CONNECT " + host(ProxyRequestParser.MAX_HOST_LENGTH + 1) + ":80 HTTP/1.1\r\n\r\n").getPort());
+
+    // bare line feeds are accepted too
+    Assert.assertEquals(80, parse("CONNECT host:80 HTTP/1.0\n\n").getPort());
+  }
+
+  @Test
+  public void testMalformed() throws Exception {
+    assertMalformed("CONNECT host:80\r\n\r\n");
+    assertMalformed("CONNECT  host:80 HTTP/1.1\r\n\r\n");
+    assertMalformed("CONNECT host:80 FTP/1.1\r\n\r\n");
+    assertMalformed("CONNECT host:80 HTTP/1.1\r\nno colon\r\n\r\n");
+  }
+
+  private static ProxyRequestParser parse(final String request) throws IOException {
+
+    ProxyRequestParser parser = new ProxyRequestParser();
+
+    Assert.assertTrue(parser.parse(buffer(request)));
+
+    return parser;
+  }
+
+  private static String host(final int length) {
+
+    char[] host = new char[length];
+    Arrays.fill(host, 'a');
+
+    return new String(host);
+  }
+
+  private static ByteBuffer buffer(final String request) throws IOException {
+
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+    buffer.put(request.getBytes("ISO-8859-1"));
+
+    return buffer;
+  }
+
+  private static void assertMalformed(final String request) throws IOException {
+    try {
+      new ProxyRequestParser().parse(buffer(request));
+      Assert.fail("the request is malformed: " + request);
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+}
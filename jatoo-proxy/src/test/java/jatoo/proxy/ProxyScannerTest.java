@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProxyScannerTest {
+
+  @Test
+  public void testRanking() throws Exception {
+
+    try (EchoServer origin = new EchoServer(); StandInProxy slow = new StandInProxy(); StandInProxy fast = new StandInProxy(); StandInProxy medium = new StandInProxy()) {
+
+      slow.setDelay(300);
+      medium.setDelay(150);
+
+      final List<ProxyScanResult> streamed = new ArrayList<>();
+
+      List<ProxyScanResult> results = new ProxyScanner(origin.getHost(), origin.getPort()).scan(Arrays.asList(slow.getProxy(), fast.getProxy(), medium.getProxy()), new ProxyScanListener() {
+        public void scanned(final ProxyScanResult result) {
+          streamed.add(result);
+        }
+      });
+
+      Assert.assertEquals(3, results.size());
+
+      for (ProxyScanResult result : results) {
+        Assert.assertTrue(String.valueOf(result.getFailure()), result.isSuccessful());
+        Assert.assertEquals(200, result.getStatusCode());
+        Assert.assertEquals(ProxyProbeResult.Authentication.NOT_REQUIRED, result.getAuthentication());
+        Assert.assertEquals(-1, result.getAuthenticationTime());
+        Assert.assertEquals(-1, result.getThroughput());
+      }
+
+      Assert.assertEquals(fast.getPort(), results.get(0).getProxy().getPort());
+      Assert.assertEquals(medium.getPort(), results.get(1).getProxy().getPort());
+      Assert.assertEquals(slow.getPort(), results.get(2).getProxy().getPort());
+
+      Assert.assertTrue(results.get(2).getTunnelTime() >= TimeUnit.MILLISECONDS.toNanos(300));
+
+      // handed out as they completed, so in the same order
+      Assert.assertEquals(results, streamed);
+    }
+  }
+
+  @Test
+  public void testMaxInFlight() throws Exception {
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn = new StandInProxy()) {
+
+      standIn.setDelay(200);
+
+      List<Proxy> proxies = new ArrayList<>();
+      for (int i = 0; i < 6; i++) {
+        proxies.add(standIn.getProxy());
+      }
+
+      ProxyScanner scanner = new ProxyScanner(origin.getHost(), origin.getPort());
+      scanner.setMaxInFlight(2);
+
+      long start = System.nanoTime();
+      List<ProxyScanResult> results = scanner.scan(proxies, null);
+      long time = System.nanoTime() - start;
+
+      Assert.assertEquals(6, results.size());
+      Assert.assertTrue(results.get(5).isSuccessful());
+
+      // three rounds of two
+      Assert.assertTrue("" + time, time >= TimeUnit.MILLISECONDS.toNanos(600));
+      Assert.assertEquals(6, standIn.getConnectionCount());
+    }
+  }
+
+  @Test
+  public void testFailures() throws Exception {
+
+    Proxy unreachable;
+
+    try (StandInProxy standIn = new StandInProxy()) {
+      unreachable = standIn.getProxy();
+    }
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn = new StandInProxy(); ServerSocket silent = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+
+      standIn.setCredentials("username", "password");
+
+      Proxy rejected = standIn.getProxy();
+      rejected.setRequiringAuthentication(true);
+      rejected.setUsername("username");
+      rejected.setPassword("wrong");
+
+      Proxy accepted = standIn.getProxy();
+      accepted.setRequiringAuthentication(true);
+      accepted.setUsername("username");
+      accepted.setPassword("password");
+
+      // accepts the connections (in its backlog) but never answers
+      Proxy mute = new Proxy(silent.getInetAddress().getHostAddress(), silent.getLocalPort());
+
+      ProxyScanner scanner = new ProxyScanner(origin.getHost(), origin.getPort());
+      scanner.setTimeout(300);
+
+      List<ProxyScanResult> results = scanner.scan(Arrays.asList(unreachable, rejected, mute, accepted), null);
+
+      Assert.assertTrue(results.get(0).isSuccessful());
+      Assert.assertEquals(ProxyProbeResult.Authentication.ACCEPTED, results.get(0).getAuthentication());
+
+      for (ProxyScanResult result : results.subList(1, 4)) {
+
+        Assert.assertFalse(result.isSuccessful());
+        Assert.assertEquals(-1, result.getSetupTime());
+
+        if (result.getProxy() == rejected) {
+          Assert.assertEquals(407, result.getStatusCode());
+          Assert.assertEquals(ProxyProbeResult.Authentication.REJECTED, result.getAuthentication());
+        } else if (result.getProxy() == mute) {
+          Assert.assertTrue(result.getFailure() instanceof SocketTimeoutException);
+          Assert.assertTrue(result.getConnectTime() >= 0);
+        } else {
+          Assert.assertEquals(-1, result.getConnectTime());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSample() throws Exception {
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn = new StandInProxy()) {
+
+      byte[] request = new byte[64 * 1024];
+      Arrays.fill(request, (byte) 'x');
+
+      ProxyScanner scanner = new ProxyScanner(origin.getHost(), origin.getPort());
+      scanner.setSampleRequest(request, request.length);
+
+      ProxyScanResult result = scanner.scan(Arrays.asList(standIn.getProxy()), null).get(0);
+
+      Assert.assertTrue(String.valueOf(result.getFailure()), result.isSuccessful());
+      Assert.assertEquals(request.length, result.getSampleBytes());
+      Assert.assertTrue(result.getThroughput() > 0);
+    }
+  }
+
+  @Test
+  public void testSocks5() throws Exception {
+
+    try (final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+
+      Thread server = new Thread() {
+        public void run() {
+          try (Socket socket = serverSocket.accept()) {
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+
+            // greeting, username/password chosen
+            in.readFully(new byte[in.readUnsignedShort() & 0xFF]);
+            out.write(new byte[] { 5, 2 });
+
+            // username and password, accepted after a while
+            in.readByte();
+            in.readFully(new byte[in.readUnsignedByte()]);
+            in.readFully(new byte[in.readUnsignedByte()]);
+            Thread.sleep(100);
+            out.write(new byte[] { 1, 0 });
+
+            // connect, to a domain name
+            in.readFully(new byte[4]);
+            in.readFully(new byte[in.readUnsignedByte() + 2]);
+            out.write(new byte[] { 5, 0, 0, 1, 127, 0, 0, 1, 0, 80 });
+            out.flush();
+
+            in.read();
+          } catch (Exception e) {
+            // the test fails on its own
+          }
+        }
+      };
+      server.setDaemon(true);
+      server.start();
+
+      Proxy proxy = new Proxy(serverSocket.getInetAddress().getHostAddress(), serverSocket.getLocalPort(), "username", "password");
+      proxy.setType(ProxyType.SOCKS);
+
+      ProxyScanResult result = new ProxyScanner("example.com", 443).scan(Arrays.asList(proxy), null).get(0);
+
+      Assert.assertTrue(String.valueOf(result.getFailure()), result.isSuccessful());
+      Assert.assertEquals(ProxyProbeResult.Authentication.ACCEPTED, result.getAuthentication());
+      Assert.assertTrue(result.getAuthenticationTime() >= TimeUnit.MILLISECONDS.toNanos(100));
+      Assert.assertTrue(result.getTunnelTime() < result.getAuthenticationTime());
+    }
+  }
+
+  @Test
+  public void testInvalidEntry() throws Exception {
+
+    char[] tooLong = new char[256];
+    Arrays.fill(tooLong, 'a');
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn = new StandInProxy(); ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+
+      // a user name SOCKS5 cannot carry
+      Proxy bad = new Proxy(serverSocket.getInetAddress().getHostAddress(), serverSocket.getLocalPort(), new String(tooLong), "password");
+      bad.setType(ProxyType.SOCKS);
+
+      List<ProxyScanResult> results = new ProxyScanner(origin.getHost(), origin.getPort()).scan(Arrays.asList(standIn.getProxy(), bad, standIn.getProxy()), null);
+
+      // fails on its own, the others are still scanned
+      Assert.assertEquals(3, results.size());
+      Assert.assertTrue(results.get(0).isSuccessful());
+      Assert.assertTrue(results.get(1).isSuccessful());
+      Assert.assertFalse(results.get(2).isSuccessful());
+      Assert.assertSame(bad, results.get(2).getProxy());
+      Assert.assertTrue(results.get(2).getFailure().getMessage(), results.get(2).getFailure().getMessage().contains("too long"));
+    }
+  }
+
+  @Test
+  public void testSlowLookup() throws Exception {
+
+    try (EchoServer origin = new EchoServer(); final StandInProxy standIn = new StandInProxy()) {
+
+      ProxyScanner scanner = new ProxyScanner(origin.getHost(), origin.getPort()) {
+        @Override
+        InetSocketAddress resolve(final Proxy proxy) throws UnknownHostException {
+
+          if (proxy.getHost().equals("slow.invalid")) {
+
+            try {
+              Thread.sleep(1000);
+            } catch (InterruptedException e) {
+              throw new UnknownHostException(proxy.getHost());
+            }
+
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), proxy.getPort());
+          }
+
+          return super.resolve(proxy);
+        }
+      };
+
+      Proxy slow = new Proxy("slow.invalid", standIn.getPort());
+      Proxy unknown = new Proxy("unknown.invalid", standIn.getPort());
+
+      final List<ProxyScanResult> streamed = new ArrayList<>();
+
+      List<ProxyScanResult> results = scanner.scan(Arrays.asList(slow, standIn.getProxy(), unknown, standIn.getProxy()), new ProxyScanListener() {
+        public void scanned(final ProxyScanResult result) {
+          streamed.add(result);
+        }
+      });
+
+      Assert.assertEquals(4, results.size());
+
+      // the others were not held up by the slow lookup
+      Assert.assertSame(slow, streamed.get(3).getProxy());
+
+      for (ProxyScanResult result : results) {
+
+        if (result.getProxy() == unknown) {
+          Assert.assertTrue(String.valueOf(result.getFailure()), result.getFailure() instanceof UnknownHostException);
+          Assert.assertEquals(-1, result.getConnectTime());
+          continue;
+        }
+
+        Assert.assertTrue(String.valueOf(result.getFailure()), result.isSuccessful());
+
+        // and the lookup is not part of the connect time
+        Assert.assertTrue("" + result.getConnectTime(), result.getConnectTime() < TimeUnit.MILLISECONDS.toNanos(500));
+      }
+    }
+  }
+
+  @Test
+  public void testParseProxy() {
+
+    Proxy proxy = ProxyScanner.parseProxy("10.0.0.1:8080");
+    Assert.assertEquals(ProxyType.HTTP, proxy.getType());
+    Assert.assertEquals("10.0.0.1", proxy.getHost());
+    Assert.assertEquals(8080, proxy.getPort());
+    Assert.assertFalse(proxy.isRequiringAuthentication());
+
+    proxy = ProxyScanner.parseProxy(" socks5://user:p@ss@[::1]:1080 ");
+    Assert.assertEquals(ProxyType.SOCKS, proxy.getType());
+    Assert.assertEquals("::1", proxy.getHost());
+    Assert.assertEquals(1080, proxy.getPort());
+    Assert.assertEquals("user", proxy.getUsername());
+    Assert.assertEquals("p@ss", proxy.getPassword());
+
+    try {
+      ProxyScanner.parseProxy("ftp://host:21");
+      Assert.fail();
+    } catch (IllegalArgumentException e) {}
+
+    try {
+      ProxyScanner.parseProxy("host");
+      Assert.fail();
+    } catch (IllegalArgumentException e) {}
+  }
+
+}
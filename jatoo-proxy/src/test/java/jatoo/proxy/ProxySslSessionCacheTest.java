@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.InputStream;
+import java.net.Socket;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProxySslSessionCacheTest {
+
+  private KeyStore keyStore;
+
+  @Before
+  public void before() throws Exception {
+
+    keyStore = KeyStore.getInstance("JKS");
+
+    try (InputStream in = getClass().getResourceAsStream("stand-in.jks")) {
+      keyStore.load(in, "changeit".toCharArray());
+    }
+
+    TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+    trustManagerFactory.init(keyStore);
+
+    ProxySslSessionCache.setTrustManagers(trustManagerFactory.getTrustManagers());
+    ProxySslSessionCache.setEnabledProtocols("TLSv1.2");
+  }
+
+  @After
+  public void after() {
+    ProxySslSessionCache.setTrustManagers(null);
+    ProxySslSessionCache.setEnabledProtocols((String[]) null);
+  }
+
+  @Test
+  public void testResumption() throws Exception {
+
+    KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    keyManagerFactory.init(keyStore, "changeit".toCharArray());
+
+    SSLContext serverContext = SSLContext.getInstance("TLS");
+    serverContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+    try (EchoServer origin = new EchoServer(); StandInProxy standIn = new StandInProxy(serverContext)) {
+
+      Proxy proxy = standIn.getProxy();
+      Assert.assertTrue(proxy.isSecure());
+
+      ProxyConnector connector = new ProxyConnector(proxy);
+
+      for (int i = 0; i < 3; i++) {
+        try (Socket socket = connector.openTunnel(origin.getHost(), origin.getPort())) {
+          socket.getOutputStream().write('x');
+          Assert.assertEquals('x', socket.getInputStream().read());
+        }
+      }
+
+      Assert.assertEquals(1, ProxySslSessionCache.getFullHandshakeCount(proxy));
+      Assert.assertEquals(2, ProxySslSessionCache.getResumedHandshakeCount(proxy));
+      Assert.assertEquals(1, ProxySslSessionCache.getCachedSessionCount(proxy));
+
+      // and in the metrics, by proxy server
+      String key = proxy.getHost() + ":" + proxy.getPort();
+      ProxyMetrics metrics = ProxyMetrics.getDefault();
+
+      Assert.assertEquals(Long.valueOf(1), metrics.getUpstreamFullHandshakeCounts().get(key));
+      Assert.assertEquals(Long.valueOf(2), metrics.getUpstreamResumedHandshakeCounts().get(key));
+      Assert.assertEquals(Integer.valueOf(1), metrics.getUpstreamCachedSessionCounts().get(key));
+      Assert.assertFalse(metrics.getUpstreamFullHandshakeCounts().containsKey(origin.getHost() + ":" + origin.getPort()));
+
+      StringBuilder text = new StringBuilder();
+      new ProxyMetricsEndpoint(0).render(text);
+
+      Assert.assertTrue(text.toString(), text.indexOf("jatoo_proxy_tls_handshakes_total{upstream=\"" + key + "\",session=\"full\"} 1\n") != -1);
+      Assert.assertTrue(text.toString(), text.indexOf("jatoo_proxy_tls_handshakes_total{upstream=\"" + key + "\",session=\"resumed\"} 2\n") != -1);
+      Assert.assertTrue(text.toString(), text.indexOf("jatoo_proxy_tls_cached_sessions{upstream=\"" + key + "\"} 1\n") != -1);
+
+      ProxySslSessionCache.invalidate(proxy);
+    }
+  }
+
+  @Test
+  public void testHostMismatch() throws Exception {
+
+    KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    keyManagerFactory.init(keyStore, "changeit".toCharArray());
+
+    SSLContext serverContext = SSLContext.getInstance("TLS");
+    serverContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+    try (StandInProxy standIn = new StandInProxy(serverContext)) {
+
+      // the certificate is trusted, but issued for localhost and 127.0.0.1
+      Proxy proxy = new Proxy("proxy.example.com", standIn.getPort());
+      proxy.setSecure(true);
+
+      try (Socket socket = new Socket(standIn.getProxy().getHost(), standIn.getPort())) {
+        ProxySslSessionCache.createSocket(socket, proxy);
+        Assert.fail("the certificate was not issued for " + proxy.getHost());
+      }
+
+      catch (SSLHandshakeException e) {
+        // expected
+      }
+
+      finally {
+        ProxySslSessionCache.invalidate(proxy);
+      }
+    }
+  }
+
+}
@@ -64,4 +64,22 @@ public class ProxyTest {
     Assert.assertEquals(proxy3.getPassword(), proxy1.getPassword());
   }
 
+  @Test
+  public void testMetricsKey() {
+
+    Proxy proxy = new Proxy("host", 8080, "username", "password");
+
+    String key = proxy.getMetricsKey();
+    Assert.assertEquals("host:8080", key);
+
+    // cached, not built again for every connection
+    Assert.assertSame(key, proxy.getMetricsKey());
+
+    proxy.setPort(8081);
+    Assert.assertEquals("host:8081", proxy.getMetricsKey());
+
+    proxy.setHost("other");
+    Assert.assertEquals("other:8081", proxy.getMetricsKey());
+  }
+
 }
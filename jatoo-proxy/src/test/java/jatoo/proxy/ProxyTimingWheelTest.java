@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProxyTimingWheelTest {
+
+  private static final long TICK = TimeUnit.MILLISECONDS.toNanos(10);
+
+  @Test
+  public void testScheduleAndCancel() throws Exception {
+
+    List<String> expired = new ArrayList<>();
+
+    ProxyTimingWheel wheel = new ProxyTimingWheel(10, 0);
+
+    ProxyTimingWheel.Timeout timeout1 = new TestTimeout("1", expired);
+    ProxyTimingWheel.Timeout timeout2 = new TestTimeout("2", expired);
+    ProxyTimingWheel.Timeout timeout3 = new TestTimeout("3", expired);
+
+    wheel.schedule(timeout1, 5 * TICK);
+    wheel.schedule(timeout2, 5 * TICK);
+    wheel.schedule(timeout3, 5 * TICK);
+
+    Assert.assertEquals(3, wheel.size());
+
+    wheel.cancel(timeout2);
+    Assert.assertFalse(timeout2.isScheduled());
+
+    // rescheduled later
+    wheel.schedule(timeout3, 8 * TICK);
+
+    Assert.assertEquals(0, wheel.advance(4 * TICK));
+    Assert.assertEquals(1, wheel.advance(5 * TICK));
+    Assert.assertEquals("[1]", expired.toString());
+
+    Assert.assertEquals(1, wheel.advance(10 * TICK));
+    Assert.assertEquals("[1, 3]", expired.toString());
+
+    Assert.assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void testLevels() throws Exception {
+
+    final List<Long> expired = new ArrayList<>();
+    final long[] now = new long[1];
+
+    ProxyTimingWheel wheel = new ProxyTimingWheel(10, 0);
+
+    Random random = new Random(42);
+    long[] deadlines = new long[1000];
+
+    for (int i = 0; i < deadlines.length; i++) {
+
+      // spread over all the levels, and beyond the range of the wheel
+      deadlines[i] = 1 + (long) (Math.pow(random.nextDouble(), 4) * 20000000) * TICK;
+
+      final long deadline = deadlines[i];
+
+      wheel.schedule(new ProxyTimingWheel.Timeout() {
+        void expire() {
+          // never early, and at most a tick late
+          Assert.assertTrue(now[0] >= deadline);
+          Assert.assertTrue(now[0] - deadline <= TICK);
+          expired.add(deadline);
+        }
+      }, deadline);
+    }
+
+    for (now[0] = 0; wheel.size() > 0; now[0] += TICK) {
+      wheel.advance(now[0]);
+    }
+
+    Assert.assertEquals(deadlines.length, expired.size());
+  }
+
+  private static final class TestTimeout extends ProxyTimingWheel.Timeout {
+
+    private final String name;
+    private final List<String> expired;
+
+    private TestTimeout(final String name, final List<String> expired) {
+      this.name = name;
+      this.expired = expired;
+    }
+
+    void expire() {
+      expired.add(name);
+    }
+  }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProxyTraceRecorderTest {
+
+  @Test
+  public void testFormat() throws Exception {
+
+    File file = newFile("format");
+
+    ProxyTraceRecorder recorder = new ProxyTraceRecorder(file);
+    recorder.start();
+
+    long now = System.nanoTime();
+
+    recorder.record(now + micros(1000), now + micros(1500), now + micros(3000), 200, 10, 20);
+    recorder.record(now + micros(500), 0, now + micros(800), 502, 0, 0);
+    recorder.record(now + micros(2000), now + micros(2100), now + TimeUnit.HOURS.toNanos(1), 200, 5L << 30, 7L << 30);
+
+    recorder.close();
+
+    Assert.assertEquals(3, recorder.getWrittenCount());
+    Assert.assertNull(recorder.getLastFailure());
+
+    // the header, and about a dozen bytes a record
+    Assert.assertTrue("" + file.length(), file.length() <= 16 + 3 * 16);
+
+    List<ProxyTraceRecord> records = ProxyTraceRecorder.read(file);
+
+    Assert.assertEquals(3, records.size());
+
+    // ordered by arrival
+    Assert.assertEquals(502, records.get(0).getStatusCode());
+    Assert.assertEquals(-1, records.get(0).getSetupTime());
+    Assert.assertEquals(micros(300), records.get(0).getDuration());
+
+    Assert.assertEquals(200, records.get(1).getStatusCode());
+    Assert.assertEquals(micros(500), records.get(1).getSetupTime());
+    Assert.assertEquals(micros(2000), records.get(1).getDuration());
+    Assert.assertEquals(10, records.get(1).getBytesToUpstream());
+    Assert.assertEquals(20, records.get(1).getBytesToClient());
+    Assert.assertEquals(micros(500), records.get(1).getArrival() - records.get(0).getArrival(), micros(1));
+
+    Assert.assertEquals(5L << 30, records.get(2).getBytesToUpstream());
+    Assert.assertEquals(7L << 30, records.get(2).getBytesToClient());
+    Assert.assertEquals(TimeUnit.HOURS.toNanos(1) - micros(2000), records.get(2).getDuration());
+  }
+
+  @Test
+  public void testDrop() throws Exception {
+
+    File file = newFile("drop");
+
+    // not started, so nothing is drained
+    ProxyTraceRecorder recorder = new ProxyTraceRecorder(file, 2);
+
+    Assert.assertTrue(recorder.record(1, 2, 3, 200, 0, 0));
+    Assert.assertTrue(recorder.record(1, 2, 3, 200, 0, 0));
+    Assert.assertFalse(recorder.record(1, 2, 3, 200, 0, 0));
+
+    Assert.assertEquals(1, recorder.getDroppedCount());
+
+    recorder.start();
+    recorder.close();
+
+    Assert.assertEquals(2, ProxyTraceRecorder.read(file).size());
+  }
+
+  @Test
+  public void testNotATrace() throws Exception {
+
+    File file = newFile("not-a-trace");
+    Files.write(file.toPath(), "2026-10-19T11:09:03.123Z - - - - 0 0 0\n".getBytes("UTF-8"));
+
+    try {
+      ProxyTraceRecorder.read(file);
+      Assert.fail();
+    } catch (IOException e) {}
+  }
+
+  @Test
+  public void testRecordAndReplay() throws Exception {
+
+    File file = newFile("forwarder");
+
+    ProxyTraceRecorder recorder = new ProxyTraceRecorder(file);
+    recorder.start();
+
+    try (EchoServer echo = new EchoServer(); StandInProxy standIn = new StandInProxy(); ProxyForwarder forwarder = new ProxyForwarder(standIn.getProxy())) {
+
+      forwarder.setEventLoopCount(1);
+      forwarder.setTraceRecorder(recorder);
+      forwarder.start();
+
+      for (int i = 0; i < 5; i++) {
+
+        try (Socket socket = new Socket(standIn.getProxy().getHost(), forwarder.getPort())) {
+
+          socket.getOutputStream().write(("CONNECT " + echo.getHost() + ":" + echo.getPort() + " HTTP/1.1\r\n\r\nping").getBytes());
+
+          InputStream in = socket.getInputStream();
+          byte[] received = new byte["HTTP/1.1 200 Connection established\r\n\r\nping".length()];
+          int length = 0;
+          while (length < received.length) {
+            length += in.read(received, length, received.length - length);
+          }
+        }
+
+        Thread.sleep(100);
+      }
+
+      // recorded when the event loop closes the tunnels
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (forwarder.getTunnelCount() > 0 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+    }
+
+    recorder.close();
+
+    List<ProxyTraceRecord> records = ProxyTraceRecorder.read(file);
+
+    Assert.assertEquals(5, records.size());
+
+    for (int i = 0; i < records.size(); i++) {
+
+      ProxyTraceRecord record = records.get(i);
+
+      Assert.assertEquals(200, record.getStatusCode());
+      Assert.assertEquals(4, record.getBytesToUpstream());
+      Assert.assertEquals(4, record.getBytesToClient());
+      Assert.assertTrue(record.getSetupTime() >= 0 && record.getSetupTime() <= record.getDuration());
+
+      if (i > 0) {
+        Assert.assertTrue(record.getArrival() - records.get(i - 1).getArrival() >= TimeUnit.MILLISECONDS.toNanos(90));
+      }
+    }
+
+    long span = records.get(4).getArrival() - records.get(0).getArrival();
+
+    try (SizedOrigin origin = new SizedOrigin(); StandInProxy standIn = new StandInProxy(); ProxyForwarder forwarder = new ProxyForwarder(standIn.getProxy())) {
+
+      forwarder.start();
+
+      ProxyTraceReplayer replayer = new ProxyTraceReplayer(records);
+      replayer.setSpeed(2);
+
+      ProxyTraceReplayer.Report report = replayer.replay(forwarder.getPort(), origin);
+
+      Assert.assertEquals(report.toString(), 0, report.getErrorCount());
+      Assert.assertEquals(5, report.getCount());
+      Assert.assertEquals(5 * 4, origin.getReceivedBytes());
+
+      // the same arrivals, twice as fast
+      Assert.assertTrue(report.getDuration() >= span / 2);
+      Assert.assertTrue(report.getDuration() < span);
+
+      Assert.assertTrue(report.getReplayedSetupQuantile(0.5) > 0);
+      Assert.assertTrue(report.getRecordedSetupQuantile(0.5) > 0);
+    }
+  }
+
+  private static long micros(final long micros) {
+    return TimeUnit.MICROSECONDS.toNanos(micros);
+  }
+
+  private static File newFile(final String name) throws IOException {
+
+    File file = new File("target/trace/" + name + ".trace");
+
+    if (file.exists()) {
+      Files.delete(file.toPath());
+    }
+
+    file.getParentFile().mkdirs();
+
+    return file;
+  }
+
+}
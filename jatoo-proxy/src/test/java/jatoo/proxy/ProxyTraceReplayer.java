@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a trace written by a {@link ProxyTraceRecorder} against a
+ * {@link ProxyForwarder}: every recorded connection is opened at the same
+ * moment (from the start, divided by the speed), asks for a tunnel to a
+ * {@link SizedOrigin}, sends and receives as many bytes as recorded, and is
+ * held open for as long as recorded (divided by the speed), so both the
+ * arrivals and the concurrency match the recorded traffic.
+ * <p>
+ * The report puts the recorded and the replayed latencies side by side. The
+ * replayed setup is measured from the moment the connection should have been
+ * opened, so a late replay is not hidden.
+ * 
+ * <pre>
+ * java jatoo.proxy.ProxyTraceReplayer traffic.trace [speed]
+ * </pre>
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public class ProxyTraceReplayer {
+
+  private final List<ProxyTraceRecord> records;
+
+  private double speed = 1;
+  private int timeout = 10000;
+
+  /**
+   * @param records
+   *          the records, ordered by arrival (as read)
+   */
+  public ProxyTraceReplayer(final List<ProxyTraceRecord> records) {
+    this.records = records;
+  }
+
+  /**
+   * Sets the speed of the replay: <code>1</code> for the recorded pace,
+   * <code>10</code> for ten times faster.
+   */
+  public void setSpeed(final double speed) {
+    this.speed = speed;
+  }
+
+  /**
+   * Sets the read timeout of a connection, in milliseconds.
+   */
+  public void setTimeout(final int timeout) {
+    this.timeout = timeout;
+  }
+
+  /**
+   * Replays the trace, and waits for all the connections to close.
+   * 
+   * @param forwarderPort
+   *          the port of the forwarder (on the loopback)
+   * @param origin
+   *          the destination of the tunnels
+   */
+  public Report replay(final int forwarderPort, final SizedOrigin origin) throws InterruptedException {
+
+    final Report report = new Report();
+
+    for (ProxyTraceRecord record : records) {
+      if (record.getSetupTime() != -1) {
+        report.recordedSetup.record(record.getSetupTime());
+      }
+      report.recordedDuration.record((long) (record.getDuration() / speed));
+    }
+
+    final byte[] request = ("CONNECT " + origin.getHost() + ":" + origin.getPort() + " HTTP/1.1\r\n\r\n").getBytes();
+
+    ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+      public Thread newThread(final Runnable runnable) {
+        Thread thread = new Thread(runnable, "trace-replayer");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    final CountDownLatch done = new CountDownLatch(records.size());
+
+    long start = System.nanoTime();
+
+    try {
+
+      for (final ProxyTraceRecord record : records) {
+
+        final long intended = start + (long) (record.getArrival() / speed);
+
+        long wait;
+        while ((wait = intended - System.nanoTime()) > 0) {
+          LockSupport.parkNanos(wait);
+        }
+
+        executor.execute(new Runnable() {
+          public void run() {
+            try {
+              if (!connection(record, intended, forwarderPort, request, report)) {
+                report.errorCount.incrementAndGet();
+              }
+            } catch (IOException e) {
+              report.errorCount.incrementAndGet();
+            } finally {
+              done.countDown();
+            }
+          }
+        });
+      }
+
+      done.await();
+    }
+
+    finally {
+      executor.shutdownNow();
+    }
+
+    report.duration = System.nanoTime() - start;
+
+    return report;
+  }
+
+  /**
+   * Replays one connection.
+   * 
+   * @return <code>false</code> if the tunnel was refused
+   */
+  private boolean connection(final ProxyTraceRecord record, final long intended, final int forwarderPort, final byte[] request, final Report report) throws IOException {
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), forwarderPort)) {
+
+      socket.setSoTimeout(timeout);
+      socket.setTcpNoDelay(true);
+
+      InputStream in = socket.getInputStream();
+      OutputStream out = socket.getOutputStream();
+
+      out.write(request);
+      out.flush();
+
+      // the answer of the forwarder, up to the empty line
+      int matched = 0;
+      StringBuilder statusLine = new StringBuilder(64);
+      while (matched < 4) {
+        int b = in.read();
+        if (b == -1) {
+          return false;
+        }
+        if (statusLine.length() < 64) {
+          statusLine.append((char) b);
+        }
+        matched = (b == '\r' && matched % 2 == 0) || (b == '\n' && matched % 2 == 1) ? matched + 1 : 0;
+      }
+
+      long established = System.nanoTime();
+      report.replayedSetup.record(established - intended);
+
+      if (!statusLine.toString().startsWith("HTTP/1.1 200 ")) {
+        return false;
+      }
+
+      // a refused connection was recorded, so only its arrival is replayed
+      if (record.getSetupTime() != -1) {
+
+        SizedOrigin.writeHeader(out, record.getBytesToUpstream(), record.getBytesToClient());
+
+        byte[] buffer = new byte[8192];
+
+        for (long remaining = record.getBytesToUpstream(); remaining > 0;) {
+          int length = (int) Math.min(buffer.length, remaining);
+          out.write(buffer, 0, length);
+          remaining -= length;
+        }
+        out.flush();
+
+        for (long remaining = record.getBytesToClient(); remaining > 0;) {
+          int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+          if (read == -1) {
+            return false;
+          }
+          remaining -= read;
+        }
+
+        report.replayedTransfer.record(System.nanoTime() - established);
+      }
+
+      long hold = intended + (long) (record.getDuration() / speed) - System.nanoTime();
+      if (hold > 0) {
+        LockSupport.parkNanos(hold);
+      }
+    }
+
+    report.replayedDuration.record(System.nanoTime() - intended);
+
+    return true;
+  }
+
+  /**
+   * The outcome of a replay: the recorded and the replayed latencies, in
+   * microseconds.
+   */
+  public static class Report {
+
+    private final ProxyLatencyHistogram recordedSetup = new ProxyLatencyHistogram();
+    private final ProxyLatencyHistogram replayedSetup = new ProxyLatencyHistogram();
+
+    private final ProxyLatencyHistogram recordedDuration = new ProxyLatencyHistogram();
+    private final ProxyLatencyHistogram replayedDuration = new ProxyLatencyHistogram();
+
+    private final ProxyLatencyHistogram replayedTransfer = new ProxyLatencyHistogram();
+
+    private final AtomicInteger errorCount = new AtomicInteger();
+
+    private long duration;
+
+    public long getCount() {
+      return recordedDuration.getCount();
+    }
+
+    public int getErrorCount() {
+      return errorCount.get();
+    }
+
+    public long getRecordedSetupQuantile(final double quantile) {
+      return recordedSetup.getQuantile(quantile);
+    }
+
+    public long getReplayedSetupQuantile(final double quantile) {
+      return replayedSetup.getQuantile(quantile);
+    }
+
+    /**
+     * @return the recorded durations (divided by the speed)
+     */
+    public long getRecordedDurationQuantile(final double quantile) {
+      return recordedDuration.getQuantile(quantile);
+    }
+
+    public long getReplayedDurationQuantile(final double quantile) {
+      return replayedDuration.getQuantile(quantile);
+    }
+
+    /**
+     * @return the time of the replay, in nanoseconds
+     */
+    public long getDuration() {
+      return duration;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d connections (%d errors), replayed in %d ms%n" //
+          + "                   p50        p99      p99.9  (microseconds)%n" //
+          + "setup recorded     %-10d %-10d %d%n" //
+          + "setup replayed     %-10d %-10d %d%n" //
+          + "duration recorded  %-10d %-10d %d%n" //
+          + "duration replayed  %-10d %-10d %d%n" //
+          + "transfer replayed  %-10d %-10d %d", //
+          getCount(), getErrorCount(), TimeUnit.NANOSECONDS.toMillis(duration), //
+          recordedSetup.getQuantile(0.5), recordedSetup.getQuantile(0.99), recordedSetup.getQuantile(0.999), //
+          replayedSetup.getQuantile(0.5), replayedSetup.getQuantile(0.99), replayedSetup.getQuantile(0.999), //
+          recordedDuration.getQuantile(0.5), recordedDuration.getQuantile(0.99), recordedDuration.getQuantile(0.999), //
+          replayedDuration.getQuantile(0.5), replayedDuration.getQuantile(0.99), replayedDuration.getQuantile(0.999), //
+          replayedTransfer.getQuantile(0.5), replayedTransfer.getQuantile(0.99), replayedTransfer.getQuantile(0.999));
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    if (args.length < 1) {
+      System.err.println("usage: java jatoo.proxy.ProxyTraceReplayer trace [speed]");
+      System.exit(2);
+      return;
+    }
+
+    List<ProxyTraceRecord> records = ProxyTraceRecorder.read(new File(args[0]));
+
+    ProxyTraceReplayer replayer = new ProxyTraceReplayer(records);
+    replayer.setSpeed(args.length > 1 ? Double.parseDouble(args[1]) : 1);
+
+    try (SizedOrigin origin = new SizedOrigin(); StandInProxy standIn = new StandInProxy(); ProxyForwarder forwarder = new ProxyForwarder(standIn.getProxy())) {
+
+      forwarder.start();
+
+      System.out.println(replayer.replay(forwarder.getPort(), origin));
+    }
+  }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProxyUpstreamTest {
+
+  @Test
+  public void testDrain() throws Exception {
+
+    ProxyUpstream upstream = new ProxyUpstream(new ProxyConnector(new Proxy("localhost", 9)), 0, 0, 0);
+
+    Assert.assertTrue(upstream.tryOpenTunnel());
+    Assert.assertTrue(upstream.tryOpenTunnel());
+
+    upstream.retire();
+
+    // no new tunnel once retired, the old ones are still counted
+    Assert.assertFalse(upstream.tryOpenTunnel());
+    Assert.assertEquals(2, upstream.getTunnelCount());
+    Assert.assertFalse(upstream.awaitDrained(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10)));
+
+    upstream.tunnelClosed();
+    Assert.assertFalse(upstream.awaitDrained(System.nanoTime()));
+
+    upstream.tunnelClosed();
+    Assert.assertEquals(0, upstream.getTunnelCount());
+    Assert.assertTrue(upstream.awaitDrained(System.nanoTime()));
+  }
+
+  @Test
+  public void testRetireUnused() throws Exception {
+
+    ProxyUpstream upstream = new ProxyUpstream(new ProxyConnector(new Proxy("localhost", 9)), 0, 0, 0);
+
+    upstream.retire();
+
+    Assert.assertTrue(upstream.awaitDrained(System.nanoTime()));
+  }
+
+}
@@ -58,6 +58,43 @@ public class ProxyUtilsTest {
     checkConnection();
   }
 
+  @Test
+  public void testSocks() throws Throwable {
+
+    Proxy proxy = new Proxy("host", 1080, "username", "password");
+    proxy.setType(ProxyType.SOCKS);
+
+    ProxyUtils.setProxy(proxy);
+
+    Assert.assertTrue(ProxyUtils.isProxySet());
+    Assert.assertEquals("host", System.getProperty("socksProxyHost"));
+    Assert.assertEquals("1080", System.getProperty("socksProxyPort"));
+    Assert.assertNull(System.getProperty("proxyHost"));
+
+    ProxyUtils.removeProxy();
+
+    Assert.assertFalse(ProxyUtils.isProxySet());
+  }
+
+  @Test
+  public void testSecure() throws Throwable {
+
+    ProxyUtils.removeProxy();
+
+    Proxy proxy = new Proxy("host", 8443);
+    proxy.setSecure(true);
+
+    try {
+      ProxyUtils.setProxy(proxy);
+      Assert.fail("the JVM-wide settings cannot use TLS to the proxy server");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    // and not half applied
+    Assert.assertFalse(ProxyUtils.isProxySet());
+  }
+
   private void checkConnection() throws Throwable {
     URLConnection connection = new URL("https://www.google.com").openConnection();
     connection.setConnectTimeout(3000);
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local stand-in for a destination server, answering with as many bytes as
+ * asked: every connection starts with two longs, the number of bytes that
+ * follow (read and discarded) and the number of bytes to answer with. Used to
+ * replay the sizes of a trace without the payloads.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.1, October 19, 2026
+ */
+public class SizedOrigin implements Closeable {
+
+  /** The bytes of the header of a connection. */
+  public static final int HEADER_SIZE = 16;
+
+  private final ServerSocket serverSocket;
+
+  private final AtomicLong receivedBytes = new AtomicLong();
+
+  public SizedOrigin() throws IOException {
+
+    serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+
+    Thread acceptor = new Thread("sized-origin-" + getPort()) {
+      public void run() {
+        while (!serverSocket.isClosed()) {
+          try {
+            final Socket socket = serverSocket.accept();
+            Thread thread = new Thread() {
+              public void run() {
+                serve(socket);
+              }
+            };
+            thread.setDaemon(true);
+            thread.start();
+          } catch (IOException e) {
+            // closed
+          }
+        }
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Writes the header of a connection.
+   */
+  public static void writeHeader(final OutputStream out, final long uploadSize, final long downloadSize) throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeLong(uploadSize);
+    data.writeLong(downloadSize);
+    data.flush();
+  }
+
+  public String getHost() {
+    return serverSocket.getInetAddress().getHostAddress();
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * @return the bytes received (after the headers)
+   */
+  public long getReceivedBytes() {
+    return receivedBytes.get();
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+  }
+
+  private void serve(final Socket accepted) {
+
+    try (Socket socket = accepted) {
+
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+
+      long uploadSize = in.readLong();
+      long downloadSize = in.readLong();
+
+      byte[] buffer = new byte[8192];
+
+      for (long remaining = uploadSize; remaining > 0;) {
+        int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (read == -1) {
+          return;
+        }
+        remaining -= read;
+        receivedBytes.addAndGet(read);
+      }
+
+      OutputStream out = socket.getOutputStream();
+
+      for (long remaining = downloadSize; remaining > 0;) {
+        int length = (int) Math.min(buffer.length, remaining);
+        out.write(buffer, 0, length);
+        remaining -= length;
+      }
+      out.flush();
+
+      // the client closes when done
+      while (in.read(buffer) != -1) {
+        // nothing else is expected
+      }
+    }
+
+    catch (IOException e) {
+      // the client went away
+    }
+  }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Socks5HandshakeTest {
+
+  @Test
+  public void testWithAuthentication() throws Exception {
+
+    Socks5Handshake handshake = new Socks5Handshake("host", 80, "user", "pass");
+
+    ByteBuffer out = ByteBuffer.allocate(Socks5Handshake.MAX_MESSAGE_SIZE);
+    ByteBuffer in = (ByteBuffer) ByteBuffer.allocate(64).flip();
+
+    //
+    // greeting
+
+    Assert.assertTrue(handshake.isWriting());
+    handshake.write(out);
+    assertBytes(out, 5, 2, 0, 2);
+
+    receive(handshake, in, 5, 2);
+
+    //
+    // authentication
+
+    Assert.assertTrue(handshake.isWriting());
+    handshake.write(out);
+    assertBytes(out, 1, 4, 'u', 's', 'e', 'r', 4, 'p', 'a', 's', 's');
+
+    receive(handshake, in, 1, 0);
+
+    //
+    // connect
+
+    Assert.assertTrue(handshake.isWriting());
+    handshake.write(out);
+    assertBytes(out, 5, 1, 0, 3, 4, 'h', 'o', 's', 't', 0, 80);
+
+    // the reply, followed by the first byte from the tunnel
+    receive(handshake, in, 5, 0, 0, 1, 127, 0, 0, 1, 0x1F, (byte) 0x90, 42);
+
+    Assert.assertTrue(handshake.isComplete());
+    Assert.assertEquals(1, in.remaining());
+    Assert.assertEquals(42, in.get());
+  }
+
+  @Test
+  public void testAuthenticationFailed() throws Exception {
+
+    Socks5Handshake handshake = new Socks5Handshake("host", 80, "user", "pass");
+
+    ByteBuffer out = ByteBuffer.allocate(Socks5Handshake.MAX_MESSAGE_SIZE);
+    ByteBuffer in = (ByteBuffer) ByteBuffer.allocate(64).flip();
+
+    handshake.write(out);
+    receive(handshake, in, 5, 2);
+    handshake.write(out);
+
+    try {
+      receive(handshake, in, 1, 1);
+      Assert.fail("the authentication failed, so the handshake should fail");
+    } catch (ProxyResponseException e) {
+      Assert.assertTrue(e.isAuthenticationRequired());
+    }
+  }
+
+  @Test
+  public void testConnectRefused() throws Exception {
+
+    Socks5Handshake handshake = new Socks5Handshake("host", 80);
+
+    ByteBuffer out = ByteBuffer.allocate(Socks5Handshake.MAX_MESSAGE_SIZE);
+    ByteBuffer in = (ByteBuffer) ByteBuffer.allocate(64).flip();
+
+    handshake.write(out);
+    assertBytes(out, 5, 1, 0);
+    receive(handshake, in, 5, 0);
+    handshake.write(out);
+
+    try {
+      receive(handshake, in, 5, 5, 0, 1, 0, 0, 0, 0, 0, 0);
+      Assert.fail("the connection was refused, so the handshake should fail");
+    } catch (ProxyResponseException e) {
+      Assert.assertEquals(502, e.getStatusCode());
+    }
+  }
+
+  private static void assertBytes(final ByteBuffer out, final int... expected) {
+
+    out.flip();
+
+    byte[] actual = new byte[out.remaining()];
+    out.get(actual);
+    out.clear();
+
+    byte[] expectedBytes = new byte[expected.length];
+    for (int i = 0; i < expected.length; i++) {
+      expectedBytes[i] = (byte) expected[i];
+    }
+
+    Assert.assertEquals(Arrays.toString(expectedBytes), Arrays.toString(actual));
+  }
+
+  /**
+   * Feeds the reply one byte at a time, as if every byte came in its own
+   * packet.
+   */
+  private static void receive(final Socks5Handshake handshake, final ByteBuffer in, final int... reply) throws Exception {
+
+    boolean consumed = false;
+
+    for (int i = 0; i < reply.length; i++) {
+
+      in.compact();
+      in.put((byte) reply[i]);
+      in.flip();
+
+      if (!consumed) {
+        consumed = handshake.read(in);
+      }
+    }
+
+    Assert.assertTrue(consumed);
+  }
+
+}
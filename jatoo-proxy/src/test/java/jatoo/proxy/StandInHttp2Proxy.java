@@ -0,0 +1,609 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * A minimal HTTP/2 <code>CONNECT</code> proxy (cleartext, prior knowledge)
+ * used as a local stand-in for a real proxy server in tests: a thread reads
+ * the frames of every connection, and every stream has a thread sending the
+ * bytes from the destination (as far as the windows of the client allow) and
+ * one writing the bytes to the destination (giving the window back only once
+ * written, so a slow destination holds back only its own stream).
+ * <p>
+ * Every received <code>:authority</code> is recorded. If credentials are set,
+ * the streams without them are answered with <code>407</code>. The number of
+ * concurrent streams can be limited, and the answer to every
+ * <code>CONNECT</code> delayed.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.0, October 19, 2026
+ */
+public class StandInHttp2Proxy implements Closeable {
+
+  private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
+
+  private static final int DATA = 0x0;
+  private static final int HEADERS = 0x1;
+  private static final int RST_STREAM = 0x3;
+  private static final int SETTINGS = 0x4;
+  private static final int PING = 0x6;
+  private static final int GOAWAY = 0x7;
+  private static final int WINDOW_UPDATE = 0x8;
+  private static final int CONTINUATION = 0x9;
+
+  private static final int END_STREAM = 0x1;
+  private static final int ACK = 0x1;
+  private static final int END_HEADERS = 0x4;
+  private static final int PADDED = 0x8;
+  private static final int PRIORITY = 0x20;
+
+  private static final int MAX_FRAME_SIZE = 16384;
+
+  private final ServerSocket serverSocket;
+
+  private final List<String> requests = new CopyOnWriteArrayList<>();
+  private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+  private final AtomicInteger connectionCount = new AtomicInteger();
+  private final AtomicInteger streamCount = new AtomicInteger();
+  private final AtomicInteger maxOpenStreamCount = new AtomicInteger();
+
+  private volatile String expectedAuthorization;
+  private volatile int maxConcurrentStreams;
+  private volatile long delay;
+  private volatile int padding;
+
+  public StandInHttp2Proxy() throws IOException {
+
+    serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+    Thread acceptor = new Thread("stand-in-http2-proxy-" + getPort()) {
+      public void run() {
+        while (!serverSocket.isClosed()) {
+          try {
+            final Socket socket = serverSocket.accept();
+            sockets.add(socket);
+            connectionCount.incrementAndGet();
+            StandInHttp2Proxy.start(new Runnable() {
+              public void run() {
+                new Connection(socket).serve();
+              }
+            });
+          } catch (IOException e) {
+            // closed
+          }
+        }
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  public void setCredentials(final String username, final String password) {
+    expectedAuthorization = "Basic " + DatatypeConverter.printBase64Binary((username + ":" + password).getBytes());
+  }
+
+  /**
+   * Limits the number of concurrent streams of every connection (0, the
+   * default, for no limit).
+   */
+  public void setMaxConcurrentStreams(final int maxConcurrentStreams) {
+    this.maxConcurrentStreams = maxConcurrentStreams;
+  }
+
+  /**
+   * Delays, in milliseconds, the answer to every <code>CONNECT</code>.
+   */
+  public void setDelay(final long delay) {
+    this.delay = delay;
+  }
+
+  /**
+   * Pads every data frame sent with the given number of bytes.
+   */
+  public void setPadding(final int padding) {
+    this.padding = padding;
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  public Proxy getProxy() {
+    return new Proxy(serverSocket.getInetAddress().getHostAddress(), getPort());
+  }
+
+  /**
+   * @return the <code>:authority</code> of every stream
+   */
+  public List<String> getRequests() {
+    return requests;
+  }
+
+  public int getConnectionCount() {
+    return connectionCount.get();
+  }
+
+  public int getStreamCount() {
+    return streamCount.get();
+  }
+
+  /**
+   * @return the largest number of streams open at once on a connection
+   */
+  public int getMaxOpenStreamCount() {
+    return maxOpenStreamCount.get();
+  }
+
+  /**
+   * Closes, from the server side, all the accepted connections.
+   */
+  public void closeConnections() throws IOException {
+    for (Socket socket : sockets) {
+      socket.close();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    closeConnections();
+  }
+
+  private final class Connection {
+
+    private final Socket socket;
+    private final OutputStream out;
+
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+    private final Hpack.Decoder decoder = new Hpack.Decoder();
+
+    /** The windows of the client, guarded by the connection. */
+    private long sendWindow = 65535;
+    private int initialWindowSize = 65535;
+
+    /** <code>True</code> once the server header is in the dynamic table. */
+    private boolean serverIndexed;
+
+    private Connection(final Socket socket) {
+
+      this.socket = socket;
+
+      OutputStream out;
+      try {
+        out = socket.getOutputStream();
+      } catch (IOException e) {
+        out = null;
+      }
+      this.out = out;
+    }
+
+    private void serve() {
+
+      try {
+
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+
+        byte[] preface = new byte[PREFACE.length];
+        in.readFully(preface);
+
+        if (!Arrays.equals(PREFACE, preface)) {
+          throw new IOException("not HTTP/2");
+        }
+
+        ByteBuffer settings = ByteBuffer.allocate(6);
+        if (maxConcurrentStreams > 0) {
+          settings.putShort((short) 0x3).putInt(maxConcurrentStreams);
+        }
+        writeFrame(SETTINGS, 0, 0, settings.array(), 0, settings.position());
+
+        ByteBuffer headerBlock = ByteBuffer.allocate(64 * 1024);
+        int headerStreamId = 0;
+
+        while (true) {
+
+          int length = in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8 | in.readUnsignedByte();
+          int type = in.readUnsignedByte();
+          int flags = in.readUnsignedByte();
+          int streamId = in.readInt() & 0x7fffffff;
+
+          byte[] payload = new byte[length];
+          in.readFully(payload);
+
+          if (type == SETTINGS && (flags & ACK) == 0) {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            while (buffer.hasRemaining()) {
+              int identifier = buffer.getShort();
+              int value = buffer.getInt();
+              if (identifier == 0x4) {
+                synchronized (this) {
+                  for (Stream stream : streams.values()) {
+                    stream.sendWindow += value - initialWindowSize;
+                  }
+                  initialWindowSize = value;
+                  notifyAll();
+                }
+              }
+            }
+            writeFrame(SETTINGS, ACK, 0, new byte[0], 0, 0);
+          }
+
+          else if (type == WINDOW_UPDATE) {
+            int increment = ByteBuffer.wrap(payload).getInt() & 0x7fffffff;
+            synchronized (this) {
+              if (streamId == 0) {
+                sendWindow += increment;
+              } else if (streams.containsKey(streamId)) {
+                streams.get(streamId).sendWindow += increment;
+              }
+              notifyAll();
+            }
+          }
+
+          else if (type == HEADERS || type == CONTINUATION) {
+
+            int offset = 0;
+            int end = length;
+
+            if ((flags & PADDED) != 0) {
+              end -= payload[0] & 0xff;
+              offset = 1;
+            }
+
+            if ((flags & PRIORITY) != 0) {
+              offset += 5;
+            }
+
+            if (type == HEADERS) {
+              headerBlock.clear();
+              headerStreamId = streamId;
+            }
+
+            headerBlock.put(payload, offset, end - offset);
+
+            if ((flags & END_HEADERS) != 0) {
+              headerBlock.flip();
+              List<String> headers = new ArrayList<>();
+              decoder.decode(headerBlock, headers);
+              open(headerStreamId, headers);
+            }
+          }
+
+          else if (type == DATA) {
+            Stream stream = streams.get(streamId);
+            int padding = (flags & PADDED) != 0 ? (payload[0] & 0xff) + 1 : 0;
+            if (stream != null) {
+              stream.received(Arrays.copyOfRange(payload, padding == 0 ? 0 : 1, length - (padding == 0 ? 0 : padding - 1)), length, (flags & END_STREAM) != 0);
+            } else {
+              writeWindowUpdate(0, length);
+            }
+          }
+
+          else if (type == RST_STREAM) {
+            Stream stream = streams.get(streamId);
+            if (stream != null) {
+              stream.finish();
+              stream.finish();
+            }
+          }
+
+          else if (type == PING && (flags & ACK) == 0) {
+            writeFrame(PING, ACK, 0, payload, 0, payload.length);
+          }
+
+          else if (type == GOAWAY) {
+            break;
+          }
+        }
+      }
+
+      catch (Exception e) {
+        // the connection is closed
+      }
+
+      finally {
+
+        try {
+          socket.close();
+        } catch (IOException e) {}
+
+        for (Stream stream : streams.values()) {
+          try {
+            stream.target.close();
+          } catch (IOException e) {}
+        }
+      }
+    }
+
+    private void open(final int streamId, final List<String> headers) throws IOException {
+
+      String method = null;
+      String authority = null;
+      String authorization = null;
+
+      for (int i = 0; i < headers.size(); i += 2) {
+        if (headers.get(i).equals(":method")) {
+          method = headers.get(i + 1);
+        } else if (headers.get(i).equals(":authority")) {
+          authority = headers.get(i + 1);
+        } else if (headers.get(i).equals("proxy-authorization")) {
+          authorization = headers.get(i + 1);
+        }
+      }
+
+      requests.add(String.valueOf(authority));
+      streamCount.incrementAndGet();
+
+      if (!"CONNECT".equals(method) || authority == null) {
+        writeStatus(streamId, "405", true);
+        return;
+      }
+
+      if (expectedAuthorization != null && !expectedAuthorization.equals(authorization)) {
+        writeStatus(streamId, "407", true);
+        return;
+      }
+
+      final Stream stream = new Stream(streamId);
+
+      synchronized (this) {
+        stream.sendWindow = initialWindowSize;
+      }
+
+      streams.put(streamId, stream);
+
+      int open = streams.size();
+      for (int max = maxOpenStreamCount.get(); open > max && !maxOpenStreamCount.compareAndSet(max, open); max = maxOpenStreamCount.get()) {
+        // retried until recorded
+      }
+
+      final String host = authority.substring(0, authority.lastIndexOf(':'));
+      final int port = Integer.parseInt(authority.substring(authority.lastIndexOf(':') + 1));
+
+      start(new Runnable() {
+        public void run() {
+          stream.serve(host, port);
+        }
+      });
+    }
+
+    /**
+     * Writes the answer of a stream, with the status indexed and the server
+     * header added to the dynamic table the first time, indexed afterwards.
+     */
+    private synchronized void writeStatus(final int streamId, final String status, final boolean endStream) throws IOException {
+
+      ByteBuffer block = ByteBuffer.allocate(128);
+
+      if (status.equals("200")) {
+        block.put((byte) 0x88);
+      } else {
+        Hpack.encodeHeader(block, ":status", status);
+      }
+
+      if (serverIndexed) {
+        block.put((byte) 0xbe);
+      } else {
+        block.put((byte) 0x76);
+        Hpack.encodeInteger(block, 0x00, 7, "jatoo-stand-in".length());
+        block.put("jatoo-stand-in".getBytes());
+        serverIndexed = true;
+      }
+
+      writeFrame(HEADERS, END_HEADERS | (endStream ? END_STREAM : 0), streamId, block.array(), 0, block.position());
+    }
+
+    private void writeWindowUpdate(final int streamId, final int increment) throws IOException {
+      writeFrame(WINDOW_UPDATE, 0, streamId, ByteBuffer.allocate(4).putInt(increment).array(), 0, 4);
+    }
+
+    private synchronized void writeFrame(final int type, final int flags, final int streamId, final byte[] payload, final int offset, final int length) throws IOException {
+
+      byte[] header = ByteBuffer.allocate(9).put((byte) (length >>> 16)).put((byte) (length >>> 8)).put((byte) length).put((byte) type).put((byte) flags).putInt(streamId).array();
+
+      out.write(header);
+      out.write(payload, offset, length);
+      out.flush();
+    }
+
+    private final class Stream {
+
+      private final int id;
+      private final Socket target = new Socket();
+
+      /** The window of the client, guarded by the connection. */
+      private long sendWindow;
+
+      private final BlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+
+      /** The number of directions finished. */
+      private final AtomicInteger finishedCount = new AtomicInteger();
+
+      private Stream(final int id) {
+        this.id = id;
+      }
+
+      /**
+       * Queues the bytes for the destination (an empty array once ended).
+       */
+      private void received(final byte[] bytes, final int length, final boolean end) throws IOException {
+
+        if (bytes.length > 0) {
+          received.add(bytes);
+        }
+
+        // the padding is given back right away, the bytes once written
+        if (length > bytes.length) {
+          writeWindowUpdate(0, length - bytes.length);
+          writeWindowUpdate(id, length - bytes.length);
+        }
+
+        if (end) {
+          received.add(new byte[0]);
+        }
+      }
+
+      /**
+       * Forgets the stream once both directions are finished.
+       */
+      private void finish() {
+
+        if (finishedCount.incrementAndGet() != 2) {
+          return;
+        }
+
+        streams.remove(id);
+
+        try {
+          target.close();
+        } catch (IOException e) {}
+
+        synchronized (Connection.this) {
+          Connection.this.notifyAll();
+        }
+      }
+
+      private void serve(final String host, final int port) {
+
+        try {
+
+          if (delay > 0) {
+            Thread.sleep(delay);
+          }
+
+          try {
+            target.connect(new InetSocketAddress(host, port), 5000);
+          } catch (IOException e) {
+            writeStatus(id, "502", true);
+            streams.remove(id);
+            return;
+          }
+
+          writeStatus(id, "200", false);
+
+          start(new Runnable() {
+            public void run() {
+              sendToTarget();
+            }
+          });
+
+          InputStream in = target.getInputStream();
+          byte[] buffer = new byte[MAX_FRAME_SIZE];
+
+          while (true) {
+
+            int length;
+
+            synchronized (Connection.this) {
+
+              // the padding counts in the windows too
+              while (streams.containsKey(id) && (sendWindow <= padding || Connection.this.sendWindow <= padding)) {
+                Connection.this.wait();
+              }
+
+              length = (int) Math.min(Math.min(sendWindow, Connection.this.sendWindow) - padding, buffer.length - padding);
+            }
+
+            int read = in.read(buffer, 0, length);
+
+            if (read == -1) {
+              writeFrame(DATA, END_STREAM, id, buffer, 0, 0);
+              finish();
+              break;
+            }
+
+            synchronized (Connection.this) {
+              sendWindow -= read + padding;
+              Connection.this.sendWindow -= read + padding;
+            }
+
+            if (padding > 0) {
+              byte[] padded = new byte[read + padding];
+              padded[0] = (byte) (padding - 1);
+              System.arraycopy(buffer, 0, padded, 1, read);
+              writeFrame(DATA, PADDED, id, padded, 0, padded.length);
+            } else {
+              writeFrame(DATA, 0, id, buffer, 0, read);
+            }
+          }
+        }
+
+        catch (Exception e) {
+          // the stream or the connection is closed
+        }
+      }
+
+      private void sendToTarget() {
+
+        try {
+
+          OutputStream out = target.getOutputStream();
+
+          while (true) {
+
+            byte[] bytes = received.take();
+
+            if (bytes.length == 0) {
+              target.shutdownOutput();
+              finish();
+              break;
+            }
+
+            out.write(bytes);
+            out.flush();
+
+            writeWindowUpdate(0, bytes.length);
+            writeWindowUpdate(id, bytes.length);
+          }
+        }
+
+        catch (Exception e) {
+          // the stream or the connection is closed
+        }
+      }
+    }
+  }
+
+  private static void start(final Runnable runnable) {
+    Thread thread = new Thread(runnable);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+}
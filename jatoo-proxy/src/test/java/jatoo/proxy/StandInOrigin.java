@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal, thread per connection, HTTP server used as a local stand-in for
+ * a destination server in tests and benchmarks: every request is answered
+ * with <code>200</code> and a body of a given size (after a given delay), and
+ * the connection is closed.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.1, October 19, 2026
+ */
+public class StandInOrigin implements Closeable {
+
+  private final ServerSocket serverSocket;
+
+  private final AtomicInteger requestCount = new AtomicInteger();
+
+  private volatile byte[] body = new byte[0];
+  private volatile long delay;
+
+  public StandInOrigin() throws IOException {
+
+    serverSocket = new ServerSocket(0, 200, InetAddress.getLoopbackAddress());
+
+    Thread acceptor = new Thread("stand-in-origin-" + getPort()) {
+      public void run() {
+        while (!serverSocket.isClosed()) {
+          try {
+            final Socket socket = serverSocket.accept();
+            Thread thread = new Thread() {
+              public void run() {
+                serve(socket);
+              }
+            };
+            thread.setDaemon(true);
+            thread.start();
+          } catch (IOException e) {
+            // closed
+          }
+        }
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Sets the size of the body of every answer.
+   */
+  public void setBodySize(final int bodySize) {
+    byte[] body = new byte[bodySize];
+    Arrays.fill(body, (byte) 'x');
+    this.body = body;
+  }
+
+  /**
+   * Delays, in milliseconds, every answer.
+   */
+  public void setDelay(final long delay) {
+    this.delay = delay;
+  }
+
+  public String getHost() {
+    return serverSocket.getInetAddress().getHostAddress();
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * @return the URL of the origin, to be requested with the specified path
+   */
+  public String getUrl(final String path) {
+    return "http://" + getHost() + ":" + getPort() + path;
+  }
+
+  public int getRequestCount() {
+    return requestCount.get();
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+  }
+
+  private void serve(final Socket accepted) {
+
+    try (Socket socket = accepted) {
+
+      InputStream in = socket.getInputStream();
+
+      // the requests have no body, the header ends with an empty line
+      int matched = 0;
+      while (matched < 4) {
+        int b = in.read();
+        if (b == -1) {
+          return;
+        }
+        matched = (b == '\r' && matched % 2 == 0) || (b == '\n' && matched % 2 == 1) ? matched + 1 : 0;
+      }
+
+      requestCount.incrementAndGet();
+
+      if (delay > 0) {
+        Thread.sleep(delay);
+      }
+
+      byte[] body = this.body;
+
+      OutputStream out = socket.getOutputStream();
+      out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + body.length + "\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1"));
+      out.write(body);
+      out.flush();
+    }
+
+    catch (Exception e) {
+      // the client went away
+    }
+  }
+
+}
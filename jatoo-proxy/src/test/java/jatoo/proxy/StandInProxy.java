@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2014 Cristian Sulea ( http://cristian.sulea.net )
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jatoo.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * A minimal, thread per connection, HTTP <code>CONNECT</code> proxy used as a
+ * local stand-in for a real proxy server in tests. Every received request is
+ * recorded. If credentials are set, the requests without them are answered
+ * with <code>407</code>. Once the tunnel is established the bytes are relayed
+ * as they are, so stand-in proxies can be chained. The requests for an
+ * absolute URL (<code>GET http://host:port/path</code>, as sent by
+ * {@link java.net.HttpURLConnection} through a proxy) are forwarded to the
+ * destination, one per connection. With a {@link SSLContext} the stand-in
+ * proxy accepts only TLS connections.
+ * <p>
+ * A delay, a link latency and a failure rate (answered with
+ * <code>502</code>) can be injected.
+ * 
+ * @author <a href="http://cristian.sulea.net" rel="author">Cristian Sulea</a>
+ * @version 1.3, October 19, 2026
+ */
+public class StandInProxy implements Closeable {
+
+  private final ServerSocket serverSocket;
+
+  private final List<String> requests = new CopyOnWriteArrayList<>();
+  private final AtomicInteger connectionCount = new AtomicInteger();
+  private final AtomicLong requestCount = new AtomicLong();
+
+  private volatile String expectedAuthorization;
+  private volatile long delay;
+  private volatile long latency;
+  private volatile double failureRate;
+
+  public StandInProxy() throws IOException {
+    this(null);
+  }
+
+  public StandInProxy(final SSLContext sslContext) throws IOException {
+
+    if (sslContext == null) {
+      serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    } else {
+      serverSocket = sslContext.getServerSocketFactory().createServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    }
+
+    Thread acceptor = new Thread("stand-in-proxy-" + getPort()) {
+      public void run() {
+        while (!serverSocket.isClosed()) {
+          try {
+            final Socket socket = serverSocket.accept();
+            connectionCount.incrementAndGet();
+            StandInProxy.start(new Runnable() {
+              public void run() {
+                serve(socket);
+              }
+            });
+          } catch (IOException e) {
+            // closed
+          }
+        }
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  public void setCredentials(final String username, final String password) {
+    expectedAuthorization = "Basic " + DatatypeConverter.printBase64Binary((username + ":" + password).getBytes());
+  }
+
+  /**
+   * Delays, in milliseconds, the answer to every <code>CONNECT</code>.
+   */
+  public void setDelay(final long delay) {
+    this.delay = delay;
+  }
+
+  /**
+   * Delays, in milliseconds, everything sent back to the client (the answers
+   * and the relayed bytes), as a slow link would: every write is delayed by
+   * the same time, without delaying the ones after it.
+   */
+  public void setLatency(final long latency) {
+    this.latency = latency;
+  }
+
+  /**
+   * Answers the given fraction of the requests with <code>502</code>, evenly
+   * spread (every tenth request for <code>0.1</code>), so the tests stay
+   * reproducible.
+   */
+  public void setFailureRate(final double failureRate) {
+    this.failureRate = failureRate;
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  public Proxy getProxy() {
+    Proxy proxy = new Proxy(serverSocket.getInetAddress().getHostAddress(), getPort());
+    proxy.setSecure(serverSocket instanceof SSLServerSocket);
+    return proxy;
+  }
+
+  public List<String> getRequests() {
+    return requests;
+  }
+
+  public int getConnectionCount() {
+    return connectionCount.get();
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+  }
+
+  private void serve(final Socket socket) {
+
+    try {
+
+      InputStream in = socket.getInputStream();
+      OutputStream out = getClientOutputStream(socket);
+
+      String request = readHeader(in);
+      if (request == null) {
+        socket.close();
+        return;
+      }
+      requests.add(request);
+
+      if (delay > 0) {
+        Thread.sleep(delay);
+      }
+
+      String[] requestLine = request.substring(0, request.indexOf("\r\n")).split(" ");
+
+      boolean forward = requestLine.length == 3 && requestLine[1].startsWith("http://");
+
+      if (!"CONNECT".equals(requestLine[0]) && !forward) {
+        out.write("HTTP/1.1 405 Method Not Allowed\r\nContent-Length: 0\r\n\r\n".getBytes());
+        out.flush();
+        socket.close();
+        return;
+      }
+
+      if (expectedAuthorization != null && !hasHeader(request, "Proxy-Authorization: " + expectedAuthorization)) {
+        out.write("HTTP/1.1 407 Proxy Authentication Required\r\nProxy-Authenticate: Basic realm=\"stand-in\"\r\nContent-Length: 0\r\n\r\n".getBytes());
+        out.flush();
+        socket.close();
+        return;
+      }
+
+      long index = requestCount.incrementAndGet();
+      double failureRate = this.failureRate;
+
+      if (Math.floor(index * failureRate) != Math.floor((index - 1) * failureRate)) {
+        out.write("HTTP/1.1 502 Bad Gateway\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes());
+        out.flush();
+        socket.close();
+        return;
+      }
+
+      String authority = requestLine[1];
+      String path = "";
+
+      if (forward) {
+        int slash = authority.indexOf('/', "http://".length());
+        path = slash == -1 ? "/" : authority.substring(slash);
+        authority = authority.substring("http://".length(), slash == -1 ? authority.length() : slash);
+      }
+
+      int colon = authority.lastIndexOf(':');
+      Socket target = new Socket();
+      try {
+        if (colon == -1) {
+          target.connect(new InetSocketAddress(authority, 80), 5000);
+        } else {
+          target.connect(new InetSocketAddress(authority.substring(0, colon), Integer.parseInt(authority.substring(colon + 1))), 5000);
+        }
+      } catch (IOException e) {
+        out.write("HTTP/1.1 502 Bad Gateway\r\nContent-Length: 0\r\n\r\n".getBytes());
+        out.flush();
+        socket.close();
+        return;
+      }
+
+      if (forward) {
+
+        // in origin form, without the proxy headers, and one request per connection
+        StringBuilder forwarded = new StringBuilder(request.length());
+        forwarded.append(requestLine[0]).append(' ').append(path).append(' ').append(requestLine[2]).append("\r\n");
+
+        for (String header : request.substring(request.indexOf("\r\n") + 2).split("\r\n")) {
+          String name = header.toLowerCase(Locale.ROOT);
+          if (!header.isEmpty() && !name.startsWith("proxy-") && !name.startsWith("connection:")) {
+            forwarded.append(header).append("\r\n");
+          }
+        }
+
+        forwarded.append("Connection: close\r\n\r\n");
+
+        target.getOutputStream().write(forwarded.toString().getBytes("ISO-8859-1"));
+        target.getOutputStream().flush();
+      }
+
+      else {
+        out.write("HTTP/1.1 200 Connection established\r\n\r\n".getBytes());
+        out.flush();
+      }
+
+      relay(target, socket, out);
+      relay(socket, target, target.getOutputStream());
+    }
+
+    catch (Exception e) {
+      try {
+        socket.close();
+      } catch (IOException e2) {}
+    }
+  }
+
+  /**
+   * Looks for a header line, with the name in any case (as
+   * {@link java.net.HttpURLConnection} sends <code>Proxy-authorization</code>).
+   */
+  private static boolean hasHeader(final String request, final String line) {
+
+    int colon = line.indexOf(':');
+
+    for (String header : request.split("\r\n")) {
+      if (header.length() == line.length() && header.regionMatches(true, 0, line, 0, colon) && header.endsWith(line.substring(colon))) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static String readHeader(final InputStream in) throws IOException {
+
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    int matched = 0;
+
+    while (matched < 4) {
+      int b = in.read();
+      if (b == -1) {
+        return null;
+      }
+      header.write(b);
+      matched = (b == '\r' && matched % 2 == 0) || (b == '\n' && matched % 2 == 1) ? matched + 1 : 0;
+    }
+
+    return header.toString("ISO-8859-1");
+  }
+
+  /**
+   * Returns the stream to the client, delayed by the latency (if any). The
+   * bytes still delayed when the connection is closed are dropped.
+   */
+  private OutputStream getClientOutputStream(final Socket socket) throws IOException {
+
+    final OutputStream out = socket.getOutputStream();
+    final long latency = TimeUnit.MILLISECONDS.toNanos(this.latency);
+
+    if (latency == 0) {
+      return out;
+    }
+
+    final BlockingQueue<DelayedWrite> writes = new LinkedBlockingQueue<>();
+
+    start(new Runnable() {
+      public void run() {
+        try {
+          while (!socket.isClosed()) {
+            DelayedWrite write = writes.poll(100, TimeUnit.MILLISECONDS);
+            if (write != null) {
+              TimeUnit.NANOSECONDS.sleep(write.due - System.nanoTime());
+              out.write(write.bytes);
+              out.flush();
+            }
+          }
+        } catch (IOException | InterruptedException e) {
+          // closed
+        }
+      }
+    });
+
+    return new OutputStream() {
+
+      @Override
+      public void write(final int b) {
+        write(new byte[] { (byte) b }, 0, 1);
+      }
+
+      @Override
+      public void write(final byte[] b, final int off, final int len) {
+        writes.add(new DelayedWrite(System.nanoTime() + latency, Arrays.copyOfRange(b, off, off + len)));
+      }
+    };
+  }
+
+  private static void relay(final Socket from, final Socket to, final OutputStream out) {
+    start(new Runnable() {
+      public void run() {
+        byte[] buffer = new byte[8192];
+        try {
+          InputStream in = from.getInputStream();
+          int read;
+          while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            out.flush();
+          }
+        } catch (IOException e) {
+          // one of the sides closed
+        } finally {
+          try {
+            from.close();
+            to.close();
+          } catch (IOException e) {}
+        }
+      }
+    });
+  }
+
+  private static final class DelayedWrite {
+
+    private final long due;
+    private final byte[] bytes;
+
+    private DelayedWrite(final long due, final byte[] bytes) {
+      this.due = due;
+      this.bytes = bytes;
+    }
+  }
+
+  private static void start(final Runnable runnable) {
+    Thread thread = new Thread(runnable);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+}